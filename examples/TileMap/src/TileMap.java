@@ -2,16 +2,14 @@
 // Drag the map to scroll (like Google Maps)
 // Rendering speed can be improved by using opaque tiles.
 // Tile images from http://www.lostgarden.com/2007/05/dancs-miraculously-flexible-game.html
-import pulpcore.animation.Int;
 import pulpcore.image.Colors;
-import pulpcore.image.CoreGraphics;
 import pulpcore.image.CoreImage;
 import pulpcore.Input;
 import pulpcore.scene.Scene2D;
 import pulpcore.sprite.FilledSprite;
 import pulpcore.sprite.Group;
 import pulpcore.sprite.ImageSprite;
-import pulpcore.sprite.Sprite;
+import pulpcore.sprite.TileMapSprite;
 import pulpcore.Stage;
 
 public class TileMap extends Scene2D {
@@ -42,6 +40,10 @@ public class TileMap extends Scene2D {
     TileMapSprite tileMap;
     Group mapSprites;
     
+    boolean mouseDragging = false;
+    int mouseDeltaX = 0;
+    int mouseDeltaY = 0;
+    
     @Override
     public void load() {
         // Add the background (sky-blue)
@@ -70,7 +72,8 @@ public class TileMap extends Scene2D {
         // Create the tile map
         int mapWidth = map[0].length();
         int mapHeight = map.length;
-        CoreImage[][] tileMapImages = new CoreImage[mapWidth][mapHeight];
+        TileMapSprite tileMap = new TileMapSprite(tileImages, mapWidth, mapHeight,
+            tileWidth, tileHeight, 0, 0, Stage.getWidth(), Stage.getHeight());
         for (int i = 0; i < mapWidth; i++) {
             for (int j = 0; j < mapHeight; j++) {
                 
@@ -84,83 +87,27 @@ public class TileMap extends Scene2D {
                         break;
                     }
                 }
-                tileMapImages[i][j] = tileImages[index];
+                tileMap.setTile(i, j, index);
             }
         }
-        return new TileMapSprite(tileMapImages, tileWidth, tileHeight);
+        tileMap.setCursor(Input.CURSOR_MOVE);
+        return tileMap;
     }
     
-    /**
-        A simple tile map.
-        Limitation: the maximum width and height of a TileMap 
-        (i.e. tileWidth*numTilesAcross and tileHeight*numTilesDown) should be less than 32768.
-    */
-    static class TileMapSprite extends Sprite {
-        
-        private CoreImage[][] tileMap;
-        private int tileWidth;
-        private int tileHeight;
-        private int numTilesAcross;
-        private int numTilesDown;
-
-        private boolean mouseDragging = false;
-        private int mouseDeltaX = 0;
-        private int mouseDeltaY = 0;
-        
-        public final Int viewX = new Int(this);
-        public final Int viewY = new Int(this);
-        
-        public TileMapSprite(CoreImage[][] tileMap, int tileWidth, int tileHeight) {
-            super(0, 0, Stage.getWidth(), Stage.getHeight());
-            this.tileMap = tileMap;
-            this.tileWidth = tileWidth;
-            this.tileHeight = tileHeight;
-            numTilesAcross = tileMap.length;
-            numTilesDown = tileMap[0].length;
-            
-            setCursor(Input.CURSOR_MOVE);
-        }
-        
-        public int getMapWidth() {
-            return tileWidth * numTilesAcross;
-        }
-        
-        public int getMapHeight() {
-            return tileHeight * numTilesDown;
+    @Override
+    public void update(int elapsedTime) {
+        // Handle dragging
+        if (tileMap.isMousePressed()) {
+            mouseDragging = true;
+            mouseDeltaX = Input.getMouseX() - tileMap.viewX.get();
+            mouseDeltaY = Input.getMouseY() - tileMap.viewY.get();
         }
-        
-        @Override 
-        public void update(int elapsedTime) {
-            super.update(elapsedTime);
-            viewX.update(elapsedTime);
-            viewY.update(elapsedTime);
-
-            // Handle dragging
-            if (isMousePressed()) {
-                mouseDragging = true;
-                mouseDeltaX = Input.getMouseX() - (int)viewX.get();
-                mouseDeltaY = Input.getMouseY() - (int)viewY.get();
-            }
-            if (Input.isMouseReleased()) {
-                mouseDragging = false;
-            }
-            if (mouseDragging && Input.isMouseMoving()) {
-                viewX.set(Input.getMouseX() - mouseDeltaX);
-                viewY.set(Input.getMouseY() - mouseDeltaY);
-            }
+        if (Input.isMouseReleased()) {
+            mouseDragging = false;
         }
-        
-        @Override
-        protected void drawSprite(CoreGraphics g) {
-            int ty = viewY.get();
-            for (int j = 0; j < numTilesDown; j++) {
-                int tx = viewX.get();
-                for (int i = 0; i < numTilesAcross; i++) {
-                    g.drawImage(tileMap[i][j], tx, ty);
-                    tx += tileWidth;
-                }
-                ty += tileHeight;
-            }
+        if (mouseDragging && Input.isMouseMoving()) {
+            tileMap.viewX.set(Input.getMouseX() - mouseDeltaX);
+            tileMap.viewY.set(Input.getMouseY() - mouseDeltaY);
         }
     }
 }
@@ -334,7 +334,9 @@ public final class AppletAppContext extends AppContext {
         // garbage for the GC to cleanup.
         if (surface == null) {
             try {
-                surface = new BufferedImageSurface(app);
+                boolean tripleBuffered = "true".equalsIgnoreCase(
+                    getAppProperty("pulpcore_use_triplebuffer"));
+                surface = new BufferedImageSurface(app, tripleBuffered);
                 setTalkBackField("pulpcore.platform.surface", surface.toString());
             }
             catch (Exception ex) {
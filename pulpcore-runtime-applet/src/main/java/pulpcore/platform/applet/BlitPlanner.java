@@ -0,0 +1,166 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore.platform.applet;
+
+import pulpcore.math.Rect;
+
+/**
+    Merges dirty rectangles into a few blit regions. Each blit is assumed to cost a fixed
+    amount plus an amount per pixel. Two regions are merged when blitting their union is
+    cheaper than blitting both, even though the union may include pixels that didn't change.
+    <p>
+    Both costs are learned from the measured time of each frame's blits, using least squares
+    with older frames weighted less.
+*/
+class BlitPlanner {
+    
+    // Initial costs, in microseconds
+    private static final double DEFAULT_BLIT_COST = 10;
+    private static final double DEFAULT_PIXEL_COST = 0.002;
+    
+    // Weight of older samples, per sample
+    private static final double DECAY = 0.98;
+    
+    private double blitCost = DEFAULT_BLIT_COST;
+    private double pixelCost = DEFAULT_PIXEL_COST;
+    
+    // Weighted sums for least squares, where n is the number of blits, p is the number of
+    // pixels, and t is the time in microseconds
+    private double sumNN;
+    private double sumNP;
+    private double sumPP;
+    private double sumNT;
+    private double sumPT;
+    
+    private Rect[] blits = new Rect[0];
+    private int numBlits;
+    
+    /**
+        Creates blit regions for the specified rectangles, clipped to the surface bounds.
+        @return the number of blit regions.
+        @see #getBlits()
+    */
+    public int plan(Rect[] rects, int numRects, int surfaceWidth, int surfaceHeight) {
+        if (blits.length < numRects) {
+            Rect[] newBlits = new Rect[numRects];
+            System.arraycopy(blits, 0, newBlits, 0, blits.length);
+            for (int i = blits.length; i < numRects; i++) {
+                newBlits[i] = new Rect();
+            }
+            blits = newBlits;
+        }
+        numBlits = 0;
+        for (int i = 0; i < numRects; i++) {
+            Rect blit = blits[numBlits];
+            blit.setBounds(rects[i]);
+            blit.intersection(0, 0, surfaceWidth, surfaceHeight);
+            if (blit.width > 0 && blit.height > 0) {
+                numBlits++;
+            }
+        }
+        
+        // Greedy merge. There are at most 64 dirty rectangles, so O(n^3) is fine.
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < numBlits; i++) {
+                Rect a = blits[i];
+                for (int j = i + 1; j < numBlits; j++) {
+                    Rect b = blits[j];
+                    int x1 = Math.min(a.x, b.x);
+                    int y1 = Math.min(a.y, b.y);
+                    int x2 = Math.max(a.x + a.width, b.x + b.width);
+                    int y2 = Math.max(a.y + a.height, b.y + b.height);
+                    long extraPixels = (long)(x2 - x1) * (y2 - y1) - a.getArea() - b.getArea();
+                    if (extraPixels * pixelCost < blitCost) {
+                        a.setBounds(x1, y1, x2 - x1, y2 - y1);
+                        // Move the last blit into slot j
+                        numBlits--;
+                        blits[j] = blits[numBlits];
+                        blits[numBlits] = b;
+                        j--;
+                        merged = true;
+                    }
+                }
+            }
+        }
+        return numBlits;
+    }
+    
+    /**
+        Gets the blit regions created by the last call to {@link #plan(Rect[], int, int, int)}.
+    */
+    public Rect[] getBlits() {
+        return blits;
+    }
+    
+    public int getNumBlits() {
+        return numBlits;
+    }
+    
+    /**
+        Records the time taken by one frame's blits, and updates the estimated costs.
+    */
+    public void addSample(int numBlits, long numPixels, long timeMicros) {
+        double n = numBlits;
+        double p = numPixels;
+        double t = timeMicros;
+        sumNN = sumNN * DECAY + n * n;
+        sumNP = sumNP * DECAY + n * p;
+        sumPP = sumPP * DECAY + p * p;
+        sumNT = sumNT * DECAY + n * t;
+        sumPT = sumPT * DECAY + p * t;
+        
+        // Solve the normal equations. If the samples don't vary enough to tell the two costs
+        // apart, keep the previous estimate.
+        double det = sumNN * sumPP - sumNP * sumNP;
+        if (det > 1e-6 * sumNN * sumPP) {
+            double newBlitCost = (sumNT * sumPP - sumPT * sumNP) / det;
+            double newPixelCost = (sumPT * sumNN - sumNT * sumNP) / det;
+            if (newBlitCost >= 0 && newPixelCost > 0) {
+                blitCost = newBlitCost;
+                pixelCost = newPixelCost;
+            }
+        }
+    }
+    
+    /**
+        Gets the estimated fixed cost of a blit, in microseconds.
+    */
+    public double getBlitCost() {
+        return blitCost;
+    }
+    
+    /**
+        Gets the estimated cost per pixel, in microseconds.
+    */
+    public double getPixelCost() {
+        return pixelCost;
+    }
+}
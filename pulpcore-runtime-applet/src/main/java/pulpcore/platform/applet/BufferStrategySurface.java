@@ -65,6 +65,9 @@ public class BufferStrategySurface extends Surface {
     private Canvas canvas;
     private boolean osRepaint;
     private boolean useDirtyRects;
+    private final BlitPlanner blitPlanner = new BlitPlanner();
+    private int blitCount;
+    private long blitPixels;
     
     public BufferStrategySurface(Container container) {
         this.container = container;
@@ -154,6 +157,8 @@ public class BufferStrategySurface extends Surface {
     }
     
     public long show(Rect[] dirtyRectangles, int numDirtyRectangles) {
+        blitCount = 0;
+        blitPixels = 0;
         if (bufferStrategy == null || bufferedImage == null) {
             return 0;
         }
@@ -170,16 +175,7 @@ public class BufferStrategySurface extends Surface {
                     g = bufferStrategy.getDrawGraphics();
             
                     if (g != null) {
-                        if (contentsLost || !useDirtyRects || numDirtyRectangles < 0) {
-                            g.drawImage(bufferedImage, 0, 0, null);
-                        }
-                        else {
-                            for (int i = 0; i < numDirtyRectangles; i++) {
-                                Rect r = dirtyRectangles[i];
-                                g.setClip(r.x, r.y, r.width, r.height);
-                                g.drawImage(bufferedImage, 0, 0, null);
-                            }
-                        }
+                        blit(g, dirtyRectangles, numDirtyRectangles);
                         g.dispose();
                         g = null;
                     }
@@ -214,6 +210,48 @@ public class BufferStrategySurface extends Surface {
         return sleepTime;
     }
     
+    /**
+        Draws the dirty rectangles, merged into a few regions by the BlitPlanner. Each region
+        is drawn with a source sub-rectangle rather than a clip.
+    */
+    private void blit(Graphics g, Rect[] dirtyRectangles, int numDirtyRectangles) {
+        int w = getWidth();
+        int h = getHeight();
+        long startTime = CoreSystem.getTimeMicros();
+        if (contentsLost || !useDirtyRects || numDirtyRectangles < 0) {
+            g.drawImage(bufferedImage, 0, 0, null);
+            blitCount = 1;
+            blitPixels = (long)w * h;
+        }
+        else {
+            blitCount = blitPlanner.plan(dirtyRectangles, numDirtyRectangles, w, h);
+            blitPixels = 0;
+            Rect[] blits = blitPlanner.getBlits();
+            for (int i = 0; i < blitCount; i++) {
+                Rect r = blits[i];
+                int x2 = r.x + r.width;
+                int y2 = r.y + r.height;
+                g.drawImage(bufferedImage, r.x, r.y, x2, y2, r.x, r.y, x2, y2, null);
+                blitPixels += r.getArea();
+            }
+        }
+        blitPlanner.addSample(blitCount, blitPixels, CoreSystem.getTimeMicros() - startTime);
+    }
+    
+    /**
+        Gets the number of blits in the last frame shown.
+    */
+    public int getBlitCount() {
+        return blitCount;
+    }
+    
+    /**
+        Gets the number of pixels blitted in the last frame shown.
+    */
+    public long getBlitPixels() {
+        return blitPixels;
+    }
+    
     private void createBufferStrategy() {
         // First, try Copied method (double buffering)
         //try {
@@ -286,6 +324,8 @@ public class BufferStrategySurface extends Surface {
             "isPageFlipping=" + caps.isPageFlipping() + 
             ", " + 
             "useDirtyRects=" + useDirtyRects + 
+            ", blitCost=" + Math.round(blitPlanner.getBlitCost()) + "us" +
+            ", pixelCost=" + Math.round(blitPlanner.getPixelCost() * 1000) + "ns" +
             ")";
         }
         return s;
@@ -47,6 +47,11 @@ import pulpcore.platform.Surface;
 /**
     The BufferedImageSurface class is a Surface implementation for Java 1.3 or 
     newer. It provides faster performace compared to ImageProducerSurface.
+    <p>
+    By default, show() waits until the AWT thread has drawn the frame. In triple-buffered
+    mode, show() copies the changed area into one of three rasters and publishes it without
+    waiting. The AWT thread draws the newest published raster whenever it gets to it, and
+    frames it never drew are skipped. The repaint area grows to cover the skipped frames.
 */
 public class BufferedImageSurface extends Surface {
     
@@ -65,8 +70,33 @@ public class BufferedImageSurface extends Surface {
     protected Rect[] dirtyRectangles;
     protected int numDirtyRectangles;
     
+    // Triple buffering. The animation thread owns the back raster, the AWT thread owns the
+    // front raster, and the ready raster is the newest published frame (or -1 if the AWT
+    // thread has already taken it). The indices are swapped while holding presentLock, which
+    // is never held while waiting for the other thread.
+    private final boolean tripleBuffered;
+    private final Object presentLock = new Object();
+    private int[][] rasters;
+    private BufferedImage[] rasterImages;
+    // The area of each raster that differs from the surface image
+    private Rect[] staleBounds;
+    private int backIndex;
+    private int readyIndex;
+    private int frontIndex;
+    // The area to repaint, covering every frame published since the AWT thread last drew
+    private Rect pendingRepaintBounds = new Rect();
+    
     public BufferedImageSurface(Component component) {
+        this(component, false);
+    }
+    
+    public BufferedImageSurface(Component component, boolean tripleBuffered) {
         this.component = component;
+        this.tripleBuffered = tripleBuffered;
+    }
+    
+    public boolean isTripleBuffered() {
+        return tripleBuffered;
     }
 
     protected void notifyResized() {
@@ -75,15 +105,36 @@ public class BufferedImageSurface extends Surface {
         int w = getWidth();
         int h = getHeight();
         
+        awtImage = createImage(getData(), w, h);
+        
+        if (tripleBuffered) {
+            synchronized (presentLock) {
+                rasters = new int[3][];
+                rasterImages = new BufferedImage[3];
+                staleBounds = new Rect[3];
+                for (int i = 0; i < 3; i++) {
+                    rasters[i] = new int[w * h];
+                    rasterImages[i] = createImage(rasters[i], w, h);
+                    staleBounds[i] = new Rect(0, 0, w, h);
+                }
+                frontIndex = 0;
+                backIndex = 1;
+                readyIndex = -1;
+                pendingRepaintBounds.width = 0;
+            }
+        }
+    }
+    
+    private BufferedImage createImage(int[] data, int w, int h) {
         SampleModel sampleModel = new SinglePixelPackedSampleModel(
             DataBuffer.TYPE_INT, w, h, new int[] { 0xff0000, 0x00ff00, 0x0000ff }); 
         
-        DataBuffer dataBuffer = new DataBufferInt(getData(), w * h);
+        DataBuffer dataBuffer = new DataBufferInt(data, w * h);
         
         WritableRaster raster = Raster.createWritableRaster(
             sampleModel, dataBuffer, new Point(0,0));
         
-        awtImage = new BufferedImage(COLOR_MODEL, raster, true, new Hashtable());
+        return new BufferedImage(COLOR_MODEL, raster, true, new Hashtable());
     }
     
     public synchronized void notifyOSRepaint() {
@@ -147,7 +198,12 @@ public class BufferedImageSurface extends Surface {
             }
         }
         
-        if (repaintBounds.width > 0 && repaintBounds.height > 0) {
+        if (tripleBuffered) {
+            if (repaintBounds.width > 0 && repaintBounds.height > 0) {
+                present();
+            }
+        }
+        else if (repaintBounds.width > 0 && repaintBounds.height > 0) {
             synchronized (paintLock) {
                 if (active) { 
                     repaintAllowed = true;
@@ -166,8 +222,85 @@ public class BufferedImageSurface extends Surface {
         return 0;
     }
     
+    /**
+        Copies the changed area to the back raster and publishes it. Doesn't wait for the AWT
+        thread.
+    */
+    private void present() {
+        for (int i = 0; i < 3; i++) {
+            Rect stale = staleBounds[i];
+            if (stale.width <= 0 || stale.height <= 0) {
+                stale.setBounds(repaintBounds);
+            }
+            else {
+                stale.union(repaintBounds);
+            }
+        }
+        
+        // The back raster is owned by this thread, so copy without holding the lock
+        Rect stale = staleBounds[backIndex];
+        int[] src = getData();
+        int[] dst = rasters[backIndex];
+        int w = getWidth();
+        int offset = stale.x + stale.y * w;
+        for (int y = 0; y < stale.height; y++) {
+            System.arraycopy(src, offset, dst, offset, stale.width);
+            offset += w;
+        }
+        stale.width = 0;
+        
+        int x;
+        int y;
+        int width;
+        int height;
+        synchronized (presentLock) {
+            int oldReady = readyIndex;
+            readyIndex = backIndex;
+            if (oldReady >= 0) {
+                // The AWT thread skipped the old frame. Reuse its raster.
+                backIndex = oldReady;
+            }
+            else {
+                backIndex = 3 - frontIndex - readyIndex;
+            }
+            if (pendingRepaintBounds.width <= 0 || pendingRepaintBounds.height <= 0) {
+                pendingRepaintBounds.setBounds(repaintBounds);
+            }
+            else {
+                pendingRepaintBounds.union(repaintBounds);
+            }
+            x = pendingRepaintBounds.x;
+            y = pendingRepaintBounds.y;
+            width = pendingRepaintBounds.width;
+            height = pendingRepaintBounds.height;
+        }
+        boolean repaint;
+        synchronized (paintLock) {
+            repaint = active;
+        }
+        if (repaint) {
+            component.repaint(x, y, width, height);
+        }
+    }
+    
     // Called from the AWT thread
     public void draw(Graphics g) {
+        if (tripleBuffered) {
+            BufferedImage image;
+            synchronized (presentLock) {
+                if (readyIndex >= 0) {
+                    frontIndex = readyIndex;
+                    readyIndex = -1;
+                    pendingRepaintBounds.width = 0;
+                }
+                image = (rasterImages == null) ? null : rasterImages[frontIndex];
+            }
+            // The front raster is never written while it is the front raster
+            if (image != null) {
+                g.drawImage(image, 0, 0, null);
+            }
+            return;
+        }
         synchronized (paintLock) {
             if (repaintAllowed) {
                 if (awtImage != null) {
@@ -188,6 +321,6 @@ public class BufferedImageSurface extends Surface {
     }
     
     public String toString() {
-        return "BufferedImage";
+        return tripleBuffered ? "BufferedImage (triple-buffered)" : "BufferedImage";
     }
 }
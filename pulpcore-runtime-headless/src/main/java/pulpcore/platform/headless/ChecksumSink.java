@@ -0,0 +1,98 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.util.zip.CRC32;
+import pulpcore.image.CoreImage;
+
+/**
+    A FrameSink that keeps a checksum of each frame and how long each frame took to render,
+    so a run can be compared with another run of the same Scene.
+    <p>
+    The time of a frame is the time since the previous frame was sent (or since the sink was
+    created), not counting the time spent on checksums. It includes input, update, draw, and
+    everything else the Stage does in a frame.
+*/
+public class ChecksumSink implements FrameSink {
+
+    private final CRC32 crc = new CRC32();
+    private byte[] row = new byte[0];
+    private long[] frameNanos = new long[64];
+    private long[] frameChecksums = new long[64];
+    private int numFrames;
+    private long lastNanos = System.nanoTime();
+
+    public synchronized void frame(int frameNumber, CoreImage image) {
+        long nanos = System.nanoTime() - lastNanos;
+
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] data = image.getData();
+        if (row.length < w * 4) {
+            row = new byte[w * 4];
+        }
+        crc.reset();
+        for (int y = 0; y < h; y++) {
+            int offset = y * w;
+            for (int x = 0; x < w; x++) {
+                int argb = data[offset + x];
+                row[x * 4] = (byte)(argb >>> 24);
+                row[x * 4 + 1] = (byte)(argb >> 16);
+                row[x * 4 + 2] = (byte)(argb >> 8);
+                row[x * 4 + 3] = (byte)argb;
+            }
+            crc.update(row, 0, w * 4);
+        }
+
+        if (numFrames == frameNanos.length) {
+            long[] newNanos = new long[numFrames * 2];
+            long[] newChecksums = new long[numFrames * 2];
+            System.arraycopy(frameNanos, 0, newNanos, 0, numFrames);
+            System.arraycopy(frameChecksums, 0, newChecksums, 0, numFrames);
+            frameNanos = newNanos;
+            frameChecksums = newChecksums;
+        }
+        frameNanos[numFrames] = nanos;
+        frameChecksums[numFrames] = crc.getValue();
+        numFrames++;
+        lastNanos = System.nanoTime();
+    }
+
+    /**
+        Gets the frames sent so far.
+    */
+    public synchronized ReplayResult getResult() {
+        return new ReplayResult(frameNanos, frameChecksums, numFrames);
+    }
+
+    public void close() {
+        // Do nothing
+    }
+}
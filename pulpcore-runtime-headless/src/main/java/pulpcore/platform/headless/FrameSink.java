@@ -0,0 +1,55 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.IOException;
+import pulpcore.image.CoreImage;
+
+/**
+    Receives the frames drawn by a {@link HeadlessRenderer}. Implement this interface to
+    process frames directly, or use {@link RawFrameSink} or {@link PNGSequenceSink}.
+*/
+public interface FrameSink {
+
+    /**
+        Called from the animation thread after each frame is drawn. The image is the surface
+        itself, and its contents are only valid until this method returns. Copy the image to
+        keep it.
+        @param frameNumber The frame number, starting at zero for the first frame drawn by
+        the renderer.
+    */
+    public void frame(int frameNumber, CoreImage image) throws IOException;
+
+    /**
+        Finishes writing any pending frames and releases resources. The renderer does not
+        call this method.
+    */
+    public void close() throws IOException;
+}
@@ -0,0 +1,273 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import pulpcore.Input;
+import pulpcore.Stage;
+import pulpcore.image.CoreImage;
+import pulpcore.platform.AppContext;
+import pulpcore.platform.PolledInput;
+import pulpcore.platform.Surface;
+import pulpcore.platform.WorkerPool;
+import pulpcore.scene.Scene;
+import pulpcore.util.ByteArray;
+
+/**
+    The AppContext of a headless app. It keeps the app's virtual clock, which advances by one
+    frame each time the surface is shown.
+    <p>
+    Headless apps are meant to run many at once, one per thread, so the worker pool of each
+    app runs data-parallel work on the calling thread only.
+*/
+public class HeadlessAppContext extends AppContext {
+
+    private final Scene firstScene;
+    private final PolledInput polledInput = new PolledInput();
+    private final Map userData = new HashMap(); // Map<String, byte[]>
+    private HeadlessSurface surface;
+    private Stage stage;
+    private int cursor = Input.CURSOR_DEFAULT;
+    private volatile boolean registered;
+    private WorkerPool workerPool;
+
+    // Virtual clock
+    private volatile long timeMicros;
+    private int frameRate = HeadlessRenderer.DEFAULT_FRAME_RATE;
+    private long frameRemainder;
+    private long lastFrameNanos;
+
+    /* package-private */ HeadlessAppContext(Scene firstScene) {
+        this.firstScene = firstScene;
+    }
+
+    /* package-private */ void init(int width, int height) {
+        setTalkBackField("pulpcore.platform", "Headless");
+        surface = new HeadlessSurface(this, width, height);
+        stage = new Stage(surface, this);
+    }
+
+    /* package-private */ boolean isRegistered() {
+        return registered;
+    }
+
+    /* package-private */ void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+
+    /* package-private */ HeadlessSurface getHeadlessSurface() {
+        return surface;
+    }
+
+    //
+    // Virtual clock
+    //
+
+    /* package-private */ long getTimeMicros() {
+        return timeMicros;
+    }
+
+    /**
+        Sets the number of frames per second of virtual time. If 0, the virtual clock advances
+        by the real time spent on each frame.
+    */
+    /* package-private */ void setFrameRate(int frameRate) {
+        this.frameRate = Math.max(0, frameRate);
+        frameRemainder = 0;
+    }
+
+    /* package-private */ int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+        Called before the first frame of a run, so that time between runs is not counted.
+    */
+    /* package-private */ void resetFrameTime() {
+        lastFrameNanos = System.nanoTime();
+    }
+
+    /**
+        Advances the virtual clock by one frame. Called from the animation thread.
+    */
+    /* package-private */ void nextFrame() {
+        if (frameRate > 0) {
+            long micros = 1000000L + frameRemainder;
+            timeMicros += micros / frameRate;
+            frameRemainder = micros % frameRate;
+        }
+        else {
+            long nanos = System.nanoTime();
+            timeMicros += (nanos - lastFrameNanos) / 1000;
+            lastFrameNanos = nanos;
+        }
+    }
+
+    //
+    // AppContext implementation
+    //
+
+    public void setAnimationThread(Thread thread) {
+        super.setAnimationThread(thread);
+        if (surface != null) {
+            surface.setRunning(thread != null);
+        }
+    }
+
+    public String getAppProperty(String name) {
+        return null;
+    }
+
+    public Scene createFirstScene() {
+        return firstScene;
+    }
+
+    public void start() {
+        if (stage != null) {
+            stage.start();
+        }
+    }
+
+    public void stop() {
+        if (stage != null) {
+            stage.stop();
+        }
+    }
+
+    /**
+        Gets a worker pool with a parallelism of 1. Apps already run in parallel, one per
+        thread, so worker threads per app would only oversubscribe the processors.
+    */
+    public synchronized WorkerPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = new WorkerPool(this, 1);
+        }
+        return workerPool;
+    }
+
+    public void destroy() {
+        super.destroy();
+        synchronized (this) {
+            if (workerPool != null) {
+                workerPool.shutdown();
+                workerPool = null;
+            }
+        }
+        if (stage != null) {
+            stage.destroy();
+            stage = null;
+        }
+        surface = null;
+    }
+
+    public void putUserData(String key, byte[] data) {
+        synchronized (userData) {
+            userData.put(key, data);
+        }
+    }
+
+    public byte[] getUserData(String key) {
+        synchronized (userData) {
+            return (byte[])userData.get(key);
+        }
+    }
+
+    public void removeUserData(String key) {
+        synchronized (userData) {
+            userData.remove(key);
+        }
+    }
+
+    public String getLocaleLanguage() {
+        return Locale.getDefault().getLanguage();
+    }
+
+    public String getLocaleCountry() {
+        return Locale.getDefault().getCountry();
+    }
+
+    public void showDocument(String url, String target) {
+        // Do nothing
+    }
+
+    /**
+        Returns null. PNG images are decoded by PulpCore itself; other formats need the AWT
+        toolkit, which is not used on this platform.
+    */
+    public CoreImage loadImage(ByteArray in) {
+        return null;
+    }
+
+    public URL getBaseURL() {
+        try {
+            return new File(".").toURI().toURL();
+        }
+        catch (MalformedURLException ex) {
+            return null;
+        }
+    }
+
+    public Stage getStage() {
+        return stage;
+    }
+
+    public Surface getSurface() {
+        return surface;
+    }
+
+    public void pollInput() {
+        // Do nothing
+    }
+
+    public PolledInput getPolledInput() {
+        return polledInput;
+    }
+
+    public void requestKeyboardFocus() {
+        // Do nothing
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(int cursor) {
+        this.cursor = cursor;
+    }
+
+    public int getRefreshRate() {
+        return 0;
+    }
+}
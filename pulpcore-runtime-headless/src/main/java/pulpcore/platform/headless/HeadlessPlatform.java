@@ -0,0 +1,243 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import pulpcore.CoreSystem;
+import pulpcore.platform.AppContext;
+import pulpcore.platform.Platform;
+import pulpcore.platform.SoundEngine;
+import pulpcore.scene.Scene;
+
+/**
+    A Platform without a display, input devices, or sound. Time is virtual: each app has its
+    own clock, which only advances when a frame is shown, so the Stage never sleeps.
+    <p>
+    Any number of apps can run at the same time, each with its own Stage and animation thread.
+    The app for a thread is found once and then kept in a ThreadLocal, so
+    {@link CoreSystem#getThisAppContext()} doesn't lock. A thread belongs to an app if it is
+    in the app's thread group (like the animation thread and worker threads), or if it
+    created the app or last rendered with it. If only one app is registered, every other
+    thread belongs to it too.
+    <p>
+    Most code should use {@link HeadlessRenderer} instead of this class.
+*/
+public final class HeadlessPlatform implements Platform {
+
+    private static final HeadlessAppContext[] NO_CONTEXTS = new HeadlessAppContext[0];
+
+    private static final HeadlessPlatform INSTANCE = new HeadlessPlatform();
+
+    private String clipboardText = "";
+
+    // Copy-on-write, so lookups don't lock
+    private volatile HeadlessAppContext[] allContexts = NO_CONTEXTS;
+    private final ThreadLocal currentContext = new ThreadLocal(); // ThreadLocal<HeadlessAppContext>
+
+    public static HeadlessPlatform getInstance() {
+        return INSTANCE;
+    }
+
+    private HeadlessPlatform() {
+        CoreSystem.init(this);
+    }
+
+    //
+    // App management
+    //
+
+    public AppContext getThisAppContext() {
+        HeadlessAppContext context = (HeadlessAppContext)currentContext.get();
+        if (context == null || !context.isRegistered()) {
+            context = findContext();
+            currentContext.set(context);
+        }
+        return context;
+    }
+
+    /**
+        Finds the app whose thread group contains the current thread. If apps are nested, the
+        innermost one is used.
+    */
+    private HeadlessAppContext findContext() {
+        HeadlessAppContext[] contexts = allContexts;
+        if (contexts.length == 0) {
+            return null;
+        }
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group != null) {
+            for (int i = 0; i < contexts.length; i++) {
+                if (contexts[i].getThreadGroup() == group) {
+                    return contexts[i];
+                }
+            }
+            group = group.getParent();
+        }
+        if (contexts.length == 1) {
+            return contexts[0];
+        }
+        return null;
+    }
+
+    /**
+        Makes the app the current app for the calling thread.
+    */
+    /* package-private */ void setCurrentContext(HeadlessAppContext context) {
+        currentContext.set(context);
+    }
+
+    public synchronized int getNumRegisteredApps() {
+        return allContexts.length;
+    }
+
+    /**
+        Creates and registers an app that draws to a surface of the specified size. The calling
+        thread belongs to the new app.
+    */
+    public synchronized HeadlessAppContext registerApp(Scene firstScene, int width, int height) {
+        // Make sure this is the active platform
+        CoreSystem.init(this);
+
+        HeadlessAppContext newContext = new HeadlessAppContext(firstScene);
+        HeadlessAppContext[] contexts = new HeadlessAppContext[allContexts.length + 1];
+        System.arraycopy(allContexts, 0, contexts, 0, allContexts.length);
+        contexts[allContexts.length] = newContext;
+        newContext.setRegistered(true);
+        allContexts = contexts;
+        currentContext.set(newContext);
+        newContext.init(width, height);
+        return newContext;
+    }
+
+    public synchronized void unregisterApp(HeadlessAppContext context) {
+        int index = -1;
+        for (int i = 0; i < allContexts.length; i++) {
+            if (allContexts[i] == context) {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            return;
+        }
+
+        // Destroy while registered, so the Scene can still find its app when it is unloaded
+        currentContext.set(context);
+        context.destroy();
+
+        HeadlessAppContext[] contexts = NO_CONTEXTS;
+        if (allContexts.length > 1) {
+            contexts = new HeadlessAppContext[allContexts.length - 1];
+            System.arraycopy(allContexts, 0, contexts, 0, index);
+            System.arraycopy(allContexts, index + 1, contexts, index, contexts.length - index);
+        }
+        allContexts = contexts;
+        context.setRegistered(false);
+        currentContext.set(null);
+    }
+
+    //
+    // System time
+    //
+
+    public long getTimeMillis() {
+        return getTimeMicros() / 1000;
+    }
+
+    /**
+        Returns the virtual time of the current app, or the system time if there is no app.
+    */
+    public long getTimeMicros() {
+        HeadlessAppContext context = (HeadlessAppContext)getThisAppContext();
+        if (context == null) {
+            return System.currentTimeMillis() * 1000;
+        }
+        else {
+            return context.getTimeMicros();
+        }
+    }
+
+    /**
+        Returns immediately. The virtual time only advances when a frame is shown.
+    */
+    public long sleepUntilTimeMicros(long timeMicros) {
+        return getTimeMicros();
+    }
+
+    //
+    // Clipboard
+    //
+
+    public boolean isNativeClipboard() {
+        return false;
+    }
+
+    public String getClipboardText() {
+        return clipboardText;
+    }
+
+    public void setClipboardText(String text) {
+        if (text == null) {
+            text = "";
+        }
+        clipboardText = text;
+    }
+
+    //
+    // Sound
+    //
+
+    public boolean isSoundEngineCreated() {
+        return false;
+    }
+
+    public SoundEngine getSoundEngine() {
+        return null;
+    }
+
+    public void updateSoundEngine(int timeUntilNextUpdate) {
+        // Do nothing
+    }
+
+    //
+    // Browser
+    //
+
+    public boolean isBrowserHosted() {
+        return false;
+    }
+
+    public String getBrowserName() {
+        return null;
+    }
+
+    public String getBrowserVersion() {
+        return null;
+    }
+}
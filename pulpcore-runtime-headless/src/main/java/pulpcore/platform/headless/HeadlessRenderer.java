@@ -0,0 +1,143 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.IOException;
+import pulpcore.Stage;
+import pulpcore.platform.AppContext;
+import pulpcore.scene.Scene;
+
+/**
+    Renders a Scene offline, without a display, as fast as the processor allows.
+    <p>
+    The Scene runs in a normal Stage on its own animation thread, but time is virtual: each
+    frame advances the clock by exactly 1/fps seconds, no matter how long it took to draw, and
+    the Stage never sleeps. A run of 600 frames at 60 fps always shows the same 10 seconds of
+    animation.
+    <pre>
+    HeadlessRenderer renderer = new HeadlessRenderer(new TitleScene(), 640, 480);
+    PNGSequenceSink sink = new PNGSequenceSink(new File("frames"), "title");
+    renderer.render(600, sink);
+    sink.close();
+    renderer.destroy();
+    </pre>
+    Many renderers can run at the same time, for example one per worker thread. Each has its
+    own Stage, animation thread, and clock. Static methods like {@link Stage#getWidth()} apply
+    to the renderer the calling thread created or last rendered with. Parallel work within a
+    renderer (like large filters and particle updates) runs on its animation thread, so the
+    number of threads grows with the number of renderers, not with renderers times processors.
+    <p>
+    Sound is not played, and only PNG images can be loaded.
+*/
+public class HeadlessRenderer {
+
+    /** The default number of frames per second of virtual time (60). */
+    public static final int DEFAULT_FRAME_RATE = 60;
+
+    private final HeadlessAppContext context;
+    private final HeadlessSurface surface;
+    private boolean started = false;
+
+    /**
+        Creates a renderer for a Scene drawn at the specified size.
+    */
+    public HeadlessRenderer(Scene scene, int width, int height) {
+        context = HeadlessPlatform.getInstance().registerApp(scene, width, height);
+        surface = context.getHeadlessSurface();
+    }
+
+    /**
+        Sets the number of frames per second of virtual time. If 0, the virtual clock instead
+        advances by the real time spent on each frame, so the animation depends on how fast
+        frames are drawn.
+    */
+    public synchronized void setFrameRate(int fps) {
+        context.setFrameRate(fps);
+    }
+
+    public synchronized int getFrameRate() {
+        return context.getFrameRate();
+    }
+
+    /**
+        Gets the virtual time, in microseconds, since the renderer was created.
+    */
+    public long getTimeMicros() {
+        return context.getTimeMicros();
+    }
+
+    public AppContext getAppContext() {
+        return context;
+    }
+
+    public Stage getStage() {
+        return context.getStage();
+    }
+
+    /**
+        Draws the next {@code numFrames} frames and sends each one to the sink, blocking
+        until the last frame is sent. Rendering can be continued with another call; the
+        animation continues where it left off.
+        @throws IOException if the sink could not write a frame. No more frames are drawn
+        in this run.
+    */
+    public synchronized void render(int numFrames, FrameSink sink) throws IOException {
+        if (numFrames <= 0) {
+            return;
+        }
+        if (context.getStage() == null) {
+            throw new IllegalStateException("Renderer destroyed");
+        }
+        HeadlessPlatform.getInstance().setCurrentContext(context);
+        surface.begin(numFrames, sink);
+        if (!started) {
+            started = true;
+            context.start();
+        }
+        IOException error;
+        try {
+            error = surface.awaitFrames();
+        }
+        catch (InterruptedException ex) {
+            throw new IOException("Interrupted while rendering");
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+        Stops the Stage, unloads the Scene, and unregisters the app. The renderer can't
+        be used afterwards.
+    */
+    public synchronized void destroy() {
+        HeadlessPlatform.getInstance().unregisterApp(context);
+    }
+}
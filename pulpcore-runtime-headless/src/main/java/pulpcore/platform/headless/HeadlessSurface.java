@@ -0,0 +1,150 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.IOException;
+import pulpcore.math.Rect;
+import pulpcore.platform.Surface;
+
+/**
+    A Surface that hands each frame to a FrameSink. After the last frame of a run, show()
+    blocks the animation thread until the next run starts or the Stage stops, so every frame
+    that is drawn is delivered, and no time passes between runs.
+*/
+/* package-private */ final class HeadlessSurface extends Surface {
+
+    private final HeadlessAppContext context;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private FrameSink sink;
+    private int framesRemaining;
+    private boolean running;
+    private IOException error;
+
+    // Only accessed from the animation thread
+    private int frameNumber;
+
+    HeadlessSurface(HeadlessAppContext context, int width, int height) {
+        this.context = context;
+        setSize(width, height);
+    }
+
+    /**
+        Starts a run of frames.
+    */
+    void begin(int numFrames, FrameSink sink) {
+        context.resetFrameTime();
+        synchronized (lock) {
+            this.sink = sink;
+            this.framesRemaining = numFrames;
+            this.error = null;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+        Waits until all frames of the current run are delivered, a frame could not be delivered,
+        or the Stage stopped. If interrupted, the run is cancelled.
+        @return the error that stopped the run, or null.
+    */
+    IOException awaitFrames() throws InterruptedException {
+        synchronized (lock) {
+            try {
+                while (framesRemaining > 0 && running) {
+                    lock.wait();
+                }
+            }
+            catch (InterruptedException ex) {
+                // Cancel the run
+                framesRemaining = 0;
+                sink = null;
+                throw ex;
+            }
+            IOException e = error;
+            error = null;
+            sink = null;
+            return e;
+        }
+    }
+
+    void setRunning(boolean running) {
+        synchronized (lock) {
+            this.running = running;
+            lock.notifyAll();
+        }
+    }
+
+    public long show(Rect[] dirtyRectangles, int numDirtyRectangles) {
+        contentsLost = false;
+
+        FrameSink s;
+        int n;
+        synchronized (lock) {
+            if (framesRemaining <= 0) {
+                // Stopped
+                return 0;
+            }
+            s = sink;
+            n = frameNumber++;
+        }
+
+        IOException e = null;
+        try {
+            s.frame(n, image);
+        }
+        catch (IOException ex) {
+            e = ex;
+        }
+        context.nextFrame();
+
+        synchronized (lock) {
+            if (e != null) {
+                error = e;
+                framesRemaining = 0;
+            }
+            else {
+                framesRemaining--;
+            }
+            lock.notifyAll();
+
+            // Wait for the next run
+            while (framesRemaining <= 0 && running) {
+                try {
+                    lock.wait();
+                }
+                catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import pulpcore.image.CoreImage;
+import pulpcore.image.PNGWriter;
+import pulpcore.util.ByteArray;
+
+/**
+    Writes each frame to a numbered PNG file, like "frame00000.png", "frame00001.png".
+    Frames are copied and encoded by a pool of background threads, so the renderer only waits
+    for encoding when more frames are queued than the pool can keep up with.
+*/
+public class PNGSequenceSink implements FrameSink {
+
+    private final File directory;
+    private final String prefix;
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference error = new AtomicReference(); // AtomicReference<IOException>
+
+    /**
+        Creates a sink with one encoder thread per available processor.
+    */
+    public PNGSequenceSink(File directory, String prefix) {
+        this(directory, prefix, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+        @param directory The directory to write to. It is created if it doesn't exist.
+        @param prefix The start of each file name.
+        @param numThreads The number of encoder threads.
+    */
+    public PNGSequenceSink(File directory, String prefix, int numThreads) {
+        this.directory = directory;
+        this.prefix = prefix;
+        numThreads = Math.max(1, numThreads);
+        directory.mkdirs();
+
+        // When the queue is full, the renderer's thread encodes the frame itself. This keeps
+        // the number of copied frames in memory bounded.
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue(numThreads * 2), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PulpCore-PNG-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+        Gets the file the specified frame is written to.
+    */
+    public File getFile(int frameNumber) {
+        String number = Integer.toString(frameNumber);
+        StringBuffer name = new StringBuffer(prefix);
+        for (int i = number.length(); i < 5; i++) {
+            name.append('0');
+        }
+        name.append(number);
+        name.append(".png");
+        return new File(directory, name.toString());
+    }
+
+    public void frame(final int frameNumber, CoreImage image) throws IOException {
+        checkError();
+        int[] data = new int[image.getWidth() * image.getHeight()];
+        System.arraycopy(image.getData(), 0, data, 0, data.length);
+        final CoreImage copy = new CoreImage(image.getWidth(), image.getHeight(),
+            image.isOpaque(), data);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    write(getFile(frameNumber), copy);
+                }
+                catch (IOException ex) {
+                    error.compareAndSet(null, ex);
+                }
+            }
+        });
+    }
+
+    private void write(File file, CoreImage image) throws IOException {
+        ByteArray png = PNGWriter.write(image);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(png.getData(), 0, png.length());
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException ex = (IOException)error.get();
+        if (ex != null) {
+            throw ex;
+        }
+    }
+
+    /**
+        Waits for all queued frames to be written and stops the encoder threads.
+        @throws IOException if any frame could not be written.
+    */
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new IOException("Interrupted while writing frames");
+        }
+        checkError();
+    }
+}
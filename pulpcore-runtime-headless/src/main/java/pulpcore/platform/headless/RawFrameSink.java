@@ -0,0 +1,86 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import pulpcore.image.Colors;
+import pulpcore.image.CoreImage;
+
+/**
+    Writes frames to a stream as raw 8-bit RGBA pixels (not premultiplied), row by row with no
+    header or padding. This is the format video encoders like ffmpeg read from a pipe with
+    {@code -f rawvideo -pix_fmt rgba}.
+*/
+public class RawFrameSink implements FrameSink {
+
+    private final OutputStream out;
+    private byte[] row = new byte[0];
+
+    public RawFrameSink(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+    }
+
+    public void frame(int frameNumber, CoreImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] data = image.getData();
+        boolean isOpaque = image.isOpaque();
+        if (row.length != width * 4) {
+            row = new byte[width * 4];
+        }
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            int i = 0;
+            for (int x = 0; x < width; x++) {
+                int argb = data[index++];
+                if (isOpaque) {
+                    argb |= 0xff000000;
+                }
+                else {
+                    argb = Colors.unpremultiply(argb);
+                }
+                row[i++] = (byte)(argb >> 16);
+                row[i++] = (byte)(argb >> 8);
+                row[i++] = (byte)argb;
+                row[i++] = (byte)(argb >>> 24);
+            }
+            out.write(row);
+        }
+    }
+
+    /**
+        Flushes and closes the stream.
+    */
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+    The time and checksum of each frame of a run. Two runs drew the same frames if their
+    checksums are equal.
+    @see Replayer
+    @see ChecksumSink
+*/
+public class ReplayResult {
+
+    private final long[] frameNanos;
+    private final long[] frameChecksums;
+    private final long checksum;
+
+    /* package-private */ ReplayResult(long[] frameNanos, long[] frameChecksums, int numFrames) {
+        this.frameNanos = new long[numFrames];
+        this.frameChecksums = new long[numFrames];
+        System.arraycopy(frameNanos, 0, this.frameNanos, 0, numFrames);
+        System.arraycopy(frameChecksums, 0, this.frameChecksums, 0, numFrames);
+
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < numFrames; i++) {
+            long c = frameChecksums[i];
+            crc.update((int)(c >>> 24));
+            crc.update((int)(c >>> 16));
+            crc.update((int)(c >>> 8));
+            crc.update((int)c);
+        }
+        checksum = crc.getValue();
+    }
+
+    public int getNumFrames() {
+        return frameNanos.length;
+    }
+
+    /**
+        Gets how long a frame took to render, in nanoseconds.
+    */
+    public long getFrameNanos(int frame) {
+        return frameNanos[frame];
+    }
+
+    /**
+        Gets the CRC-32 of a frame's pixels.
+    */
+    public long getFrameChecksum(int frame) {
+        return frameChecksums[frame];
+    }
+
+    /**
+        Gets the CRC-32 of all frame checksums, in order.
+    */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (int i = 0; i < frameNanos.length; i++) {
+            total += frameNanos[i];
+        }
+        return total;
+    }
+
+    /**
+        Gets a percentile of the frame times, using the nearest-rank method. Returns 0 if
+        there are no frames.
+        @param percentile from 0 to 100.
+    */
+    public long getPercentile(double percentile) {
+        int n = frameNanos.length;
+        if (n == 0) {
+            return 0;
+        }
+        long[] sorted = new long[n];
+        System.arraycopy(frameNanos, 0, sorted, 0, n);
+        Arrays.sort(sorted);
+        int rank = (int)Math.ceil(percentile / 100 * n);
+        return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+    }
+
+    /**
+        Returns each frame as comma-separated values. The first line is a header:
+        "frame,nanos,checksum". Checksums are in hexadecimal.
+    */
+    public String toCSV() {
+        StringBuffer buffer = new StringBuffer("frame,nanos,checksum\n");
+        for (int i = 0; i < frameNanos.length; i++) {
+            buffer.append(i);
+            buffer.append(',');
+            buffer.append(frameNanos[i]);
+            buffer.append(',');
+            buffer.append(Long.toHexString(frameChecksums[i]));
+            buffer.append('\n');
+        }
+        return buffer.toString();
+    }
+
+    /**
+        Returns a summary like "600 frames, p50/p95/max 1.52/2.10/3.87 ms, checksum 9f3a12c4".
+    */
+    public String toString() {
+        long max = 0;
+        for (int i = 0; i < frameNanos.length; i++) {
+            max = Math.max(max, frameNanos[i]);
+        }
+        return getNumFrames() + " frames, p50/p95/max " + 
+            toMillis(getPercentile(50)) + "/" + 
+            toMillis(getPercentile(95)) + "/" + 
+            toMillis(max) + " ms, checksum " + Long.toHexString(checksum);
+    }
+
+    private static String toMillis(long nanos) {
+        // Hundredths of a millisecond
+        long t = (nanos + 5000) / 10000;
+        String fraction = Long.toString(t % 100);
+        return (t / 100) + (fraction.length() == 1 ? ".0" : ".") + fraction;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform.headless;
+
+import java.io.IOException;
+import java.io.InputStream;
+import pulpcore.Stage;
+import pulpcore.platform.InputReplay;
+import pulpcore.scene.Scene;
+
+/**
+    Plays back an input log recorded with {@link Stage#startRecording(java.io.OutputStream)}
+    in a {@link HeadlessRenderer}, one frame of the log per rendered frame, and reports how
+    long each frame took and a checksum of what it drew.
+    <pre>
+    ReplayResult result = new Replayer(new GameScene(), new FileInputStream("level1.log")).run();
+    System.out.println(result);
+    </pre>
+    Rendering is deterministic, so a change that makes a Scene faster without changing how it
+    looks keeps the same checksum.
+*/
+public class Replayer {
+
+    private final Scene scene;
+    private final InputReplay replay;
+
+    /**
+        Creates a replayer for a new instance of the Scene that was recorded.
+        @throws IOException if the log could not be read.
+    */
+    public Replayer(Scene scene, InputStream log) throws IOException {
+        this.scene = scene;
+        this.replay = new InputReplay(log);
+    }
+
+    public InputReplay getReplay() {
+        return replay;
+    }
+
+    /**
+        Renders every frame of the log at the size it was recorded. Can only be called once.
+        @throws IOException if the Scene polled input a different number of times per frame
+        than when it was recorded.
+    */
+    public ReplayResult run() throws IOException {
+        HeadlessRenderer renderer = new HeadlessRenderer(scene, replay.getWidth(),
+            replay.getHeight());
+        try {
+            Stage.startReplay(replay);
+            ChecksumSink sink = new ChecksumSink();
+            renderer.render(replay.getNumFrames(), sink);
+            if (replay.getOutOfSyncFrame() >= 0) {
+                throw new IOException("Replay out of sync at frame " + 
+                    replay.getOutOfSyncFrame());
+            }
+            return sink.getResult();
+        }
+        finally {
+            renderer.destroy();
+        }
+    }
+}
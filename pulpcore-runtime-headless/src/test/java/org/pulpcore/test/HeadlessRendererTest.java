@@ -0,0 +1,463 @@
+package org.pulpcore.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import pulpcore.CoreSystem;
+import pulpcore.Input;
+import pulpcore.Stage;
+import pulpcore.image.Colors;
+import pulpcore.image.CoreImage;
+import pulpcore.image.filter.Blur;
+import pulpcore.image.filter.FilterStats;
+import pulpcore.image.filter.Glow;
+import pulpcore.math.CoreMath;
+import pulpcore.platform.AppContext;
+import pulpcore.platform.PolledInput;
+import pulpcore.platform.headless.ChecksumSink;
+import pulpcore.platform.headless.FrameSink;
+import pulpcore.platform.headless.HeadlessPlatform;
+import pulpcore.platform.headless.HeadlessRenderer;
+import pulpcore.platform.headless.PNGSequenceSink;
+import pulpcore.platform.headless.RawFrameSink;
+import pulpcore.platform.headless.ReplayResult;
+import pulpcore.platform.headless.Replayer;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.FilledSprite;
+import pulpcore.sprite.ImageSprite;
+import static org.junit.Assert.*;
+
+/**
+    Tests rendering Scenes offline with a virtual clock.
+*/
+public class HeadlessRendererTest {
+
+    private static class TimedScene extends Scene2D {
+        int totalTime = 0;
+
+        public void load() {
+            add(new FilledSprite(Colors.RED));
+        }
+
+        public void update(int elapsedTime) {
+            totalTime += elapsedTime;
+        }
+    }
+
+    /**
+        Follows the mouse and jumps around randomly.
+    */
+    private static class InputScene extends Scene2D {
+
+        FilledSprite cursor = new FilledSprite(0, 0, 4, 4, Colors.RED);
+        FilledSprite noise = new FilledSprite(0, 0, 2, 2, Colors.GREEN);
+
+        public void load() {
+            add(new FilledSprite(Colors.BLACK));
+            add(cursor);
+            add(noise);
+        }
+
+        public void update(int elapsedTime) {
+            cursor.x.set(Input.getMouseX());
+            cursor.y.set(Input.getMouseY());
+            noise.x.set(CoreMath.rand(0, Stage.getWidth() - 2));
+            noise.y.set(CoreMath.rand(0, Stage.getHeight() - 2));
+        }
+    }
+
+    @Test public void virtualTime() throws IOException {
+        TimedScene scene = new TimedScene();
+        HeadlessRenderer renderer = new HeadlessRenderer(scene, 32, 24);
+        try {
+            final List frameNumbers = new ArrayList(); // List<Integer>
+            FrameSink sink = new FrameSink() {
+                public void frame(int frameNumber, CoreImage image) {
+                    frameNumbers.add(new Integer(frameNumber));
+                }
+
+                public void close() { }
+            };
+            renderer.render(30, sink);
+            assertEquals(30, frameNumbers.size());
+            assertEquals(500000, renderer.getTimeMicros());
+
+            // Continues where it left off
+            renderer.render(30, sink);
+            assertEquals(60, frameNumbers.size());
+            for (int i = 0; i < frameNumbers.size(); i++) {
+                assertEquals(i, ((Integer)frameNumbers.get(i)).intValue());
+            }
+            assertEquals(1000000, renderer.getTimeMicros());
+            // The first frame has no elapsed time; the other 59 are 1/60 second each
+            assertEquals(983, scene.totalTime);
+        }
+        finally {
+            renderer.destroy();
+        }
+    }
+
+    @Test public void rawFrames() throws IOException {
+        HeadlessRenderer renderer = new HeadlessRenderer(new TimedScene(), 4, 3);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            RawFrameSink sink = new RawFrameSink(out);
+            renderer.render(2, sink);
+            sink.close();
+            byte[] data = out.toByteArray();
+            assertEquals(2 * 4 * 3 * 4, data.length);
+            for (int i = 0; i < data.length; i += 4) {
+                assertEquals(255, data[i] & 0xff);
+                assertEquals(0, data[i + 1] & 0xff);
+                assertEquals(0, data[i + 2] & 0xff);
+                assertEquals(255, data[i + 3] & 0xff);
+            }
+        }
+        finally {
+            renderer.destroy();
+        }
+    }
+
+    @Test public void pngSequence() throws IOException {
+        HeadlessRenderer renderer = new HeadlessRenderer(new TimedScene(), 16, 16);
+        File dir = File.createTempFile("frames", "");
+        dir.delete();
+        try {
+            PNGSequenceSink sink = new PNGSequenceSink(dir, "frame", 2);
+            renderer.render(10, sink);
+            sink.close();
+            for (int i = 0; i < 10; i++) {
+                File file = sink.getFile(i);
+                assertTrue(file.getName(), file.length() > 0);
+                file.delete();
+            }
+            assertEquals("frame00009.png", sink.getFile(9).getName());
+        }
+        finally {
+            renderer.destroy();
+            dir.delete();
+        }
+    }
+
+    @Test public void recordAndReplay() throws IOException {
+        // Record
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ChecksumSink recorded = new ChecksumSink();
+        HeadlessRenderer renderer = new HeadlessRenderer(new InputScene(), 32, 24);
+        try {
+            Stage.startRecording(log);
+            PolledInput input = renderer.getAppContext().getPolledInput();
+            for (int i = 0; i < 20; i++) {
+                input.mouse.set(i, i / 2);
+                input.isMouseInside = true;
+                renderer.render(1, recorded);
+            }
+            Stage.stopRecording();
+        }
+        finally {
+            renderer.destroy();
+        }
+        ReplayResult expected = recorded.getResult();
+        assertEquals(20, expected.getNumFrames());
+        assertTrue(expected.getFrameChecksum(0) != expected.getFrameChecksum(19));
+
+        // Replay twice
+        for (int i = 0; i < 2; i++) {
+            Replayer replayer = new Replayer(new InputScene(),
+                new ByteArrayInputStream(log.toByteArray()));
+            assertEquals(32, replayer.getReplay().getWidth());
+            ReplayResult result = replayer.run();
+            assertEquals(20, result.getNumFrames());
+            for (int j = 0; j < 20; j++) {
+                assertEquals(expected.getFrameChecksum(j), result.getFrameChecksum(j));
+            }
+            assertEquals(expected.getChecksum(), result.getChecksum());
+            assertEquals(-1, replayer.getReplay().getOutOfSyncFrame());
+        }
+    }
+
+    @Test public void replayWhileAnotherAppRuns() throws Exception {
+        // Record
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ChecksumSink recorded = new ChecksumSink();
+        HeadlessRenderer renderer = new HeadlessRenderer(new InputScene(), 32, 24);
+        try {
+            Stage.startRecording(log);
+            renderer.render(30, recorded);
+            Stage.stopRecording();
+        }
+        finally {
+            renderer.destroy();
+        }
+
+        // Another app uses random numbers the whole time
+        final AtomicBoolean done = new AtomicBoolean();
+        final List errors = new ArrayList(); // List<Throwable>
+        Thread other = new Thread() {
+            public void run() {
+                HeadlessRenderer noisy = new HeadlessRenderer(new InputScene(), 32, 24);
+                try {
+                    FrameSink sink = new RawFrameSink(new ByteArrayOutputStream());
+                    while (!done.get()) {
+                        noisy.render(5, sink);
+                        CoreMath.setRandomSeed(CoreMath.rand(1000));
+                    }
+                }
+                catch (Throwable t) {
+                    errors.add(t);
+                }
+                finally {
+                    noisy.destroy();
+                }
+            }
+        };
+        other.start();
+        try {
+            Replayer replayer = new Replayer(new InputScene(),
+                new ByteArrayInputStream(log.toByteArray()));
+            assertEquals(recorded.getResult().getChecksum(), replayer.run().getChecksum());
+        }
+        finally {
+            done.set(true);
+            other.join();
+        }
+        assertEquals(0, errors.size());
+    }
+
+    @Test public void filterStatsPerApp() throws IOException {
+        final Blur blur = new Blur(1);
+        Scene2D blurScene = new Scene2D() {
+            public void load() {
+                FilledSprite sprite = new FilledSprite(0, 0, 8, 8, Colors.RED);
+                sprite.setFilter(blur);
+                add(sprite);
+            }
+
+            public void update(int elapsedTime) {
+                // Filter every frame
+                blur.radius.set(1 + (blur.radius.getAsInt() % 4));
+            }
+        };
+        HeadlessRenderer a = new HeadlessRenderer(blurScene, 32, 24);
+        HeadlessRenderer b = new HeadlessRenderer(new TimedScene(), 32, 24);
+        try {
+            FrameSink sink = new RawFrameSink(new ByteArrayOutputStream());
+            a.render(3, sink);
+            b.render(3, sink);
+            long lastFrameNanos = blur.getStats().getLastFrameNanos();
+            assertTrue(lastFrameNanos > 0);
+
+            // Frames of another app don't roll this app's stats over
+            b.render(3, sink);
+            assertEquals(lastFrameNanos, blur.getStats().getLastFrameNanos());
+
+            assertTrue(hasClassStats(a.getAppContext(), "Blur"));
+            assertFalse(hasClassStats(b.getAppContext(), "Blur"));
+        }
+        finally {
+            a.destroy();
+            b.destroy();
+        }
+    }
+
+    @Test public void filterOutputsNotSharedBetweenApps() throws IOException {
+        CoreImage image = new CoreImage(8, 8, false);
+        Glow glowA = new Glow(0.5, 2);
+        Glow glowB = (Glow)glowA.copy();
+        HeadlessRenderer a = new HeadlessRenderer(new GlowScene(image, glowA), 32, 24);
+        HeadlessRenderer b = new HeadlessRenderer(new GlowScene(image, glowB), 32, 24);
+        try {
+            FrameSink sink = new RawFrameSink(new ByteArrayOutputStream());
+            a.render(1, sink);
+            b.render(1, sink);
+            assertTrue("Output shared between apps", glowA.getOutput() != glowB.getOutput());
+        }
+        finally {
+            a.destroy();
+            b.destroy();
+        }
+    }
+
+    @Test public void blurQualityPerApp() throws IOException {
+        Scene2D lowQualityScene = new Scene2D() {
+            public void load() {
+                Blur.setMaxQuality(1);
+            }
+        };
+        final int[] otherMaxQuality = new int[1];
+        Scene2D otherScene = new Scene2D() {
+            public void update(int elapsedTime) {
+                otherMaxQuality[0] = Blur.getMaxQuality();
+            }
+        };
+        HeadlessRenderer a = new HeadlessRenderer(lowQualityScene, 32, 24);
+        HeadlessRenderer b = new HeadlessRenderer(otherScene, 32, 24);
+        try {
+            FrameSink sink = new RawFrameSink(new ByteArrayOutputStream());
+            a.render(2, sink);
+            b.render(2, sink);
+            assertEquals(1, a.getAppContext().getMaxBlurQuality());
+            assertEquals(15, b.getAppContext().getMaxBlurQuality());
+            assertEquals(15, otherMaxQuality[0]);
+        }
+        finally {
+            a.destroy();
+            b.destroy();
+        }
+    }
+
+    @Test public void parallelFiltersInManyRenderers() throws InterruptedException {
+        final int numThreads = 16;
+        final List errors = new ArrayList(); // List<Throwable>
+        final int[] maxWorkerThreads = new int[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        renderLargeBlur(maxWorkerThreads);
+                    }
+                    catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < numThreads; i++) {
+            threads[i].join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        assertEquals(0, maxWorkerThreads[0]);
+    }
+
+    private void renderLargeBlur(final int[] maxWorkerThreads) throws IOException {
+        final Blur blur = new Blur(4);
+        Scene2D scene = new Scene2D() {
+            public void load() {
+                // Large enough to be filtered in bands
+                ImageSprite sprite = new ImageSprite(new CoreImage(256, 256, false), 0, 0);
+                sprite.setFilter(blur);
+                add(sprite);
+            }
+
+            public void update(int elapsedTime) {
+                // Filter every frame
+                blur.radius.set(1 + (blur.radius.getAsInt() % 4));
+                int count = countWorkerThreads();
+                synchronized (maxWorkerThreads) {
+                    maxWorkerThreads[0] = Math.max(maxWorkerThreads[0], count);
+                }
+            }
+        };
+        HeadlessRenderer renderer = new HeadlessRenderer(scene, 64, 64);
+        try {
+            assertEquals(1, renderer.getAppContext().getWorkerPool().getParallelism());
+            renderer.render(4, new RawFrameSink(new ByteArrayOutputStream()));
+            assertTrue(blur.getStats().getCount() > 0);
+        }
+        finally {
+            renderer.destroy();
+        }
+    }
+
+    private static int countWorkerThreads() {
+        int count = 0;
+        Thread[] threads = (Thread[])Thread.getAllStackTraces().keySet().toArray(new Thread[0]);
+        for (int i = 0; i < threads.length; i++) {
+            if (threads[i].getName().startsWith("PulpCore-Worker-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class GlowScene extends Scene2D {
+        private final CoreImage image;
+        private final Glow glow;
+
+        GlowScene(CoreImage image, Glow glow) {
+            this.image = image;
+            this.glow = glow;
+        }
+
+        public void load() {
+            ImageSprite sprite = new ImageSprite(image, 0, 0);
+            sprite.setFilter(glow);
+            add(sprite);
+        }
+    }
+
+    private static boolean hasClassStats(AppContext context, String name) {
+        FilterStats[] stats = context.getFilterStats().getClassStats();
+        for (int i = 0; i < stats.length; i++) {
+            if (stats[i].getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test public void concurrentRenderers() throws InterruptedException {
+        final int numThreads = 8;
+        final List errors = new ArrayList(); // List<Throwable>
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int width = 10 + i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        renderAt(width);
+                    }
+                    catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < numThreads; i++) {
+            threads[i].join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        assertEquals(0, HeadlessPlatform.getInstance().getNumRegisteredApps());
+    }
+
+    private void renderAt(final int width) throws IOException {
+        final List wrongFrames = new ArrayList(); // List<Integer>
+        TimedScene scene = new TimedScene() {
+            public void update(int elapsedTime) {
+                super.update(elapsedTime);
+                // Runs on this renderer's animation thread
+                if (Stage.getWidth() != width) {
+                    wrongFrames.add(new Integer(Stage.getWidth()));
+                }
+            }
+        };
+        HeadlessRenderer renderer = new HeadlessRenderer(scene, width, 8);
+        try {
+            AppContext context = renderer.getAppContext();
+            assertSame(context, CoreSystem.getThisAppContext());
+            FrameSink sink = new RawFrameSink(new ByteArrayOutputStream());
+            for (int i = 0; i < 5; i++) {
+                renderer.render(12, sink);
+                assertSame(context, CoreSystem.getThisAppContext());
+            }
+            assertEquals(1000000, renderer.getTimeMicros());
+            assertEquals(983, scene.totalTime);
+            assertEquals(wrongFrames.toString(), 0, wrongFrames.size());
+        }
+        finally {
+            renderer.destroy();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore;
+
+import java.util.Arrays;
+
+/**
+    Records how long each phase of the Stage's animation loop takes, for the last few
+    hundred frames. The profiler is always on, in release builds too, and costs a few calls to
+    System.nanoTime() per frame.
+    <p>
+    Times are in nanoseconds. Each phase's time is the time since the end of the previous phase,
+    so small bits of bookkeeping between phases are included in the following phase.
+    @see Stage#getFrameProfiler()
+*/
+public final class FrameProfiler {
+
+    /** Polling keyboard and mouse input. */
+    public static final int INPUT = 0;
+    /** Running events posted with {@link pulpcore.platform.AppContext#invokeLater(Runnable)}. */
+    public static final int EVENTS = 1;
+    /** Scene.updateScene(). */
+    public static final int UPDATE = 2;
+    /** Scene.drawScene(). */
+    public static final int DRAW = 3;
+    /** Sending pending sound data to the sound system. */
+    public static final int SOUND = 4;
+    /** Showing the surface. */
+    public static final int SHOW = 5;
+    /** Sleeping to keep the frame rate. */
+    public static final int SLEEP = 6;
+    /** The entire frame. */
+    public static final int TOTAL = 7;
+
+    /** The number of phases, including TOTAL. */
+    public static final int NUM_PHASES = 8;
+
+    /** The default number of frames kept. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final String[] PHASE_NAMES = {
+        "input", "events", "update", "draw", "sound", "show", "sleep", "total"
+    };
+
+    // Written by the animation thread only
+    private final long[] current = new long[NUM_PHASES];
+    private long frameStartTime;
+    private long phaseStartTime;
+
+    private boolean enabled = true;
+    // long[NUM_PHASES][capacity]
+    private long[][] samples;
+    private long[] frameNumbers;
+    private int capacity;
+    private int index;
+    private int numFrames;
+    private long frameCount;
+
+    /* package-private */ FrameProfiler() {
+        setCapacity(DEFAULT_CAPACITY);
+    }
+
+    /**
+        Gets the name of a phase, like "update".
+    */
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    //
+    // Called from the animation thread
+    //
+
+    /* package-private */ void startFrame() {
+        if (enabled) {
+            Arrays.fill(current, 0);
+            frameStartTime = System.nanoTime();
+            phaseStartTime = frameStartTime;
+        }
+    }
+
+    /* package-private */ void endPhase(int phase) {
+        if (enabled) {
+            long now = System.nanoTime();
+            current[phase] += now - phaseStartTime;
+            phaseStartTime = now;
+        }
+    }
+
+    /* package-private */ void endFrame() {
+        if (enabled) {
+            current[TOTAL] = System.nanoTime() - frameStartTime;
+            synchronized (this) {
+                for (int i = 0; i < NUM_PHASES; i++) {
+                    samples[i][index] = current[i];
+                }
+                frameNumbers[index] = frameCount;
+                index = (index + 1) % capacity;
+                numFrames = Math.min(numFrames + 1, capacity);
+                frameCount++;
+            }
+        }
+    }
+
+    //
+    // Queries
+    //
+
+    /**
+        Enables or disables the profiler. The profiler is enabled by default. Disabling it
+        does not affect the {@link QualityGovernor}, which the Stage feeds separately.
+    */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+        Sets the number of frames to keep, and clears the recorded frames.
+    */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.samples = new long[NUM_PHASES][capacity];
+        this.frameNumbers = new long[capacity];
+        this.index = 0;
+        this.numFrames = 0;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+        Clears the recorded frames.
+    */
+    public synchronized void clear() {
+        index = 0;
+        numFrames = 0;
+    }
+
+    /**
+        Gets the number of recorded frames, at most {@link #getCapacity()}.
+    */
+    public synchronized int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+        Gets the total number of frames profiled since the Stage started, including frames no
+        longer recorded.
+    */
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+        Gets the time of a phase in the most recent frame, or 0 if no frames are recorded.
+    */
+    public synchronized long getLastFrameNanos(int phase) {
+        if (numFrames == 0) {
+            return 0;
+        }
+        return samples[phase][(index + capacity - 1) % capacity];
+    }
+
+    /**
+        Gets a percentile of a phase's time over the recorded frames, using the nearest-rank
+        method. For example, {@code getPercentile(FrameProfiler.DRAW, 95)} is the draw time
+        that 95% of the recorded frames were at or below. Returns 0 if no frames are recorded.
+        @param percentile from 0 to 100.
+    */
+    public synchronized long getPercentile(int phase, double percentile) {
+        if (numFrames == 0) {
+            return 0;
+        }
+        long[] sorted = getSortedSamples(phase);
+        int rank = (int)Math.ceil(percentile / 100 * numFrames);
+        return sorted[Math.max(0, Math.min(numFrames - 1, rank - 1))];
+    }
+
+    /**
+        Gets the longest time of a phase over the recorded frames.
+    */
+    public synchronized long getMax(int phase) {
+        long max = 0;
+        for (int i = 0; i < numFrames; i++) {
+            max = Math.max(max, samples[phase][i]);
+        }
+        return max;
+    }
+
+    private long[] getSortedSamples(int phase) {
+        long[] sorted = new long[numFrames];
+        // The recorded frames are at the start of the array until it wraps around, and then
+        // fill the whole array. Either way, order doesn't matter here.
+        System.arraycopy(samples[phase], 0, sorted, 0, numFrames);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+        Returns the recorded frames as comma-separated values, oldest frame first. The first
+        line is a header: "frame", followed by the phase names. Times are in nanoseconds.
+    */
+    public synchronized String toCSV() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("frame");
+        for (int i = 0; i < NUM_PHASES; i++) {
+            buffer.append(',');
+            buffer.append(PHASE_NAMES[i]);
+        }
+        buffer.append('\n');
+        int start = (index + capacity - numFrames) % capacity;
+        for (int f = 0; f < numFrames; f++) {
+            int j = (start + f) % capacity;
+            buffer.append(frameNumbers[j]);
+            for (int i = 0; i < NUM_PHASES; i++) {
+                buffer.append(',');
+                buffer.append(samples[i][j]);
+            }
+            buffer.append('\n');
+        }
+        return buffer.toString();
+    }
+
+    /**
+        Returns a summary of the p50, p95, p99 and max time of each phase, in milliseconds.
+    */
+    public synchronized String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("Frames: ");
+        buffer.append(numFrames);
+        buffer.append(" (p50/p95/p99/max ms)");
+        for (int i = 0; i < NUM_PHASES; i++) {
+            buffer.append('\n');
+            buffer.append(PHASE_NAMES[i]);
+            buffer.append(": ");
+            buffer.append(toMillis(getPercentile(i, 50)));
+            buffer.append('/');
+            buffer.append(toMillis(getPercentile(i, 95)));
+            buffer.append('/');
+            buffer.append(toMillis(getPercentile(i, 99)));
+            buffer.append('/');
+            buffer.append(toMillis(getMax(i)));
+        }
+        return buffer.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        // Hundredths of a millisecond
+        long t = (nanos + 5000) / 10000;
+        String fraction = Long.toString(t % 100);
+        return (t / 100) + (fraction.length() == 1 ? ".0" : ".") + fraction;
+    }
+}
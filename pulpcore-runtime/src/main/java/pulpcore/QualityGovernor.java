@@ -0,0 +1,361 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore;
+
+import java.util.ArrayList;
+import java.util.List;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.filter.Blur;
+import pulpcore.image.filter.Filter;
+import pulpcore.sprite.ParticleEmitter;
+import pulpcore.sprite.Sprite;
+
+/**
+    Lowers rendering quality when frames take longer than the frame rate allows, and raises it
+    again when there is headroom.
+    <p>
+    The governor has a list of steps, from the least noticeable to the most. At level 0, no
+    steps are applied. At level n, the first n steps are applied. The Stage reports the time
+    spent on each frame (not counting the sleep between frames) compared to the time allowed
+    by the frame rate, whether or not the {@link FrameProfiler} is enabled. When the smoothed
+    load stays above the high threshold, the next step is applied; when it stays below the low
+    threshold for longer, the last step is reverted. The gap between the thresholds and the
+    different delays keep the level from flip-flopping.
+    <p>
+    The governor does nothing until steps are added. It runs on the animation thread, and
+    steps are applied and listeners are notified on the animation thread.
+    <pre>
+    QualityGovernor governor = Stage.getQualityGovernor();
+    governor.addStep(QualityGovernor.blurQuality(1));
+    governor.addStep(QualityGovernor.nearestNeighbor());
+    governor.addStep(QualityGovernor.limitParticles(emitter, 200));
+    </pre>
+    @see Stage#getQualityGovernor()
+*/
+public final class QualityGovernor {
+    
+    /**
+        A change in quality that can be applied and reverted.
+    */
+    public interface Step {
+        
+        public void apply();
+        
+        public void revert();
+    }
+    
+    /**
+        Notified when the quality level changes.
+    */
+    public interface Listener {
+        
+        /**
+            Called after the step(s) between the two levels were applied or reverted. A higher
+            level means lower quality.
+        */
+        public void qualityChanged(int oldLevel, int newLevel);
+    }
+    
+    private static final double SMOOTHING = 0.1;
+    
+    // List<Step>
+    private final List steps = new ArrayList();
+    // List<Listener>
+    private final List listeners = new ArrayList();
+    private int level;
+    private boolean enabled = true;
+    
+    private double lowLoad = 0.6;
+    private double highLoad = 0.9;
+    private int downgradeFrames = 15;
+    private int upgradeFrames = 120;
+    
+    private double load = -1;
+    private int framesOverloaded;
+    private int framesUnderloaded;
+    
+    // Set by the nearestNeighbor() step
+    /* package-private */ boolean nearestNeighbor;
+    
+    /* package-private */ QualityGovernor() {
+        
+    }
+    
+    //
+    // Steps
+    //
+    
+    /**
+        Adds a step, applied after the steps already added.
+    */
+    public synchronized void addStep(Step step) {
+        steps.add(step);
+    }
+    
+    /**
+        Reverts all steps and removes them.
+    */
+    public synchronized void clearSteps() {
+        setLevel(0);
+        steps.clear();
+    }
+    
+    public synchronized int getNumSteps() {
+        return steps.size();
+    }
+    
+    /**
+        Gets the current level, from 0 (full quality) to {@link #getNumSteps()}.
+    */
+    public synchronized int getLevel() {
+        return level;
+    }
+    
+    /**
+        Applies or reverts steps to reach the specified level.
+    */
+    public void setLevel(int newLevel) {
+        int oldLevel;
+        Object[] currentListeners;
+        synchronized (this) {
+            newLevel = Math.max(0, Math.min(steps.size(), newLevel));
+            oldLevel = level;
+            if (newLevel == oldLevel) {
+                return;
+            }
+            while (level < newLevel) {
+                ((Step)steps.get(level)).apply();
+                level++;
+            }
+            while (level > newLevel) {
+                level--;
+                ((Step)steps.get(level)).revert();
+            }
+            framesOverloaded = 0;
+            framesUnderloaded = 0;
+            currentListeners = listeners.toArray();
+        }
+        for (int i = 0; i < currentListeners.length; i++) {
+            ((Listener)currentListeners[i]).qualityChanged(oldLevel, newLevel);
+        }
+    }
+    
+    //
+    // Listeners
+    //
+    
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    //
+    // Settings
+    //
+    
+    /**
+        Enables or disables automatic changes. The governor is enabled by default, but does
+        nothing until steps are added. Disabling keeps the current level.
+    */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+        Sets the load thresholds, where a load of 1 means a frame took all the time allowed by
+        the frame rate. The defaults are 0.6 and 0.9.
+    */
+    public synchronized void setThresholds(double lowLoad, double highLoad) {
+        if (lowLoad >= highLoad) {
+            throw new IllegalArgumentException("lowLoad must be less than highLoad");
+        }
+        this.lowLoad = lowLoad;
+        this.highLoad = highLoad;
+    }
+    
+    /**
+        Sets how many consecutive frames the load must be above the high threshold before
+        quality is lowered, and below the low threshold before quality is raised. The defaults
+        are 15 and 120 frames.
+    */
+    public synchronized void setDelays(int downgradeFrames, int upgradeFrames) {
+        this.downgradeFrames = Math.max(1, downgradeFrames);
+        this.upgradeFrames = Math.max(1, upgradeFrames);
+    }
+    
+    /**
+        Gets the smoothed load, or -1 if no frames have been reported.
+    */
+    public synchronized double getLoad() {
+        return load;
+    }
+    
+    /**
+        Reports a frame. The Stage calls this method after each frame; it is public so that
+        apps that drive their own loop can use the governor.
+        @param workNanos the time spent on the frame, not counting sleep.
+        @param budgetNanos the time allowed by the frame rate.
+    */
+    public void addFrame(long workNanos, long budgetNanos) {
+        int newLevel;
+        synchronized (this) {
+            if (budgetNanos <= 0) {
+                return;
+            }
+            double frameLoad = (double)workNanos / budgetNanos;
+            load = (load < 0) ? frameLoad : load + (frameLoad - load) * SMOOTHING;
+            if (!enabled || steps.size() == 0) {
+                return;
+            }
+            
+            framesOverloaded = (load > highLoad) ? framesOverloaded + 1 : 0;
+            framesUnderloaded = (load < lowLoad) ? framesUnderloaded + 1 : 0;
+            if (framesOverloaded >= downgradeFrames && level < steps.size()) {
+                newLevel = level + 1;
+            }
+            else if (framesUnderloaded >= upgradeFrames && level > 0) {
+                newLevel = level - 1;
+            }
+            else {
+                return;
+            }
+        }
+        setLevel(newLevel);
+    }
+    
+    //
+    // Built-in steps
+    //
+    
+    /**
+        A step that draws scaled and rotated images with nearest-neighbor interpolation
+        instead of bilinear interpolation.
+        @see CoreGraphics#setInterpolation(int)
+    */
+    public static Step nearestNeighbor() {
+        return new Step() {
+            public void apply() {
+                Stage.getQualityGovernor().nearestNeighbor = true;
+            }
+            
+            public void revert() {
+                Stage.getQualityGovernor().nearestNeighbor = false;
+            }
+        };
+    }
+    
+    /**
+        A step that draws the Scene at a lower resolution. Add several of these steps, with 
+        decreasing scales, to choose the render scale based on the frame rate.
+        @see Stage#setRenderScale(float)
+    */
+    public static Step renderScale(final float scale) {
+        return new Step() {
+            private float oldScale = 1;
+            
+            public void apply() {
+                oldScale = Stage.getRenderScale();
+                Stage.setRenderScale(Math.min(oldScale, scale));
+            }
+            
+            public void revert() {
+                Stage.setRenderScale(oldScale);
+            }
+        };
+    }
+    
+    /**
+        A step that limits the quality of the app's Blur filters (and Glow and DropShadow).
+        @see Blur#setMaxQuality(int)
+    */
+    public static Step blurQuality(final int maxQuality) {
+        return new Step() {
+            private int oldMaxQuality;
+            
+            public void apply() {
+                oldMaxQuality = Blur.getMaxQuality();
+                Blur.setMaxQuality(Math.min(oldMaxQuality, maxQuality));
+            }
+            
+            public void revert() {
+                Blur.setMaxQuality(oldMaxQuality);
+            }
+        };
+    }
+    
+    /**
+        A step that removes the filters of the specified sprites, and restores them when
+        reverted.
+    */
+    public static Step disableFilters(final Sprite[] sprites) {
+        return new Step() {
+            private final Filter[] filters = new Filter[sprites.length];
+            
+            public void apply() {
+                for (int i = 0; i < sprites.length; i++) {
+                    filters[i] = sprites[i].getFilter();
+                    sprites[i].setFilter(null);
+                }
+            }
+            
+            public void revert() {
+                for (int i = 0; i < sprites.length; i++) {
+                    sprites[i].setFilter(filters[i]);
+                    filters[i] = null;
+                }
+            }
+        };
+    }
+    
+    /**
+        A step that limits the number of particles a ParticleEmitter can have.
+        @see ParticleEmitter#setParticleLimit(int)
+    */
+    public static Step limitParticles(final ParticleEmitter emitter, final int limit) {
+        return new Step() {
+            private int oldLimit;
+            
+            public void apply() {
+                oldLimit = emitter.getParticleLimit();
+                emitter.setParticleLimit(Math.min(oldLimit, limit));
+            }
+            
+            public void revert() {
+                emitter.setParticleLimit(oldLimit);
+            }
+        };
+    }
+}
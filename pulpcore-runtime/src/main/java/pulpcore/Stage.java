@@ -29,17 +29,22 @@
 
 package pulpcore;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.LinkedList;
 import pulpcore.image.Colors;
 import pulpcore.image.CoreFont;
 import pulpcore.image.CoreGraphics;
 import pulpcore.image.CoreImage;
+import pulpcore.image.filter.FilterStats;
 import pulpcore.math.CoreMath;
 import pulpcore.math.Rect;
 import pulpcore.math.Transform;
 import pulpcore.math.Tuple2i;
 import pulpcore.platform.AppContext;
 import pulpcore.platform.ConsoleScene;
+import pulpcore.platform.InputRecorder;
+import pulpcore.platform.InputReplay;
 import pulpcore.platform.PolledInput;
 import pulpcore.platform.SceneSelector;
 import pulpcore.platform.Surface;
@@ -80,6 +85,8 @@ public class Stage implements Runnable {
 
     private static final int DEFAULT_DEFAULT_FPS = HIGH_FPS;
     
+    private static final int DEFAULT_MAX_STEPS_PER_FRAME = 5;
+    
     /** Perform no auto scaling (default) */
     public static final int AUTO_OFF = 0;
     
@@ -95,6 +102,8 @@ public class Stage implements Runnable {
     */
     public static final int AUTO_FIT = 3;
     
+    private static final float MIN_RENDER_SCALE = 0.1f;
+    
     private static final int NO_NEXT_SCENE = 0;
     private static final int PUSH_SCENE = 1;
     private static final int POP_SCENE = 2;
@@ -113,6 +122,14 @@ public class Stage implements Runnable {
     private long frameRateDelay = 1000000L / DEFAULT_DEFAULT_FPS;
     private double actualFPS = -1;
     private long remainderMicros;
+    
+    // Fixed timestep. Time is accumulated in units of 1/(1000 * fixedUpdateRate) seconds,
+    // so one step is exactly 1000 units.
+    private int fixedUpdateRate = 0;
+    private int maxStepsPerFrame = DEFAULT_MAX_STEPS_PER_FRAME;
+    private long stepAccumulator;
+    private long stepCount;
+    private double interpolationAlpha = 1;
     private Thread animationThread;
     private final Surface surface;
     private boolean destroyed = false;
@@ -131,6 +148,25 @@ public class Stage implements Runnable {
     private int autoScaleType = AUTO_OFF;
     private Transform defaultTransform = new Transform();
     
+    // Render scale. When less than 1, the Scene is drawn to renderImage, which is upscaled 
+    // to the surface.
+    private volatile float renderScale = 1;
+    private volatile int renderInterpolation = CoreGraphics.INTERPOLATION_BILINEAR;
+    private float appliedRenderScale = 1;
+    private CoreImage renderImage;
+    private CoreGraphics renderGraphics;
+    private Rect[] scaledDirtyRectangles = new Rect[0];
+    
+    private final FrameProfiler frameProfiler = new FrameProfiler();
+    private final QualityGovernor qualityGovernor = new QualityGovernor();
+    
+    // Record and replay. The animation thread switches to a new recorder or replay at the
+    // start of a frame.
+    private volatile InputRecorder recorder;
+    private volatile InputReplay replay;
+    private InputRecorder frameRecorder;
+    private InputReplay frameReplay;
+    
     // Frame rate display (debug only)
     private boolean showInfoOverlay;
     private ImageSprite infoOverlay;
@@ -212,6 +248,50 @@ public class Stage implements Runnable {
         instance.setTransform();
     }
     
+    /**
+        Sets the resolution the Scene is drawn at, relative to the surface. If the scale is less
+        than 1, the Scene is drawn to an internal image of that size, which is then upscaled to
+        the surface with bilinear interpolation. Dirty rectangles are scaled along with it.
+        Filling pixels is usually the most expensive part of drawing, and drawing at a scale
+        of 0.5 fills a quarter of the pixels.
+        <p>
+        The Scene's coordinates, {@link #getWidth()} and {@link #getHeight()}, and the input
+        coordinates do not change. The default is 1, which draws directly to the surface.
+        The change takes effect on the next frame.
+        <p>
+        To choose the scale based on the frame rate, use a
+        {@link QualityGovernor#renderScale(float)} step.
+        @param scale The scale, from 0.1 to 1.
+        @see #setAutoScale(int, int, int)
+    */
+    public static void setRenderScale(float scale) {
+        Stage instance = getThisStage();
+        instance.renderScale = CoreMath.clamp(scale, MIN_RENDER_SCALE, 1);
+    }
+    
+    /**
+        Sets the resolution the Scene is drawn at, relative to the surface, and the 
+        interpolation used to upscale it to the surface.
+        @param scale The scale, from 0.1 to 1.
+        @param interpolation Either {@link CoreGraphics#INTERPOLATION_BILINEAR} or
+        {@link CoreGraphics#INTERPOLATION_NEAREST_NEIGHBOR}.
+        @see #setRenderScale(float)
+    */
+    public static void setRenderScale(float scale, int interpolation) {
+        Stage instance = getThisStage();
+        instance.renderInterpolation = interpolation;
+        setRenderScale(scale);
+    }
+    
+    /**
+        Gets the resolution the Scene is drawn at, relative to the surface.
+        @see #setRenderScale(float)
+    */
+    public static float getRenderScale() {
+        Stage instance = getThisStage();
+        return instance.renderScale;
+    }
+    
     /**
         Sets the desired frame rate in frames per second. The Stage will attempt
         to get as close to the desired frame rate as possible, but the actual 
@@ -287,6 +367,141 @@ public class Stage implements Runnable {
         return getThisStage().actualFPS;
     }
     
+    /**
+        Sets a fixed update rate, in updates per second. Scenes are then updated in fixed
+        steps instead of once per frame with the elapsed time. For example, at 120 updates per
+        second, {@code updateScene()} is called with 8 or 9 milliseconds (averaging 8 1/3),
+        as many times as needed to keep up with the clock. The simulation doesn't depend on
+        the frame rate, and under load it runs the same steps, just later.
+        <p>
+        At most {@code maxStepsPerFrame} steps run per frame. If the Stage falls further
+        behind, the extra time is dropped, and the simulation slows down rather than spending
+        even more time catching up.
+        <p>
+        If no step is due in a frame, {@code updateScene(0)} is called so that input is still
+        handled. If several steps run in one frame, input events (like key presses and typed
+        characters) are seen by the first step only.
+        <p>
+        Between steps, {@link #getInterpolationAlpha()} tells how far the clock is past the
+        last step, so that sprites can be drawn between their last two states.
+        @param updatesPerSecond the update rate, or 0 to update once per frame (the default).
+        @param maxStepsPerFrame the maximum number of steps per frame.
+    */
+    public static void setFixedUpdateRate(int updatesPerSecond, int maxStepsPerFrame) {
+        Stage instance = getThisStage();
+        if (instance.fixedUpdateRate != updatesPerSecond) {
+            instance.fixedUpdateRate = Math.max(0, updatesPerSecond);
+            instance.stepAccumulator = 0;
+            instance.stepCount = 0;
+            instance.interpolationAlpha = 1;
+        }
+        instance.maxStepsPerFrame = Math.max(1, maxStepsPerFrame);
+    }
+    
+    /**
+        Sets a fixed update rate, with at most 5 steps per frame.
+        @see #setFixedUpdateRate(int, int)
+    */
+    public static void setFixedUpdateRate(int updatesPerSecond) {
+        setFixedUpdateRate(updatesPerSecond, DEFAULT_MAX_STEPS_PER_FRAME);
+    }
+    
+    /**
+        Gets the fixed update rate, or 0 if the Scene is updated once per frame.
+        @see #setFixedUpdateRate(int, int)
+    */
+    public static int getFixedUpdateRate() {
+        return getThisStage().fixedUpdateRate;
+    }
+    
+    /**
+        Gets how far the clock is between the last fixed step and the next one, from 0 to 1.
+        A Scene can draw a sprite at {@code previous + (current - previous) * alpha}.
+        Returns 1 if there is no fixed update rate.
+        @see #setFixedUpdateRate(int, int)
+    */
+    public static double getInterpolationAlpha() {
+        return getThisStage().interpolationAlpha;
+    }
+    
+    /**
+        Gets the profiler that records how long each phase of recent frames took: input,
+        events, update, draw, sound, show, and sleep. The profiler is available in release
+        builds.
+    */
+    public static FrameProfiler getFrameProfiler() {
+        return getThisStage().frameProfiler;
+    }
+    
+    /**
+        Gets the governor that lowers rendering quality when frames take too long. The
+        governor does nothing until steps are added to it.
+    */
+    public static QualityGovernor getQualityGovernor() {
+        return getThisStage().qualityGovernor;
+    }
+    
+    /**
+        Starts recording the input and elapsed time of each frame to a log, which
+        {@link #startReplay(InputReplay)} can play back. Recording starts at the next frame,
+        and the app's random number generator used by {@link CoreMath#rand(int)} is seeded
+        then, so the log covers everything that makes the Scene behave differently from run
+        to run.
+        Events sent to {@link pulpcore.platform.AppContext#invokeLater(Runnable)} from other
+        threads are not recorded.
+        <p>
+        For a log that replays exactly, start recording before the Scene is updated the first
+        time, for example from {@link Scene#load()}. Any recording in progress is stopped.
+        @throws IOException if the log header could not be written.
+    */
+    public static void startRecording(OutputStream out) throws IOException {
+        Stage instance = getThisStage();
+        stopRecording();
+        instance.recorder = new InputRecorder(out, instance.surface.getWidth(), 
+            instance.surface.getHeight(), System.currentTimeMillis());
+    }
+    
+    /**
+        Stops recording, ends the log, and closes its stream.
+    */
+    public static void stopRecording() {
+        Stage instance = getThisStage();
+        InputRecorder r = instance.recorder;
+        instance.recorder = null;
+        if (r != null) {
+            try {
+                r.close();
+            }
+            catch (IOException ex) {
+                if (Build.DEBUG) CoreSystem.print("Couldn't close input log", ex);
+            }
+        }
+    }
+    
+    public static boolean isRecording() {
+        return getThisStage().recorder != null;
+    }
+    
+    /**
+        Plays back a log, starting at the next frame. Until {@link #stopReplay()} is called,
+        input and elapsed time come from the log instead of the platform; after the end of the
+        log, input is idle and no time passes. The app's random number generator is seeded
+        with the seed of the log.
+    */
+    public static void startReplay(InputReplay replay) {
+        Stage instance = getThisStage();
+        instance.replay = replay;
+    }
+    
+    public static void stopReplay() {
+        Stage instance = getThisStage();
+        instance.replay = null;
+    }
+    
+    public static boolean isReplaying() {
+        return getThisStage().replay != null;
+    }
+    
     public static void setDirtyRectangles(Rect[] dirtyRectangles) {
         if (dirtyRectangles == null) {
             setDirtyRectangles(null, 0);
@@ -633,16 +848,36 @@ public class Stage implements Runnable {
                 nextTimeMicros = lastTimeMicros + frameRateDelay;
                 elapsedTime = 0;
                 remainderMicros = 0;
+                stepAccumulator = 0;
             }
             if (currentScene == null) {
                 animationThreadStop();
                 break;
             }
             
+            frameProfiler.startFrame();
+            long frameStartNanos = System.nanoTime();
             boolean oldFocus = Input.hasKeyboardFocus();
             
+            // Start or stop recording and replay
+            InputRecorder r = recorder;
+            if (r != frameRecorder) {
+                frameRecorder = r;
+                if (r != null) {
+                    appContext.getRandom().setSeed(r.getRandomSeed());
+                }
+            }
+            InputReplay p = replay;
+            if (p != frameReplay) {
+                frameReplay = p;
+                if (p != null) {
+                    appContext.getRandom().setSeed(p.getRandomSeed());
+                }
+            }
+            
             // Capture input
             pollInput();
+            frameProfiler.endPhase(FrameProfiler.INPUT);
             
             // Redraw if the focus changed
             boolean focusedChanged = Input.hasKeyboardFocus() != oldFocus;
@@ -674,7 +909,7 @@ public class Stage implements Runnable {
             // drawScene()
             numDirtyRectangles = -1;
             
-            if (surface.contentsLost()) {
+            if (surface.contentsLost() || renderScale != appliedRenderScale) {
                 needsFullRedraw = true;
                 setTransform();
             }
@@ -682,18 +917,40 @@ public class Stage implements Runnable {
                 currentScene.redrawNotify();
             }
             
-            CoreGraphics g = surface.getGraphics();
+            CoreGraphics g = (renderImage != null) ? renderGraphics : surface.getGraphics();
             
             // Update and draw scene
             final Scene scene = currentScene;
             synchronized (scene) {
                 appContext.runEvents();
+                frameProfiler.endPhase(FrameProfiler.EVENTS);
+                
+                if (frameReplay != null) {
+                    elapsedTime = frameReplay.readElapsedTime();
+                }
+                if (frameRecorder != null) {
+                    try {
+                        frameRecorder.writeElapsedTime(elapsedTime);
+                    }
+                    catch (IOException ex) {
+                        recordingFailed(ex);
+                    }
+                }
                 
-                scene.updateScene(elapsedTime);
+                if (fixedUpdateRate > 0) {
+                    updateFixedSteps(scene, elapsedTime);
+                }
+                else {
+                    scene.updateScene(elapsedTime);
+                }
+                frameProfiler.endPhase(FrameProfiler.UPDATE);
                 
                 // Set the transform
                 // (Don't set the default transform for a Scene2D - it already handles it)
                 g.reset();
+                if (qualityGovernor.nearestNeighbor) {
+                    g.setInterpolation(CoreGraphics.INTERPOLATION_NEAREST_NEIGHBOR);
+                }
                 if (!(scene instanceof Scene2D)) {
                     g.getTransform().concatenate(defaultTransform);
                 }
@@ -721,6 +978,14 @@ public class Stage implements Runnable {
                     infoOverlay.draw(g);
                 }
             }
+            
+            Rect[] showRectangles = dirtyRectangles;
+            int numShowRectangles = numDirtyRectangles;
+            if (renderImage != null) {
+                numShowRectangles = drawRenderImage();
+                showRectangles = scaledDirtyRectangles;
+            }
+            frameProfiler.endPhase(FrameProfiler.DRAW);
                 
             // Send pending sound data to sound system
             // (Don't create the sound engine if it's not already created)
@@ -730,19 +995,25 @@ public class Stage implements Runnable {
                     (int)Math.round(1000 / fps));
                 CoreSystem.getPlatform().updateSoundEngine(estimatedTimeUntilNextUpdate);
             }
+            frameProfiler.endPhase(FrameProfiler.SOUND);
 
             // Show surface (blocks until surface is updated)
             long surfaceSleepTimeMicros;
-            if (surface.contentsLost() || numDirtyRectangles < 0) {
+            if (surface.contentsLost() || numShowRectangles < 0) {
                 surfaceSleepTimeMicros = surface.show();
             }
             else {
-                surfaceSleepTimeMicros = surface.show(dirtyRectangles, numDirtyRectangles);
+                surfaceSleepTimeMicros = surface.show(showRectangles, numShowRectangles);
             }
+            frameProfiler.endPhase(FrameProfiler.SHOW);
 
             appContext.notifyFrameComplete();
+            appContext.getFilterStats().nextFrame();
 
             // Sleep to create correct frame rate
+            // The QualityGovernor is fed its own measurement, so that it keeps working when
+            // the FrameProfiler is disabled.
+            long workNanos = System.nanoTime() - frameStartNanos;
             long currTimeMicros;
             if (frameRateDelay == 0) {
                 if (Build.DEBUG) {
@@ -765,7 +1036,12 @@ public class Stage implements Runnable {
                     overlaySleepTime += surfaceSleepTimeMicros + sleepTimeMicros;
                 }
             }
+            frameProfiler.endPhase(FrameProfiler.SLEEP);
             doInfoSample();
+            frameProfiler.endFrame();
+            if (frameRateDelay > 0) {
+                qualityGovernor.addFrame(workNanos, frameRateDelay * 1000);
+            }
 
             // Update elapsed time
             long elapsedTimeMicros = currTimeMicros - lastTimeMicros + remainderMicros;
@@ -785,6 +1061,55 @@ public class Stage implements Runnable {
         }
     }
     
+    private void updateFixedSteps(Scene scene, int elapsedTime) {
+        int rate = fixedUpdateRate;
+        stepAccumulator += (long)elapsedTime * rate;
+        if (stepAccumulator < 1000) {
+            // Let the scene handle input
+            scene.updateScene(0);
+        }
+        else {
+            int steps = 0;
+            while (stepAccumulator >= 1000 && steps < maxStepsPerFrame) {
+                if (steps == 1) {
+                    clearInputEvents();
+                }
+                // Step durations in milliseconds, like 8, 8, 9 at 120 updates per second,
+                // add up exactly to the elapsed time.
+                int stepTime = (int)((stepCount + 1) * 1000 / rate - stepCount * 1000 / rate);
+                scene.updateScene(stepTime);
+                stepAccumulator -= 1000;
+                stepCount++;
+                steps++;
+            }
+            if (stepAccumulator >= 1000) {
+                // Too far behind. Drop the time.
+                stepAccumulator %= 1000;
+            }
+        }
+        interpolationAlpha = stepAccumulator / 1000.0;
+    }
+    
+    /**
+        Changes key presses and releases to plain up or down states, so that an event is only
+        handled once when a frame runs several fixed steps.
+    */
+    private void clearInputEvents() {
+        PolledInput input = appContext.getPolledInput();
+        int[] keyStates = input.keyStates;
+        for (int i = 0; i < keyStates.length; i++) {
+            int state = keyStates[i];
+            if (state == Input.PRESSED || state == Input.REPEATED) {
+                keyStates[i] = Input.DOWN;
+            }
+            else if (state == Input.RELEASED) {
+                keyStates[i] = Input.UP;
+            }
+        }
+        input.typedChars = "";
+        input.mouseWheelRotation = 0;
+    }
+    
     private void doDestroy() {
         animationThread = Thread.currentThread();
         appContext.setAnimationThread(animationThread);
@@ -909,51 +1234,76 @@ public class Stage implements Runnable {
     
     private void setTransform() {
         defaultTransform.clear();
+        setRenderImage();
         
-        if (surface.getWidth() != naturalWidth || surface.getHeight() != naturalHeight) {
-            
+        // The size of the image the Scene is drawn to
+        int deviceWidth = surface.getWidth();
+        int deviceHeight = surface.getHeight();
+        if (renderImage != null) {
+            deviceWidth = renderImage.getWidth();
+            deviceHeight = renderImage.getHeight();
+        }
+        
+        if (renderImage != null || 
+            deviceWidth != naturalWidth || deviceHeight != naturalHeight) 
+        {
             float w = naturalWidth;
             float h = naturalHeight;
             
             switch (autoScaleType) {
                 default: case AUTO_OFF:
-                    // Do nothing
+                    if (renderImage != null) {
+                        defaultTransform.scale(
+                            CoreMath.toFixed((float)deviceWidth / surface.getWidth()),
+                            CoreMath.toFixed((float)deviceHeight / surface.getHeight()));
+                    }
                     break;
                     
                 case AUTO_CENTER:
-                    defaultTransform.translate(
-                        CoreMath.toFixed((surface.getWidth() - w) / 2),
-                        CoreMath.toFixed((surface.getHeight() - h) / 2));
+                    if (renderImage != null) {
+                        // Center on the surface, then scale down to the render image
+                        float sx = (float)deviceWidth / surface.getWidth();
+                        float sy = (float)deviceHeight / surface.getHeight();
+                        defaultTransform.translate(
+                            CoreMath.toFixed((surface.getWidth() - w) / 2 * sx),
+                            CoreMath.toFixed((surface.getHeight() - h) / 2 * sy));
+                        defaultTransform.scale(CoreMath.toFixed(sx), CoreMath.toFixed(sy));
+                    }
+                    else {
+                        defaultTransform.translate(
+                            CoreMath.toFixed((deviceWidth - w) / 2),
+                            CoreMath.toFixed((deviceHeight - h) / 2));
+                    }
                     break;
                     
                 case AUTO_STRETCH:
                     defaultTransform.scale(
-                        CoreMath.toFixed(surface.getWidth() / w),
-                        CoreMath.toFixed(surface.getHeight() / h));
+                        CoreMath.toFixed(deviceWidth / w),
+                        CoreMath.toFixed(deviceHeight / h));
                     break;
                     
                 case AUTO_FIT:
-                    float a = h * surface.getWidth();
-                    float b = w * surface.getHeight();
+                    float a = h * deviceWidth;
+                    float b = w * deviceHeight;
                     float newWidth;
                     float newHeight;
                     
                     if (a > b) {
-                        newHeight = surface.getHeight();
+                        newHeight = deviceHeight;
                         newWidth = (float)Math.floor(newHeight * w / h);
                     }
                     else if (a < b) {
-                        newWidth = surface.getWidth();
+                        newWidth = deviceWidth;
                         newHeight = (float)Math.floor(newWidth * h / w);
                     }
                     else {
-                        newWidth = surface.getWidth();
-                        newHeight = surface.getHeight();
+                        newWidth = deviceWidth;
+                        newHeight = deviceHeight;
                     }
                     
                     defaultTransform.translate(
-                        CoreMath.floor(CoreMath.toFixed((surface.getWidth() - newWidth) / 2)),
-                        CoreMath.floor(CoreMath.toFixed((surface.getHeight() - newHeight) / 2)));
+                        CoreMath.floor(CoreMath.toFixed((deviceWidth - newWidth) / 2)),
+                        CoreMath.floor(CoreMath.toFixed((deviceHeight - newHeight) / 2)));
                     // Kind of weird - looks good with the Flashlight example at various sizes
                     int scaleX = (int)Math.floor(CoreMath.ONE * newWidth / w - 1);
                     int scaleY = (int)Math.floor(CoreMath.ONE * newHeight / h - 1);
@@ -965,10 +1315,101 @@ public class Stage implements Runnable {
         }
     }
     
+    /**
+        Creates, resizes, or removes the render image for the current render scale.
+    */
+    private void setRenderImage() {
+        appliedRenderScale = renderScale;
+        int w = surface.getWidth();
+        int h = surface.getHeight();
+        if (appliedRenderScale >= 1 || w <= 0 || h <= 0) {
+            renderImage = null;
+            renderGraphics = null;
+            return;
+        }
+        
+        int renderWidth = Math.max(1, Math.round(w * appliedRenderScale));
+        int renderHeight = Math.max(1, Math.round(h * appliedRenderScale));
+        if (renderImage == null || renderImage.getWidth() != renderWidth ||
+            renderImage.getHeight() != renderHeight)
+        {
+            renderImage = new CoreImage(renderWidth, renderHeight, true);
+            renderGraphics = renderImage.createGraphics();
+            int bgColor = CoreSystem.getDefaultBackgroundColor();
+            if (bgColor != Colors.BLACK) {
+                renderGraphics.setColor(bgColor);
+                renderGraphics.fill();
+                renderGraphics.reset();
+            }
+        }
+    }
+    
+    /**
+        Upscales the render image to the surface. Only the dirty rectangles are drawn, scaled to
+        surface coordinates and stored in scaledDirtyRectangles.
+        @return the number of scaled dirty rectangles, or -1 if the entire surface was drawn.
+    */
+    private int drawRenderImage() {
+        int w = surface.getWidth();
+        int h = surface.getHeight();
+        int renderWidth = renderImage.getWidth();
+        int renderHeight = renderImage.getHeight();
+        
+        CoreGraphics g = surface.getGraphics();
+        g.reset();
+        g.setInterpolation(renderInterpolation);
+        g.setEdgeClamp(CoreGraphics.EDGE_CLAMP_ALL);
+        
+        if (surface.contentsLost() || numDirtyRectangles < 0) {
+            g.drawScaledImage(renderImage, 0, 0, w, h);
+            g.reset();
+            return -1;
+        }
+        
+        if (scaledDirtyRectangles.length < numDirtyRectangles) {
+            Rect[] newRects = new Rect[numDirtyRectangles];
+            System.arraycopy(scaledDirtyRectangles, 0, newRects, 0, scaledDirtyRectangles.length);
+            for (int i = scaledDirtyRectangles.length; i < newRects.length; i++) {
+                newRects[i] = new Rect();
+            }
+            scaledDirtyRectangles = newRects;
+        }
+        
+        for (int i = 0; i < numDirtyRectangles; i++) {
+            Rect r = dirtyRectangles[i];
+            // Bilinear filtering reads one pixel beyond each edge
+            int x1 = Math.max(0, (int)((long)(r.x - 1) * w / renderWidth));
+            int y1 = Math.max(0, (int)((long)(r.y - 1) * h / renderHeight));
+            int x2 = Math.min(w, 
+                (int)(((long)(r.x + r.width + 1) * w + renderWidth - 1) / renderWidth));
+            int y2 = Math.min(h, 
+                (int)(((long)(r.y + r.height + 1) * h + renderHeight - 1) / renderHeight));
+            Rect s = scaledDirtyRectangles[i];
+            s.setBounds(x1, y1, Math.max(0, x2 - x1), Math.max(0, y2 - y1));
+            g.setClip(s);
+            g.drawScaledImage(renderImage, 0, 0, w, h);
+        }
+        g.reset();
+        return numDirtyRectangles;
+    }
+    
     public void pollInput() {
-        appContext.pollInput();
+        if (frameReplay != null) {
+            frameReplay.readInput(appContext.getPolledInput());
+        }
+        else {
+            appContext.pollInput();
+        }
+        if (frameRecorder != null) {
+            try {
+                frameRecorder.writeInput(appContext.getPolledInput());
+            }
+            catch (IOException ex) {
+                recordingFailed(ex);
+            }
+        }
         
-        if (defaultTransform.getType() != Transform.TYPE_IDENTITY) {
+        if (defaultTransform.getType() != Transform.TYPE_IDENTITY || renderImage != null) {
             PolledInput p = appContext.getPolledInput();
             transform(p.mouse);
             transform(p.mousePress);
@@ -977,9 +1418,22 @@ public class Stage implements Runnable {
         }
     }
     
+    private void recordingFailed(IOException ex) {
+        if (Build.DEBUG) CoreSystem.print("Couldn't write input log", ex);
+        if (recorder == frameRecorder) {
+            recorder = null;
+        }
+        frameRecorder = null;
+    }
+    
     private final void transform(Tuple2i point) {
         int fx = CoreMath.toFixed(point.x);
         int fy = CoreMath.toFixed(point.y);
+        if (renderImage != null) {
+            // Surface space to render image space
+            fx = (int)((long)fx * renderImage.getWidth() / surface.getWidth());
+            fy = (int)((long)fy * renderImage.getHeight() / surface.getHeight());
+        }
         int tx = defaultTransform.inverseTransformX(fx, fy);
         int ty = defaultTransform.inverseTransformY(fx, fy);
         point.x = (tx == Integer.MAX_VALUE) ? tx : CoreMath.toInt(tx);
@@ -1130,9 +1584,11 @@ public class Stage implements Runnable {
             return;
         }
         
+        String[] filterInfo = getFilterInfo();
+        
         // Draw it
         int lineHeight = CoreFont.getSystemFont().getHeight() + 2;
-        int height = 32 + 5 + lineHeight;
+        int height = 32 + 5 + lineHeight + filterInfo.length * lineHeight;
         int activityX = 3;
         int activityY = lineHeight + 2;
         int activityWidth = 32;
@@ -1156,9 +1612,52 @@ public class Stage implements Runnable {
         memActivity.draw(g, activityX, activityY, 32); 
         g.drawString(memoryUsage, activityX + activityTextX, activityTextY);
         
+        for (int i = 0; i < filterInfo.length; i++) {
+            g.drawString(filterInfo[i], 3, activityY + 32 + 3 + i * lineHeight);
+        }
+        
         infoOverlay.setDirty(true);
     }
     
+    /**
+        Gets the filters that took the most time in the last frame: one line for the sprites,
+        and one line for the filter classes. Returns an empty array if no filters were used.
+    */
+    private String[] getFilterInfo() {
+        final int maxFilters = 3;
+        String sprites = "";
+        if (currentScene instanceof Scene2D) {
+            Sprite[] filtered = ((Scene2D)currentScene).getFilteredSprites();
+            for (int i = 0; i < filtered.length && i < maxFilters; i++) {
+                FilterStats stats = filtered[i].getFilter().getStats();
+                if (stats.getLastFrameNanos() == 0) {
+                    break;
+                }
+                String name = filtered[i].getClass().getName();
+                name = name.substring(name.lastIndexOf('.') + 1);
+                if (filtered[i].getTag() != null) {
+                    name += " " + filtered[i].getTag();
+                }
+                sprites += (i > 0 ? ", " : "") + stats.getName() + " on " + name + " " +
+                    FilterStats.toMillis(stats.getLastFrameNanos()) + "ms";
+            }
+        }
+        String classes = "";
+        FilterStats[] classStats = FilterStats.getClassStats();
+        for (int i = 0; i < classStats.length && i < maxFilters; i++) {
+            if (classStats[i].getLastFrameNanos() == 0) {
+                break;
+            }
+            classes += (i > 0 ? ", " : "") + classStats[i].getName() + " " +
+                FilterStats.toMillis(classStats[i].getLastFrameNanos()) + "ms (" +
+                (classStats[i].getOutputBytes() >> 10) + " KB)";
+        }
+        if (sprites.length() == 0 && classes.length() == 0) {
+            return new String[0];
+        }
+        return new String[] { "Filters: " + sprites, "Filter classes: " + classes };
+    }
+    
     
     static class Activity {
         
@@ -261,7 +261,7 @@ public class AnimatedImage extends CoreImage {
         }
         
         CoreImage image = getImage(frame);
-        setData(image.getData());
+        setData(image);
         setOpaque(image.isOpaque());
         if (differentHotSpotPerFrame) {
             setHotspot(image.getHotspotX(), image.getHotspotY()); 
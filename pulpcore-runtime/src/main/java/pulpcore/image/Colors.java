@@ -39,6 +39,18 @@ public class Colors {
     // Prevent instantiation
     private Colors() { }
     
+    /*
+        Reciprocals for unpremultiplying: (c * UNPREMULTIPLY_TABLE[a]) >>> 16 is exactly
+        255 * c / a for every c <= a. The product can exceed 2^31, hence the unsigned shift.
+    */
+    private static final int[] UNPREMULTIPLY_TABLE = new int[256];
+    
+    static {
+        for (int a = 1; a < 256; a++) {
+            UNPREMULTIPLY_TABLE[a] = (255 * 65536 + a - 1) / a;
+        }
+    }
+    
     /** Fully transparent color. Same as {@code gray(0, 0)}. */
     public static final int TRANSPARENT = gray(0, 0);
     
@@ -475,9 +487,10 @@ public class Colors {
             int r = (argbColor >> 16) & 0xff;
             int g = (argbColor >> 8) & 0xff;
             int b = argbColor & 0xff;
-            r = (a * r + 127) / 255;
-            g = (a * g + 127) / 255;
-            b = (a * b + 127) / 255;
+            // Same as (a * c + 127) / 255 for all a and c from 0 to 255
+            r = ((a * r + 127) * 0x8081) >>> 23;
+            g = ((a * g + 127) * 0x8081) >>> 23;
+            b = ((a * b + 127) * 0x8081) >>> 23;
             return (a << 24) | (r << 16) | (g << 8) | b;
         }
     }
@@ -501,9 +514,10 @@ public class Colors {
             int g = (rgbColor >> 8) & 0xff;
             int b = rgbColor & 0xff;
 
-            r = (alpha * r + 127) / 255;
-            g = (alpha * g + 127) / 255;
-            b = (alpha * b + 127) / 255;
+            // Same as (alpha * c + 127) / 255 for all alpha and c from 0 to 255
+            r = ((alpha * r + 127) * 0x8081) >>> 23;
+            g = ((alpha * g + 127) * 0x8081) >>> 23;
+            b = ((alpha * b + 127) * 0x8081) >>> 23;
             return (alpha << 24) | (r << 16) | (g << 8) | b;
         }
     }
@@ -527,9 +541,10 @@ public class Colors {
             int g = (preARGBColor >> 8) & 0xff;
             int b = preARGBColor & 0xff;
         
-            r = 255 * r / a;
-            g = 255 * g / a;
-            b = 255 * b / a;
+            int recip = UNPREMULTIPLY_TABLE[a];
+            r = (r * recip) >>> 16;
+            g = (g * recip) >>> 16;
+            b = (b * recip) >>> 16;
             return (a << 24) | (r << 16) | (g << 8) | b;
         }
     }
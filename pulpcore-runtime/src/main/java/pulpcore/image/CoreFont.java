@@ -45,7 +45,7 @@ public class CoreFont {
     private static final long MAGIC = 0x70756c70666e740bL; // "pulpfnt" 0.11
     
     // HashMap<String, WeakReference<CoreFont>>
-    private static HashMap loadedFonts = new HashMap();
+    private static final HashMap loadedFonts = new HashMap();
     private static CoreFont systemFont;
     
     private CoreImage image;
@@ -89,14 +89,16 @@ public class CoreFont {
     public static CoreFont load(String fontAsset) {
         
         // Attempt to load from the cache
-        WeakReference fontRef = (WeakReference)loadedFonts.get(fontAsset);
-        if (fontRef != null) {
-            CoreFont font = (CoreFont)fontRef.get();
-            if (font != null) {
-                return font;
-            }
-            else {
-                loadedFonts.remove(fontAsset);
+        synchronized (loadedFonts) {
+            WeakReference fontRef = (WeakReference)loadedFonts.get(fontAsset);
+            if (fontRef != null) {
+                CoreFont font = (CoreFont)fontRef.get();
+                if (font != null) {
+                    return font;
+                }
+                else {
+                    loadedFonts.remove(fontAsset);
+                }
             }
         }
         
@@ -104,7 +106,9 @@ public class CoreFont {
         CoreImage.load(fontAsset, font);
         
         if (font.image != null) {
-            loadedFonts.put(fontAsset, new WeakReference(font));
+            synchronized (loadedFonts) {
+                loadedFonts.put(fontAsset, new WeakReference(font));
+            }
             return font;
         }
         else if ("system.font.png".equals(fontAsset)) {
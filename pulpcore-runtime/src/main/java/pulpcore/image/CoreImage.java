@@ -32,6 +32,7 @@ package pulpcore.image;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.WeakHashMap;
 import pulpcore.Assets;
 import pulpcore.Build;
 import pulpcore.CoreSystem;
@@ -50,13 +51,20 @@ import pulpcore.util.ByteArray;
 public class CoreImage {
     
     // HashMap<String, WeakReference<? extends CoreImage>>
-    private static HashMap loadedImages = new HashMap();
+    private static final HashMap loadedImages = new HashMap();
     private static CoreImage brokenImage;
     
+    // WeakHashMap<int[], CollisionMask>
+    // Collision masks are keyed by raster data so that images sharing a raster share a mask.
+    // A mask is only used by images with the same size, opacity, and modification count.
+    private static final WeakHashMap collisionMasks = new WeakHashMap();
+    
     private int width;
     private int height;
     private boolean isOpaque;
     private int[] data;
+    // The modification count of the raster, shared by all CoreImages that share the raster
+    private int[] modCount = new int[1];
     
     // This might be used in the future
     //private boolean sharedRaster;
@@ -71,6 +79,9 @@ public class CoreImage {
     */
     private int hotspotY;
     
+    /** The collision mask of this image, or null if it hasn't been created yet. */
+    private CollisionMask collisionMask;
+    
     /**
         Creates an opaque image, initially black.
     */
@@ -117,17 +128,54 @@ public class CoreImage {
         this.height = image.height;
         this.isOpaque = image.isOpaque;
         this.data = image.getData();
+        this.modCount = image.modCount;
         this.hotspotX = image.hotspotX;
         this.hotspotY = image.hotspotY;
         //this.sharedRaster = true;
     }
     
+    /**
+        Creates an image with the specified dimensions that uses this image's raster data.
+        The length of the raster data must be greater than or equal to width * height. Both
+        images share the modification count, so a change made through one of them (see
+        {@link #setModified()}) is seen by filters that use the other.
+    */
+    public CoreImage createView(int width, int height, boolean isOpaque) {
+        if (width * height > data.length) {
+            throw new IllegalArgumentException("Raster too small");
+        }
+        CoreImage view = new CoreImage(width, height, isOpaque, data);
+        view.modCount = modCount;
+        return view;
+    }
+
     /**
         Creates a new CoreGaphics context for drawing onto this image. 
     */
     public CoreGraphics createGraphics() {
+        modCount[0]++;
         return new CoreGraphics(this);
     }
+
+    /**
+        Gets the modification count of this image's raster data. The count is incremented each
+        time {@link #createGraphics()} or {@link #setModified()} is called on this image or on
+        any image that shares its raster data (like the images returned by
+        {@link #load(String)}). Filters use the count to decide whether an output filtered from
+        this image can be shared.
+    */
+    public int getModCount() {
+        return modCount[0];
+    }
+
+    /**
+        Marks this image's raster data as modified. Apps that modify the array returned by
+        {@link #getData()} directly should call this method afterwards if the image is used as
+        the input of a filter.
+    */
+    public void setModified() {
+        modCount[0]++;
+    }
     
     /* package-private */ final void setOpaque(boolean isOpaque) {
         this.isOpaque = isOpaque;
@@ -179,6 +227,157 @@ public class CoreImage {
         }
     }
     
+    /**
+        Gets the 1-bit collision mask of this image. A bit is set for every pixel that is not
+        transparent (see {@link #isTransparent(int, int)}).
+        <p>
+        Each row is packed into {@code (getWidth() + 63) / 64} longs. The bit for the pixel at
+        (x, y) is bit {@code (x & 63)} of the long at index
+        {@code y * ((getWidth() + 63) / 64) + (x >> 6)}. Unused bits at the end of each row are
+        always zero.
+        <p>
+        The mask is created the first time this method is called, and is shared with other
+        CoreImages that share the same raster data, size, and opacity. It is created again if
+        the raster data was modified since (see {@link #getModCount()}). Unlike
+        {@link #isTransparent(int, int)}, the mask does not see changes that don't increment
+        the modification count, like drawing with a CoreGraphics kept from an earlier call to
+        {@link #createGraphics()}. After such changes, call {@link #setModified()} or
+        {@link #invalidateCollisionMask()}.
+        @see #getCollisionMask(int, int, int, long[])
+    */
+    public final long[] getCollisionMask() {
+        CollisionMask mask = collisionMask;
+        if (mask == null || !mask.matches(this)) {
+            synchronized (collisionMasks) {
+                mask = (CollisionMask)collisionMasks.get(data);
+                if (mask == null || !mask.matches(this)) {
+                    mask = new CollisionMask(this, createCollisionMask());
+                    collisionMasks.put(data, mask);
+                }
+            }
+            collisionMask = mask;
+        }
+        return mask.bits;
+    }
+    
+    /**
+        Copies a horizontal run of collision mask bits to the specified array. Bit {@code i} of
+        the destination (bit {@code (i & 63)} of {@code dest[i >> 6]}) is set if the pixel at
+        ({@code x + i}, {@code y}) is not transparent. Locations outside the bounds of this image
+        are treated as transparent, so the location may be partially or completely out of bounds.
+        @param x the x location of the first pixel. May be negative.
+        @param y the y location of the row.
+        @param length the number of pixels to copy.
+        @param dest the destination array, which must have a length of at least
+        {@code (length + 63) / 64}.
+    */
+    public final void getCollisionMask(int x, int y, int length, long[] dest) {
+        int numWords = (length + 63) >> 6;
+        if (y < 0 || y >= height || x >= width || x + length <= 0) {
+            for (int i = 0; i < numWords; i++) {
+                dest[i] = 0;
+            }
+            return;
+        }
+        
+        long[] mask = getCollisionMask();
+        int stride = (width + 63) >> 6;
+        int rowOffset = y * stride;
+        // The shift amount is the same for every word. Note that (x >> 6) floors for
+        // negative x, and (x & 63) is always positive.
+        int srcWord = x >> 6;
+        int shift = x & 63;
+        for (int i = 0; i < numWords; i++) {
+            long lo = (srcWord >= 0 && srcWord < stride) ? mask[rowOffset + srcWord] : 0;
+            long bits = lo >>> shift;
+            if (shift != 0) {
+                int nextWord = srcWord + 1;
+                long hi = (nextWord >= 0 && nextWord < stride) ? mask[rowOffset + nextWord] : 0;
+                bits |= hi << (64 - shift);
+            }
+            dest[i] = bits;
+            srcWord++;
+        }
+        int extraBits = length & 63;
+        if (extraBits != 0) {
+            dest[numWords - 1] &= (1L << extraBits) - 1;
+        }
+    }
+    
+    /**
+        Discards the collision mask of this image, and of any images that share the same
+        raster data. Call this method after modifying the raster data of an image used for
+        pixel-level collision detection.
+        @see #getCollisionMask()
+    */
+    public final void invalidateCollisionMask() {
+        synchronized (collisionMasks) {
+            collisionMasks.remove(data);
+        }
+        collisionMask = null;
+    }
+    
+    private static final class CollisionMask {
+        
+        final long[] bits;
+        private final int width;
+        private final int height;
+        private final boolean isOpaque;
+        // The modification count is compared by identity, too, since images that don't share
+        // a count can share a raster (see CoreImage(int, int, boolean, int[])). A count is only
+        // shared by images with the same raster, so the raster isn't kept here (it is the key
+        // of the weak map).
+        private final int[] modCountRef;
+        private final int modCount;
+        
+        CollisionMask(CoreImage image, long[] bits) {
+            this.bits = bits;
+            this.width = image.width;
+            this.height = image.height;
+            this.isOpaque = image.isOpaque;
+            this.modCountRef = image.modCount;
+            this.modCount = image.modCount[0];
+        }
+        
+        boolean matches(CoreImage image) {
+            return (modCountRef == image.modCount &&
+                modCount == image.modCount[0] &&
+                width == image.width &&
+                height == image.height &&
+                isOpaque == image.isOpaque);
+        }
+    }
+    
+    private long[] createCollisionMask() {
+        int stride = (width + 63) >> 6;
+        long[] mask = new long[stride * height];
+        if (isOpaque) {
+            int extraBits = width & 63;
+            long lastWord = (extraBits == 0) ? -1L : (1L << extraBits) - 1;
+            for (int y = 0; y < height; y++) {
+                int offset = y * stride;
+                for (int i = 0; i < stride - 1; i++) {
+                    mask[offset + i] = -1L;
+                }
+                if (stride > 0) {
+                    mask[offset + stride - 1] = lastWord;
+                }
+            }
+        }
+        else {
+            int srcOffset = 0;
+            for (int y = 0; y < height; y++) {
+                int offset = y * stride;
+                for (int x = 0; x < width; x++) {
+                    if ((data[srcOffset++] >>> 24) != 0) {
+                        mask[offset + (x >> 6)] |= 1L << (x & 63);
+                    }
+                }
+            }
+        }
+        return mask;
+    }
+    
     /**
         Gets the ARGB color at the specified location.
         @throws IllegalArgumentException if the specified location is out of bounds.
@@ -193,8 +392,12 @@ public class CoreImage {
         }
     }
     
-    /* package-private */ final void setData(int[] data) {
-        this.data = data;
+    /**
+        Uses the raster data, and the modification count, of another image.
+    */
+    /* package-private */ final void setData(CoreImage image) {
+        this.data = image.data;
+        this.modCount = image.modCount;
     }
     
     /**
@@ -288,22 +491,25 @@ public class CoreImage {
         //if (Build.DEBUG) CoreSystem.print("Loading: " + imageAsset);
         
         // Attempt to load from the cache
-        WeakReference imageRef = (WeakReference)loadedImages.get(imageAsset);
-        if (imageRef != null) {
-            CoreImage image = (CoreImage)imageRef.get();
-            if (image != null) {
-                if (image instanceof AnimatedImage) {
-                    // Create a new copy that has its own timeline
-                    // (The raster data is shared)
-                    return new AnimatedImage((AnimatedImage)image);
-                }
-                else {
-                    // Create a new copy (The raster data is shared)
-                    return new CoreImage(image);
+        CoreImage cachedImage = null;
+        synchronized (loadedImages) {
+            WeakReference imageRef = (WeakReference)loadedImages.get(imageAsset);
+            if (imageRef != null) {
+                cachedImage = (CoreImage)imageRef.get();
+                if (cachedImage == null) {
+                    loadedImages.remove(imageAsset);
                 }
             }
+        }
+        if (cachedImage != null) {
+            if (cachedImage instanceof AnimatedImage) {
+                // Create a new copy that has its own timeline
+                // (The raster data is shared)
+                return new AnimatedImage((AnimatedImage)cachedImage);
+            }
             else {
-                loadedImages.remove(imageAsset);
+                // Create a new copy (The raster data is shared)
+                return new CoreImage(cachedImage);
             }
         }
         
@@ -335,7 +541,9 @@ public class CoreImage {
             }
         }
         
-        loadedImages.put(imageAsset, new WeakReference(image));
+        synchronized (loadedImages) {
+            loadedImages.put(imageAsset, new WeakReference(image));
+        }
         
         return image;
     }
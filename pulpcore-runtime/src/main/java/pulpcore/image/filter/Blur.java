@@ -29,6 +29,7 @@
 package pulpcore.image.filter;
 
 
+import pulpcore.CoreSystem;
 import pulpcore.animation.Bool;
 import pulpcore.animation.Fixed;
 import pulpcore.animation.Int;
@@ -36,6 +37,8 @@ import pulpcore.image.Colors;
 import pulpcore.image.CoreGraphics;
 import pulpcore.image.CoreImage;
 import pulpcore.math.CoreMath;
+import pulpcore.platform.AppContext;
+import pulpcore.platform.WorkerPool;
 
 /*
  Inspired by Florent Dupont who was inspired by Romain Guy. Changes:
@@ -58,16 +61,16 @@ public class Blur extends Filter {
 
     private static final int BORDER_COLOR = Colors.TRANSPARENT;
 
-    // Work buffers. Total overhead is (w * 4 * 4 + 256 * 3 * 4) bytes
+    // Work buffers. Total overhead is (w * 4 * 4 + 256 * 3 * 4) bytes per thread
     // Where w = (maxImageWidth + (MAX_RADIUS+1)*2+1)
-    private static int[] columnSumA = new int[1024];
-    private static int[] columnSumR = new int[1024];
-    private static int[] columnSumG = new int[1024];
-    private static int[] columnSumB = new int[1024];
+    // ThreadLocal<int[4][w]>
+    private static final ThreadLocal columnSums = new ThreadLocal();
     private static final int[] colorTable = new int[256];
     private static final int[] colorTablef = new int[256];
     private static final int[] colorTable1f = new int[256];
     private static final Object lock = new Object();
+    // The maximum quality outside of an app. Each app has its own (see AppContext).
+    private static volatile int defaultMaxQuality = 15;
 
     /**
         The blur radius. The radius can range from 0 (no blur) to 255. The default value is 4.
@@ -90,6 +93,34 @@ public class Blur extends Filter {
     private int lastUpdateTime;
     // For quality > 1
     private CoreImage workBuffer;
+    private FilterCache.Entry blurredInput;
+
+    /**
+        Limits the quality of all blur filters of the current app, including Glow and
+        DropShadow, for example, to render faster when the frame rate drops. The default is 15,
+        the highest quality. Other apps running in the same JVM are not affected.
+        @see pulpcore.QualityGovernor#blurQuality(int)
+        @see AppContext#setMaxBlurQuality(int)
+    */
+    public static void setMaxQuality(int maxQuality) {
+        maxQuality = CoreMath.clamp(maxQuality, 0, 15);
+        AppContext context = CoreSystem.getThisAppContext();
+        if (context == null) {
+            defaultMaxQuality = maxQuality;
+        }
+        else {
+            context.setMaxBlurQuality(maxQuality);
+        }
+    }
+
+    /**
+        Gets the maximum quality of the blur filters of the current app.
+        @see #setMaxQuality(int)
+    */
+    public static int getMaxQuality() {
+        AppContext context = CoreSystem.getThisAppContext();
+        return (context == null) ? defaultMaxQuality : context.getMaxBlurQuality();
+    }
 
     /**
         Creates a blur filter with a radius of 4 and a quality of 1.
@@ -150,6 +181,58 @@ public class Blur extends Filter {
         return new Blur(this);
     }
 
+    protected String getParameterKey() {
+        // Subclasses may have other parameters.
+        // The key matches getBlurredInput(), so a Blur shares its output with a Glow or
+        // DropShadow that blurs the same input.
+        return (getClass() == Blur.class) ? getBlurredInputKey(isOpaque()) : null;
+    }
+
+    /* package private */ String getBlurParameterKey() {
+        return actualRadius + "," + actualQuality + "," + autoExpand.get();
+    }
+
+    private String getBlurredInputKey(boolean clamp) {
+        return getBlurParameterKey() + "," + clamp;
+    }
+
+    /* package private */ void notifyInputChanged() {
+        releaseBlurredInput();
+    }
+
+    /**
+        Gets the blurred input, positioned like the output of a plain Blur (with no shift).
+        The blurred image is shared, via the FilterCache, by filters that blur the same input
+        with the same radius and quality, and it is kept until the input changes. Subclasses
+        that draw on top of the blur (like Glow and DropShadow) use it so that changing only
+        their other parameters (like the glow amount or the shadow color) doesn't blur again.
+        The returned image must not be modified.
+    */
+    /* package private */ CoreImage getBlurredInput(CoreImage input, boolean clamp) {
+        FilterCache.Key key = new FilterCache.Key(Blur.class, getBlurredInputKey(clamp), input);
+        if (blurredInput != null && blurredInput.key.equals(key)) {
+            return blurredInput.image;
+        }
+        releaseBlurredInput();
+        blurredInput = FilterCache.acquire(key, this);
+        if (blurredInput == null) {
+            int e = autoExpand.get() ? autoExpandSize() : 0;
+            CoreImage image = getImageFromCache(input.getWidth() + e*2, input.getHeight() + e*2,
+                input.isOpaque() && !autoExpand.get());
+            // Shift so that the input is drawn at (e, e), like a plain Blur
+            filter(input, image, getX() + e, getY() + e, clamp);
+            blurredInput = FilterCache.put(key, image, this);
+        }
+        return blurredInput.image;
+    }
+
+    private void releaseBlurredInput() {
+        if (blurredInput != null) {
+            FilterCache.release(blurredInput, this);
+            blurredInput = null;
+        }
+    }
+
     public void update(int elapsedTime) {
 
         time += elapsedTime;
@@ -165,7 +248,7 @@ public class Blur extends Filter {
             r &= 0xffffe000;
         }
 
-        int q = CoreMath.clamp(quality.get(), 0, 15);
+        int q = CoreMath.clamp(quality.get(), 0, getMaxQuality());
         if (isDirty() || actualQuality != q || CPU_TEST) {
             actualQuality = q;
             actualRadius = r;
@@ -238,6 +321,12 @@ public class Blur extends Filter {
         return (isInputOpaque() && !autoExpand.get());
     }
 
+    public int getSupportRadius() {
+        // Each pass spreads each pixel by up to the radius (rounded up), plus one pixel for
+        // the fractional part
+        return actualQuality * (CoreMath.toIntCeil(actualRadius) + 1);
+    }
+
     protected void filter(CoreImage input, CoreImage output) {
         // If true, the outside of the image is the same pixels as the border.
         // If false, the outside of the image is considered BORDER_COLOR.
@@ -279,13 +368,6 @@ public class Blur extends Filter {
             // Synchronized because it uses shared static buffers.
             // A thread-safe implementation might store the buffers as a thread-local variable instead.
             synchronized (lock) {
-                int w = output.getWidth() + (MAX_RADIUS+1)*2+1;
-                if (w > columnSumA.length) {
-                    columnSumA = new int[w];
-                    columnSumR = new int[w];
-                    columnSumG = new int[w];
-                    columnSumB = new int[w];
-                }
                 CoreImage src = input;
                 CoreImage dst = ((actualQuality & 1) == 1) ? output : workBuffer;
                 CoreImage wrk = ((actualQuality & 1) == 1) ? workBuffer : output;
@@ -303,21 +385,12 @@ public class Blur extends Filter {
         }
     }
 
-    private void filter(CoreImage src, CoreImage dst, final int r, 
+    private void filter(final CoreImage src, final CoreImage dst, final int r,
             final int offsetX, final int offsetY, final boolean clamp)
     {
-        final int srcWidth = src.getWidth();
-        final int srcHeight = src.getHeight();
-        final int dstWidth = dst.getWidth();
-        final int dstHeight = dst.getHeight();
-        final int[] srcData = src.getData();
-        final int[] dstData = dst.getData();
-
-        final int rInt = CoreMath.toIntFloor(r);
         final int f = CoreMath.fracPart(r);
         final long windowLength = r * 2 + CoreMath.ONE;
         final long windowArea = CoreMath.mul(windowLength, windowLength);
-        final int columnOffset = rInt + 1;
 
         for (int i = 0; i < 256; i++) {
             int c = CoreMath.clamp(i, 0, 255);
@@ -328,6 +401,44 @@ public class Blur extends Filter {
             colorTable1f[i] = colorTable[i] - colorTablef[i];
         }
 
+        // The column sums are exact integers, so each band of rows can start with
+        // its own column sums and get the same result as a single pass.
+        invokeRows(dst.getWidth(), dst.getHeight(), new WorkerPool.Task() {
+            public void run(int startRow, int endRow) {
+                filterRows(src, dst, r, offsetX, offsetY, clamp, startRow, endRow);
+            }
+        });
+    }
+
+    private static int[][] getColumnSums(int w) {
+        int[][] sums = (int[][])columnSums.get();
+        if (sums == null || sums[0].length < w) {
+            sums = new int[4][Math.max(w, 1024)];
+            columnSums.set(sums);
+        }
+        return sums;
+    }
+
+    private void filterRows(CoreImage src, CoreImage dst, final int r,
+            final int offsetX, final int offsetY, final boolean clamp,
+            final int startRow, final int endRow)
+    {
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int dstWidth = dst.getWidth();
+        final int[] srcData = src.getData();
+        final int[] dstData = dst.getData();
+
+        final int rInt = CoreMath.toIntFloor(r);
+        final int f = CoreMath.fracPart(r);
+        final int columnOffset = rInt + 1;
+
+        int[][] sums = getColumnSums(dstWidth + (MAX_RADIUS+1)*2+1);
+        final int[] columnSumA = sums[0];
+        final int[] columnSumR = sums[1];
+        final int[] columnSumG = sums[2];
+        final int[] columnSumB = sums[3];
+
         // Setup column sums for first destination row
 
         int limit = (f == 0 || INTEGER_ONLY) ? rInt : rInt + 1;
@@ -344,7 +455,7 @@ public class Blur extends Filter {
             columnSumB[index] = 0;
 
             for (int i = -limit; i <= limit; i++) {
-                int srcY = i - offsetY;
+                int srcY = startRow + i - offsetY;
                 if (clamp) {
                     srcY = CoreMath.clamp(srcY, 0, srcHeight-1);
                 }
@@ -366,8 +477,8 @@ public class Blur extends Filter {
             }
         }
 
-        int dstRowIndex = 0;
-        for (int y = 0; y < dstHeight; y++) {
+        int dstRowIndex = startRow * dstWidth;
+        for (int y = startRow; y < endRow; y++) {
 
             if (f == 0 || INTEGER_ONLY) {
                 // Setup pixel sum for (0, y)
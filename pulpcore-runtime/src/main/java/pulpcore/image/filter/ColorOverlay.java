@@ -42,7 +42,7 @@ import pulpcore.math.CoreMath;
     The ColorOverlay filter fills visible pixels of an input image with a color, optionally drawing
      the color over the existing input pixels if alpha is less than 255.
  */
-public final class ColorOverlay extends Filter {
+public final class ColorOverlay extends PointFilter {
 
     private final PropertyListener updater = new PropertyListener() {
         public void propertyChange(Property property) {
@@ -64,6 +64,7 @@ public final class ColorOverlay extends Filter {
 
     private boolean colorDirty = true;
     private int[] colorTable = new int[256];
+    private int actualAlpha;
 
     /**
         Creates a ColorOverlay filter with the specified color.
@@ -87,8 +88,18 @@ public final class ColorOverlay extends Filter {
         return copy;
     }
 
-    public boolean isOpaque() {
-        return (super.isOpaque() && (color.get() >>> 24) == 255);
+    protected String getParameterKey() {
+        return color.get() + "," + CoreMath.clamp(alpha.get(), 0, 255);
+    }
+
+    protected boolean isOpaque(boolean inputOpaque) {
+        return (inputOpaque && (color.get() >>> 24) == 255);
+    }
+
+    protected boolean isPointwise() {
+        // The partial overlay is drawn with a DstOver blend
+        int alphaFilter = CoreMath.clamp(alpha.get(), 0, 255);
+        return alphaFilter == 0 || alphaFilter == 255;
     }
 
     public void update(int elapsedTime) {
@@ -96,25 +107,40 @@ public final class ColorOverlay extends Filter {
         alpha.update(elapsedTime);
     }
 
-    protected void filter(CoreImage src, CoreImage dst) {
-        int alphaFilter = CoreMath.clamp(alpha.get(), 0, 255);
+    protected void prepare() {
+        actualAlpha = CoreMath.clamp(alpha.get(), 0, 255);
         if (colorDirty) {
             int rgbColor = Colors.rgb(color.get());
-            int alphaColor = (Colors.getAlpha(color.get()) * alphaFilter) / 255;
+            int alphaColor = (Colors.getAlpha(color.get()) * actualAlpha) / 255;
             for (int i = 0; i < 256; i++) {
                 colorTable[i] = Colors.premultiply(rgbColor, (alphaColor * i) / 255);
             }
             colorDirty = false;
         }
+    }
+
+    protected int filterPixel(int argb) {
+        if (actualAlpha == 0) {
+            return argb;
+        }
+        else {
+            return colorTable[argb >>> 24];
+        }
+    }
+
+    protected void filter(CoreImage src, CoreImage dst) {
+        prepare();
+        int alphaFilter = actualAlpha;
 
         int[] srcPixels = src.getData();
         int[] dstPixels = dst.getData();
+        int size = src.getWidth() * src.getHeight();
         
         if (alphaFilter == 0) {
-            System.arraycopy(srcPixels, 0, dstPixels, 0, srcPixels.length);
+            System.arraycopy(srcPixels, 0, dstPixels, 0, size);
         }
         else {
-            for (int i = 0; i < srcPixels.length; i++) {
+            for (int i = 0; i < size; i++) {
                 dstPixels[i] = colorTable[srcPixels[i] >>> 24];
             }
             if (alphaFilter < 255) {
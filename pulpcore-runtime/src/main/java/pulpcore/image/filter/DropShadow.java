@@ -36,6 +36,7 @@ import pulpcore.image.Colors;
 import pulpcore.image.CoreGraphics;
 import pulpcore.image.CoreImage;
 import pulpcore.math.CoreMath;
+import pulpcore.platform.WorkerPool;
 
 /**
     A simple drop shadow.
@@ -130,6 +131,15 @@ public class DropShadow extends Blur {
         return new DropShadow(this);
     }
 
+    protected String getParameterKey() {
+        if (getClass() != DropShadow.class) {
+            // Subclasses may have other parameters
+            return null;
+        }
+        return getBlurParameterKey() + "," + shadowOffsetX.get() + "," +
+            shadowOffsetY.get() + "," + color.get();
+    }
+
     public void update(int elapsedTime) {
         shadowOffsetX.update(elapsedTime);
         shadowOffsetY.update(elapsedTime);
@@ -151,6 +161,11 @@ public class DropShadow extends Blur {
         return false;
     }
 
+    public int getSupportRadius() {
+        return super.getSupportRadius() +
+            Math.max(CoreMath.abs(shadowOffsetX.get()), CoreMath.abs(shadowOffsetY.get()));
+    }
+
     // TODO: The bounds could use some optimizations for large shadow offsets
     
     public int getX() {
@@ -179,23 +194,64 @@ public class DropShadow extends Blur {
         return super.getHeight() + CoreMath.abs(shadowOffsetY.get());
     }
     
-    protected void filter(CoreImage src, CoreImage dst) {
+    protected void filter(CoreImage src, final CoreImage dst) {
 
-        // NOTE: This isn't optimal because each pixel is drawn three times.
+        // NOTE: This isn't optimal because each pixel is drawn twice.
         // Also, (x,y) offset is an integer, but fractional might be better.
 
-        // Create the blur
-        super.filter(src, dst, shadowOffsetX.get(), shadowOffsetY.get(), false);
+        // Usually, the blur is shared, so changing only the offset or color doesn't blur again.
+        // The shadow is the blur, shifted by the positive part of the offset.
+        final CoreImage blurred;
+        final int shiftX;
+        final int shiftY;
+        if (getClampEdges()) {
+            // The blur spreads into the offset area, so it can't be shared. Blur in place.
+            super.filter(src, dst, shadowOffsetX.get(), shadowOffsetY.get(), false);
+            blurred = dst;
+            shiftX = 0;
+            shiftY = 0;
+        }
+        else {
+            blurred = getBlurredInput(src, false);
+            shiftX = Math.max(0, shadowOffsetX.get());
+            shiftY = Math.max(0, shadowOffsetY.get());
+        }
 
         // Convert the blur to the shadow color
         if (colorDirty) {
             createShadowColorTable();
             colorDirty = false;
         }
-        int[] dstData = dst.getData();
-        for (int i = 0; i < dstData.length; i++) {
-            dstData[i] = shadowColorTable[dstData[i] >>> 24];
-        }
+        invokeRows(dst.getWidth(), dst.getHeight(), new WorkerPool.Task() {
+            public void run(int startRow, int endRow) {
+                int[] blurData = blurred.getData();
+                int[] dstData = dst.getData();
+                int blurWidth = blurred.getWidth();
+                int blurHeight = blurred.getHeight();
+                int dstWidth = dst.getWidth();
+                for (int y = startRow; y < endRow; y++) {
+                    int dstIndex = y * dstWidth;
+                    int blurY = y - shiftY;
+                    if (blurY < 0 || blurY >= blurHeight) {
+                        for (int x = 0; x < dstWidth; x++) {
+                            dstData[dstIndex++] = 0;
+                        }
+                        continue;
+                    }
+                    int blurIndex = blurY * blurWidth - shiftX;
+                    for (int x = 0; x < dstWidth; x++) {
+                        int blurX = x - shiftX;
+                        if (blurX < 0 || blurX >= blurWidth) {
+                            dstData[dstIndex] = 0;
+                        }
+                        else {
+                            dstData[dstIndex] = shadowColorTable[blurData[blurIndex + x] >>> 24];
+                        }
+                        dstIndex++;
+                    }
+                }
+            }
+        });
 
         // Draw the input image on top of the shadow
         CoreGraphics g = dst.createGraphics();
@@ -28,20 +28,57 @@
 */
 package pulpcore.image.filter;
 
+import java.util.concurrent.CountDownLatch;
 import pulpcore.CoreSystem;
 import pulpcore.image.CoreImage;
+import pulpcore.math.Rect;
 import pulpcore.platform.AppContext;
+import pulpcore.platform.WorkerPool;
 
 /**
     Base class for image filters. Subclasses override the
     {@link #filter(pulpcore.image.CoreImage, pulpcore.image.CoreImage) } method.
+    <p>
+    Filters can be {@link #setAsync(boolean) asynchronous}, so that expensive filters
+    (like a Blur on a full-screen Group) don't stall the frame.
     @see pulpcore.sprite.Sprite#setFilter(pulpcore.image.filter.Filter)
 */
 public abstract class Filter {
 
+    /**
+        The default maximum staleness of an asynchronous filter's output, in milliseconds.
+        @see #setMaxStaleness(int)
+    */
+    public static final int DEFAULT_MAX_STALENESS = 250;
+
+    /**
+        The minimum number of pixels in each band of rows when a filter is split across threads.
+    */
+    private static final int MIN_PIXELS_PER_BAND = 128 * 128;
+
     private CoreImage input = null;
     private CoreImage output = null;
     private boolean isDirty = true;
+    private Rect dirtyRegion;
+    private boolean regionUpdated = false;
+
+    // Asynchronous filtering
+    private boolean async = false;
+    private int maxStaleness = DEFAULT_MAX_STALENESS;
+    private Filter asyncWorker;
+    private AsyncJob asyncJob;
+    private CoreImage backBuffer;
+    private boolean outputSwapped;
+    private long staleSince = -1;
+    private int outputX;
+    private int outputY;
+
+    // Shared output (see FilterCache)
+    private FilterCache.Entry sharedOutput;
+    private boolean setDirtyCalled;
+
+    // Timing and memory statistics, created on first use
+    private FilterStats stats;
 
     /**
         Gets the x offset the output image should display relative to the input.
@@ -138,6 +175,18 @@ public abstract class Filter {
     */
     public abstract Filter copy();
 
+    /**
+        Returns a string that identifies the actual values of every parameter that affects the
+        output of this filter, or null if the output of this filter can't be shared.
+        <p>
+        Filters of the same class with the same input and equal parameter keys share one output
+        image, so that many Sprites using copies of the same filter on the same image only
+        filter it once. The default method returns null.
+    */
+    protected String getParameterKey() {
+        return null;
+    }
+
     //
     // Final methods
     //
@@ -145,6 +194,32 @@ public abstract class Filter {
     /* package private */ void notifyInputChanged() {
     }
 
+    /**
+        Returns true if this filter is made of other filters, like a FilterChain.
+    */
+    /* package private */ boolean isComposite() {
+        return false;
+    }
+
+    /**
+        Gets the timing and memory statistics of this filter.
+    */
+    public FilterStats getStats() {
+        if (stats == null) {
+            stats = new FilterStats(this);
+        }
+        return stats;
+    }
+
+    /**
+        Performs this filter, and records the time in this filter's statistics.
+    */
+    /* package private */ final void filterAndRecord(CoreImage input, CoreImage output) {
+        long startTime = System.nanoTime();
+        filter(input, output);
+        getStats().record(System.nanoTime() - startTime, output);
+    }
+
     /**
         Performs this filter on the input image onto a newly created output image. The current
         input image, if any, is ignored.
@@ -154,7 +229,7 @@ public abstract class Filter {
         // Set input so that getWidth(), etc. is correct.
         setInput(input);
         CoreImage newOutput = getImageFromCache(getWidth(), getHeight(), isOpaque());
-        filter(input, newOutput);
+        filterAndRecord(input, newOutput);
         setInput(oldInput);
         return newOutput;
     }
@@ -165,7 +240,11 @@ public abstract class Filter {
     public void setInput(CoreImage input) {
         if (this.input != input) {
             this.input = input;
-            setDirty();
+            regionUpdated = false;
+            if (input == null) {
+                releaseSharedOutput();
+            }
+            setDirty(true);
             notifyInputChanged();
             update(0);
         }
@@ -193,17 +272,142 @@ public abstract class Filter {
 
     /**
         Gets the filtered output image.
+        <p>
+        If this filter is asynchronous, the returned image may be an older output while a newer
+        one is being filtered in the background.
+        <p>
+        If this filter has a {@link #getParameterKey() parameter key}, the returned image may be
+        shared with other filters, and should not be modified.
+        @see #setAsync(boolean)
     */
     public CoreImage getOutput() {
+        return getOutput(true);
+    }
+
+    /**
+        Gets the filtered output image. If {@code share} is false, the output is never shared
+        with other filters. FilterChain uses unshared outputs, because it needs each filter's
+        output in that filter's own image.
+    */
+    /* package private */ CoreImage getOutput(boolean share) {
+        if (async && input != null) {
+            AppContext appContext = CoreSystem.getThisAppContext();
+            if (appContext != null) {
+                return getAsyncOutput(appContext);
+            }
+        }
+        if (share && input != null && !regionUpdated && (sharedOutput != null || isDirty())) {
+            CoreImage out = getSharedOutput();
+            if (out != null) {
+                return out;
+            }
+        }
+        if (sharedOutput != null) {
+            // This filter's own output is out of date
+            releaseSharedOutput();
+            setDirty();
+        }
         CoreImage out = getUnfilteredOutput();
-        if (isDirty()) {
-            filter(input, out);
+        if (isDirtyFlagSet() || isChildDirty()) {
+            filterAndRecord(input, out);
             //pulpcore.CoreSystem.print("Filtered: " + getClass().getName());
+            out.setModified();
+            setDirty(false);
+        }
+        else if (dirtyRegion != null) {
+            filterRegion(out, dirtyRegion);
+            out.setModified();
             setDirty(false);
         }
+        outputX = getX();
+        outputY = getY();
         return out;
     }
 
+    /**
+        Gets the output from the FilterCache, filtering it if needed. Returns null if the output of
+        this filter can't be shared.
+    */
+    private CoreImage getSharedOutput() {
+        if (sharedOutput != null && !isDirty()) {
+            return sharedOutput.image;
+        }
+        String parameters = getParameterKey();
+        if (parameters == null) {
+            return null;
+        }
+        FilterCache.Key key = new FilterCache.Key(this, parameters, input);
+        if (setDirtyCalled && sharedOutput != null && sharedOutput.key.equals(key)) {
+            // setDirty() was called, but neither the parameters nor the input's modification
+            // count changed, so the input was changed in place. Don't reuse the old output.
+            input.setModified();
+            key = new FilterCache.Key(this, parameters, input);
+        }
+        if (sharedOutput == null || !sharedOutput.key.equals(key)) {
+            FilterCache.Entry entry = FilterCache.acquire(key, this);
+            if (entry == null) {
+                CoreImage image = getImageFromCache(getWidth(), getHeight(), isOpaque());
+                filterAndRecord(input, image);
+                entry = FilterCache.put(key, image, this);
+            }
+            releaseSharedOutput();
+            sharedOutput = entry;
+            // This filter's own output isn't needed
+            releaseOutput();
+        }
+        clearDirty();
+        outputX = getX();
+        outputY = getY();
+        return sharedOutput.image;
+    }
+
+    private void releaseSharedOutput() {
+        if (sharedOutput != null) {
+            FilterCache.release(sharedOutput, this);
+            sharedOutput = null;
+        }
+    }
+
+    /**
+        Gets the x offset of the image returned by {@link #getOutput()}, relative to the input.
+        This is the same as {@link #getX()} unless this filter is asynchronous and an older
+        output is presented.
+    */
+    public int getOutputX() {
+        pollAsyncJob();
+        return (async && output != null) ? outputX : getX();
+    }
+
+    /**
+        Gets the y offset of the image returned by {@link #getOutput()}, relative to the input.
+        This is the same as {@link #getY()} unless this filter is asynchronous and an older
+        output is presented.
+    */
+    public int getOutputY() {
+        pollAsyncJob();
+        return (async && output != null) ? outputY : getY();
+    }
+
+    /**
+        Gets the width of the image returned by {@link #getOutput()}.
+        This is the same as {@link #getWidth()} unless this filter is asynchronous and an older
+        output is presented.
+    */
+    public int getOutputWidth() {
+        pollAsyncJob();
+        return (async && output != null) ? output.getWidth() : getWidth();
+    }
+
+    /**
+        Gets the height of the image returned by {@link #getOutput()}.
+        This is the same as {@link #getHeight()} unless this filter is asynchronous and an older
+        output is presented.
+    */
+    public int getOutputHeight() {
+        pollAsyncJob();
+        return (async && output != null) ? output.getHeight() : getHeight();
+    }
+
     /* package private */ boolean isChildDirty() {
         return false;
     }
@@ -212,18 +416,425 @@ public abstract class Filter {
         return isDirty;
     }
 
+    /**
+        Returns true if this filter needs to be filtered, or, for asynchronous filters, if a newer
+        output was filtered in the background and is ready to be presented.
+    */
     public boolean isDirty() {
-        return isDirtyFlagSet() || isChildDirty();
+        pollAsyncJob();
+        return outputSwapped || needsFilter();
+    }
+
+    private boolean needsFilter() {
+        return isDirtyFlagSet() || dirtyRegion != null || isChildDirty();
     }
 
+    /**
+        Marks this filter as changed, so that its output is filtered again. Call this method if
+        the pixels of the input were changed without calling
+        {@link CoreImage#setModified()}.
+    */
     public void setDirty() {
         setDirty(true);
+        setDirtyCalled = true;
+    }
+
+    /**
+        Marks a region of the input as changed. If this filter has a known
+        {@link #getSupportRadius() support radius}, only the output pixels that depend on
+        the region are filtered again. Otherwise, this is the same as calling
+        {@link #setDirty()}.
+        <p>
+        An input that is updated in regions (like a Group's back buffer) is unlikely to be
+        shared with other filters, so after this method is called, the output is not shared
+        until the input is changed. The input's modification count is incremented, so that
+        blurs shared with other filters are not reused.
+    */
+    public void setDirty(int x, int y, int width, int height) {
+        regionUpdated = true;
+        if (input != null) {
+            input.setModified();
+        }
+        if (isDirty || width <= 0 || height <= 0) {
+            return;
+        }
+        if (getSupportRadius() < 0) {
+            setDirty();
+        }
+        else if (dirtyRegion == null) {
+            dirtyRegion = new Rect(x, y, width, height);
+        }
+        else {
+            dirtyRegion.union(x, y, width, height);
+        }
     }
 
-    private void setDirty(boolean dirty) {
+    /* package private */ void setDirty(boolean dirty) {
         this.isDirty = dirty;
+        dirtyRegion = null;
+        if (!dirty) {
+            setDirtyCalled = false;
+        }
+    }
+
+    /**
+        Gets the support radius of this filter: the distance, in pixels, that a change to an
+        input pixel can spread in the output. For example, a pointwise filter like
+        {@link Grayscale} has a support radius of zero, and a {@link Blur} has a support radius
+        near its blur radius. Returns -1 if the support is unknown, in which case any change
+        to the input causes the whole output to be filtered again.
+        <p>
+        The default implementation returns -1. Subclasses that override this method must also
+        make sure that filtering a cropped input gives the same pixels (away from the crop
+        edges) as filtering the whole input.
+        @see #setDirty(int, int, int, int)
+    */
+    public int getSupportRadius() {
+        return -1;
+    }
+
+    /**
+        Filters the output pixels that depend on a changed region of the input. A crop of the
+        input, large enough to cover the support of the changed output pixels, is filtered into
+        a temporary image, and the changed pixels are copied to the output.
+    */
+    private void filterRegion(CoreImage out, Rect region) {
+        int support = getSupportRadius();
+        int x = getX();
+        int y = getY();
+        int inputWidth = input.getWidth();
+        int inputHeight = input.getHeight();
+
+        // The output pixels that depend on the changed input pixels
+        Rect dst = new Rect(region.x - support - x, region.y - support - y,
+            region.width + support * 2, region.height + support * 2);
+        dst.intersection(0, 0, out.getWidth(), out.getHeight());
+        if (dst.width <= 0 || dst.height <= 0) {
+            return;
+        }
+
+        // The input pixels those output pixels depend on
+        Rect src = new Rect(dst.x + x - support, dst.y + y - support,
+            dst.width + support * 2, dst.height + support * 2);
+        src.intersection(0, 0, inputWidth, inputHeight);
+        int tempWidth = src.width + out.getWidth() - inputWidth;
+        int tempHeight = src.height + out.getHeight() - inputHeight;
+        if (src.width <= 0 || src.height <= 0 ||
+            src.getArea() * 4 >= inputWidth * inputHeight * 3 ||
+            dst.x < src.x || dst.y < src.y ||
+            dst.x + dst.width > src.x + tempWidth ||
+            dst.y + dst.height > src.y + tempHeight)
+        {
+            // Not worth it (or not possible): filter everything
+            setDirty(true);
+            filterAndRecord(input, out);
+            return;
+        }
+
+        CoreImage srcImage = getImageFromCache(src.width, src.height, input.isOpaque());
+        int[] inputData = input.getData();
+        int[] srcData = srcImage.getData();
+        for (int j = 0; j < src.height; j++) {
+            System.arraycopy(inputData, (src.y + j) * inputWidth + src.x,
+                srcData, j * src.width, src.width);
+        }
+
+        // Pixel (i, j) of the temporary image is pixel (src.x + i, src.y + j) of the output
+        CoreImage tempImage = getImageFromCache(tempWidth, tempHeight, out.isOpaque());
+        filterAndRecord(srcImage, tempImage);
+        int[] tempData = tempImage.getData();
+        int[] outData = out.getData();
+        int outWidth = out.getWidth();
+        for (int j = dst.y; j < dst.y + dst.height; j++) {
+            System.arraycopy(tempData, (j - src.y) * tempWidth + dst.x - src.x,
+                outData, j * outWidth + dst.x, dst.width);
+        }
+        releaseImageToCache(srcImage);
+        releaseImageToCache(tempImage);
+        notifyRegionFiltered();
+    }
+
+    /**
+        Called after the changed region of the output was filtered from a crop of the input,
+        rather than from the whole input.
+    */
+    /* package private */ void notifyRegionFiltered() {
+        // Do nothing
+    }
+
+    /**
+        Clears the dirty flag of this filter and its children, if any, without filtering.
+        Used when this filter's input is handed to a background job.
+    */
+    /* package private */ void clearDirty() {
+        setDirty(false);
+    }
+
+    /**
+        Releases the output image to the image cache. Used by FilterChain when this
+        filter's output is no longer needed.
+    */
+    /* package private */ void releaseOutput() {
+        if (output != null) {
+            releaseImageToCache(output);
+            output = null;
+        }
+    }
+
+    //
+    // Asynchronous filtering
+    //
+
+    /**
+        Sets whether this filter is asynchronous. The default is false.
+        <p>
+        When an asynchronous filter is dirty, a snapshot of its input is filtered on the
+        AppContext's background thread (see {@link WorkerPool#execute(Runnable)}) while
+        {@link #getOutput()} continues to return the last completed output. When the background
+        job completes, {@link #isDirty()} returns true so that the Sprite using
+        this filter is redrawn with the new output.
+        <p>
+        The first output, and any output older than the
+        {@link #setMaxStaleness(int) maximum staleness}, is filtered immediately.
+        <p>
+        Background jobs filter a copy of this filter (see {@link #copy()}), so subclasses
+        must not use any state in {@link #filter(CoreImage, CoreImage)} that is not
+        copied or bound.
+    */
+    public void setAsync(boolean async) {
+        if (this.async != async) {
+            releaseSharedOutput();
+            if (!async) {
+                if (asyncJob != null) {
+                    asyncJob.await();
+                    if (asyncJob.ownsInput) {
+                        releaseImageToCache(asyncJob.input);
+                    }
+                    releaseImageToCache(asyncJob.output);
+                    asyncJob = null;
+                }
+                releaseImageToCache(backBuffer);
+                backBuffer = null;
+                releaseOutput();
+                asyncWorker = null;
+                outputSwapped = false;
+                staleSince = -1;
+            }
+            this.async = async;
+            setDirty();
+        }
+    }
+
+    /**
+        Returns true if this filter is asynchronous.
+        @see #setAsync(boolean)
+    */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+        Sets the maximum time, in milliseconds, that an asynchronous filter's output can be
+        out of date. If the presented output is older, {@link #getOutput()} waits for the
+        background job, and filters immediately if needed. The default is
+        {@link #DEFAULT_MAX_STALENESS}.
+    */
+    public void setMaxStaleness(int maxStaleness) {
+        this.maxStaleness = Math.max(0, maxStaleness);
+    }
+
+    /**
+        Gets the maximum time, in milliseconds, that an asynchronous filter's output can be
+        out of date.
+        @see #setMaxStaleness(int)
+    */
+    public int getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    private CoreImage getAsyncOutput(AppContext appContext) {
+        pollAsyncJob();
+        outputSwapped = false;
+        if (output == null || needsFilter()) {
+            long now = CoreSystem.getTimeMillis();
+            if (staleSince < 0) {
+                staleSince = now;
+            }
+            if (output == null || now - staleSince >= maxStaleness) {
+                // Nothing to present, or the presented output is too old.
+                if (asyncJob != null) {
+                    asyncJob.await();
+                    pollAsyncJob();
+                }
+                if (output == null || needsFilter()) {
+                    asyncJob = createAsyncJob(now, false);
+                    asyncJob.run();
+                    pollAsyncJob();
+                }
+                outputSwapped = false;
+            }
+            else if (asyncJob == null) {
+                asyncJob = createAsyncJob(now, true);
+                appContext.getWorkerPool().execute(asyncJob);
+            }
+        }
+        return output;
+    }
+
+    private AsyncJob createAsyncJob(long now, boolean snapshot) {
+        CoreImage jobInput = input;
+        if (snapshot) {
+            // The input may change (like a Group's back buffer) while the job is running
+            jobInput = getImageFromCache(input.getWidth(), input.getHeight(), input.isOpaque());
+            System.arraycopy(input.getData(), 0, jobInput.getData(), 0,
+                input.getWidth() * input.getHeight());
+        }
+
+        if (asyncWorker == null) {
+            asyncWorker = copy();
+            // The worker's time is this filter's time
+            asyncWorker.stats = getStats();
+        }
+        asyncWorker.setInput(jobInput);
+        asyncWorker.update(0);
+
+        int w = asyncWorker.getWidth();
+        int h = asyncWorker.getHeight();
+        boolean opaque = asyncWorker.isOpaque();
+        CoreImage out = backBuffer;
+        backBuffer = null;
+        if (out == null ||
+            out.getWidth() != w ||
+            out.getHeight() != h ||
+            out.isOpaque() != opaque)
+        {
+            releaseImageToCache(out);
+            out = getImageFromCache(w, h, opaque);
+        }
+
+        clearDirty();
+        return new AsyncJob(asyncWorker, jobInput, snapshot, out, now);
+    }
+
+    /**
+        If the background job has completed, swaps its output with the presented output.
+    */
+    private void pollAsyncJob() {
+        AsyncJob job = asyncJob;
+        if (job == null || !job.isDone()) {
+            return;
+        }
+        asyncJob = null;
+        if (job.ownsInput) {
+            releaseImageToCache(job.input);
+        }
+        if (job.error != null) {
+            releaseImageToCache(job.output);
+            if (job.error instanceof RuntimeException) {
+                throw (RuntimeException)job.error;
+            }
+            else {
+                throw (Error)job.error;
+            }
+        }
+
+        // Double-buffered: the old output is filtered into by the next job
+        releaseImageToCache(backBuffer);
+        backBuffer = output;
+        output = job.output;
+        output.setModified();
+        outputX = job.x;
+        outputY = job.y;
+        outputSwapped = true;
+        if (needsFilter()) {
+            // Changed while the job was running
+            staleSince = job.startTime;
+        }
+        else {
+            staleSince = -1;
+        }
+    }
+
+    private static class AsyncJob implements Runnable {
+
+        final Filter worker;
+        final CoreImage input;
+        final boolean ownsInput;
+        final CoreImage output;
+        final int x;
+        final int y;
+        final long startTime;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Throwable error;
+
+        AsyncJob(Filter worker, CoreImage input, boolean ownsInput, CoreImage output,
+            long startTime)
+        {
+            this.worker = worker;
+            this.input = input;
+            this.ownsInput = ownsInput;
+            this.output = output;
+            this.x = worker.getX();
+            this.y = worker.getY();
+            this.startTime = startTime;
+        }
+
+        public void run() {
+            try {
+                worker.filterAndRecord(input, output);
+            }
+            catch (RuntimeException ex) {
+                error = ex;
+            }
+            catch (Error ex) {
+                error = ex;
+            }
+            finally {
+                done.countDown();
+            }
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
     
+    /**
+        Runs a task over the rows of an image, from 0 (inclusive) to {@code height} (exclusive).
+        If the image is large enough, the rows are split into bands that run in parallel
+        using the app's {@link AppContext#getWorkerPool() worker pool}. Otherwise,
+        the task runs on the calling thread. The task must only write to the rows it is given.
+    */
+    protected static void invokeRows(int width, int height, WorkerPool.Task task) {
+        int minRows = Math.max(1, MIN_PIXELS_PER_BAND / Math.max(1, width));
+        AppContext appContext = null;
+        if (height >= minRows * 2) {
+            appContext = CoreSystem.getThisAppContext();
+        }
+        if (appContext == null) {
+            task.run(0, height);
+        }
+        else {
+            appContext.getWorkerPool().invoke(height, minRows, task);
+        }
+    }
+
     // Static methods to get/put cached images when the AppContext is not available
 
     /* package private */ static void releaseImageToCache(CoreImage image) {
@@ -238,7 +849,10 @@ public abstract class Filter {
     /* package private */ static CoreImage getImageFromCache(int width, int height, boolean opaque) {
         AppContext appContext = CoreSystem.getThisAppContext();
         if (appContext != null) {
-            return appContext.getImageCache().get(width, height, opaque);
+            CoreImage image = appContext.getImageCache().get(width, height, opaque);
+            // A reused image gets new contents, so it can't match an old FilterCache key
+            image.setModified();
+            return image;
         }
         else {
             return new CoreImage(width, height, opaque);
@@ -0,0 +1,198 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore.image.filter;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.WeakHashMap;
+import pulpcore.CoreSystem;
+import pulpcore.image.CoreImage;
+import pulpcore.platform.AppContext;
+
+/**
+    Shares filter outputs between filters with the same class, parameters, and input raster
+    (including the raster's modification count). For example, 200 coins that use copies of the
+    same Glow on images loaded from "coin.png" share one output, even though each
+    {@link CoreImage#load(String)} call returns a different CoreImage.
+    <p>
+    Each entry is reference counted by the filters that hold it. When the last filter releases
+    an entry (or is garbage collected), the output is returned to the ImageCache.
+    <p>
+    Each app has its own cache, so that apps running in the same JVM don't share outputs.
+*/
+/* package private */ final class FilterCache {
+
+    // WeakHashMap<AppContext, FilterCache>
+    private static final WeakHashMap appCaches = new WeakHashMap();
+    private static final FilterCache DEFAULT_CACHE = new FilterCache();
+
+    // HashMap<Key, Entry>
+    private final HashMap entries = new HashMap();
+
+    private FilterCache() {
+        // Prevent instantiation
+    }
+
+    /**
+        Gets the cache of the current app, or a default cache if there is no current app.
+    */
+    private static FilterCache getCache() {
+        AppContext context = CoreSystem.getThisAppContext();
+        if (context == null) {
+            return DEFAULT_CACHE;
+        }
+        synchronized (appCaches) {
+            FilterCache cache = (FilterCache)appCaches.get(context);
+            if (cache == null) {
+                cache = new FilterCache();
+                appCaches.put(context, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+        Gets the entry for the specified key, and adds the filter as a holder of the entry.
+        Returns null if there is no entry for the key.
+    */
+    static Entry acquire(Key key, Filter holder) {
+        FilterCache cache = getCache();
+        synchronized (cache) {
+            Entry entry = (Entry)cache.entries.get(key);
+            if (entry != null) {
+                entry.holders.put(holder, null);
+            }
+            return entry;
+        }
+    }
+
+    /**
+        Adds a new entry with the specified filter as its only holder.
+    */
+    static Entry put(Key key, CoreImage image, Filter holder) {
+        FilterCache cache = getCache();
+        synchronized (cache) {
+            cache.removeUnheldEntries();
+            Entry entry = new Entry(cache, key, image);
+            entry.holders.put(holder, null);
+            cache.entries.put(key, entry);
+            return entry;
+        }
+    }
+
+    /**
+        Removes the filter as a holder of the entry. If the entry has no other holders,
+        it is removed and its image is returned to the ImageCache. Entries whose holders were
+        garbage collected are removed, too, so that they don't keep their input alive.
+    */
+    static void release(Entry entry, Filter holder) {
+        FilterCache cache = entry.cache;
+        synchronized (cache) {
+            entry.holders.remove(holder);
+            if (entry.holders.size() == 0 && cache.entries.get(entry.key) == entry) {
+                cache.entries.remove(entry.key);
+                Filter.releaseImageToCache(entry.image);
+            }
+            cache.removeUnheldEntries();
+        }
+    }
+
+    private void removeUnheldEntries() {
+        Iterator i = entries.values().iterator();
+        while (i.hasNext()) {
+            Entry entry = (Entry)i.next();
+            if (entry.holders.size() == 0) {
+                i.remove();
+                Filter.releaseImageToCache(entry.image);
+            }
+        }
+    }
+
+    static final class Key {
+
+        private final Class filterClass;
+        private final String parameters;
+        private final int[] inputData;
+        private final int inputWidth;
+        private final int inputHeight;
+        private final boolean inputOpaque;
+        private final int inputModCount;
+
+        Key(Filter filter, String parameters, CoreImage input) {
+            this(filter.getClass(), parameters, input);
+        }
+
+        Key(Class filterClass, String parameters, CoreImage input) {
+            this.filterClass = filterClass;
+            this.parameters = parameters;
+            this.inputData = input.getData();
+            this.inputWidth = input.getWidth();
+            this.inputHeight = input.getHeight();
+            this.inputOpaque = input.isOpaque();
+            this.inputModCount = input.getModCount();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key)obj;
+            return (inputData == key.inputData &&
+                inputModCount == key.inputModCount &&
+                inputWidth == key.inputWidth &&
+                inputHeight == key.inputHeight &&
+                inputOpaque == key.inputOpaque &&
+                filterClass == key.filterClass &&
+                parameters.equals(key.parameters));
+        }
+
+        public int hashCode() {
+            int hash = System.identityHashCode(inputData);
+            hash = hash * 31 + inputModCount;
+            hash = hash * 31 + filterClass.hashCode();
+            hash = hash * 31 + parameters.hashCode();
+            return hash;
+        }
+    }
+
+    static final class Entry {
+
+        final FilterCache cache;
+        final Key key;
+        final CoreImage image;
+        // WeakHashMap<Filter, null>
+        final WeakHashMap holders = new WeakHashMap();
+
+        Entry(FilterCache cache, Key key, CoreImage image) {
+            this.cache = cache;
+            this.key = key;
+            this.image = image;
+        }
+    }
+}
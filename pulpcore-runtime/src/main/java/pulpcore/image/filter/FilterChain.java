@@ -34,11 +34,24 @@ import java.util.List;
 import pulpcore.image.CoreImage;
 
 
+/**
+    A sequence of filters, where the output of each filter is the input of the next.
+    <p>
+    Consecutive {@link PointFilter}s (like Grayscale, HSBAdjust, and ColorOverlay) are fused
+    into one pass over the image, without creating images for the intermediate results.
+*/
 public class FilterChain extends Filter {
 
     private final List list = new ArrayList();
     private Identity identity = null;
 
+    // Fused runs of PointFilters, indexed by the position of the first filter in the run
+    private FusedRun[] runs = new FusedRun[0];
+    private FusedRun lastRun = null;
+
+    // True if the intermediate outputs are out of date after filtering a region
+    private boolean intermediatesStale = false;
+
     public FilterChain() {
 
     }
@@ -112,12 +125,72 @@ public class FilterChain extends Filter {
     }
 
     private void chain() {
+        int n = list.size();
+        if (runs.length != n) {
+            for (int i = 0; i < runs.length; i++) {
+                if (runs[i] != null) {
+                    runs[i].release();
+                }
+            }
+            runs = new FusedRun[n];
+        }
+
         CoreImage input = getInput();
-        for (int i = 0; i < list.size(); i++) {
-            Filter f = (Filter)list.get(i);
-            f.setInput(input);
-            input = f.getUnfilteredOutput();
+        lastRun = null;
+        int i = 0;
+        while (i < n) {
+            int end = getFusedRunEnd(i);
+            if (end - i >= 2) {
+                FusedRun run = runs[i];
+                if (run == null || !run.matches(list, i, end)) {
+                    if (run != null) {
+                        run.release();
+                    }
+                    run = new FusedRun(list, i, end);
+                    runs[i] = run;
+                }
+                for (int j = i + 1; j < end; j++) {
+                    if (runs[j] != null) {
+                        runs[j].release();
+                        runs[j] = null;
+                    }
+                }
+                input = run.chain(input);
+                if (end == n) {
+                    lastRun = run;
+                }
+                i = end;
+            }
+            else {
+                if (runs[i] != null) {
+                    runs[i].release();
+                    runs[i] = null;
+                }
+                Filter f = (Filter)list.get(i);
+                f.setInput(input);
+                input = f.getUnfilteredOutput();
+                i++;
+            }
+        }
+    }
+
+    /**
+        Gets the end (exclusive) of the run of fusable PointFilters starting at the
+        specified position. Returns {@code start + 1} if there are fewer than two filters
+        that can be fused.
+    */
+    private int getFusedRunEnd(int start) {
+        int end = start;
+        while (end < list.size()) {
+            Object f = list.get(end);
+            if (f instanceof PointFilter && ((PointFilter)f).isPointwise()) {
+                end++;
+            }
+            else {
+                break;
+            }
         }
+        return (end - start >= 2) ? end : start + 1;
     }
 
     /* package private */ void notifyInputChanged() {
@@ -125,6 +198,10 @@ public class FilterChain extends Filter {
     }
 
     /* package private */ CoreImage getUnfilteredOutput() {
+        chain();
+        if (lastRun != null) {
+            return lastRun.output;
+        }
         return last().getUnfilteredOutput();
     }
 
@@ -171,6 +248,9 @@ public class FilterChain extends Filter {
 
     public boolean isOpaque() {
         chain();
+        if (lastRun != null) {
+            return lastRun.opaque;
+        }
         return last().isOpaque();
     }
 
@@ -186,16 +266,71 @@ public class FilterChain extends Filter {
                 return true;
             }
         }
+        for (int i = 0; i < runs.length; i++) {
+            if (runs[i] != null && runs[i].outputChanged) {
+                return true;
+            }
+        }
         return false;
     }
 
+    /* package private */ void clearDirty() {
+        super.clearDirty();
+        for (int i = 0; i < list.size(); i++) {
+            ((Filter)list.get(i)).clearDirty();
+        }
+        for (int i = 0; i < runs.length; i++) {
+            if (runs[i] != null) {
+                runs[i].outputChanged = false;
+            }
+        }
+    }
+
+    /**
+        Returns the sum of the support radii of the filters in this chain, or -1 if any of
+        them is unknown.
+    */
+    public int getSupportRadius() {
+        int support = 0;
+        for (int i = 0; i < list.size(); i++) {
+            int filterSupport = ((Filter)list.get(i)).getSupportRadius();
+            if (filterSupport < 0) {
+                return -1;
+            }
+            support += filterSupport;
+        }
+        return support;
+    }
+
+    /* package private */ void notifyRegionFiltered() {
+        // The region was filtered in one shot, leaving the intermediate outputs out of date.
+        // Filtering the crop also changed each filter's input, and restored it, leaving
+        // each filter dirty.
+        intermediatesStale = true;
+        for (int i = 0; i < list.size(); i++) {
+            ((Filter)list.get(i)).clearDirty();
+        }
+    }
+
     protected void filter(CoreImage input, CoreImage output) {
         if (list.size() == 0) {
             last().filter(input, output);
         }
         else if (input == getInput() && output == getUnfilteredOutput()) {
-            boolean inputDirty = isDirtyFlagSet();
-            for (int i = 0; i < list.size(); i++) {
+            boolean inputDirty = isDirtyFlagSet() || intermediatesStale;
+            intermediatesStale = false;
+            int i = 0;
+            while (i < list.size()) {
+                FusedRun run = runs[i];
+                if (run != null) {
+                    if (inputDirty || run.isDirty()) {
+                        run.filter(input, run.output);
+                        inputDirty = true;
+                    }
+                    input = run.output;
+                    i = run.end;
+                    continue;
+                }
                 Filter f = (Filter)list.get(i);
                 if (inputDirty) {
                     f.setDirty();
@@ -204,28 +339,66 @@ public class FilterChain extends Filter {
                 if (!inputDirty && f.isDirty()) {
                     inputDirty = true;
                 }
-                input = f.getOutput();
+                input = f.getOutput(false);
+                i++;
             }
         }
         else {
-            for (int i = 0; i < list.size(); i++) {
-                Filter f = (Filter)list.get(i);
-                CoreImage oldInput = f.getInput();
-                f.setInput(input);
+            int i = 0;
+            while (i < list.size()) {
+                int end = getFusedRunEnd(i);
                 CoreImage newOutput;
-                if (i == list.size() - 1) {
-                    newOutput = output;
+                if (end - i >= 2) {
+                    PointFilter[] filters = new PointFilter[end - i];
+                    boolean opaque = input.isOpaque();
+                    for (int j = 0; j < filters.length; j++) {
+                        filters[j] = (PointFilter)list.get(i + j);
+                        opaque = filters[j].isOpaque(opaque);
+                    }
+                    if (end == list.size()) {
+                        newOutput = output;
+                    }
+                    else {
+                        newOutput = getImageFromCache(input.getWidth(), input.getHeight(), opaque);
+                    }
+                    filterFused(filters, input, newOutput);
                 }
                 else {
-                    newOutput = getImageFromCache(f.getWidth(), f.getHeight(), f.isOpaque());
+                    Filter f = (Filter)list.get(i);
+                    CoreImage oldInput = f.getInput();
+                    f.setInput(input);
+                    if (end == list.size()) {
+                        newOutput = output;
+                    }
+                    else {
+                        newOutput = getImageFromCache(f.getWidth(), f.getHeight(), f.isOpaque());
+                    }
+                    f.filterAndRecord(input, newOutput);
+                    f.setInput(oldInput);
                 }
-                f.filter(input, newOutput);
-                f.setInput(oldInput);
                 input = newOutput;
+                i = end;
             }
         }
     }
 
+    /**
+        Filters a run of PointFilters in one pass. The time can't be split by filter, so each
+        filter's statistics get an equal share.
+    */
+    private static void filterFused(PointFilter[] filters, CoreImage input, CoreImage output) {
+        long startTime = System.nanoTime();
+        PointFilter.filter(filters, filters.length, input, output);
+        long nanos = (System.nanoTime() - startTime) / filters.length;
+        for (int i = 0; i < filters.length; i++) {
+            filters[i].getStats().record(nanos, output);
+        }
+    }
+
+    /* package private */ boolean isComposite() {
+        return true;
+    }
+
     public Filter copy() {
         ArrayList listCopy = new ArrayList(list.size());
         for (int i = 0; i < list.size(); i++) {
@@ -234,4 +407,109 @@ public class FilterChain extends Filter {
         return new FilterChain(listCopy);
     }
 
+    protected String getParameterKey() {
+        StringBuffer key = new StringBuffer();
+        for (int i = 0; i < list.size(); i++) {
+            Filter f = (Filter)list.get(i);
+            String filterKey = f.getParameterKey();
+            if (filterKey == null) {
+                return null;
+            }
+            key.append(f.getClass().getName());
+            key.append('(');
+            key.append(filterKey);
+            key.append(')');
+        }
+        return key.toString();
+    }
+
+    /**
+        A run of PointFilters that are filtered in one pass.
+    */
+    private static class FusedRun {
+
+        final PointFilter[] filters;
+        final int end;
+        CoreImage output;
+        boolean opaque;
+        boolean outputChanged = true;
+
+        FusedRun(List list, int start, int end) {
+            this.end = end;
+            filters = new PointFilter[end - start];
+            for (int i = 0; i < filters.length; i++) {
+                filters[i] = (PointFilter)list.get(start + i);
+                // The filter's own output isn't needed
+                filters[i].releaseOutput();
+            }
+        }
+
+        boolean matches(List list, int start, int end) {
+            if (this.end != end || filters.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i] != list.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+            Sets the input of each filter, and returns the output image.
+        */
+        CoreImage chain(CoreImage input) {
+            int w = 0;
+            int h = 0;
+            opaque = false;
+            if (input != null) {
+                w = input.getWidth();
+                h = input.getHeight();
+                opaque = input.isOpaque();
+            }
+            for (int i = 0; i < filters.length; i++) {
+                filters[i].setInput(input);
+                opaque = filters[i].isOpaque(opaque);
+            }
+            if (output == null ||
+                output.getWidth() != w ||
+                output.getHeight() != h ||
+                output.isOpaque() != opaque)
+            {
+                releaseImageToCache(output);
+                output = getImageFromCache(w, h, opaque);
+                outputChanged = true;
+            }
+            return output;
+        }
+
+        boolean isDirty() {
+            if (outputChanged) {
+                return true;
+            }
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i].isDirty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void filter(CoreImage input, CoreImage output) {
+            filterFused(filters, input, output);
+            // The output is the next filter's input, which may be a FilterCache key
+            output.setModified();
+            for (int i = 0; i < filters.length; i++) {
+                filters[i].setDirty(false);
+            }
+            outputChanged = false;
+        }
+
+        void release() {
+            releaseImageToCache(output);
+            output = null;
+        }
+    }
+
 }
@@ -0,0 +1,405 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore.image.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import pulpcore.image.CoreImage;
+
+/**
+    A graph of filters. The input of each filter is the graph's input or the output of a filter
+    added earlier, and the output of the last filter added is the graph's output. Unlike a
+    {@link FilterChain}, a graph can branch. For example, a {@link Superimpose} node can draw
+    the output of one branch over the output of another:
+    <pre>
+    FilterGraph graph = new FilterGraph();
+    int shadow = graph.add(new DropShadow(), FilterGraph.INPUT);
+    int glow = graph.add(new Glow(), FilterGraph.INPUT);
+    graph.add(new Superimpose(), shadow, glow);
+    sprite.setFilter(graph);
+    </pre>
+    <p>
+    The intermediate outputs are not kept between frames. Instead, the graph finds when each
+    intermediate output is last used, and filters into a few shared buffers, each sized to the
+    largest output it holds. A chain of any length needs at most two buffers. The downside is
+    that if any filter in the graph changes, the whole graph is filtered again.
+    <p>
+    A filter can only be added to one graph, once.
+    @see #getPeakMemory()
+*/
+public class FilterGraph extends Filter {
+
+    /**
+        The node of the graph's input.
+    */
+    public static final int INPUT = 0;
+
+    private static final int NONE = -1;
+
+    private static final int[] NO_DATA = new int[0];
+
+    // List<Node>, where node i is at position i - 1
+    private final List nodes = new ArrayList();
+
+    private boolean layoutValid = false;
+    private CoreImage laidOutInput;
+    // Each buffer is an image one pixel high. The outputs are views of the buffers, and all
+    // views of a buffer share its modification count, so no two of them match the same
+    // FilterCache key.
+    private CoreImage[] buffers = new CoreImage[0];
+    private int peakMemory;
+
+    /**
+        Adds a filter whose input is the output of the last filter added (or the graph's input,
+        if this is the first filter).
+        @return the filter's node.
+    */
+    public int add(Filter filter) {
+        return add(filter, nodes.size());
+    }
+
+    /**
+        Adds a filter whose input is the output of the specified node.
+        @return the filter's node.
+    */
+    public int add(Filter filter, int input) {
+        return add(new Node(filter, input, NONE));
+    }
+
+    /**
+        Adds a Superimpose filter that draws the output of the {@code image} node over the
+        output of the {@code input} node. The Superimpose filter's image is set when
+        the graph is filtered.
+        @return the filter's node.
+    */
+    public int add(Superimpose filter, int input, int image) {
+        return add(new Node(filter, input, image));
+    }
+
+    private int add(Node node) {
+        checkNode(node.input);
+        if (node.image != NONE) {
+            checkNode(node.image);
+        }
+        nodes.add(node);
+        layoutValid = false;
+        setDirty();
+        return nodes.size();
+    }
+
+    private void checkNode(int node) {
+        if (node < INPUT || node > nodes.size()) {
+            throw new IllegalArgumentException("Invalid node: " + node);
+        }
+    }
+
+    private Node getNode(int node) {
+        return (Node)nodes.get(node - 1);
+    }
+
+    /**
+        Gets the filter of the specified node.
+    */
+    public Filter get(int node) {
+        return getNode(node).filter;
+    }
+
+    /**
+        Gets the number of filters in this graph.
+    */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+        Gets the number of bytes of the buffers used for intermediate outputs. The buffers
+        are allocated once, so this is also the peak memory used when the graph is filtered.
+        The input and output images are not included.
+    */
+    public int getPeakMemory() {
+        layout(getInput());
+        return peakMemory;
+    }
+
+    /**
+        Gets the number of buffers used for intermediate outputs.
+    */
+    public int getBufferCount() {
+        layout(getInput());
+        return buffers.length;
+    }
+
+    /**
+        Lays out the graph for the specified input, if the input, the structure of the graph,
+        or the size of any output has changed.
+    */
+    private void layout(CoreImage input) {
+        if (layoutValid && input == laidOutInput && (input == null || !isSizeChanged())) {
+            return;
+        }
+        layoutValid = true;
+        laidOutInput = input;
+        int n = nodes.size();
+        if (input == null) {
+            for (int i = 1; i <= n; i++) {
+                Node node = getNode(i);
+                node.setInputs(null, null);
+                node.shape = null;
+                node.output = null;
+            }
+            buffers = new CoreImage[0];
+            peakMemory = 0;
+            return;
+        }
+
+        // Find the size of each output, ahead of time. The size of a filter's output only
+        // depends on the size of its inputs, so empty images are used as the inputs.
+        for (int i = 1; i <= n; i++) {
+            Node node = getNode(i);
+            node.setInputs(getShape(input, node.input), getShape(input, node.image));
+            Filter f = node.filter;
+            node.shape = new CoreImage(f.getWidth(), f.getHeight(), f.isOpaque(), NO_DATA);
+        }
+
+        // Find the last node that uses each output
+        int[] lastUse = new int[n + 1];
+        for (int i = 1; i <= n; i++) {
+            Node node = getNode(i);
+            lastUse[i] = i;
+            lastUse[node.input] = i;
+            if (node.image != NONE) {
+                lastUse[node.image] = i;
+            }
+        }
+
+        // Assign each output to a buffer, reusing the buffers of outputs that are no longer
+        // needed. The last node is filtered into the graph's output.
+        int[] capacities = new int[n];
+        boolean[] free = new boolean[n];
+        int count = 0;
+        for (int i = 1; i < n; i++) {
+            Node node = getNode(i);
+            int area = node.shape.getWidth() * node.shape.getHeight();
+            // Use the smallest free buffer that is big enough, otherwise the biggest one
+            int buffer = NONE;
+            for (int j = 0; j < count; j++) {
+                if (free[j] && (buffer == NONE ||
+                    (capacities[buffer] < area ? capacities[j] > capacities[buffer] :
+                    capacities[j] >= area && capacities[j] < capacities[buffer])))
+                {
+                    buffer = j;
+                }
+            }
+            if (buffer == NONE) {
+                buffer = count++;
+            }
+            free[buffer] = false;
+            capacities[buffer] = Math.max(capacities[buffer], area);
+            node.buffer = buffer;
+
+            // Free the buffers of outputs used for the last time (after assigning this node's
+            // buffer, since filters can't filter in place)
+            if (node.input != INPUT && lastUse[node.input] == i) {
+                free[getNode(node.input).buffer] = true;
+            }
+            if (node.image > INPUT && lastUse[node.image] == i) {
+                free[getNode(node.image).buffer] = true;
+            }
+            if (lastUse[i] == i) {
+                // Not used
+                free[buffer] = true;
+            }
+        }
+
+        CoreImage[] newBuffers = new CoreImage[count];
+        peakMemory = 0;
+        for (int i = 0; i < count; i++) {
+            if (i < buffers.length && buffers[i].getWidth() >= capacities[i]) {
+                newBuffers[i] = buffers[i];
+            }
+            else {
+                newBuffers[i] = new CoreImage(capacities[i], 1, false);
+            }
+            peakMemory += newBuffers[i].getWidth() * 4;
+        }
+        buffers = newBuffers;
+
+        for (int i = 1; i < n; i++) {
+            Node node = getNode(i);
+            node.output = buffers[node.buffer].createView(node.shape.getWidth(),
+                node.shape.getHeight(), node.shape.isOpaque());
+        }
+        for (int i = 1; i <= n; i++) {
+            Node node = getNode(i);
+            node.setInputs(getOutput(input, node.input), getOutput(input, node.image));
+        }
+    }
+
+    private CoreImage getShape(CoreImage input, int node) {
+        if (node == NONE) {
+            return null;
+        }
+        return (node == INPUT) ? input : getNode(node).shape;
+    }
+
+    private CoreImage getOutput(CoreImage input, int node) {
+        if (node == NONE) {
+            return null;
+        }
+        return (node == INPUT) ? input : getNode(node).output;
+    }
+
+    private boolean isSizeChanged() {
+        for (int i = 1; i <= nodes.size(); i++) {
+            Node node = getNode(i);
+            Filter f = node.filter;
+            if (node.shape == null ||
+                f.getWidth() != node.shape.getWidth() ||
+                f.getHeight() != node.shape.getHeight() ||
+                f.isOpaque() != node.shape.isOpaque())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* package private */ void notifyInputChanged() {
+        layout(getInput());
+    }
+
+    public int getX() {
+        layout(getInput());
+        int x = 0;
+        for (int i = nodes.size(); i != INPUT; i = getNode(i).input) {
+            x += getNode(i).filter.getX();
+        }
+        return x;
+    }
+
+    public int getY() {
+        layout(getInput());
+        int y = 0;
+        for (int i = nodes.size(); i != INPUT; i = getNode(i).input) {
+            y += getNode(i).filter.getY();
+        }
+        return y;
+    }
+
+    public int getWidth() {
+        layout(getInput());
+        return (nodes.size() == 0) ? super.getWidth() : get(nodes.size()).getWidth();
+    }
+
+    public int getHeight() {
+        layout(getInput());
+        return (nodes.size() == 0) ? super.getHeight() : get(nodes.size()).getHeight();
+    }
+
+    public boolean isOpaque() {
+        layout(getInput());
+        return (nodes.size() == 0) ? super.isOpaque() : get(nodes.size()).isOpaque();
+    }
+
+    public void update(int elapsedTime) {
+        for (int i = 1; i <= nodes.size(); i++) {
+            get(i).update(elapsedTime);
+        }
+    }
+
+    /* package private */ boolean isChildDirty() {
+        for (int i = 1; i <= nodes.size(); i++) {
+            if (get(i).isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* package private */ void clearDirty() {
+        super.clearDirty();
+        for (int i = 1; i <= nodes.size(); i++) {
+            get(i).clearDirty();
+        }
+    }
+
+    protected void filter(CoreImage input, CoreImage output) {
+        int n = nodes.size();
+        if (n == 0) {
+            System.arraycopy(input.getData(), 0, output.getData(), 0,
+                input.getWidth() * input.getHeight());
+            return;
+        }
+        layout(input);
+        for (int i = 1; i <= n; i++) {
+            Node node = getNode(i);
+            CoreImage nodeOutput = (i == n) ? output : node.output;
+            node.filter.filterAndRecord(getOutput(input, node.input), nodeOutput);
+            // The buffers are reused, and each output may be a FilterCache key
+            nodeOutput.setModified();
+            node.filter.clearDirty();
+        }
+    }
+
+    /* package private */ boolean isComposite() {
+        return true;
+    }
+
+    public Filter copy() {
+        FilterGraph copy = new FilterGraph();
+        for (int i = 1; i <= nodes.size(); i++) {
+            Node node = getNode(i);
+            copy.add(new Node(node.filter.copy(), node.input, node.image));
+        }
+        return copy;
+    }
+
+    private static class Node {
+
+        final Filter filter;
+        final int input;
+        final int image;
+        CoreImage shape;
+        CoreImage output;
+        int buffer;
+
+        Node(Filter filter, int input, int image) {
+            this.filter = filter;
+            this.input = input;
+            this.image = image;
+        }
+
+        void setInputs(CoreImage input, CoreImage image) {
+            filter.setInput(input);
+            if (this.image != NONE) {
+                ((Superimpose)filter).setImage(image);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore.image.filter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.WeakHashMap;
+import pulpcore.CoreSystem;
+import pulpcore.image.CoreImage;
+import pulpcore.platform.AppContext;
+
+/**
+    Timing and memory statistics of a filter, or of all the filters of a class. Each filter
+    records the time spent filtering, the number of times it was filtered, the number of
+    pixels filtered, and the size of its output image.
+    <p>
+    The time of a FilterChain or FilterGraph includes the time of the filters in it.
+    <p>
+    Each app has its own statistics and frame count (see {@link AppContext#getFilterStats()}),
+    so apps running in the same virtual machine don't see or slow down each other's filters.
+    @see Filter#getStats()
+    @see #getClassStats()
+*/
+public final class FilterStats {
+
+    // For filters used outside of an app
+    private static final Registry DEFAULT_REGISTRY = new Registry();
+
+    private static final Comparator MOST_EXPENSIVE_FIRST = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            FilterStats a = (FilterStats)o1;
+            FilterStats b = (FilterStats)o2;
+            long diff = b.getLastFrameNanos() - a.getLastFrameNanos();
+            if (diff == 0) {
+                diff = b.getTotalNanos() - a.getTotalNanos();
+            }
+            return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+        }
+    };
+
+    /**
+        The statistics of all filters of one app. The registry's lock guards the statistics
+        of its filters.
+    */
+    public static final class Registry {
+
+        // WeakHashMap<FilterStats, null>
+        private final WeakHashMap allStats = new WeakHashMap();
+        private int frame;
+
+        /**
+            Marks the end of a frame. The Stage calls this method after each frame.
+        */
+        public synchronized void nextFrame() {
+            frame++;
+        }
+
+        /**
+            Gets the statistics of each filter class of this app. 
+            @see FilterStats#getClassStats()
+        */
+        public FilterStats[] getClassStats() {
+            // HashMap<String, FilterStats>
+            HashMap classStats = new HashMap();
+            synchronized (this) {
+                Iterator i = allStats.keySet().iterator();
+                while (i.hasNext()) {
+                    FilterStats stats = (FilterStats)i.next();
+                    if (!stats.composite) {
+                        FilterStats sum = (FilterStats)classStats.get(stats.name);
+                        if (sum == null) {
+                            sum = new FilterStats(this, stats.name, false);
+                            classStats.put(stats.name, sum);
+                        }
+                        sum.add(stats);
+                    }
+                }
+            }
+            FilterStats[] result = new FilterStats[classStats.size()];
+            classStats.values().toArray(result);
+            sort(result);
+            return result;
+        }
+    }
+
+    private final Registry registry;
+    private final String name;
+    private final boolean composite;
+    private long totalNanos;
+    private long frameNanos;
+    private long lastFrameNanos;
+    private int statsFrame;
+    private int count;
+    private long pixels;
+    private int outputBytes;
+
+    /* package private */ FilterStats(Filter filter) {
+        this(getRegistry(), getName(filter.getClass()), filter.isComposite());
+        synchronized (registry) {
+            registry.allStats.put(this, null);
+        }
+    }
+
+    private FilterStats(Registry registry, String name, boolean composite) {
+        this.registry = registry;
+        this.name = name;
+        this.composite = composite;
+        synchronized (registry) {
+            this.statsFrame = registry.frame;
+        }
+    }
+
+    /**
+        Gets the registry of the current app.
+    */
+    private static Registry getRegistry() {
+        AppContext context = CoreSystem.getThisAppContext();
+        return (context == null) ? DEFAULT_REGISTRY : context.getFilterStats();
+    }
+
+    private static String getName(Class c) {
+        String name = c.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+        Marks the end of a frame of the current app.
+    */
+    public static void nextFrame() {
+        getRegistry().nextFrame();
+    }
+
+    /**
+        Gets the statistics of each filter class of the current app, with the most expensive
+        class (in the last frame) first. Only filters that are still in use are counted.
+        FilterChains and FilterGraphs are not included, since the time of the filters in them
+        is counted in their own class.
+    */
+    public static FilterStats[] getClassStats() {
+        return getRegistry().getClassStats();
+    }
+
+    /**
+        Sorts statistics with the most expensive (in the last frame) first.
+    */
+    public static void sort(FilterStats[] stats) {
+        Arrays.sort(stats, MOST_EXPENSIVE_FIRST);
+    }
+
+    /**
+        Records one call to a filter's filter() method.
+    */
+    /* package private */ void record(long nanos, CoreImage output) {
+        int size = output.getWidth() * output.getHeight();
+        synchronized (registry) {
+            roll();
+            totalNanos += nanos;
+            frameNanos += nanos;
+            count++;
+            pixels += size;
+            outputBytes = size * 4;
+        }
+    }
+
+    private void add(FilterStats stats) {
+        stats.roll();
+        totalNanos += stats.totalNanos;
+        frameNanos += stats.frameNanos;
+        lastFrameNanos += stats.lastFrameNanos;
+        count += stats.count;
+        pixels += stats.pixels;
+        outputBytes += stats.outputBytes;
+    }
+
+    private void roll() {
+        int frame = registry.frame;
+        if (statsFrame != frame) {
+            lastFrameNanos = (statsFrame == frame - 1) ? frameNanos : 0;
+            frameNanos = 0;
+            statsFrame = frame;
+        }
+    }
+
+    /**
+        Gets the name of the filter class, without the package.
+    */
+    public String getName() {
+        return name;
+    }
+
+    /**
+        Gets the total time spent filtering, in nanoseconds.
+    */
+    public long getTotalNanos() {
+        synchronized (registry) {
+            return totalNanos;
+        }
+    }
+
+    /**
+        Gets the time spent filtering during the last frame, in nanoseconds.
+    */
+    public long getLastFrameNanos() {
+        synchronized (registry) {
+            roll();
+            return lastFrameNanos;
+        }
+    }
+
+    /**
+        Gets the number of times the filter was filtered.
+    */
+    public int getCount() {
+        synchronized (registry) {
+            return count;
+        }
+    }
+
+    /**
+        Gets the total number of pixels filtered (the size of each output).
+    */
+    public long getPixels() {
+        synchronized (registry) {
+            return pixels;
+        }
+    }
+
+    /**
+        Gets the size, in bytes, of the most recent output image. For class statistics,
+        this is the sum for all filters of the class.
+    */
+    public int getOutputBytes() {
+        synchronized (registry) {
+            return outputBytes;
+        }
+    }
+
+    /**
+        Returns a summary, like "Blur: 1.2 ms (last frame), 340.5 ms total, 60 calls, 1200 KB".
+    */
+    public String toString() {
+        return name + ": " + toMillis(getLastFrameNanos()) + " ms (last frame), " +
+            toMillis(getTotalNanos()) + " ms total, " + getCount() + " calls, " +
+            (getOutputBytes() >> 10) + " KB";
+    }
+
+    /**
+        Formats nanoseconds as milliseconds with one decimal place, like "1.2".
+    */
+    public static String toMillis(long nanos) {
+        long tenths = (nanos + 50000) / 100000;
+        return (tenths / 10) + "." + (tenths % 10);
+    }
+}
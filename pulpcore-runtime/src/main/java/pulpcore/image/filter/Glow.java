@@ -31,6 +31,7 @@ package pulpcore.image.filter;
 import pulpcore.animation.Fixed;
 import pulpcore.image.CoreImage;
 import pulpcore.math.CoreMath;
+import pulpcore.platform.WorkerPool;
 
 /**
  * A Glow filter.
@@ -119,6 +120,10 @@ public final class Glow extends Blur {
 	public Filter copy() {
         return new Glow(this);
 	}
+
+	protected String getParameterKey() {
+		return getBlurParameterKey() + "," + actualAmount;
+	}
 	
 	public void update(int elapsedTime) {
 		
@@ -143,37 +148,48 @@ public final class Glow extends Blur {
         super.update(elapsedTime);
 	}
 
-	protected void filter(CoreImage src, CoreImage dst) {
+	protected void filter(final CoreImage src, final CoreImage dst) {
+
+        // The blur is shared, so changing only the amount doesn't blur again.
+        // The blur has the same size and position as the output.
+        final CoreImage blurred = getBlurredInput(src, isOpaque());
 
-		// call the parent blur filter.
-		super.filter(src, dst);
+        invokeRows(dst.getWidth(), dst.getHeight(), new WorkerPool.Task() {
+            public void run(int startRow, int endRow) {
+                filterRows(src, blurred, dst, startRow, endRow);
+            }
+        });
+    }
 
+    private void filterRows(CoreImage src, CoreImage blurred, CoreImage dst,
+        int startRow, int endRow)
+    {
 		int a = actualAmount;
 
+		int[] blurData = blurred.getData();
 		int[] dstData = dst.getData();
 		int[] srcData = src.getData();
 		int srcWidth = src.getWidth();
 		int srcHeight = src.getHeight();
 		int dstWidth = dst.getWidth();
-		int dstHeight = dst.getHeight();
 		
 		int xOffset = getX();
 		int yOffset = getY();
 		
-		for (int y = 0; y < dstHeight; y++) {
+		for (int y = startRow; y < endRow; y++) {
             int dstIndex = (y * dstWidth);
             if (y + yOffset < 0 || y + yOffset >= srcHeight) {
-                filterOnBlankArea(dstData, dstIndex, dstWidth);
+                filterOnBlankArea(blurData, dstData, dstIndex, dstWidth);
             }
             else {
                 int srcIndex = ((y + yOffset) * srcWidth);
                 int w = -xOffset;
                 if (w > 0) {
-                    filterOnBlankArea(dstData, dstIndex, w);
+                    filterOnBlankArea(blurData, dstData, dstIndex, w);
                     dstIndex += w;
                 }
                 for (int x = 0; x < srcWidth; x++) {
-                    int dstPixel = dstData[dstIndex];
+                    int dstPixel = blurData[dstIndex];
                     int srcPixel = srcData[srcIndex];
 
 					int da = dstPixel >>> 24;
@@ -201,19 +217,19 @@ public final class Glow extends Blur {
                 }
                 w = dstWidth - srcWidth + xOffset;
                 if (w > 0) {
-                    filterOnBlankArea(dstData, dstIndex, w);
+                    filterOnBlankArea(blurData, dstData, dstIndex, w);
                     dstIndex += w;
                 }
             }
 		}
 	}
     
-    private void filterOnBlankArea(int[] dstData, int dstIndex, int length) {
+    private void filterOnBlankArea(int[] blurData, int[] dstData, int dstIndex, int length) {
 
         int a = actualAmount;
         
         for (int j = 0; j < length; j++) {
-            int dstPixel = dstData[dstIndex];
+            int dstPixel = blurData[dstIndex];
             int da = dstPixel >>> 24;
             int dr = (dstPixel >> 16) & 0xff;
             int dg = (dstPixel >> 8) & 0xff;
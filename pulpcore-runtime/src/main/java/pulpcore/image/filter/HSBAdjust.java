@@ -30,7 +30,6 @@ package pulpcore.image.filter;
 
 import pulpcore.animation.Int;
 import pulpcore.image.Colors;
-import pulpcore.image.CoreImage;
 
 /**
  *	A HSB adjust filter.
@@ -43,7 +42,7 @@ import pulpcore.image.CoreImage;
  *	@author Florent Dupont
  *
 */
-public final class HSBAdjust extends Filter {
+public final class HSBAdjust extends PointFilter {
 	
 	/**
 		Hue. Indicates the hue offset this filter will apply to the image.
@@ -93,6 +92,10 @@ public final class HSBAdjust extends Filter {
         copy.saturation.bindWithInverse(saturation);
         return copy;
     }
+
+    protected String getParameterKey() {
+        return actualHue + "," + actualBrightness + "," + actualSaturation;
+    }
     
     public void update(int elapsedTime) {
     	hue.update(elapsedTime);
@@ -115,49 +118,27 @@ public final class HSBAdjust extends Filter {
     	}
     }
 
-    protected void filter(CoreImage src, CoreImage dst) {
-			
-        int[] srcPixels = src.getData();
-        int[] dstPixels = dst.getData();
-        
-        if (src.isOpaque()) {
-            for (int i = 0; i < srcPixels.length; i++) {
-                int hsb = Colors.RGBtoHSB(srcPixels[i]);
-                int h = (hsb >> 16) & 0xff;
-                int s = (hsb >> 8) & 0xff;
-                int b = hsb & 0xff;
+    protected int filterPixel(int argb) {
+        int a = argb >>> 24;
+        int hsb = Colors.RGBtoHSB((a == 0xff) ? argb : Colors.unpremultiply(argb));
+        int h = (hsb >> 16) & 0xff;
+        int s = (hsb >> 8) & 0xff;
+        int b = hsb & 0xff;
 
-        		h = h + actualHue;
-        		h = h > 255 ? 255 : ( h < 0 ? 0 : h);
+        h = h + actualHue;
+        h = h > 255 ? 255 : ( h < 0 ? 0 : h);
 
-        		s = s + actualSaturation;
-        		s = s > 255 ? 255 : ( s < 0 ? 0 : s);
+        s = s + actualSaturation;
+        s = s > 255 ? 255 : ( s < 0 ? 0 : s);
 
-                b = b + actualBrightness;
-        		b = b > 255 ? 255 : ( b < 0 ? 0 : b);
+        b = b + actualBrightness;
+        b = b > 255 ? 255 : ( b < 0 ? 0 : b);
 
-                dstPixels[i] = Colors.hsb(h, s, b);
-            }
+        if (a == 0xff) {
+            return Colors.hsb(h, s, b);
         }
         else {
-            for (int i = 0; i < srcPixels.length; i++) {
-                int hsb = Colors.RGBtoHSB(Colors.unpremultiply(srcPixels[i]));
-                int a = (hsb >>> 24);
-                int h = (hsb >> 16) & 0xff;
-                int s = (hsb >> 8) & 0xff;
-                int b = hsb & 0xff;
-
-        		h = h + actualHue;
-        		h = h > 255 ? 255 : ( h < 0 ? 0 : h);
-
-        		s = s + actualSaturation;
-        		s = s > 255 ? 255 : ( s < 0 ? 0 : s);
-
-                b = b + actualBrightness;
-        		b = b > 255 ? 255 : ( b < 0 ? 0 : b);
-
-                dstPixels[i] = Colors.premultiply(Colors.hsba(h, s, b, a));
-            }
+            return Colors.premultiply(Colors.hsba(h, s, b, a));
         }
-	}
+    }
 }
@@ -40,6 +40,10 @@ public class Identity extends Filter {
                     input.getWidth() * input.getHeight());
     }
 
+    public int getSupportRadius() {
+        return 0;
+    }
+
     public Filter copy() {
         return new Identity();
     }
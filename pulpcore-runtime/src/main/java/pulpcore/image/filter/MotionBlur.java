@@ -34,6 +34,7 @@ import pulpcore.image.Colors;
 import pulpcore.image.CoreImage;
 import pulpcore.math.CoreMath;
 import pulpcore.math.Rect;
+import pulpcore.platform.WorkerPool;
 
 /**
     The MotionBlur filter simulates the streaking of rapidly moving objects.
@@ -44,7 +45,8 @@ public final class MotionBlur extends Filter {
 
     private static int[] x1Offsets = new int[MAX_DISTANCE + 2];
     private static int[] y1Offsets = new int[MAX_DISTANCE + 2];
-    private static int[][] accum;
+    // ThreadLocal<int[4][dstWidth]>
+    private static final ThreadLocal accumBuffers = new ThreadLocal();
     private static final Object bufferLock = new Object();
 
     /**
@@ -126,6 +128,10 @@ public final class MotionBlur extends Filter {
         return new MotionBlur(this);
     }
 
+    protected String getParameterKey() {
+        return actualDistance + "," + actualAngle;
+    }
+
     public void update(int elapsedTime) {
         distance.update(elapsedTime);
         angle.update(elapsedTime);
@@ -222,25 +228,19 @@ public final class MotionBlur extends Filter {
         return (isInputOpaque() && !autoExpand.get());
     }
 
+    public int getSupportRadius() {
+        // The iterations are centered, and each offset is rounded
+        return (getIterations() + 1) / 2 + 1;
+    }
+
     private int getIterations() {
         // Iterations must be odd
         return (CoreMath.toIntCeil(actualDistance) + 1) | 1;
     }
 
-    protected void filter(CoreImage input, CoreImage output) {
+    protected void filter(final CoreImage input, final CoreImage output) {
         synchronized (bufferLock) {
-            int[] srcData = input.getData();
-            int[] dstData = output.getData();
-            int dstWidth = output.getWidth();
-            int dstHeight = output.getHeight();
-            int srcWidth = input.getWidth();
-            int srcHeight = input.getHeight();
-            int actualDistancePlusOne = actualDistance + CoreMath.ONE;
             int iterations = getIterations();
-            int outerAlpha = 255-CoreMath.toIntRound(127 * (CoreMath.toFixed(iterations) - actualDistancePlusOne));
-            int divisor = actualDistancePlusOne;
-            int iDivisor = CoreMath.toIntFloor(divisor);
-            int iDivisor2 = CoreMath.log2(iDivisor);
             int sx = actualAngleCos * (iterations - 1) / 2;
             int sy = actualAngleSin * (iterations - 1) / 2;
             for (int i = 0; i < iterations; i++) {
@@ -250,101 +250,124 @@ public final class MotionBlur extends Filter {
                 sy -= actualAngleSin;
             }
 
-            if (accum == null || accum[0].length < dstWidth) {
-                accum = new int[4][dstWidth];
-            }
+            // Each row is independent
+            invokeRows(output.getWidth(), output.getHeight(), new WorkerPool.Task() {
+                public void run(int startRow, int endRow) {
+                    filterRows(input, output, startRow, endRow);
+                }
+            });
+        }
+    }
+
+    private void filterRows(CoreImage input, CoreImage output, int startRow, int endRow) {
+        int[] srcData = input.getData();
+        int[] dstData = output.getData();
+        int dstWidth = output.getWidth();
+        int srcWidth = input.getWidth();
+        int srcHeight = input.getHeight();
+        int actualDistancePlusOne = actualDistance + CoreMath.ONE;
+        int iterations = getIterations();
+        int outerAlpha = 255-CoreMath.toIntRound(127 * (CoreMath.toFixed(iterations) - actualDistancePlusOne));
+        int divisor = actualDistancePlusOne;
+        int iDivisor = CoreMath.toIntFloor(divisor);
+        int iDivisor2 = CoreMath.log2(iDivisor);
+
+        int[][] accum = (int[][])accumBuffers.get();
+        if (accum == null || accum[0].length < dstWidth) {
+            accum = new int[4][dstWidth];
+            accumBuffers.set(accum);
+        }
 
-            int[] a = accum[0];
-            int[] r = accum[1];
-            int[] g = accum[2];
-            int[] b = accum[3];
+        int[] a = accum[0];
+        int[] r = accum[1];
+        int[] g = accum[2];
+        int[] b = accum[3];
 
-            int dstOffset = 0;
-            for (int y = 0; y < dstHeight; y++) {
-                // Reset this row
-                int rowX1 = dstWidth - 1;
-                int rowX2 = 0;
+        int dstOffset = startRow * dstWidth;
+        for (int y = startRow; y < endRow; y++) {
+            // Reset this row
+            int rowX1 = dstWidth - 1;
+            int rowX2 = 0;
+            for (int i = 0; i < iterations; i++) {
+                int sourceY = y + y1Offsets[i];
+                if (sourceY >= 0 && sourceY < srcHeight) {
+                    rowX1 = Math.min(rowX1, -x1Offsets[i]);
+                    rowX2 = Math.max(rowX2, -x1Offsets[i] + srcWidth-1);
+                }
+            }
+            rowX1 = Math.max(rowX1, 0);
+            rowX2 = Math.min(rowX2, dstWidth - 1);
+            if (rowX1 < rowX2) {
+                for (int x = rowX1; x <= rowX2; x++) {
+                    a[x] = 0;
+                    r[x] = 0;
+                    g[x] = 0;
+                    b[x] = 0;
+                }
+                // Write the iteration (accumulate)
                 for (int i = 0; i < iterations; i++) {
                     int sourceY = y + y1Offsets[i];
+
                     if (sourceY >= 0 && sourceY < srcHeight) {
-                        rowX1 = Math.min(rowX1, -x1Offsets[i]);
-                        rowX2 = Math.max(rowX2, -x1Offsets[i] + srcWidth-1);
-                    }
-                }
-                rowX1 = Math.max(rowX1, 0);
-                rowX2 = Math.min(rowX2, dstWidth - 1);
-                if (rowX1 < rowX2) {
-                    for (int x = rowX1; x <= rowX2; x++) {
-                        a[x] = 0;
-                        r[x] = 0;
-                        g[x] = 0;
-                        b[x] = 0;
-                    }
-                    // Write the iteration (accumulate)
-                    for (int i = 0; i < iterations; i++) {
-                        int sourceY = y + y1Offsets[i];
-
-                        if (sourceY >= 0 && sourceY < srcHeight) {
-                            int x1 = Math.max(-x1Offsets[i], 0);
-                            int x2 = Math.min(-x1Offsets[i] + srcWidth-1, dstWidth - 1);
-                            int sourceX = x1+x1Offsets[i];
-                            int srcOffset = sourceX + sourceY*srcWidth;
-
-                            if (outerAlpha < 255 && (i ==0 || i == iterations - 1)) {
-                                for (int x = x1; x <= x2; x++) {
-                                    int argb = srcData[srcOffset++];
-                                    a[x] += (Colors.getAlpha(argb) * outerAlpha) >> 8;
-                                    r[x] += (Colors.getRed(argb) * outerAlpha) >> 8;
-                                    g[x] += (Colors.getGreen(argb) * outerAlpha) >> 8;
-                                    b[x] += (Colors.getBlue(argb) * outerAlpha) >> 8;
-                                }
+                        int x1 = Math.max(-x1Offsets[i], 0);
+                        int x2 = Math.min(-x1Offsets[i] + srcWidth-1, dstWidth - 1);
+                        int sourceX = x1+x1Offsets[i];
+                        int srcOffset = sourceX + sourceY*srcWidth;
+
+                        if (outerAlpha < 255 && (i ==0 || i == iterations - 1)) {
+                            for (int x = x1; x <= x2; x++) {
+                                int argb = srcData[srcOffset++];
+                                a[x] += (Colors.getAlpha(argb) * outerAlpha) >> 8;
+                                r[x] += (Colors.getRed(argb) * outerAlpha) >> 8;
+                                g[x] += (Colors.getGreen(argb) * outerAlpha) >> 8;
+                                b[x] += (Colors.getBlue(argb) * outerAlpha) >> 8;
                             }
-                            else {
-                                for (int x = x1; x <= x2; x++) {
-                                    int argb = srcData[srcOffset++];
-                                    a[x] += Colors.getAlpha(argb);
-                                    r[x] += Colors.getRed(argb);
-                                    g[x] += Colors.getGreen(argb);
-                                    b[x] += Colors.getBlue(argb);
-                                }
+                        }
+                        else {
+                            for (int x = x1; x <= x2; x++) {
+                                int argb = srcData[srcOffset++];
+                                a[x] += Colors.getAlpha(argb);
+                                r[x] += Colors.getRed(argb);
+                                g[x] += Colors.getGreen(argb);
+                                b[x] += Colors.getBlue(argb);
                             }
                         }
                     }
+                }
 
-                    // Convert the row
-                    for (int x = 0; x < rowX1; x++) {
-                        dstData[dstOffset++] = 0;
-                    }
-                    if (CoreMath.toFixed(iDivisor) == divisor) {
-                        if ((1 << iDivisor2) == iDivisor) {
-                            for (int x = rowX1; x <= rowX2; x++) {
-                                dstData[dstOffset++] = Colors.rgba(r[x] >> iDivisor2, g[x] >> iDivisor2, b[x] >> iDivisor2, a[x] >> iDivisor2);
-                            }
-                        }
-                        else {
-                            for (int x = rowX1; x <= rowX2; x++) {
-                                dstData[dstOffset++] = Colors.rgba(r[x] / iDivisor, g[x] / iDivisor, b[x] / iDivisor, a[x] / iDivisor);
-                            }
+                // Convert the row
+                for (int x = 0; x < rowX1; x++) {
+                    dstData[dstOffset++] = 0;
+                }
+                if (CoreMath.toFixed(iDivisor) == divisor) {
+                    if ((1 << iDivisor2) == iDivisor) {
+                        for (int x = rowX1; x <= rowX2; x++) {
+                            dstData[dstOffset++] = Colors.rgba(r[x] >> iDivisor2, g[x] >> iDivisor2, b[x] >> iDivisor2, a[x] >> iDivisor2);
                         }
                     }
                     else {
                         for (int x = rowX1; x <= rowX2; x++) {
-                            dstData[dstOffset++] = Colors.rgba(
-                                    (int)((((long)r[x]) << 16) / divisor),
-                                    (int)((((long)g[x]) << 16) / divisor),
-                                    (int)((((long)b[x]) << 16) / divisor),
-                                    (int)((((long)a[x]) << 16) / divisor));
+                            dstData[dstOffset++] = Colors.rgba(r[x] / iDivisor, g[x] / iDivisor, b[x] / iDivisor, a[x] / iDivisor);
                         }
                     }
-                    for (int x = rowX2+1; x < dstWidth; x++) {
-                        dstData[dstOffset++] = 0;
-                    }
                 }
                 else {
-                    for (int x = 0; x < dstWidth; x++) {
-                        dstData[dstOffset++] = 0;
+                    for (int x = rowX1; x <= rowX2; x++) {
+                        dstData[dstOffset++] = Colors.rgba(
+                                (int)((((long)r[x]) << 16) / divisor),
+                                (int)((((long)g[x]) << 16) / divisor),
+                                (int)((((long)b[x]) << 16) / divisor),
+                                (int)((((long)a[x]) << 16) / divisor));
                     }
                 }
+                for (int x = rowX2+1; x < dstWidth; x++) {
+                    dstData[dstOffset++] = 0;
+                }
+            }
+            else {
+                for (int x = 0; x < dstWidth; x++) {
+                    dstData[dstOffset++] = 0;
+                }
             }
         }
     }
@@ -28,37 +28,31 @@
 */
 package pulpcore.image.filter;
 
-import pulpcore.image.CoreImage;
-
 /**
     A negative-image filter.
     @author Florent Dupont
  */
-public final class Negative extends Filter {
+public final class Negative extends PointFilter {
 	
     public Filter copy() {
         return new Negative();
     }
 
-    protected void filter(CoreImage src, CoreImage dst) {
-			
-        int[] srcPixels = src.getData();
-        int[] dstPixels = dst.getData();
-
-        for(int i = 0; i < srcPixels.length; i++) {
-            int srcRGB = srcPixels[i];
+    protected String getParameterKey() {
+        return "";
+    }
 
-            int srcA = srcRGB >>> 24;
-            int srcR = (srcRGB >> 16) & 0xff;
-            int srcG = (srcRGB >> 8) & 0xff;
-            int srcB = srcRGB & 0xff;
+    protected int filterPixel(int srcRGB) {
+        int srcA = srcRGB >>> 24;
+        int srcR = (srcRGB >> 16) & 0xff;
+        int srcG = (srcRGB >> 8) & 0xff;
+        int srcB = srcRGB & 0xff;
 
-            srcR = srcA - srcR;
-            srcG = srcA - srcG;
-            srcB = srcA - srcB;
+        srcR = srcA - srcR;
+        srcG = srcA - srcG;
+        srcB = srcA - srcB;
 
-            // Values are already pre-multiplied
-            dstPixels[i] = (srcA << 24) | (srcR << 16) | (srcG << 8) | srcB;
-        }
-	}
+        // Values are already pre-multiplied
+        return (srcA << 24) | (srcR << 16) | (srcG << 8) | srcB;
+    }
 }
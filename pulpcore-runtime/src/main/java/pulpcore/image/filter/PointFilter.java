@@ -0,0 +1,139 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package pulpcore.image.filter;
+
+import pulpcore.image.CoreImage;
+
+/**
+    Base class for filters where each output pixel depends only on the input pixel at the
+    same location, like color adjustments. Subclasses override
+    {@link #filterPixel(int) }.
+    <p>
+    A {@link FilterChain} fuses consecutive PointFilters into one pass over the image,
+    without creating intermediate images.
+*/
+public abstract class PointFilter extends Filter {
+
+    /**
+        Prepares this filter for calls to {@link #filterPixel(int)}, for example, to create
+        lookup tables. This method is called once before filtering an image.
+        The default method does nothing.
+    */
+    protected void prepare() {
+
+    }
+
+    /**
+        Filters one pixel.
+        @param argb The input pixel, in premultiplied ARGB format.
+        @return The output pixel, in premultiplied ARGB format.
+    */
+    protected abstract int filterPixel(int argb);
+
+    /**
+        Returns true if the output is opaque given the opacity of the input. By default, the
+        output is opaque if the input is opaque.
+    */
+    protected boolean isOpaque(boolean inputOpaque) {
+        return inputOpaque;
+    }
+
+    /**
+        Returns true if {@link #filterPixel(int)} gives the same result as
+        {@link #filter(pulpcore.image.CoreImage, pulpcore.image.CoreImage) } with the
+        current settings. If false, a FilterChain won't fuse this filter with other filters.
+        By default, this method returns true.
+    */
+    protected boolean isPointwise() {
+        return true;
+    }
+
+    public final boolean isOpaque() {
+        return isOpaque(super.isOpaque());
+    }
+
+    /**
+        Returns 0, since each output pixel depends only on the input pixel at the same location.
+    */
+    public int getSupportRadius() {
+        return 0;
+    }
+
+    protected void filter(CoreImage src, CoreImage dst) {
+        prepare();
+
+        int[] srcPixels = src.getData();
+        int[] dstPixels = dst.getData();
+        int lastIn = 0;
+        int lastOut = filterPixel(0);
+        int size = src.getWidth() * src.getHeight();
+
+        for (int i = 0; i < size; i++) {
+            int argb = srcPixels[i];
+            // Images often have runs of the same color
+            if (argb != lastIn) {
+                lastIn = argb;
+                lastOut = filterPixel(argb);
+            }
+            dstPixels[i] = lastOut;
+        }
+    }
+
+    /**
+        Filters pixels through several PointFilters in one pass.
+    */
+    /* package private */ static void filter(PointFilter[] filters, int numFilters,
+        CoreImage src, CoreImage dst)
+    {
+        for (int f = 0; f < numFilters; f++) {
+            filters[f].prepare();
+        }
+
+        int[] srcPixels = src.getData();
+        int[] dstPixels = dst.getData();
+        int lastIn = 0;
+        int lastOut = 0;
+        for (int f = 0; f < numFilters; f++) {
+            lastOut = filters[f].filterPixel(lastOut);
+        }
+        int size = src.getWidth() * src.getHeight();
+
+        for (int i = 0; i < size; i++) {
+            int argb = srcPixels[i];
+            if (argb != lastIn) {
+                lastIn = argb;
+                for (int f = 0; f < numFilters; f++) {
+                    argb = filters[f].filterPixel(argb);
+                }
+                lastOut = argb;
+            }
+            dstPixels[i] = lastOut;
+        }
+    }
+}
@@ -115,6 +115,10 @@ public final class Reflection extends Filter {
         return copy;
     }
 
+    protected String getParameterKey() {
+        return actualFraction + "," + actualGap + "," + actualTopAlpha + "," + actualBottomAlpha;
+    }
+
     public int getHeight() {
         int h = super.getHeight();
         int reflectionHeight = Math.round(actualFraction * h);
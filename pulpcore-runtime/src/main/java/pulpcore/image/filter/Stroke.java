@@ -34,6 +34,7 @@ import pulpcore.image.Colors;
 import pulpcore.image.CoreGraphics;
 import pulpcore.image.CoreImage;
 import pulpcore.math.CoreMath;
+import pulpcore.platform.WorkerPool;
 
 /**
  * A edge Stroke filter. <p>
@@ -54,6 +55,13 @@ public final class Stroke extends Filter {
     private final static int DEFAULT_COLOR = 0xff000000;
     private final static boolean ANTI_ALIAS = true;
 
+    /**
+        Strokes with at least this radius are drawn with a distance transform instead of
+        stamping circles. The cost of stamping grows with the square of the radius, while the
+        cost of the distance transform depends only on the size of the image.
+    */
+    private final static int DISTANCE_TRANSFORM_MIN_RADIUS = 4;
+
     /**
         The stroke color. The default color is black.
     */
@@ -66,9 +74,9 @@ public final class Stroke extends Filter {
 
     private int actualColor = 0;
     private int actualRadius = -1;
-    private int fillIntensity;
     private int[] precalculatedIntensities;
     private int[] colorTable;
+    private int[] distanceTable;
 
     private Stroke(Stroke filter) {
         size.bindWithInverse(filter.size);
@@ -101,6 +109,10 @@ public final class Stroke extends Filter {
         return new Stroke(this);
     }
 
+    protected String getParameterKey() {
+        return actualColor + "," + actualRadius;
+    }
+
     public void update(int elapsedTime) {
 
         super.update(elapsedTime);
@@ -113,6 +125,7 @@ public final class Stroke extends Filter {
                 colorTable = new int[256];
             }
             actualColor = color.get();
+            distanceTable = null;
             setDirty();
             int rgb = Colors.rgb(color.get());
             int alpha = Colors.getAlpha(color.get());
@@ -125,6 +138,7 @@ public final class Stroke extends Filter {
         int r = CoreMath.clamp(size.get() - 1, 0, 180);
         if (actualRadius != r) {
             actualRadius = r;
+            distanceTable = null;
             setDirty();
             precalculatedIntensities = precalculateIntensities(actualRadius);
         }
@@ -134,6 +148,11 @@ public final class Stroke extends Filter {
         return false;
     }
 
+    public int getSupportRadius() {
+        // The stamp radius, plus the antialiased edge
+        return actualRadius + 2;
+    }
+
     public int getX() {
         return -(actualRadius + 1);
     }
@@ -150,53 +169,287 @@ public final class Stroke extends Filter {
         return super.getHeight() + (actualRadius + 1) * 2;
     }
 
-    protected void filter(CoreImage src, CoreImage dst) {
+    protected void filter(final CoreImage src, CoreImage dst) {
 
         int xOffset = getX();
         int yOffset = getY();
 
-        int[] srcData = src.getData();
-        int[] dstData = dst.getData();
-        int srcWidth = src.getWidth();
-        int srcHeight = src.getHeight();
-        int srcSize = srcWidth * srcHeight;
-        int dstWidth = dst.getWidth();
-        int dstHeight = dst.getHeight();
+        final int[] dstData = dst.getData();
+        final int dstWidth = dst.getWidth();
+        final int dstHeight = dst.getHeight();
 
         CoreGraphics g = dst.createGraphics();
         g.clear();
         
-        if (srcSize == 0) {
+        if (src.getWidth() * src.getHeight() == 0) {
             return;
         }
 
-        int colorAlpha = actualColor >>> 24;
-        int colorPremultiplied = Colors.premultiply(actualColor);
-        boolean antiAlias = ANTI_ALIAS && actualRadius <= 16 && srcWidth >= 2 && srcHeight >= 2;
-        if (colorAlpha > 0) {
+        if ((actualColor >>> 24) == 0) {
+            // Invisible stroke
+        }
+        else if (actualRadius >= DISTANCE_TRANSFORM_MIN_RADIUS) {
+            strokeWithDistanceTransform(src, dst);
+        }
+        else {
+            // Stamps only increase the alpha of each pixel, so bands of rows can be
+            // stroked independently.
+            invokeRows(dstWidth, dstHeight, new WorkerPool.Task() {
+                public void run(int startRow, int endRow) {
+                    new Stamper(dstData, dstWidth, dstHeight, startRow, endRow).stroke(src);
+                }
+            });
+        }
+
+        // Draw the input image on top of the stroke
+        g.drawImage(src, -xOffset, -yOffset);
+    }
+
+    /**
+        Draws the stroke from the exact Euclidean distance transform of the input: each
+        output pixel is colored by its distance to the nearest non-transparent input pixel,
+        with an anti-aliased edge from the fractional part of the distance.
+        <p>
+        The transform is separable (Meijster, Roerdink and Hesselink, 2000). The first pass
+        finds the vertical distance to the nearest input pixel in each column, and the second
+        pass finds the nearest of those in each row, using the lower envelope of parabolas.
+        Both passes are linear in the number of pixels, regardless of the radius.
+    */
+    private void strokeWithDistanceTransform(CoreImage src, CoreImage dst) {
+        final int[] srcData = src.getData();
+        final int srcWidth = src.getWidth();
+        final int srcHeight = src.getHeight();
+        final int[] dstData = dst.getData();
+        final int dstWidth = dst.getWidth();
+        final int dstHeight = dst.getHeight();
+        final int border = -getX();
+        // Distances at or above the maximum are all the same: outside the stroke
+        final int maxDistance = actualRadius + 3;
+        final int[] table = getDistanceTable();
+
+        // Pass 1: The vertical distances are written to the output, which has the same size.
+        // Each band of columns is independent. The invokeRows() method is used with the
+        // width and height swapped, so the "rows" it gives are columns.
+        invokeRows(dstHeight, dstWidth, new WorkerPool.Task() {
+            public void run(int startColumn, int endColumn) {
+                int srcStart = Math.max(startColumn, border);
+                int srcEnd = Math.min(endColumn, border + srcWidth);
+
+                // Top to bottom
+                for (int x = startColumn; x < endColumn; x++) {
+                    dstData[x] = maxDistance;
+                }
+                for (int y = 1; y < dstHeight; y++) {
+                    int dstOffset = y * dstWidth;
+                    for (int x = startColumn; x < endColumn; x++) {
+                        int d = dstData[dstOffset + x - dstWidth];
+                        dstData[dstOffset + x] = (d < maxDistance) ? d + 1 : maxDistance;
+                    }
+                    int srcY = y - border;
+                    if (srcY >= 0 && srcY < srcHeight) {
+                        int srcOffset = srcY * srcWidth - border;
+                        for (int x = srcStart; x < srcEnd; x++) {
+                            if (srcData[srcOffset + x] != 0) {
+                                dstData[dstOffset + x] = 0;
+                            }
+                        }
+                    }
+                }
+
+                // Bottom to top
+                for (int y = dstHeight - 2; y >= 0; y--) {
+                    int dstOffset = y * dstWidth;
+                    for (int x = startColumn; x < endColumn; x++) {
+                        int d = dstData[dstOffset + x + dstWidth] + 1;
+                        if (d < dstData[dstOffset + x]) {
+                            dstData[dstOffset + x] = d;
+                        }
+                    }
+                }
+            }
+        });
+
+        // Pass 2: Each band of rows is independent.
+        invokeRows(dstWidth, dstHeight, new WorkerPool.Task() {
+            public void run(int startRow, int endRow) {
+                int[] g = new int[dstWidth];
+                int[] s = new int[dstWidth];
+                int[] t = new int[dstWidth];
+                for (int y = startRow; y < endRow; y++) {
+                    int dstOffset = y * dstWidth;
+                    System.arraycopy(dstData, dstOffset, g, 0, dstWidth);
+                    for (int x = 0; x < dstWidth; x++) {
+                        g[x] *= g[x];
+                    }
+
+                    // Lower envelope of the parabolas (x - i)^2 + g(i)^2
+                    int q = 0;
+                    s[0] = 0;
+                    t[0] = 0;
+                    for (int u = 1; u < dstWidth; u++) {
+                        while (q >= 0 && distance(t[q], s[q], g) > distance(t[q], u, g)) {
+                            q--;
+                        }
+                        if (q < 0) {
+                            q = 0;
+                            s[0] = u;
+                        }
+                        else {
+                            int w = 1 + (u * u - s[q] * s[q] + g[u] - g[s[q]]) / (2 * (u - s[q]));
+                            if (w < dstWidth) {
+                                q++;
+                                s[q] = u;
+                                t[q] = w;
+                            }
+                        }
+                    }
+
+                    for (int x = dstWidth - 1; x >= 0; x--) {
+                        int d = distance(x, s[q], g);
+                        dstData[dstOffset + x] = (d < table.length) ? table[d] : 0;
+                        if (x == t[q]) {
+                            q--;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static int distance(int x, int i, int[] g) {
+        return (x - i) * (x - i) + g[i];
+    }
+
+    /**
+        Gets the stroke pixel for each squared distance from the nearest input pixel, up to
+        (but not including) the squared outer edge of the stroke. Like the stamped circles,
+        pixels within the stroke size are fully colored, and the next pixel is anti-aliased
+        by the fractional distance.
+    */
+    private int[] getDistanceTable() {
+        if (distanceTable == null) {
+            int colorAlpha = actualColor >>> 24;
+            int outerEdge = actualRadius + 2;
+            int[] table = new int[outerEdge * outerEdge];
+            for (int i = 0; i < table.length; i++) {
+                double coverage = outerEdge - Math.sqrt(i);
+                if (coverage >= 1) {
+                    table[i] = colorTable[colorAlpha];
+                }
+                else {
+                    table[i] = colorTable[(int)Math.round(coverage * colorAlpha)];
+                }
+            }
+            distanceTable = table;
+        }
+        return distanceTable;
+    }
+
+    /**
+     * precalculate the D(r, j) intensity values.
+     * precalculation stays the same for a given radius.
+     * Make sure to re-precalculate if the radius changes.
+     * int this precalculation j goes from 1 to  r / sqrt(2)
+     * @param radius
+     * @return an int array containing precalcs.
+     */
+    private final int[] precalculateIntensities(int radius) {
+
+        // radius stays the same.
+        // make sure to re-precalculate if the radius changes
+        // j from 1 to  r / sqrt(2)
+        //int maxJ = (int)Math.ceil(radius * 1.0d / 1.4142135623d);
+        int[] result = new int[radius + 1];
+
+        for (int j = 1; j <= radius; j++) {
+            result[j] = calculateIntensity(radius, j);
+        }
+        return result;
+    }
+
+    /**
+     *  Wu's intensity calculation.
+     *  Equivalent of D(r, j) in Wu's algorithm
+     *  Math formula is given in Graphics Gem II (p. 446)
+     *
+     *  Each values is precalculater performances issues and available with {@link #precalculateIntensities(int)}.
+     *  Fixed point values are used to increase calculation.
+     *  The equivalent in using double :
+     *    double r2j2 = (r * r)  - (j * j);
+     *	  double pr = Math.ceil(Math.sqrt(r2j2)) - Math.sqrt(r2j2);
+     *	  double result = Math.floor(255 * pr + 0.5);
+     *
+     */
+    private int calculateIntensity(int r, int j) {
+        int r2j2_fixed = CoreMath.toFixed(r * r) - CoreMath.toFixed(j * j);
+        int r2j2sqrt_fixed = CoreMath.sqrt(r2j2_fixed);
+        int pr_fixed = CoreMath.ceil(r2j2sqrt_fixed) - r2j2sqrt_fixed;
+        int result_fixed = (255 * pr_fixed + (CoreMath.ONE / 2));
+        return CoreMath.toIntFloor(result_fixed);
+    }
+
+    /**
+        Draws the stroke into a band of rows of the output.
+    */
+    private class Stamper {
+
+        private final int[] dstData;
+        private final int dstWidth;
+        private final int dstHeight;
+        private final int minRow;
+        private final int maxRow;
+        private int fillIntensity;
+    
+        Stamper(int[] dstData, int dstWidth, int dstHeight, int minRow, int maxRow) {
+            this.dstData = dstData;
+            this.dstWidth = dstWidth;
+            this.dstHeight = dstHeight;
+            this.minRow = minRow;
+            this.maxRow = maxRow;
+        }
+
+        private boolean isInBand(int yCenter) {
+            return yCenter + actualRadius + 1 >= minRow && yCenter - actualRadius - 1 < maxRow;
+        }
+
+        void stroke(CoreImage src) {
+            int xOffset = getX();
+            int yOffset = getY();
+            int[] srcData = src.getData();
+            int srcWidth = src.getWidth();
+            int srcHeight = src.getHeight();
+            int srcSize = srcWidth * srcHeight;
+            int colorAlpha = actualColor >>> 24;
+            int colorPremultiplied = Colors.premultiply(actualColor);
+            boolean antiAlias = ANTI_ALIAS && actualRadius <= 16 && srcWidth >= 2 && srcHeight >= 2;
 
-            int srcOffset = 0;
-            int dstOffset = -xOffset - yOffset * dstWidth;
             if (antiAlias) {
                 for (int j = 0; j < srcWidth; j++) {
                     // Top edge anti-alias
-                    int a = srcData[srcOffset + j] >>> 24;
-                    if (a > 0) {
+                    int a = srcData[j] >>> 24;
+                    if (a > 0 && isInBand(-1 - yOffset)) {
                         fillIntensity = (a * colorAlpha) >> 8;
                         wuAntialiasedCircle(dstData, dstWidth, dstHeight,
                                 j - xOffset, -1 - yOffset, actualRadius);
                     }
 
                     // Bottom edge anti-alias
-                    a = srcData[srcOffset + j + srcSize - srcWidth] >>> 24;
-                    if (a > 0) {
+                    a = srcData[j + srcSize - srcWidth] >>> 24;
+                    if (a > 0 && isInBand(srcHeight - yOffset)) {
                         fillIntensity = (a * colorAlpha) >> 8;
                         wuAntialiasedCircle(dstData, dstWidth, dstHeight,
                                 j - xOffset, srcHeight - yOffset, actualRadius);
                     }
                 }
             }
-            for (int i = 0; i < srcHeight; i++) {
+
+            // Only the source rows with stamps that reach this band
+            int startRow = Math.max(0, minRow + yOffset - actualRadius - 1);
+            int endRow = Math.min(srcHeight, maxRow + yOffset + actualRadius + 1);
+            int srcOffset = startRow * srcWidth;
+            int dstOffset = -xOffset + (startRow - yOffset) * dstWidth;
+            for (int i = startRow; i < endRow; i++) {
+                boolean isRowInBand = (i - yOffset >= minRow && i - yOffset < maxRow);
                 if (antiAlias) {
                     // Left edge anti-alias
                     int a = srcData[srcOffset] >>> 24;
@@ -242,7 +495,9 @@ public final class Stroke extends Filter {
                     }
                     else {
                         // Non-transparent: fill underneath
-                        dstData[dstOffset] = colorPremultiplied;
+                        if (isRowInBand) {
+                            dstData[dstOffset] = colorPremultiplied;
+                        }
 
                         // If next to a transparent pixel, fill the circle
                         boolean isBorder = false;
@@ -269,168 +524,139 @@ public final class Stroke extends Filter {
             }
         }
 
-        // Draw the input image on top of the stroke
-        g.drawImage(src, -xOffset, -yOffset);
-    }
-
-    /**
-     * precalculate the D(r, j) intensity values.
-     * precalculation stays the same for a given radius.
-     * Make sure to re-precalculate if the radius changes.
-     * int this precalculation j goes from 1 to  r / sqrt(2)
-     * @param radius
-     * @return an int array containing precalcs.
-     */
-    private final int[] precalculateIntensities(int radius) {
-
-        // radius stays the same.
-        // make sure to re-precalculate if the radius changes
-        // j from 1 to  r / sqrt(2)
-        //int maxJ = (int)Math.ceil(radius * 1.0d / 1.4142135623d);
-        int[] result = new int[radius + 1];
-
-        for (int j = 1; j <= radius; j++) {
-            result[j] = calculateIntensity(radius, j);
-        }
-        return result;
-    }
+        /**
+         * used for debug purpose.
+         * May be useful to place this in CoreGraphic ...
+         */
+        private final void wuAntialiasedCircle(int[] pixels, int width, int height, int xCenter, int yCenter, int radius) {
 
-    /**
-     * used for debug purpose.
-     * May be useful to place this in CoreGraphic ...
-     */
-    private final void wuAntialiasedCircle(int[] pixels, int width, int height, int xCenter, int yCenter, int radius) {
+            int i = radius;
+            int t = 0;
 
-        int i = radius;
-        int t = 0;
+            drawOctants(fillIntensity, pixels, width, height, radius, xCenter, yCenter);
 
-        drawOctants(fillIntensity, pixels, width, height, radius, xCenter, yCenter);
+            for (int j = 1; j < i; j++) {
+                int d = precalculatedIntensities[j]; //precalculated D(r, j)
+                if (d < t) {
+                    i--;
+                }
+                if (i < j) {
+                    break;
+                }
 
-        for (int j = 1; j < i; j++) {
-            int d = precalculatedIntensities[j]; //precalculated D(r, j)
-            if (d < t) {
-                i--;
-            }
-            if (i < j) {
-                break;
+                int fd = (d * fillIntensity) >> 8;
+                drawOctants(fillIntensity - fd, pixels, width, height, i, j, xCenter, yCenter);
+                if (i != j) {
+                    drawOctants(fd, pixels, width, height, i - 1, j, xCenter, yCenter);
+                }
+                t = d;
             }
 
-            int fd = (d * fillIntensity) >> 8;
-            drawOctants(fillIntensity - fd, pixels, width, height, i, j, xCenter, yCenter);
-            if (i != j) {
-                drawOctants(fd, pixels, width, height, i - 1, j, xCenter, yCenter);
-            }
-            t = d;
         }
 
-    }
-
-    /**
-     *  May be useful to place this in CoreGraphic ...
-     */
-    private final void wuAntialiasedFilledCircle(int[] pixels, int width, int height, int xCenter, int yCenter, int radius) {
+        /**
+         *  May be useful to place this in CoreGraphic ...
+         */
+        private final void wuAntialiasedFilledCircle(int[] pixels, int width, int height, int xCenter, int yCenter, int radius) {
 
-        int i = radius;
-        int t = 0;
+            int i = radius;
+            int t = 0;
 
-        // fills the inside lines.
-        fillOctants(fillIntensity, pixels, width, height, 0, 0, xCenter, yCenter, i + 1);
+            // fills the inside lines.
+            fillOctants(fillIntensity, pixels, width, height, 0, 0, xCenter, yCenter, i + 1);
 
-        for (int j = 1; j < i; j++) {
-            int d = precalculatedIntensities[j]; //precalculated D(r, j)
-            if (d < t) {
-                i--;
-            }
-            if (i < j) {
-                break;
-            }
+            for (int j = 1; j < i; j++) {
+                int d = precalculatedIntensities[j]; //precalculated D(r, j)
+                if (d < t) {
+                    i--;
+                }
+                if (i < j) {
+                    break;
+                }
 
-            int intensity = ((255 - d) * fillIntensity) >> 8;
-            drawOctants(intensity, pixels, width, height, i, j, xCenter, yCenter);
-            t = d;
+                int intensity = ((255 - d) * fillIntensity) >> 8;
+                drawOctants(intensity, pixels, width, height, i, j, xCenter, yCenter);
+                t = d;
 
-            // filling the inside lines
-            fillOctants(fillIntensity, pixels, width, height, j, j, xCenter, yCenter, i - j);
+                // filling the inside lines
+                fillOctants(fillIntensity, pixels, width, height, j, j, xCenter, yCenter, i - j);
+            }
         }
-    }
-
-    /**
-     *  Wu's intensity calculation.
-     *  Equivalent of D(r, j) in Wu's algorithm
-     *  Math formula is given in Graphics Gem II (p. 446)
-     *
-     *  Each values is precalculater performances issues and available with {@link #precalculateIntensities(int)}.
-     *  Fixed point values are used to increase calculation.
-     *  The equivalent in using double :
-     *    double r2j2 = (r * r)  - (j * j);
-     *	  double pr = Math.ceil(Math.sqrt(r2j2)) - Math.sqrt(r2j2);
-     *	  double result = Math.floor(255 * pr + 0.5);
-     *
-     */
-    private int calculateIntensity(int r, int j) {
-        int r2j2_fixed = CoreMath.toFixed(r * r) - CoreMath.toFixed(j * j);
-        int r2j2sqrt_fixed = CoreMath.sqrt(r2j2_fixed);
-        int pr_fixed = CoreMath.ceil(r2j2sqrt_fixed) - r2j2sqrt_fixed;
-        int result_fixed = (255 * pr_fixed + (CoreMath.ONE / 2));
-        return CoreMath.toIntFloor(result_fixed);
-    }
 
-    private final void drawOctants(int intensity, int[] pixels, int width, int height, int y, int xCenter, int yCenter) {
-        setPixel(intensity, pixels, width, height, xCenter, yCenter + y);
-        setPixel(intensity, pixels, width, height, xCenter, yCenter - y);
-        if (y != 0) {
-            setPixel(intensity, pixels, width, height, xCenter + y, yCenter);
-            setPixel(intensity, pixels, width, height, xCenter - y, yCenter);
+        private final void drawOctants(int intensity, int[] pixels, int width, int height, int y, int xCenter, int yCenter) {
+            setPixel(intensity, pixels, width, height, xCenter, yCenter + y);
+            setPixel(intensity, pixels, width, height, xCenter, yCenter - y);
+            if (y != 0) {
+                setPixel(intensity, pixels, width, height, xCenter + y, yCenter);
+                setPixel(intensity, pixels, width, height, xCenter - y, yCenter);
+            }
         }
-    }
 
-    /**
-     * Draws every circle octants with a specified intensity.
-     * Equivalent of I(i, j) in Wu's algorithm
-     */
-    private final void drawOctants(int intensity, int[] pixels, int width, int height, int x, int y, int xCenter, int yCenter) {
-        setPixel(intensity, pixels, width, height, xCenter + x, yCenter + y);
-        setPixel(intensity, pixels, width, height, xCenter - x, yCenter + y);
-        setPixel(intensity, pixels, width, height, xCenter + x, yCenter - y);
-        setPixel(intensity, pixels, width, height, xCenter - x, yCenter - y);
-        if (x != y) {
-            setPixel(intensity, pixels, width, height, xCenter + y, yCenter + x);
-            setPixel(intensity, pixels, width, height, xCenter - y, yCenter + x);
-            setPixel(intensity, pixels, width, height, xCenter + y, yCenter - x);
-            setPixel(intensity, pixels, width, height, xCenter - y, yCenter - x);
+        /**
+         * Draws every circle octants with a specified intensity.
+         * Equivalent of I(i, j) in Wu's algorithm
+         */
+        private final void drawOctants(int intensity, int[] pixels, int width, int height, int x, int y, int xCenter, int yCenter) {
+            setPixel(intensity, pixels, width, height, xCenter + x, yCenter + y);
+            setPixel(intensity, pixels, width, height, xCenter - x, yCenter + y);
+            setPixel(intensity, pixels, width, height, xCenter + x, yCenter - y);
+            setPixel(intensity, pixels, width, height, xCenter - x, yCenter - y);
+            if (x != y) {
+                setPixel(intensity, pixels, width, height, xCenter + y, yCenter + x);
+                setPixel(intensity, pixels, width, height, xCenter - y, yCenter + x);
+                setPixel(intensity, pixels, width, height, xCenter + y, yCenter - x);
+                setPixel(intensity, pixels, width, height, xCenter - y, yCenter - x);
+            }
         }
-    }
-
-    private final void fillOctants(int intensity, int[] pixels, int width, int height, int x, int y, int xCenter, int yCenter, int length) {
-        setPixelRow(intensity, pixels, width, height, xCenter + x, yCenter + y, length, 1);
-        setPixelRow(intensity, pixels, width, height, xCenter - x, yCenter + y, length, -1);
-        setPixelRow(intensity, pixels, width, height, xCenter + x, yCenter - y, length, 1);
-        setPixelRow(intensity, pixels, width, height, xCenter - x, yCenter - y, length, -1);
-        setPixelRow(intensity, pixels, width, height, xCenter + y, yCenter + x, length, width);
-        setPixelRow(intensity, pixels, width, height, xCenter - y, yCenter + x, length, width);
-        setPixelRow(intensity, pixels, width, height, xCenter + y, yCenter - x, length, -width);
-        setPixelRow(intensity, pixels, width, height, xCenter - y, yCenter - x, length, -width);
-    }
-
-    private final void setPixel(int intensity, int[] pixels, int width, int height, int x, int y) {
-
-        int offset = (y * width) + x;
-        int ARGB = pixels[offset];
 
-        if ((ARGB >>> 24) < intensity) {
-            pixels[offset] = colorTable[intensity];
+        private final void fillOctants(int intensity, int[] pixels, int width, int height, int x, int y, int xCenter, int yCenter, int length) {
+            setPixelRow(intensity, pixels, width, height, xCenter + x, yCenter + y, length, 1);
+            setPixelRow(intensity, pixels, width, height, xCenter - x, yCenter + y, length, -1);
+            setPixelRow(intensity, pixels, width, height, xCenter + x, yCenter - y, length, 1);
+            setPixelRow(intensity, pixels, width, height, xCenter - x, yCenter - y, length, -1);
+            setPixelRow(intensity, pixels, width, height, xCenter + y, yCenter + x, length, width);
+            setPixelRow(intensity, pixels, width, height, xCenter - y, yCenter + x, length, width);
+            setPixelRow(intensity, pixels, width, height, xCenter + y, yCenter - x, length, -width);
+            setPixelRow(intensity, pixels, width, height, xCenter - y, yCenter - x, length, -width);
         }
-    }
 
-    private final void setPixelRow(int intensity, int[] pixels, int width, int height, int x, int y, int length, int dOffset) {
+        private final void setPixel(int intensity, int[] pixels, int width, int height, int x, int y) {
 
-        int offset = (y * width) + x;
-        for (int i = 0; i < length; i++) {
+            if (y < minRow || y >= maxRow) {
+                return;
+            }
+            int offset = (y * width) + x;
             int ARGB = pixels[offset];
+
             if ((ARGB >>> 24) < intensity) {
                 pixels[offset] = colorTable[intensity];
             }
-            offset += dOffset;
+        }
+
+        private final void setPixelRow(int intensity, int[] pixels, int width, int height, int x, int y, int length, int dOffset) {
+
+            int start = 0;
+            if (dOffset == 1 || dOffset == -1) {
+                if (y < minRow || y >= maxRow) {
+                    return;
+                }
+            }
+            else if (dOffset > 0) {
+                start = Math.max(0, minRow - y);
+                length = Math.min(length, maxRow - y);
+            }
+            else {
+                start = Math.max(0, y - (maxRow - 1));
+                length = Math.min(length, y - minRow + 1);
+            }
+            int offset = (y * width) + x + start * dOffset;
+            for (int i = start; i < length; i++) {
+                int ARGB = pixels[offset];
+                if ((ARGB >>> 24) < intensity) {
+                    pixels[offset] = colorTable[intensity];
+                }
+                offset += dOffset;
+            }
         }
     }
 }
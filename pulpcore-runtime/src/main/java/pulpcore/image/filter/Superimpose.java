@@ -28,7 +28,7 @@
 */
 package pulpcore.image.filter;
 
-
+import java.util.Arrays;
 import pulpcore.animation.Int;
 import pulpcore.image.CoreImage;
 
@@ -146,6 +146,8 @@ public final class Superimpose extends Filter {
     
     public void update(int elapsedTime) {    	
     	alpha.update(elapsedTime);
+    	x.update(elapsedTime);
+    	y.update(elapsedTime);
     	
     	if (alpha.get() != actualAlpha) {
     		actualAlpha = alpha.get();
@@ -153,11 +155,11 @@ public final class Superimpose extends Filter {
     	}
     	
     	if (x.get() != actualImgXOffset) {
-    		actualImgXOffset = y.get();
+    		actualImgXOffset = x.get();
     		setDirty();
     	}
     	
-    	if (x.get() != actualImgYOffset) {
+    	if (y.get() != actualImgYOffset) {
     		actualImgYOffset = y.get();
     		setDirty();
     	}
@@ -260,6 +262,11 @@ public final class Superimpose extends Filter {
     	int xOffset = getX();
     	int yOffset = getY();
 
+    	// clears the area of the dst not covered by the src (the dst may be a reused image)
+    	if (dst.getWidth() != srcWidth || dst.getHeight() != src.getHeight()) {
+    		Arrays.fill(dstPixels, 0, dstWidth * dst.getHeight(), 0);
+    	}
+
     	// first copies the src into the dst
     	for (int i = 0; i < srcHeight; i++) {
             int srcIndex = (i * srcWidth);
@@ -29,7 +29,6 @@
 package pulpcore.image.filter;
 
 import pulpcore.image.Colors;
-import pulpcore.image.CoreImage;
 
 /**
     A false-color filter that mocks a Thermal view filter.
@@ -39,7 +38,7 @@ import pulpcore.image.CoreImage;
 
     @author Florent Dupont
  */
-public final class Thermal extends Filter {
+public final class Thermal extends PointFilter {
 
     private final static int[] PALETTE = new int[256];
 
@@ -51,28 +50,26 @@ public final class Thermal extends Filter {
         return new Thermal();
     }
 
-    protected void filter(CoreImage src, CoreImage dst) {
-
-        int[] srcPixels = src.getData();
-        int[] dstPixels = dst.getData();
+    protected String getParameterKey() {
+        return "";
+    }
 
-        for (int i = 0; i < srcPixels.length; i++) {
-            int srcRGB = Colors.unpremultiply(srcPixels[i]);
+    protected int filterPixel(int argb) {
+        int srcRGB = Colors.unpremultiply(argb);
 
-            int srcA = srcRGB >>> 24;
-            int srcR = (srcRGB >> 16) & 0xff;
-            int srcG = (srcRGB >> 8) & 0xff;
-            int srcB = srcRGB & 0xff;
+        int srcA = srcRGB >>> 24;
+        int srcR = (srcRGB >> 16) & 0xff;
+        int srcG = (srcRGB >> 8) & 0xff;
+        int srcB = srcRGB & 0xff;
 
-            // Add together 30% of red value, 59% of green, 11% of blue
-            int dstGray = (srcR * 77 + srcG * 151 + srcB * 28) >> 8;
+        // Add together 30% of red value, 59% of green, 11% of blue
+        int dstGray = (srcR * 77 + srcG * 151 + srcB * 28) >> 8;
 
-            // Rearrange the grayscale colors to obtain different values from white to red to
-            // green to blue to black. Real thermal filter have 10 values. See examples here:
-            // http://en.wikipedia.org/wiki/Thermal_imaging
-            // but this "fake thermal filter" have only 8 ranges to facilitate calculation.
-            dstPixels[i] = Colors.premultiply(PALETTE[dstGray], srcA);
-        }
+        // Rearrange the grayscale colors to obtain different values from white to red to
+        // green to blue to black. Real thermal filter have 10 values. See examples here:
+        // http://en.wikipedia.org/wiki/Thermal_imaging
+        // but this "fake thermal filter" have only 8 ranges to facilitate calculation.
+        return Colors.premultiply(PALETTE[dstGray], srcA);
     }
 
     // RGB spectrum palette
@@ -30,6 +30,9 @@
 package pulpcore.math;
 
 import java.util.Random;
+import pulpcore.CoreSystem;
+import pulpcore.platform.AppContext;
+import pulpcore.platform.Platform;
 
 /**
     The CoreMath class contains fixed-point arithmetic functions and other 
@@ -103,6 +106,7 @@ public class CoreMath {
     /** Number of fractional bits used for some internal calculations */
     private static final int INTERNAL_BITS = 24;
 
+    // For code that runs outside of an app
     private static final Random rand = new Random();
     
     // Prevent instantiation
@@ -954,6 +958,30 @@ public class CoreMath {
     // Random number generation and Noise functions
     //
     
+    /**
+        Sets the seed of the random number generator used by the rand() methods, so that the 
+        same sequence of numbers is returned. Each app has its own generator (see
+        {@link AppContext#getRandom()}); this method seeds the generator of the current app.
+    */
+    public static final void setRandomSeed(long seed) {
+        getRandom().setSeed(seed);
+    }
+    
+    /**
+        Gets the random number generator of the current app, or a shared generator if there
+        is no app.
+    */
+    private static Random getRandom() {
+        Platform platform = CoreSystem.getPlatform();
+        if (platform != null) {
+            AppContext context = platform.getThisAppContext();
+            if (context != null) {
+                return context.getRandom();
+            }
+        }
+        return rand;
+    }
+    
     /**
         Returns a random integer from 0 to max, inclusive
     */
@@ -966,7 +994,7 @@ public class CoreMath {
     */
     public static final int rand(int min, int max) {
         long range = (long)max - (long)min + 1;
-        long r = rand.nextInt() & 0xffffffffL;
+        long r = getRandom().nextInt() & 0xffffffffL;
         int value = (int)(min + r * range / 0xffffffffL);
         
         // Bounds check is probably not needed.
@@ -992,7 +1020,7 @@ public class CoreMath {
         Returns a random double from min to max, inclusive
     */
     public static final double rand(double min, double max) {
-        double value = min + (rand.nextDouble()*(max-min));
+        double value = min + (getRandom().nextDouble()*(max-min));
         // Bounds check is probably not needed.
         if (value < min) {
             return min;
@@ -40,10 +40,15 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import pulpcore.Build;
 import pulpcore.CoreSystem;
 import pulpcore.image.Colors;
 import pulpcore.image.CoreImage;
+import pulpcore.image.filter.FilterStats;
 import pulpcore.net.Upload;
 import pulpcore.scene.Scene;
 import pulpcore.Stage;
@@ -60,12 +65,16 @@ public abstract class AppContext {
     private Thread animationThread;
     private ThreadGroup threadGroup;
     private Map talkbackFields = new HashMap();
-    private final ArrayList runnables = new ArrayList();
+    private final EventQueue eventQueue = new EventQueue();
+    private final Random random = new Random();
+    private volatile int maxBlurQuality = 15;
     private PrintStream out = System.out;
     // List<AssetCatalog>
     // Might need to be a copy-on-write list in Java 5
     private final ArrayList assetCatalogs = new ArrayList();
     private ImageCache imageCache;
+    private final FilterStats.Registry filterStats = new FilterStats.Registry();
+    private WorkerPool workerPool;
 
     // Logging
 
@@ -145,15 +154,14 @@ public abstract class AppContext {
         The runnable is not guaranteed to execute if the app is exited by the user.
         <p>
         If the current thread is the animation thread, the runnable is executed immediately.
+        Otherwise, this method doesn't block.
     */
     public final void invokeLater(Runnable runnable) {
         if (animationThread == Thread.currentThread()) {
             runnable.run();
         }
         else {
-            synchronized (runnables) {
-                runnables.add(runnable);
-            }
+            eventQueue.post(runnable);
         }
     }
     
@@ -163,57 +171,43 @@ public abstract class AppContext {
         The runnable is not guaranteed to execute if the app is exited by the user.
         <p>
         If the current thread is the animation thread, the runnable is executed immediately.
+        Otherwise, this method returns after the runnable is executed, the app is destroyed,
+        or the current thread is interrupted.
     */
     public final void invokeAndWait(Runnable runnable) {
         if (animationThread == Thread.currentThread()) {
             runnable.run();
         }
         else {
-            synchronized (runnable) {
-                synchronized (runnables) {
-                    runnables.add(runnable);
-                }
-            
-                try {
-                    runnable.wait();
-                }
-                catch (InterruptedException ex) { }
+            FutureTask future = new FutureTask(runnable, null);
+            eventQueue.post(future);
+            try {
+                future.get();
+            }
+            catch (InterruptedException ex) { }
+            catch (CancellationException ex) {
+                // The app was destroyed
+            }
+            catch (ExecutionException ex) {
+                if (Build.DEBUG) CoreSystem.print("Error running event", ex.getCause());
             }
         }
     }
     
     /**
-        Runs the events stored in invokeLater(). This method is called by the Stage.
+        Runs the events stored in invokeLater(), up to the event queue's budget. 
+        This method is called by the Stage.
     */
     public final void runEvents() {
-        runEvents(true);
+        eventQueue.run();
     }
     
-    private final void runEvents(boolean execute) {
-        if (runnables.size() == 0) {
-            return;
-        }
-        ArrayList list;
-        
-        synchronized (runnables) {
-            list = new ArrayList(runnables);
-            runnables.clear();
-        }
-        
-        for (int i = 0; i < list.size(); i++) {
-            Runnable r = (Runnable)list.get(i);
-            synchronized (r) {
-                if (execute) {
-                    try {
-                        r.run();
-                    }
-                    catch (Exception ex) {
-                        if (Build.DEBUG) CoreSystem.print("Error running event", ex);
-                    }
-                }
-                r.notifyAll();
-            }
-        }
+    /**
+        Gets the queue of events posted with invokeLater() and invokeAndWait(). The queue
+        has methods to limit the events run per frame and to measure how long events wait.
+    */
+    public EventQueue getEventQueue() {
+        return eventQueue;
     }
 
     public ImageCache getImageCache() {
@@ -222,6 +216,51 @@ public abstract class AppContext {
         }
         return imageCache;
     }
+
+    /**
+        Gets the random number generator used by {@link pulpcore.math.CoreMath#rand(int)} and
+        the other rand() methods. Each app has its own generator, so seeding it (for example,
+        to replay a recording) doesn't affect other apps.
+    */
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+        Gets the highest quality used by the blur filters of this app. Each app has its own
+        limit, so lowering it (for example, with a {@link pulpcore.QualityGovernor}) doesn't
+        affect other apps.
+        @see pulpcore.image.filter.Blur#setMaxQuality(int)
+    */
+    public int getMaxBlurQuality() {
+        return maxBlurQuality;
+    }
+
+    /**
+        Sets the highest quality used by the blur filters of this app, from 0 to 15.
+        @see pulpcore.image.filter.Blur#setMaxQuality(int)
+    */
+    public void setMaxBlurQuality(int maxBlurQuality) {
+        this.maxBlurQuality = maxBlurQuality;
+    }
+
+    /**
+        Gets the statistics of the filters used by this app.
+    */
+    public FilterStats.Registry getFilterStats() {
+        return filterStats;
+    }
+
+    /**
+        Gets the worker pool for this app, used for splitting data-parallel work across
+        processors. The pool is created the first time this method is called.
+    */
+    public synchronized WorkerPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = new WorkerPool(this);
+        }
+        return workerPool;
+    }
     
     public int getDefaultBackgroundColor() {
         return Colors.BLACK;
@@ -244,7 +283,13 @@ public abstract class AppContext {
     public abstract void stop();
     
     public void destroy() {
-        runEvents(false);
+        eventQueue.clear();
+        synchronized (this) {
+            if (workerPool != null) {
+                workerPool.shutdown();
+                workerPool = null;
+            }
+        }
     }
     
     public abstract void putUserData(String key, byte[] data);
@@ -34,6 +34,7 @@ import java.util.LinkedList;
 import pulpcore.CoreSystem;
 import pulpcore.image.Colors;
 import pulpcore.image.CoreFont;
+import pulpcore.image.filter.FilterStats;
 import pulpcore.Input;
 import pulpcore.scene.Scene2D;
 import pulpcore.sprite.Button;
@@ -49,6 +50,7 @@ public class ConsoleScene extends Scene2D {
     private Button backButton;
     private Button clearButton;
     private Button copyButton;
+    private Button filtersButton;
     private ScrollPane textbox;
     private int lineSpacing;
     
@@ -70,6 +72,11 @@ public class ConsoleScene extends Scene2D {
             clearButton.x.getAsInt() + clearButton.width.getAsInt() + 5, Stage.getHeight() - 5);
         copyButton.setAnchor(0, 1);
         
+        Button leftButton = CoreSystem.isNativeClipboard() ? copyButton : clearButton;
+        filtersButton = Button.createLabeledButton("Filters", 
+            leftButton.x.getAsInt() + leftButton.width.getAsInt() + 5, Stage.getHeight() - 5);
+        filtersButton.setAnchor(0, 1);
+        
         textbox = new ScrollPane(5, 5, Stage.getWidth() - 10, 
             Stage.getHeight() - 15 - clearButton.height.getAsInt());
         textbox.setScrollUnitSize(lineSpacing);
@@ -82,6 +89,7 @@ public class ConsoleScene extends Scene2D {
         if (CoreSystem.isNativeClipboard()) {
             add(copyButton);
         }
+        add(filtersButton);
         if (Stage.canPopScene()) {
             add(backButton);
         }
@@ -107,6 +115,20 @@ public class ConsoleScene extends Scene2D {
         if (copyButton.isClicked()) {
             CoreSystem.setClipboardText(CoreSystem.getLogText());
         }
+        if (filtersButton.isClicked()) {
+            printFilterStats();
+        }
+    }
+    
+    /**
+        Logs the filter classes that took the most time, most expensive first.
+    */
+    private void printFilterStats() {
+        FilterStats[] stats = FilterStats.getClassStats();
+        CoreSystem.print("Filters (" + stats.length + " classes):");
+        for (int i = 0; i < stats.length; i++) {
+            CoreSystem.print("  " + stats[i]);
+        }
     }
     
     private boolean needsRefresh() {
@@ -0,0 +1,259 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import pulpcore.Build;
+import pulpcore.CoreSystem;
+
+/**
+    The queue of events posted to the animation thread with
+    {@link AppContext#invokeLater(Runnable)} and {@link AppContext#invokeAndWait(Runnable)}.
+    Any number of threads can post events without locking; only the animation thread runs them.
+    <p>
+    By default, all events posted before a frame are run in that frame. A budget can limit the
+    number of events or the time spent on events per frame, so a burst of events (for example,
+    from asset loader threads) doesn't cause a long frame. Events over budget are run in later
+    frames, in order.
+    <p>
+    Use {@link AppContext#getEventQueue()} to get the queue for the current app.
+*/
+public class EventQueue {
+
+    private static final class Node {
+        Runnable runnable;
+        final long postTimeNanos;
+        volatile Node next;
+
+        Node(Runnable runnable, long postTimeNanos) {
+            this.runnable = runnable;
+            this.postTimeNanos = postTimeNanos;
+        }
+    }
+
+    // Producers swap in a new tail, then link the old tail to it. The head is a stub node
+    // (the last node run), only touched by the consumer. The consumer methods are
+    // synchronized only so that destroy() can clear the queue from another thread; the lock
+    // is uncontended in normal use.
+    private final AtomicReference tail; // AtomicReference<Node>
+    private Node head;
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Budget
+    private volatile int maxEventsPerFrame = 0;
+    private volatile long maxNanosPerFrame = 0;
+
+    // Stats, written by the consumer
+    private volatile long numEventsRun;
+    private volatile long totalWaitNanos;
+    private volatile long lastMaxWaitNanos;
+    private volatile int lastNumEventsRun;
+
+    public EventQueue() {
+        head = new Node(null, 0);
+        tail = new AtomicReference(head);
+    }
+
+    /**
+        Adds an event to the end of the queue. This method is safe to call from any thread and
+        doesn't block.
+    */
+    public void post(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        Node node = new Node(runnable, System.nanoTime());
+        size.incrementAndGet();
+        Node prev = (Node)tail.getAndSet(node);
+        prev.next = node;
+    }
+
+    /**
+        Gets the number of events waiting to run.
+    */
+    public int getSize() {
+        return size.get();
+    }
+
+    //
+    // Budget
+    //
+
+    /**
+        Sets the maximum number of events run per frame, or 0 for no limit (the default).
+    */
+    public void setMaxEventsPerFrame(int maxEventsPerFrame) {
+        this.maxEventsPerFrame = Math.max(0, maxEventsPerFrame);
+    }
+
+    public int getMaxEventsPerFrame() {
+        return maxEventsPerFrame;
+    }
+
+    /**
+        Sets the time, in nanoseconds, after which no more events are started in a frame,
+        or 0 for no limit (the default). At least one event is run each frame, so events
+        always make progress.
+    */
+    public void setMaxNanosPerFrame(long maxNanosPerFrame) {
+        this.maxNanosPerFrame = Math.max(0, maxNanosPerFrame);
+    }
+
+    public long getMaxNanosPerFrame() {
+        return maxNanosPerFrame;
+    }
+
+    //
+    // Stats
+    //
+
+    /**
+        Gets the number of events run since the queue was created.
+    */
+    public long getNumEventsRun() {
+        return numEventsRun;
+    }
+
+    /**
+        Gets the total time, in nanoseconds, that events waited in the queue before they were
+        run, since the queue was created. The average wait is
+        {@code getTotalWaitNanos() / getNumEventsRun()}.
+    */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /**
+        Gets the number of events run in the last frame.
+    */
+    public int getLastNumEventsRun() {
+        return lastNumEventsRun;
+    }
+
+    /**
+        Gets the longest time, in nanoseconds, that an event run in the last frame waited in
+        the queue. Returns 0 if no events were run in the last frame.
+    */
+    public long getLastMaxWaitNanos() {
+        return lastMaxWaitNanos;
+    }
+
+    //
+    // Consumer
+    //
+
+    /**
+        Runs the events that were posted before this call, up to the budget. Called from the
+        animation thread once per frame.
+        @return the number of events run.
+    */
+    public synchronized int run() {
+        // Events posted while running (by other threads) wait for the next frame
+        int limit = size.get();
+        int maxEvents = maxEventsPerFrame;
+        if (maxEvents > 0) {
+            limit = Math.min(limit, maxEvents);
+        }
+        long maxNanos = maxNanosPerFrame;
+        long startNanos = 0;
+        long maxWaitNanos = 0;
+        long waitNanos = 0;
+        int count = 0;
+
+        while (count < limit) {
+            // One clock read per event, for both its wait time and the budget
+            long now = System.nanoTime();
+            if (count == 0) {
+                startNanos = now;
+            }
+            else if (maxNanos > 0 && now - startNanos >= maxNanos) {
+                break;
+            }
+            Runnable runnable = poll();
+            if (runnable == null) {
+                // A producer is between swapping the tail and linking it
+                break;
+            }
+            long wait = now - head.postTimeNanos;
+            waitNanos += wait;
+            maxWaitNanos = Math.max(maxWaitNanos, wait);
+            count++;
+
+            try {
+                runnable.run();
+            }
+            catch (Exception ex) {
+                if (Build.DEBUG) CoreSystem.print("Error running event", ex);
+            }
+        }
+
+        if (count > 0) {
+            numEventsRun += count;
+            totalWaitNanos += waitNanos;
+        }
+        lastNumEventsRun = count;
+        lastMaxWaitNanos = maxWaitNanos;
+        return count;
+    }
+
+    /**
+        Removes all events without running them. Threads waiting in
+        {@link AppContext#invokeAndWait(Runnable)} return. Called when the app is destroyed.
+    */
+    public synchronized void clear() {
+        while (true) {
+            Runnable runnable = poll();
+            if (runnable == null) {
+                break;
+            }
+            if (runnable instanceof Future) {
+                ((Future)runnable).cancel(false);
+            }
+        }
+    }
+
+    /**
+        Removes the next event and makes its node the new head, or returns null if there
+        are no events.
+    */
+    private Runnable poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        head = next;
+        Runnable runnable = next.runnable;
+        next.runnable = null;
+        size.decrementAndGet();
+        return runnable;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import pulpcore.Input;
+import pulpcore.math.Tuple2i;
+
+/**
+    Writes the input and elapsed time of each frame to a compact binary log, which
+    {@link InputReplay} plays back. The Stage creates the recorder.
+    <p>
+    The log starts with a header (the surface size and the random seed). Each input poll is
+    stored as the difference from the previous poll, so an idle frame takes about four bytes.
+    @see pulpcore.Stage#startRecording(OutputStream)
+*/
+public class InputRecorder {
+
+    /* package-private */ static final int MAGIC = 0x50434c47; // "PCLG"
+    /* package-private */ static final int VERSION = 1;
+
+    /* package-private */ static final int RECORD_END = 0;
+    /* package-private */ static final int RECORD_FRAME = 1;
+    /* package-private */ static final int RECORD_INPUT = 2;
+
+    /* package-private */ static final int CHANGED_KEYS = 1 << 0;
+    /* package-private */ static final int CHANGED_MOUSE = 1 << 1;
+    /* package-private */ static final int CHANGED_MOUSE_PRESS = 1 << 2;
+    /* package-private */ static final int CHANGED_MOUSE_RELEASE = 1 << 3;
+    /* package-private */ static final int CHANGED_MOUSE_WHEEL = 1 << 4;
+    /* package-private */ static final int CHANGED_WHEEL_ROTATION = 1 << 5;
+    /* package-private */ static final int CHANGED_FLAGS = 1 << 6;
+    /* package-private */ static final int CHANGED_TYPED_CHARS = 1 << 7;
+
+    /* package-private */ static final int FLAG_MOUSE_INSIDE = 1 << 0;
+    /* package-private */ static final int FLAG_MOUSE_MOVING = 1 << 1;
+    /* package-private */ static final int FLAG_KEYBOARD_FOCUS = 1 << 2;
+
+    private final DataOutputStream out;
+    private final long randomSeed;
+    private final PolledInput last = new PolledInput();
+    private final int[] changedKeys = new int[Input.NUM_KEY_CODES];
+    private int numFrames;
+    private boolean closed;
+
+    /**
+        Creates a recorder and writes the header.
+    */
+    public InputRecorder(OutputStream out, int width, int height, long randomSeed)
+        throws IOException
+    {
+        this.randomSeed = randomSeed;
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        writeVarInt(width);
+        writeVarInt(height);
+        this.out.writeLong(randomSeed);
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public synchronized int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+        Records the input from one poll, before it is transformed to Scene coordinates.
+        Does nothing if the recorder is closed.
+    */
+    public synchronized void writeInput(PolledInput input) throws IOException {
+        if (closed) {
+            return;
+        }
+        int changes = 0;
+        int numChangedKeys = 0;
+        for (int i = 0; i < Input.NUM_KEY_CODES; i++) {
+            if (input.keyStates[i] != last.keyStates[i]) {
+                changedKeys[numChangedKeys++] = i;
+            }
+        }
+        if (numChangedKeys > 0) {
+            changes |= CHANGED_KEYS;
+        }
+        if (!input.mouse.equals(last.mouse)) {
+            changes |= CHANGED_MOUSE;
+        }
+        if (!input.mousePress.equals(last.mousePress)) {
+            changes |= CHANGED_MOUSE_PRESS;
+        }
+        if (!input.mouseRelease.equals(last.mouseRelease)) {
+            changes |= CHANGED_MOUSE_RELEASE;
+        }
+        if (!input.mouseWheel.equals(last.mouseWheel)) {
+            changes |= CHANGED_MOUSE_WHEEL;
+        }
+        if (input.mouseWheelRotation != last.mouseWheelRotation) {
+            changes |= CHANGED_WHEEL_ROTATION;
+        }
+        if (getFlags(input) != getFlags(last)) {
+            changes |= CHANGED_FLAGS;
+        }
+        String typedChars = (input.typedChars == null) ? "" : input.typedChars;
+        if (!typedChars.equals(last.typedChars)) {
+            changes |= CHANGED_TYPED_CHARS;
+        }
+
+        out.writeByte(RECORD_INPUT);
+        out.writeByte(changes);
+        if ((changes & CHANGED_KEYS) != 0) {
+            writeVarInt(numChangedKeys);
+            int lastKeyCode = 0;
+            for (int i = 0; i < numChangedKeys; i++) {
+                int keyCode = changedKeys[i];
+                writeVarInt(keyCode - lastKeyCode);
+                out.writeByte(input.keyStates[keyCode]);
+                last.keyStates[keyCode] = input.keyStates[keyCode];
+                lastKeyCode = keyCode;
+            }
+        }
+        if ((changes & CHANGED_MOUSE) != 0) {
+            writeTuple(input.mouse, last.mouse);
+        }
+        if ((changes & CHANGED_MOUSE_PRESS) != 0) {
+            writeTuple(input.mousePress, last.mousePress);
+        }
+        if ((changes & CHANGED_MOUSE_RELEASE) != 0) {
+            writeTuple(input.mouseRelease, last.mouseRelease);
+        }
+        if ((changes & CHANGED_MOUSE_WHEEL) != 0) {
+            writeTuple(input.mouseWheel, last.mouseWheel);
+        }
+        if ((changes & CHANGED_WHEEL_ROTATION) != 0) {
+            writeSignedVarInt(input.mouseWheelRotation);
+            last.mouseWheelRotation = input.mouseWheelRotation;
+        }
+        if ((changes & CHANGED_FLAGS) != 0) {
+            out.writeByte(getFlags(input));
+            last.isMouseInside = input.isMouseInside;
+            last.isMouseMoving = input.isMouseMoving;
+            last.hasKeyboardFocus = input.hasKeyboardFocus;
+        }
+        if ((changes & CHANGED_TYPED_CHARS) != 0) {
+            out.writeUTF(typedChars);
+            last.typedChars = typedChars;
+        }
+    }
+
+    /**
+        Records the elapsed time passed to the Scene for one frame.
+        Does nothing if the recorder is closed.
+    */
+    public synchronized void writeElapsedTime(int elapsedTime) throws IOException {
+        if (closed) {
+            return;
+        }
+        out.writeByte(RECORD_FRAME);
+        writeSignedVarInt(elapsedTime);
+        numFrames++;
+    }
+
+    /**
+        Ends the log and closes the stream. Any thread may close the recorder, even while the
+        Stage is writing to it.
+    */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.writeByte(RECORD_END);
+        out.close();
+    }
+
+    /* package-private */ static int getFlags(PolledInput input) {
+        int flags = 0;
+        if (input.isMouseInside) {
+            flags |= FLAG_MOUSE_INSIDE;
+        }
+        if (input.isMouseMoving) {
+            flags |= FLAG_MOUSE_MOVING;
+        }
+        if (input.hasKeyboardFocus) {
+            flags |= FLAG_KEYBOARD_FOCUS;
+        }
+        return flags;
+    }
+
+    private void writeTuple(Tuple2i tuple, Tuple2i lastTuple) throws IOException {
+        writeSignedVarInt(tuple.x);
+        writeSignedVarInt(tuple.y);
+        lastTuple.set(tuple.x, tuple.y);
+    }
+
+    private void writeSignedVarInt(int n) throws IOException {
+        // Zig-zag encoding, so small negative numbers are small
+        writeVarInt((n << 1) ^ (n >> 31));
+    }
+
+    private void writeVarInt(int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+}
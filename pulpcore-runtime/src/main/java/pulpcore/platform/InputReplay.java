@@ -0,0 +1,320 @@
+/*
+    Copyright (c) 2009, Interactive Pulp, LLC
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright
+          notice, this list of conditions and the following disclaimer in the
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its
+          contributors may be used to endorse or promote products derived from
+          this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package pulpcore.platform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import pulpcore.Input;
+import pulpcore.math.Tuple2i;
+
+/**
+    Plays back a log written by {@link InputRecorder}. The Stage reads the input of each poll
+    and the elapsed time of each frame from the replay instead of the platform, so a Scene
+    that only depends on input, elapsed time, and {@link pulpcore.math.CoreMath#rand(int)}
+    behaves exactly as it did when recorded.
+    <p>
+    After the end of the log, input is idle and no time passes. If the Stage polls input
+    where the log has a frame, or the other way around, the replay is out of sync; the rest
+    of the log is ignored and {@link #getOutOfSyncFrame()} returns the frame.
+    @see pulpcore.Stage#startReplay(InputReplay)
+*/
+public class InputReplay {
+
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final long randomSeed;
+    private final int numFrames;
+    private final int start;
+
+    private final PolledInput current = new PolledInput();
+    private int position;
+    private int frame;
+    private int outOfSyncFrame = -1;
+
+    /**
+        Reads the entire log from the stream. The stream is not closed.
+        @throws IOException if the stream could not be read or is not a valid log.
+    */
+    public InputReplay(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        int n;
+        while ((n = in.read(b)) != -1) {
+            buffer.write(b, 0, n);
+        }
+        data = buffer.toByteArray();
+
+        if (readInt() != InputRecorder.MAGIC) {
+            throw new IOException("Not an input log");
+        }
+        if (readByte() != InputRecorder.VERSION) {
+            throw new IOException("Unsupported input log version");
+        }
+        width = readVarInt();
+        height = readVarInt();
+        randomSeed = ((long)readInt() << 32) | (readInt() & 0xffffffffL);
+        start = position;
+
+        // Validate the log and count the frames
+        PolledInput input = new PolledInput();
+        int count = 0;
+        while (true) {
+            int type = readByte();
+            if (type == InputRecorder.RECORD_INPUT) {
+                readInputRecord(input);
+            }
+            else if (type == InputRecorder.RECORD_FRAME) {
+                readSignedVarInt();
+                count++;
+            }
+            else if (type == InputRecorder.RECORD_END) {
+                break;
+            }
+            else {
+                throw new IOException("Invalid record type: " + type);
+            }
+        }
+        numFrames = count;
+        rewind();
+    }
+
+    /** Gets the width of the surface when the log was recorded. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Gets the height of the surface when the log was recorded. */
+    public int getHeight() {
+        return height;
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    /** Gets the number of frames in the log. */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** Gets the number of frames played back so far. */
+    public int getFrame() {
+        return frame;
+    }
+
+    public boolean isFinished() {
+        return frame >= numFrames || outOfSyncFrame >= 0;
+    }
+
+    /**
+        Returns the frame where the replay went out of sync, or -1 if it is in sync.
+    */
+    public int getOutOfSyncFrame() {
+        return outOfSyncFrame;
+    }
+
+    /**
+        Starts playback from the beginning.
+    */
+    public void rewind() {
+        position = start;
+        frame = 0;
+        outOfSyncFrame = -1;
+        copy(new PolledInput(), current);
+    }
+
+    /**
+        Reads the input of the next poll into {@code input}.
+    */
+    public void readInput(PolledInput input) {
+        if (outOfSyncFrame < 0 && peekByte() == InputRecorder.RECORD_INPUT) {
+            try {
+                readByte();
+                readInputRecord(current);
+            }
+            catch (IOException ex) {
+                // Validated in the constructor
+                outOfSyncFrame = frame;
+            }
+        }
+        else if (!isFinished()) {
+            outOfSyncFrame = frame;
+        }
+        copy(current, input);
+    }
+
+    /**
+        Reads the elapsed time of the next frame.
+    */
+    public int readElapsedTime() {
+        if (outOfSyncFrame < 0 && peekByte() == InputRecorder.RECORD_FRAME) {
+            try {
+                readByte();
+                frame++;
+                return readSignedVarInt();
+            }
+            catch (IOException ex) {
+                // Validated in the constructor
+                outOfSyncFrame = frame;
+            }
+        }
+        else if (!isFinished()) {
+            outOfSyncFrame = frame;
+        }
+        return 0;
+    }
+
+    private void readInputRecord(PolledInput input) throws IOException {
+        int changes = readByte();
+        if ((changes & InputRecorder.CHANGED_KEYS) != 0) {
+            int numChangedKeys = readVarInt();
+            int keyCode = 0;
+            for (int i = 0; i < numChangedKeys; i++) {
+                keyCode += readVarInt();
+                if (keyCode < 0 || keyCode >= Input.NUM_KEY_CODES) {
+                    throw new IOException("Invalid key code: " + keyCode);
+                }
+                input.keyStates[keyCode] = readByte();
+            }
+        }
+        if ((changes & InputRecorder.CHANGED_MOUSE) != 0) {
+            readTuple(input.mouse);
+        }
+        if ((changes & InputRecorder.CHANGED_MOUSE_PRESS) != 0) {
+            readTuple(input.mousePress);
+        }
+        if ((changes & InputRecorder.CHANGED_MOUSE_RELEASE) != 0) {
+            readTuple(input.mouseRelease);
+        }
+        if ((changes & InputRecorder.CHANGED_MOUSE_WHEEL) != 0) {
+            readTuple(input.mouseWheel);
+        }
+        if ((changes & InputRecorder.CHANGED_WHEEL_ROTATION) != 0) {
+            input.mouseWheelRotation = readSignedVarInt();
+        }
+        if ((changes & InputRecorder.CHANGED_FLAGS) != 0) {
+            int flags = readByte();
+            input.isMouseInside = (flags & InputRecorder.FLAG_MOUSE_INSIDE) != 0;
+            input.isMouseMoving = (flags & InputRecorder.FLAG_MOUSE_MOVING) != 0;
+            input.hasKeyboardFocus = (flags & InputRecorder.FLAG_KEYBOARD_FOCUS) != 0;
+        }
+        if ((changes & InputRecorder.CHANGED_TYPED_CHARS) != 0) {
+            input.typedChars = readUTF();
+        }
+    }
+
+    private static void copy(PolledInput src, PolledInput dst) {
+        System.arraycopy(src.keyStates, 0, dst.keyStates, 0, src.keyStates.length);
+        dst.mouse.set(src.mouse.x, src.mouse.y);
+        dst.mousePress.set(src.mousePress.x, src.mousePress.y);
+        dst.mouseRelease.set(src.mouseRelease.x, src.mouseRelease.y);
+        dst.mouseWheel.set(src.mouseWheel.x, src.mouseWheel.y);
+        dst.mouseWheelRotation = src.mouseWheelRotation;
+        dst.isMouseInside = src.isMouseInside;
+        dst.isMouseMoving = src.isMouseMoving;
+        dst.hasKeyboardFocus = src.hasKeyboardFocus;
+        dst.typedChars = src.typedChars;
+    }
+
+    //
+    // Decoding
+    //
+
+    private int peekByte() {
+        return (position < data.length) ? (data[position] & 0xff) : InputRecorder.RECORD_END;
+    }
+
+    private int readByte() throws IOException {
+        if (position >= data.length) {
+            throw new EOFException();
+        }
+        return data[position++] & 0xff;
+    }
+
+    private int readInt() throws IOException {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    private int readVarInt() throws IOException {
+        int n = 0;
+        int shift = 0;
+        while (true) {
+            int b = readByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException("Invalid number");
+            }
+        }
+    }
+
+    private int readSignedVarInt() throws IOException {
+        int n = readVarInt();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private void readTuple(Tuple2i tuple) throws IOException {
+        int x = readSignedVarInt();
+        int y = readSignedVarInt();
+        tuple.set(x, y);
+    }
+
+    private String readUTF() throws IOException {
+        // Same format as DataOutputStream.writeUTF()
+        int length = (readByte() << 8) | readByte();
+        int end = position + length;
+        if (end > data.length) {
+            throw new EOFException();
+        }
+        StringBuffer buffer = new StringBuffer(length);
+        while (position < end) {
+            int a = readByte();
+            if (a < 0x80) {
+                buffer.append((char)a);
+            }
+            else if ((a & 0xe0) == 0xc0) {
+                int b = readByte();
+                buffer.append((char)(((a & 0x1f) << 6) | (b & 0x3f)));
+            }
+            else {
+                int b = readByte();
+                int c = readByte();
+                buffer.append((char)(((a & 0x0f) << 12) | ((b & 0x3f) << 6) | (c & 0x3f)));
+            }
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,237 @@
+/*
+    Copyright (c) 2007-2010, Interactive Pulp, LLC
+    All rights reserved.
+    
+    Redistribution and use in source and binary forms, with or without 
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright 
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright 
+          notice, this list of conditions and the following disclaimer in the 
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its 
+          contributors may be used to endorse or promote products derived from 
+          this software without specific prior written permission.
+    
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package pulpcore.platform;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+    A small pool of worker threads for splitting data-parallel work (like updating particles
+    or filtering large images) across processors. The calling thread participates in the work,
+    so on single-processor machines no worker threads are created and all work runs on the
+    caller's thread.
+    <p>
+    Worker threads are created in the AppContext's thread group and are daemon threads.
+    Use {@link AppContext#getWorkerPool()} to get the pool for the current app.
+*/
+public class WorkerPool {
+
+    /**
+        A unit of work over a range of indices.
+    */
+    public interface Task {
+        /**
+            Runs this task for the indices from {@code start} (inclusive) to
+            {@code end} (exclusive). This method may be called concurrently from several
+            threads, with non-overlapping ranges.
+        */
+        public void run(int start, int end);
+    }
+
+    private final AppContext context;
+    private final int parallelism;
+    private ExecutorService executor;
+    private ExecutorService backgroundExecutor;
+    private boolean isShutdown;
+
+    /**
+        Creates a worker pool with one thread less than the number of available processors.
+    */
+    public WorkerPool(AppContext context) {
+        this(context, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+        @param parallelism The maximum number of threads (including the calling thread)
+        that work on a task at the same time.
+    */
+    public WorkerPool(AppContext context, int parallelism) {
+        this.context = context;
+        this.parallelism = Math.max(1, parallelism);
+        if (this.parallelism > 1) {
+            executor = Executors.newFixedThreadPool(this.parallelism - 1,
+                createThreadFactory("PulpCore-Worker-"));
+        }
+    }
+
+    private ThreadFactory createThreadFactory(final String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                String name = namePrefix + threadCount.incrementAndGet();
+                Thread t = (context != null) ? context.createThread(name, r) :
+                    new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+        Returns the maximum number of threads (including the calling thread)
+        that work on a task at the same time.
+    */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+        Runs a task over the indices from 0 (inclusive) to {@code size} (exclusive), splitting
+        the range into chunks of at least {@code grain} indices. This method blocks until
+        the task has completed for all indices. If the task throws an exception on any thread,
+        the first exception is rethrown on the calling thread.
+    */
+    public void invoke(int size, int grain, final Task task) {
+        if (size <= 0) {
+            return;
+        }
+        grain = Math.max(1, grain);
+        int numChunks = Math.min(parallelism, (size + grain - 1) / grain);
+        if (numChunks <= 1 || executor == null) {
+            task.run(0, size);
+            return;
+        }
+
+        // Rounding up the chunk size can leave fewer chunks than planned (for example, size 5
+        // with 4 threads is 3 chunks of 2), so count the chunks from the chunk size.
+        int chunkSize = (size + numChunks - 1) / numChunks;
+        numChunks = (size + chunkSize - 1) / chunkSize;
+        if (numChunks <= 1) {
+            task.run(0, size);
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(numChunks - 1);
+        final AtomicReference error = new AtomicReference();
+        int start = chunkSize;
+        while (start < size) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(size, start + chunkSize);
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run(chunkStart, chunkEnd);
+                        }
+                        catch (RuntimeException ex) {
+                            error.compareAndSet(null, ex);
+                        }
+                        catch (Error ex) {
+                            error.compareAndSet(null, ex);
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            catch (RuntimeException ex) {
+                // Executor was shutdown or rejected the task; run it here
+                task.run(chunkStart, chunkEnd);
+                done.countDown();
+            }
+            start = chunkEnd;
+        }
+        // The calling thread runs the first chunk
+        task.run(0, Math.min(size, chunkSize));
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Throwable t = (Throwable)error.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException)t;
+        }
+        else if (t instanceof Error) {
+            throw (Error)t;
+        }
+    }
+
+    /**
+        Runs a task asynchronously on the pool's background thread. Background tasks run
+        one at a time, in the order they were submitted, on a thread separate from the
+        worker threads, so they may call {@link #invoke(int, int, Task)}. If the pool has been
+        shutdown, the task runs on the calling thread.
+    */
+    public void execute(Runnable task) {
+        ExecutorService background = null;
+        synchronized (this) {
+            if (!isShutdown) {
+                if (backgroundExecutor == null) {
+                    backgroundExecutor = Executors.newSingleThreadExecutor(
+                        createThreadFactory("PulpCore-Background-"));
+                }
+                background = backgroundExecutor;
+            }
+        }
+        if (background == null) {
+            task.run();
+            return;
+        }
+        try {
+            background.execute(task);
+        }
+        catch (RuntimeException ex) {
+            // Executor was shutdown or rejected the task; run it here
+            task.run();
+        }
+    }
+
+    /**
+        Stops the worker threads. Tasks invoked after shutdown run on the calling thread.
+    */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        synchronized (this) {
+            isShutdown = true;
+            if (backgroundExecutor != null) {
+                backgroundExecutor.shutdown();
+            }
+        }
+    }
+}
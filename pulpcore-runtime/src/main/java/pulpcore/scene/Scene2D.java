@@ -30,6 +30,8 @@
 package pulpcore.scene;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import pulpcore.animation.event.TimelineEvent;
 import pulpcore.animation.Timeline;
 import pulpcore.Build;
@@ -435,6 +437,39 @@ public class Scene2D extends Scene {
     public synchronized int getNumVisibleSprites() {
         return root.getNumVisibleSprites();
     }
+
+    /**
+        Returns the sprites in all layers that have a filter, with the most expensive filter
+        (in the last frame) first.
+        @see pulpcore.image.filter.Filter#getStats()
+    */
+    public synchronized Sprite[] getFilteredSprites() {
+        // ArrayList<Sprite>
+        ArrayList sprites = new ArrayList();
+        addFilteredSprites(root, sprites);
+        Sprite[] result = new Sprite[sprites.size()];
+        sprites.toArray(result);
+        Arrays.sort(result, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long a = ((Sprite)o1).getFilter().getStats().getLastFrameNanos();
+                long b = ((Sprite)o2).getFilter().getStats().getLastFrameNanos();
+                return (a > b) ? -1 : (a < b) ? 1 : 0;
+            }
+        });
+        return result;
+    }
+
+    private void addFilteredSprites(Group group, ArrayList sprites) {
+        for (int i = 0; i < group.size(); i++) {
+            Sprite sprite = group.get(i);
+            if (sprite.getFilter() != null) {
+                sprites.add(sprite);
+            }
+            if (sprite instanceof Group) {
+                addFilteredSprites((Group)sprite, sprites);
+            }
+        }
+    }
         
     //
     // Sprites
@@ -803,9 +838,9 @@ public class Scene2D extends Scene {
             }
         }
         if (hasFilter && !wasDirty && isDirty) {
-            // If and of the group's ancestors is dirty, and this group has a filter,
-            // mark it as dirty.
-            group.setDirty(true);
+            // If any of the group's descendants is dirty, and this group has a filter,
+            // mark the changed region of the group as dirty.
+            group.notifyChildrenChanged();
         }
         return isDirty;
     }
@@ -58,7 +58,7 @@ public abstract class Sound {
     private static final int SAMPLE_SIZE = 2;
     
     // HashMap<String, WeakReference<Sound>>
-    private static HashMap loadedSounds = new HashMap();
+    private static final HashMap loadedSounds = new HashMap();
     
     private final int sampleRate;
     private int simultaneousPlaybackCount = 8;
@@ -300,14 +300,16 @@ public abstract class Sound {
         // Attempt to load from the cache
         // NOTE: we may need to disable caching if the sound engine can't play multiple copies
         // of the same sound simultaneously. Currently the JavaSound engine can.
-        WeakReference soundRef = (WeakReference)loadedSounds.get(soundAsset);
-        if (soundRef != null) {
-            Sound sound = (Sound)soundRef.get();
-            if (sound != null) {
-                return sound;
-            }
-            else {
-                loadedSounds.remove(soundAsset);
+        synchronized (loadedSounds) {
+            WeakReference soundRef = (WeakReference)loadedSounds.get(soundAsset);
+            if (soundRef != null) {
+                Sound sound = (Sound)soundRef.get();
+                if (sound != null) {
+                    return sound;
+                }
+                else {
+                    loadedSounds.remove(soundAsset);
+                }
             }
         }
         
@@ -336,7 +338,9 @@ public abstract class Sound {
         }
         
         if (sound != null) {
-            loadedSounds.put(soundAsset, new WeakReference(sound));
+            synchronized (loadedSounds) {
+                loadedSounds.put(soundAsset, new WeakReference(sound));
+            }
             return sound;
         }
         else {
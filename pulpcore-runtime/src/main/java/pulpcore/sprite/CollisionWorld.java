@@ -0,0 +1,543 @@
+/*
+    Copyright (c) 2007-2010, Interactive Pulp, LLC
+    All rights reserved.
+    
+    Redistribution and use in source and binary forms, with or without 
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright 
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright 
+          notice, this list of conditions and the following disclaimer in the 
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its 
+          contributors may be used to endorse or promote products derived from 
+          this software without specific prior written permission.
+    
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package pulpcore.sprite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import pulpcore.math.Rect;
+
+/**
+    A broadphase collision detector for Sprites. Sprites, or whole Groups, are registered
+    with collision layers and masks. The world keeps a spatial hash of the view-space bounds
+    of each registered Sprite, and finds colliding pairs without testing every Sprite against
+    every other Sprite. Candidate pairs are tested with {@link Sprite#intersects(Sprite)}.
+    <p>
+    Two Sprites are tested for collision only if each Sprite's layers intersect the other
+    Sprite's mask: {@code (a.layers & b.mask) != 0 && (b.layers & a.mask) != 0}.
+    <p>
+    When a Group is registered, every Sprite in the Group and its child Groups (but not the
+    Groups themselves) is tested for collisions. Sprites added to or removed from the Group
+    are found on the next {@link #update()}.
+    <pre>
+    CollisionWorld world = new CollisionWorld();
+    world.add(enemies, ENEMY_LAYER, PLAYER_LAYER | BULLET_LAYER);
+    world.add(bullets, BULLET_LAYER, ENEMY_LAYER);
+    world.add(player, PLAYER_LAYER, ENEMY_LAYER);
+    ...
+    world.findCollisions(new CollisionListener() {
+        public void collision(Sprite a, Sprite b) {
+            ...
+        }
+    });
+    </pre>
+*/
+public class CollisionWorld {
+
+    /** Layers or mask value that includes every layer. */
+    public static final int ALL_LAYERS = -1;
+
+    private static final int DEFAULT_CELL_SIZE = 64;
+    private static final int INITIAL_TABLE_SIZE = 256;
+
+    private final int cellSize;
+
+    // HashMap<Sprite, Registration>
+    private final HashMap registrations = new HashMap();
+    // HashMap<Sprite, Entry>
+    private final HashMap entries = new HashMap();
+    // ArrayList<Entry>
+    private final ArrayList entryList = new ArrayList();
+
+    /** Spatial hash table. Each bucket is a linked list of Cells. */
+    private Cell[] table = new Cell[INITIAL_TABLE_SIZE];
+    private int numCells = 0;
+
+    private int updateStamp = 0;
+    private int queryStamp = 0;
+
+    /**
+        Creates a CollisionWorld with the default cell size of 64 pixels.
+    */
+    public CollisionWorld() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+        Creates a CollisionWorld with the specified cell size. For best performance, the cell
+        size should be about the size of a typical Sprite.
+        @param cellSize the width and height of each cell of the spatial hash, in pixels.
+        @throws IllegalArgumentException if cellSize is less than 1.
+    */
+    public CollisionWorld(int cellSize) {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    /**
+        Gets the cell size of this CollisionWorld, in pixels.
+    */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+        Adds a Sprite, or a Group of Sprites, that is a member of every layer and collides
+        with every layer.
+    */
+    public void add(Sprite sprite) {
+        add(sprite, ALL_LAYERS, ALL_LAYERS);
+    }
+
+    /**
+        Adds a Sprite, or a Group of Sprites, to this CollisionWorld. If the Sprite was
+        already added, its layers and mask are changed.
+        @param sprite the Sprite or Group.
+        @param layers the bitmask of layers the Sprite is a member of.
+        @param mask the bitmask of layers the Sprite collides with.
+    */
+    public void add(Sprite sprite, int layers, int mask) {
+        if (sprite == null) {
+            return;
+        }
+        Registration r = (Registration)registrations.get(sprite);
+        if (r == null) {
+            r = new Registration(sprite);
+            registrations.put(sprite, r);
+        }
+        r.layers = layers;
+        r.mask = mask;
+        if (!(sprite instanceof Group)) {
+            Entry e = getEntry(sprite);
+            e.direct = true;
+            e.layers = layers;
+            e.mask = mask;
+        }
+    }
+
+    /**
+        Removes a Sprite or Group from this CollisionWorld. Does nothing if the Sprite or Group
+        was not added.
+    */
+    public void remove(Sprite sprite) {
+        Registration r = (Registration)registrations.remove(sprite);
+        if (r != null && !(sprite instanceof Group)) {
+            Entry e = (Entry)entries.get(sprite);
+            if (e != null) {
+                // Removed on the next update if it isn't in a registered Group
+                e.direct = false;
+            }
+        }
+    }
+
+    /**
+        Removes all Sprites and Groups from this CollisionWorld.
+    */
+    public void removeAll() {
+        registrations.clear();
+        entries.clear();
+        entryList.clear();
+        table = new Cell[INITIAL_TABLE_SIZE];
+        numCells = 0;
+    }
+
+    /**
+        Returns true if the specified Sprite or Group was added to this CollisionWorld.
+        Sprites that are only members of an added Group are not included.
+    */
+    public boolean contains(Sprite sprite) {
+        return registrations.containsKey(sprite);
+    }
+
+    /**
+        Gets the number of Sprites tested for collisions, as of the last call to
+        {@link #update()}.
+    */
+    public int getNumSprites() {
+        return entryList.size();
+    }
+
+    /**
+        Updates the spatial hash. The membership of registered Groups is updated, and every
+        Sprite whose view-space bounds moved to different cells is moved within the
+        hash. This method is called automatically by the {@code find} methods.
+    */
+    public void update() {
+        updateStamp++;
+
+        // Find Sprites in registered Groups
+        Iterator i = registrations.values().iterator();
+        while (i.hasNext()) {
+            Registration r = (Registration)i.next();
+            if (r.sprite instanceof Group) {
+                addGroupSprites((Group)r.sprite, r.layers, r.mask);
+            }
+        }
+
+        // Update bounds, and remove stale entries
+        int size = entryList.size();
+        for (int j = 0; j < size; j++) {
+            Entry e = (Entry)entryList.get(j);
+            if (!e.direct && e.groupStamp != updateStamp) {
+                removeFromCells(e);
+                entries.remove(e.sprite);
+                size--;
+                entryList.set(j, entryList.get(size));
+                entryList.remove(size);
+                j--;
+            }
+            else {
+                updateCells(e);
+            }
+        }
+    }
+
+    /**
+        Finds all pairs of colliding Sprites. For each pair, the listener is notified once.
+        @return the number of colliding pairs.
+    */
+    public int findCollisions(CollisionListener listener) {
+        return findPairs(listener, true);
+    }
+
+    /**
+        Finds all pairs of Sprites whose bounds overlap, without testing if the Sprites
+        actually intersect. For each pair, the listener is notified once.
+        @return the number of candidate pairs.
+    */
+    public int findCandidatePairs(CollisionListener listener) {
+        return findPairs(listener, false);
+    }
+
+    /**
+        Finds all Sprites that collide with the specified Sprite. The specified Sprite does not
+        need to be in this CollisionWorld, but if it is, its layers and mask are used, and the
+        Sprites found are the ones paired with it by {@link #findCollisions(CollisionListener)}.
+        Otherwise, it collides with every layer.
+        @return the number of Sprites that collide with the specified Sprite.
+    */
+    public int findCollisions(Sprite sprite, CollisionListener listener) {
+        update();
+        Entry source = (Entry)entries.get(sprite);
+        int mask = (source == null) ? ALL_LAYERS : source.mask;
+        int layers = (source == null) ? ALL_LAYERS : source.layers;
+        Rect bounds = new Rect();
+        sprite.getViewTransform().getBounds(sprite.getNaturalWidth(), sprite.getNaturalHeight(),
+            bounds);
+        if (bounds.width <= 0 || bounds.height <= 0) {
+            return 0;
+        }
+
+        queryStamp++;
+        int count = 0;
+        int cx1 = toCell(bounds.x);
+        int cy1 = toCell(bounds.y);
+        int cx2 = toCell(bounds.x + bounds.width - 1);
+        int cy2 = toCell(bounds.y + bounds.height - 1);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                Cell cell = getCell(cx, cy, false);
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 0; i < cell.size; i++) {
+                    Entry e = cell.entries[i];
+                    if (e.queryStamp != queryStamp && e.sprite != sprite &&
+                        (e.layers & mask) != 0 && (source == null || (layers & e.mask) != 0) &&
+                        bounds.intersects(e.bounds))
+                    {
+                        e.queryStamp = queryStamp;
+                        if (sprite.intersects(e.sprite)) {
+                            count++;
+                            if (listener != null) {
+                                listener.collision(sprite, e.sprite);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private int findPairs(CollisionListener listener, boolean narrowPhase) {
+        update();
+        int count = 0;
+        for (int t = 0; t < table.length; t++) {
+            for (Cell cell = table[t]; cell != null; cell = cell.next) {
+                Entry[] cellEntries = cell.entries;
+                int size = cell.size;
+                for (int i = 0; i < size; i++) {
+                    Entry a = cellEntries[i];
+                    for (int j = i + 1; j < size; j++) {
+                        Entry b = cellEntries[j];
+                        if ((a.layers & b.mask) == 0 || (b.layers & a.mask) == 0) {
+                            continue;
+                        }
+                        // Pairs that share more than one cell are only reported
+                        // from the first (upper-left) shared cell
+                        if (Math.max(a.cellX1, b.cellX1) != cell.x ||
+                            Math.max(a.cellY1, b.cellY1) != cell.y)
+                        {
+                            continue;
+                        }
+                        if (!a.bounds.intersects(b.bounds)) {
+                            continue;
+                        }
+                        if (!narrowPhase || a.sprite.intersects(b.sprite)) {
+                            count++;
+                            if (listener != null) {
+                                listener.collision(a.sprite, b.sprite);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private void addGroupSprites(Group group, int layers, int mask) {
+        Sprite[] snapshot = group.getSprites();
+        for (int i = 0; i < snapshot.length; i++) {
+            Sprite sprite = snapshot[i];
+            if (sprite instanceof Group) {
+                addGroupSprites((Group)sprite, layers, mask);
+            }
+            else {
+                Entry e = getEntry(sprite);
+                if (e.groupStamp != updateStamp) {
+                    e.groupStamp = updateStamp;
+                    if (!e.direct) {
+                        e.layers = layers;
+                        e.mask = mask;
+                    }
+                }
+            }
+        }
+    }
+
+    private Entry getEntry(Sprite sprite) {
+        Entry e = (Entry)entries.get(sprite);
+        if (e == null) {
+            e = new Entry(sprite);
+            e.groupStamp = updateStamp;
+            entries.put(sprite, e);
+            entryList.add(e);
+        }
+        return e;
+    }
+
+    //
+    // Spatial hash
+    //
+
+    private int toCell(int v) {
+        return (v >= 0) ? (v / cellSize) : ((v + 1) / cellSize - 1);
+    }
+
+    private void updateCells(Entry e) {
+        Sprite sprite = e.sprite;
+        boolean changed = sprite.getViewTransform().getBounds(
+            sprite.getNaturalWidth(), sprite.getNaturalHeight(), e.bounds);
+        if (!changed && e.inCells) {
+            return;
+        }
+        Rect b = e.bounds;
+        if (b.width <= 0 || b.height <= 0) {
+            removeFromCells(e);
+            return;
+        }
+        int cx1 = toCell(b.x);
+        int cy1 = toCell(b.y);
+        int cx2 = toCell(b.x + b.width - 1);
+        int cy2 = toCell(b.y + b.height - 1);
+        if (e.inCells && cx1 == e.cellX1 && cy1 == e.cellY1 && cx2 == e.cellX2 && 
+            cy2 == e.cellY2)
+        {
+            return;
+        }
+        removeFromCells(e);
+        e.cellX1 = cx1;
+        e.cellY1 = cy1;
+        e.cellX2 = cx2;
+        e.cellY2 = cy2;
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                getCell(cx, cy, true).add(e);
+            }
+        }
+        e.inCells = true;
+    }
+
+    private void removeFromCells(Entry e) {
+        if (!e.inCells) {
+            return;
+        }
+        for (int cy = e.cellY1; cy <= e.cellY2; cy++) {
+            for (int cx = e.cellX1; cx <= e.cellX2; cx++) {
+                Cell cell = getCell(cx, cy, false);
+                if (cell != null) {
+                    cell.remove(e);
+                    if (cell.size == 0) {
+                        removeCell(cell);
+                    }
+                }
+            }
+        }
+        e.inCells = false;
+    }
+
+    private static int hash(int cx, int cy) {
+        int h = cx * 73856093 ^ cy * 19349663;
+        return h ^ (h >>> 16);
+    }
+
+    private Cell getCell(int cx, int cy, boolean create) {
+        int index = hash(cx, cy) & (table.length - 1);
+        for (Cell cell = table[index]; cell != null; cell = cell.next) {
+            if (cell.x == cx && cell.y == cy) {
+                return cell;
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        if (numCells >= table.length) {
+            resizeTable();
+            index = hash(cx, cy) & (table.length - 1);
+        }
+        Cell cell = new Cell(cx, cy);
+        cell.next = table[index];
+        table[index] = cell;
+        numCells++;
+        return cell;
+    }
+
+    private void removeCell(Cell cell) {
+        int index = hash(cell.x, cell.y) & (table.length - 1);
+        Cell prev = null;
+        for (Cell c = table[index]; c != null; c = c.next) {
+            if (c == cell) {
+                if (prev == null) {
+                    table[index] = c.next;
+                }
+                else {
+                    prev.next = c.next;
+                }
+                numCells--;
+                return;
+            }
+            prev = c;
+        }
+    }
+
+    private void resizeTable() {
+        Cell[] oldTable = table;
+        table = new Cell[oldTable.length * 2];
+        for (int i = 0; i < oldTable.length; i++) {
+            Cell cell = oldTable[i];
+            while (cell != null) {
+                Cell next = cell.next;
+                int index = hash(cell.x, cell.y) & (table.length - 1);
+                cell.next = table[index];
+                table[index] = cell;
+                cell = next;
+            }
+        }
+    }
+
+    private static class Registration {
+        final Sprite sprite;
+        int layers;
+        int mask;
+
+        Registration(Sprite sprite) {
+            this.sprite = sprite;
+        }
+    }
+
+    private static class Entry {
+        final Sprite sprite;
+        final Rect bounds = new Rect();
+        int layers = ALL_LAYERS;
+        int mask = ALL_LAYERS;
+        /** True if the Sprite was added directly (rather than as a member of a Group). */
+        boolean direct;
+        /** The last update in which this Sprite was found in a registered Group. */
+        int groupStamp;
+        int queryStamp;
+        boolean inCells;
+        int cellX1;
+        int cellY1;
+        int cellX2;
+        int cellY2;
+
+        Entry(Sprite sprite) {
+            this.sprite = sprite;
+        }
+    }
+
+    private static class Cell {
+        final int x;
+        final int y;
+        Cell next;
+        Entry[] entries = new Entry[4];
+        int size;
+
+        Cell(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        void add(Entry e) {
+            if (size == entries.length) {
+                Entry[] newEntries = new Entry[size * 2];
+                System.arraycopy(entries, 0, newEntries, 0, size);
+                entries = newEntries;
+            }
+            entries[size++] = e;
+        }
+
+        void remove(Entry e) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == e) {
+                    size--;
+                    entries[i] = entries[size];
+                    entries[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ package pulpcore.sprite;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import pulpcore.image.BlendMode;
 import pulpcore.image.CoreGraphics;
@@ -69,6 +70,33 @@ public class Group extends Sprite {
     private BlendMode backBufferBlendMode = BlendMode.SrcOver();
     private Transform backBufferTransform = new Transform();
     private Tuple2i[] transformedClip = null;
+    private Rect backBufferDirtyRect = null;
+
+    // Incremental filtering: the bounds each descendant was last drawn with, in back buffer space
+    // HashMap<Sprite, DrawnBounds>
+    private HashMap drawnBounds = null;
+    private int drawnBoundsPass = 0;
+
+    /** Minimum number of children before a pick grid is created. */
+    private static final int PICK_GRID_THRESHOLD = 32;
+    private static final int MAX_PICK_GRID_SIZE = 32;
+    private static final int[] NO_PICK_CANDIDATES = new int[0];
+
+    private boolean pickCacheEnabled = false;
+    /**
+        The union of the children's bounds, in local space (fixed-point). Valid only if
+        pickBoundsSprites == sprites. Any change to a child invalidates the bounds of this Group
+        and its ancestors. See invalidatePickBounds().
+    */
+    private Sprite[] pickBoundsSprites = null;
+    private boolean pickBoundsEmpty;
+    private int pickX1, pickY1, pickX2, pickY2;
+    /** Child indices, in z-order, for each cell of the pick grid. Null if there is no grid. */
+    private int[][] pickGrid;
+    private int pickGridColumns;
+    private int pickGridRows;
+    private int pickGridCellWidth;
+    private int pickGridCellHeight;
     
     public Group() {
         this(0, 0, 0, 0);
@@ -102,6 +130,24 @@ public class Group extends Sprite {
         transformModCount++;
     }
 
+    /**
+        Gets the immutable list of sprites. The array is replaced (not modified) when the
+        list changes.
+    */
+    /* package-private */ Sprite[] getSprites() {
+        return sprites;
+    }
+
+    /* package-private */ final void invalidatePickBounds() {
+        Group group = this;
+        // If a Group's bounds are invalid, its ancestors' bounds are invalid, too.
+        while (group != null && group.pickBoundsSprites != null) {
+            group.pickBoundsSprites = null;
+            group.pickGrid = null;
+            group = group.getParent();
+        }
+    }
+
     private Object getTreeLock() {
         Object lock = getScene2D();
         if (lock == null) {
@@ -119,6 +165,10 @@ public class Group extends Sprite {
         if (this.clipChildrenToBounds != clipToBounds) {
             this.clipChildrenToBounds = clipToBounds;
             updateBackBuffer();
+            Group parent = getParent();
+            if (parent != null) {
+                parent.invalidatePickBounds();
+            }
         }
     }
 
@@ -308,6 +358,37 @@ public class Group extends Sprite {
         return null;
     }
     
+    /**
+        Sets whether this Group caches the bounds of its children to accelerate
+        {@link #pick(int, int)} and {@link #pickEnabledAndVisible(int, int)}.
+        If enabled, a pick query that is outside the union of the bounds of all
+        of this Group's descendants is rejected without checking each descendant. Additionally,
+        if this Group has many children, the children are indexed in a grid so that only the
+        children near the query location are checked.
+        <p>
+        The cache is rebuilt after any descendant changes, so it is most useful for
+        Groups whose contents change less often than they are picked, like
+        user interfaces and large maps. The cache is disabled by default.
+    */
+    public void setPickCacheEnabled(boolean pickCacheEnabled) {
+        if (this.pickCacheEnabled != pickCacheEnabled) {
+            this.pickCacheEnabled = pickCacheEnabled;
+            pickGrid = null;
+            if (pickCacheEnabled) {
+                // Rebuild with the grid
+                pickBoundsSprites = null;
+            }
+        }
+    }
+
+    /**
+        Returns true if this Group caches the bounds of its children to accelerate picking.
+        @see #setPickCacheEnabled(boolean)
+    */
+    public boolean isPickCacheEnabled() {
+        return pickCacheEnabled;
+    }
+
     /**
         Finds the top-most sprite at the specified location, or null if none is found.
         All sprites in this Group and any child Groups are searched until a sprite is found.
@@ -328,8 +409,10 @@ public class Group extends Sprite {
             }
         }
         Sprite[] snapshot = sprites;
-        for (int i = snapshot.length - 1; i >= 0; i--) {
-            Sprite child = snapshot[i];
+        int[] candidates = getPickCandidates(snapshot, viewX, viewY);
+        int n = (candidates == null) ? snapshot.length : candidates.length;
+        for (int i = n - 1; i >= 0; i--) {
+            Sprite child = snapshot[(candidates == null) ? i : candidates[i]];
             if (child instanceof Group) {
                 child = ((Group)child).pick(viewX, viewY);
                 if (child != null) {
@@ -370,8 +453,10 @@ public class Group extends Sprite {
             }
         }
         Sprite[] snapshot = sprites;
-        for (int i = snapshot.length - 1; i >= 0; i--) {
-            Sprite child = snapshot[i];
+        int[] candidates = getPickCandidates(snapshot, viewX, viewY);
+        int n = (candidates == null) ? snapshot.length : candidates.length;
+        for (int i = n - 1; i >= 0; i--) {
+            Sprite child = snapshot[(candidates == null) ? i : candidates[i]];
             if (child.enabled.get() == true && child.visible.get() == true && 
                 child.alpha.get() > 0) 
             {
@@ -389,6 +474,155 @@ public class Group extends Sprite {
         return null;
     }
 
+    /**
+        Gets the indices of the children that may contain the specified location, in z-order.
+        Returns null if all children should be checked.
+    */
+    private int[] getPickCandidates(Sprite[] snapshot, int viewX, int viewY) {
+        if (!pickCacheEnabled || snapshot.length == 0) {
+            return null;
+        }
+        updatePickBounds(snapshot);
+        if (pickBoundsEmpty) {
+            return NO_PICK_CANDIDATES;
+        }
+        Transform t = getViewTransform();
+        int fx = CoreMath.toFixed(viewX);
+        int fy = CoreMath.toFixed(viewY);
+        int localX = t.inverseTransformX(fx, fy);
+        int localY = t.inverseTransformY(fx, fy);
+        if (localX == Integer.MAX_VALUE || localY == Integer.MAX_VALUE ||
+            localX < pickX1 || localY < pickY1 || localX >= pickX2 || localY >= pickY2)
+        {
+            return NO_PICK_CANDIDATES;
+        }
+        if (pickGrid == null) {
+            return null;
+        }
+        int column = Math.min((int)(((long)localX - pickX1) / pickGridCellWidth),
+            pickGridColumns - 1);
+        int row = Math.min((int)(((long)localY - pickY1) / pickGridCellHeight),
+            pickGridRows - 1);
+        return pickGrid[column + row * pickGridColumns];
+    }
+
+    /**
+        Updates the union of the children's bounds in local space. Child Groups that are not
+        clipped contribute the union of their own children.
+    */
+    private void updatePickBounds(Sprite[] snapshot) {
+        if (pickBoundsSprites == snapshot) {
+            return;
+        }
+        int x1 = Integer.MAX_VALUE;
+        int y1 = Integer.MAX_VALUE;
+        int x2 = Integer.MIN_VALUE;
+        int y2 = Integer.MIN_VALUE;
+        boolean createGrid = pickCacheEnabled && snapshot.length >= PICK_GRID_THRESHOLD;
+        Rect[] childBounds = createGrid ? new Rect[snapshot.length] : null;
+        Transform t = new Transform();
+        for (int i = 0; i < snapshot.length; i++) {
+            Rect b = getPickBounds(snapshot[i], t);
+            if (b != null) {
+                x1 = Math.min(x1, b.x);
+                y1 = Math.min(y1, b.y);
+                x2 = Math.max(x2, b.x + b.width);
+                y2 = Math.max(y2, b.y + b.height);
+                if (childBounds != null) {
+                    childBounds[i] = b;
+                }
+            }
+        }
+        pickBoundsEmpty = (x1 > x2 || y1 > y2);
+        pickX1 = x1;
+        pickY1 = y1;
+        pickX2 = x2;
+        pickY2 = y2;
+        pickGrid = null;
+        if (createGrid && !pickBoundsEmpty) {
+            createPickGrid(childBounds);
+        }
+        pickBoundsSprites = snapshot;
+    }
+
+    /**
+        Gets the bounds of the specified child in this Group's local space (fixed-point),
+        or null if the child has no bounds. The bounds include a one-pixel margin to account
+        for fixed-point rounding and pixel snapping.
+    */
+    private static Rect getPickBounds(Sprite child, Transform t) {
+        Rect bounds;
+        child.updateTransform(null, t);
+        if (child instanceof Group && 
+            !(((Group)child).isClippedToBounds() || ((Group)child).hasBackBuffer())) 
+        {
+            Group group = (Group)child;
+            group.updatePickBounds(group.sprites);
+            if (group.pickBoundsEmpty) {
+                return null;
+            }
+            t.translate(group.pickX1, group.pickY1);
+            bounds = t.getBounds(group.pickX2 - group.pickX1, group.pickY2 - group.pickY1);
+        }
+        else {
+            bounds = t.getBounds(child.getNaturalWidth(), child.getNaturalHeight());
+        }
+        bounds.x -= CoreMath.ONE;
+        bounds.y -= CoreMath.ONE;
+        bounds.width += 2 * CoreMath.ONE;
+        bounds.height += 2 * CoreMath.ONE;
+        return bounds;
+    }
+
+    private void createPickGrid(Rect[] childBounds) {
+        int size = Math.min(MAX_PICK_GRID_SIZE, (int)Math.sqrt(childBounds.length));
+        long w = (long)pickX2 - pickX1;
+        long h = (long)pickY2 - pickY1;
+        pickGridColumns = size;
+        pickGridRows = size;
+        pickGridCellWidth = (int)Math.max(1, (w + size - 1) / size);
+        pickGridCellHeight = (int)Math.max(1, (h + size - 1) / size);
+
+        // First pass: count. Second pass: fill (in z-order)
+        int[] counts = new int[size * size];
+        int[][] grid = new int[size * size][];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < childBounds.length; i++) {
+                Rect b = childBounds[i];
+                if (b == null) {
+                    continue;
+                }
+                int c1 = getPickGridCell(b.x, pickX1, pickGridCellWidth, size);
+                int r1 = getPickGridCell(b.y, pickY1, pickGridCellHeight, size);
+                int c2 = getPickGridCell(b.x + b.width, pickX1, pickGridCellWidth, size);
+                int r2 = getPickGridCell(b.y + b.height, pickY1, pickGridCellHeight, size);
+                for (int r = r1; r <= r2; r++) {
+                    for (int c = c1; c <= c2; c++) {
+                        int cell = c + r * size;
+                        if (pass == 0) {
+                            counts[cell]++;
+                        }
+                        else {
+                            grid[cell][counts[cell]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int cell = 0; cell < grid.length; cell++) {
+                    grid[cell] = (counts[cell] == 0) ? NO_PICK_CANDIDATES : new int[counts[cell]];
+                    counts[cell] = 0;
+                }
+            }
+        }
+        pickGrid = grid;
+    }
+
+    private static int getPickGridCell(int v, int origin, int cellSize, int size) {
+        long cell = ((long)v - origin) / cellSize;
+        return (int)Math.max(0, Math.min(size - 1, cell));
+    }
+
     /**
         Checks if the specified location is within the bounds of this
         Group and this Group is an ancestor of the top-most Sprite at that location.
@@ -532,6 +766,7 @@ public class Group extends Sprite {
                 if (index != -1) {
                     sprites = remove(snapshot, index);
                     sprite.setParent(null);
+                    invalidatePickBounds();
                 }
             }
         }
@@ -547,6 +782,7 @@ public class Group extends Sprite {
                 snapshot[i].setParent(null);
             }
             sprites = new Sprite[0];
+            invalidatePickBounds();
         }
     }
     
@@ -873,6 +1109,207 @@ public class Group extends Sprite {
         }
     }
 
+    //
+    // Incremental filtering
+    //
+
+    /**
+        Notifies this Group that some of its descendants changed, but this Group itself
+        did not. If this Group has a back buffer and a Filter with a known
+        {@link Filter#getSupportRadius() support radius}, only the changed region of the back
+        buffer is redrawn, and only the output pixels of the filter that depend on that region
+        are filtered again. Otherwise, this Group is marked as dirty.
+        <p>
+        This method is called by Scene2D. Most apps will not need to call this method directly.
+    */
+    public void notifyChildrenChanged() {
+        Filter f = getFilter();
+        if (backBuffer == null || f == null || drawnBounds == null || f.getSupportRadius() < 0) {
+            setDirty(true);
+            return;
+        }
+        Rect region = getChangedRegion();
+        region.intersection(0, 0, backBuffer.getWidth(), backBuffer.getHeight());
+        if (region.width > 0 && region.height > 0) {
+            setBackBufferDirty(region);
+        }
+    }
+
+    /**
+        Draws the back buffer of this filtered Group. If dirtyRect is not null, only that
+        region is cleared and redrawn.
+    */
+    /* package-private */ void drawBackBuffer(Rect dirtyRect) {
+        backBufferDirtyRect = dirtyRect;
+        try {
+            drawSprite(null);
+        }
+        finally {
+            backBufferDirtyRect = null;
+        }
+        if (dirtyRect == null) {
+            Filter f = getFilter();
+            if (f != null && f.getSupportRadius() >= 0) {
+                updateDrawnBounds();
+            }
+            else {
+                drawnBounds = null;
+            }
+        }
+    }
+
+    /**
+        Gets the region of the back buffer that changed since it was last drawn: the old and
+        new bounds of dirty or moved descendants, and the old bounds of removed descendants.
+    */
+    private Rect getChangedRegion() {
+        Rect region = new Rect();
+        drawnBoundsPass++;
+        addChangedRegion(this, false, region);
+
+        // Removed descendants
+        Iterator i = drawnBounds.values().iterator();
+        while (i.hasNext()) {
+            DrawnBounds b = (DrawnBounds)i.next();
+            if (b.pass != drawnBoundsPass) {
+                union(region, b.bounds);
+                i.remove();
+            }
+        }
+        return region;
+    }
+
+    private void addChangedRegion(Group group, boolean ancestorDirty, Rect region) {
+        Sprite[] snapshot = group.sprites;
+        for (int i = 0; i < snapshot.length; i++) {
+            Sprite sprite = snapshot[i];
+            // Transforms are not checked here; children of this Group are drawn in back buffer
+            // space, which doesn't change when this Group moves. Instead, moved descendants
+            // are found by comparing their bounds.
+            boolean dirty = ancestorDirty || sprite.isDirty();
+            if (sprite instanceof Group && !((Group)sprite).hasBackBuffer()) {
+                // Descendants of a Group without a back buffer are drawn directly
+                addChangedRegion((Group)sprite, dirty, region);
+                continue;
+            }
+            if (!dirty && sprite instanceof Group) {
+                dirty = isTreeDirty((Group)sprite);
+            }
+            DrawnBounds b = (DrawnBounds)drawnBounds.get(sprite);
+            if (b == null) {
+                b = new DrawnBounds();
+                drawnBounds.put(sprite, b);
+                dirty = true;
+            }
+            b.pass = drawnBoundsPass;
+            Rect bounds = getDrawnBounds(sprite);
+            if (dirty || !equals(b.bounds, bounds)) {
+                union(region, b.bounds);
+                union(region, bounds);
+            }
+            b.bounds = bounds;
+        }
+    }
+
+    private void updateDrawnBounds() {
+        if (drawnBounds == null) {
+            drawnBounds = new HashMap();
+        }
+        drawnBoundsPass++;
+        updateDrawnBounds(this);
+        Iterator i = drawnBounds.values().iterator();
+        while (i.hasNext()) {
+            if (((DrawnBounds)i.next()).pass != drawnBoundsPass) {
+                i.remove();
+            }
+        }
+    }
+
+    private void updateDrawnBounds(Group group) {
+        Sprite[] snapshot = group.sprites;
+        for (int i = 0; i < snapshot.length; i++) {
+            Sprite sprite = snapshot[i];
+            if (sprite instanceof Group && !((Group)sprite).hasBackBuffer()) {
+                updateDrawnBounds((Group)sprite);
+                continue;
+            }
+            DrawnBounds b = (DrawnBounds)drawnBounds.get(sprite);
+            if (b == null) {
+                b = new DrawnBounds();
+                drawnBounds.put(sprite, b);
+            }
+            b.pass = drawnBoundsPass;
+            b.bounds = getDrawnBounds(sprite);
+        }
+    }
+
+    /**
+        Gets the bounds of a descendant in back buffer space, or null if it isn't drawn.
+        The bounds include a one-pixel margin for antialiased edges.
+    */
+    private Rect getDrawnBounds(Sprite sprite) {
+        if (!sprite.visible.get() || sprite.alpha.get() <= 0) {
+            return null;
+        }
+        Transform t = sprite.getDrawTransform();
+        int w = sprite.getNaturalWidth();
+        int h = sprite.getNaturalHeight();
+        if (w == 0 || h == 0) {
+            // A back buffer that covers the Stage
+            return new Rect(0, 0, backBuffer.getWidth(), backBuffer.getHeight());
+        }
+        Filter f = sprite.getWorkingFilter();
+        if (f != null) {
+            int fx = f.getOutputX();
+            int fy = f.getOutputY();
+            if (fx != 0 || fy != 0) {
+                t = new Transform(t);
+                t.translate(CoreMath.toFixed(fx), CoreMath.toFixed(fy));
+            }
+            w = CoreMath.toFixed(f.getOutputWidth());
+            h = CoreMath.toFixed(f.getOutputHeight());
+        }
+        Rect bounds = new Rect();
+        t.getBounds(w, h, bounds);
+        bounds.setBounds(bounds.x - 1, bounds.y - 1, bounds.width + 2, bounds.height + 2);
+        return bounds;
+    }
+
+    private static boolean isTreeDirty(Group group) {
+        Sprite[] snapshot = group.sprites;
+        for (int i = 0; i < snapshot.length; i++) {
+            Sprite sprite = snapshot[i];
+            if (sprite.isDirty()) {
+                return true;
+            }
+            if (sprite instanceof Group && isTreeDirty((Group)sprite)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(Rect a, Rect b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    private static void union(Rect region, Rect bounds) {
+        if (bounds == null) {
+            // Do nothing
+        }
+        else if (region.width <= 0 || region.height <= 0) {
+            region.setBounds(bounds);
+        }
+        else {
+            region.union(bounds);
+        }
+    }
+
+    private static class DrawnBounds {
+        Rect bounds;
+        int pass;
+    }
+
     // g may be null if this Group has a Filter
     protected final void drawSprite(CoreGraphics g) {
         Sprite[] snapshot = sprites;
@@ -907,10 +1344,18 @@ public class Group extends Sprite {
             g2.setBlendMode(backBufferBlendMode);
 
             if (g == null) {
-                clipX = 0;
-                clipY = 0;
-                clipW = backBuffer.getWidth();
-                clipH = backBuffer.getHeight();
+                if (backBufferDirtyRect != null) {
+                    clipX = backBufferDirtyRect.x;
+                    clipY = backBufferDirtyRect.y;
+                    clipW = backBufferDirtyRect.width;
+                    clipH = backBufferDirtyRect.height;
+                }
+                else {
+                    clipX = 0;
+                    clipY = 0;
+                    clipW = backBuffer.getWidth();
+                    clipH = backBuffer.getHeight();
+                }
                 drawTransform = Sprite.IDENTITY;
             }
             else {
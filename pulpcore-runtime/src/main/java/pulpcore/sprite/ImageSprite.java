@@ -50,6 +50,10 @@ public class ImageSprite extends Sprite {
     
     private CoreImage image;
     
+    // Whether isTransparent() is the image's, so the image's collision mask can be used.
+    // 0 = not checked yet, 1 = yes, -1 = no (a subclass overrides isTransparent())
+    private int imageTransparency = 0;
+    
     /**
         Flag indicating whether the edges of this ImageSprite are anti-aliased when rotating or
         drawing at fractional locations. The default value is {@code true}.
@@ -247,6 +251,34 @@ public class ImageSprite extends Sprite {
         return (image == null || image.isTransparent(localX, localY));
     }
 
+    /* package-private */ CoreImage getCollisionMaskImage() {
+        if (imageTransparency == 0) {
+            imageTransparency = overridesIsTransparent(getClass()) ? -1 : 1;
+        }
+        return (imageTransparency > 0) ? image : null;
+    }
+    
+    /**
+        Returns true if the class, or a superclass below ImageSprite, overrides
+        isTransparent(), like StretchableSprite does.
+    */
+    private static boolean overridesIsTransparent(Class c) {
+        Class[] params = { Integer.TYPE, Integer.TYPE };
+        for (; c != ImageSprite.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("isTransparent", params);
+                return true;
+            }
+            catch (NoSuchMethodException ex) {
+                // Not declared in this class
+            }
+            catch (SecurityException ex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected void drawSprite(CoreGraphics g) {
         if (image != null) {
             g.setEdgeClamp(antiAlias.get() ? CoreGraphics.EDGE_CLAMP_NONE :
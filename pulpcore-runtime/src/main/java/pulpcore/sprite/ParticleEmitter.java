@@ -0,0 +1,475 @@
+/*
+    Copyright (c) 2007-2010, Interactive Pulp, LLC
+    All rights reserved.
+    
+    Redistribution and use in source and binary forms, with or without 
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright 
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright 
+          notice, this list of conditions and the following disclaimer in the 
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its 
+          contributors may be used to endorse or promote products derived from 
+          this software without specific prior written permission.
+    
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package pulpcore.sprite;
+
+import pulpcore.CoreSystem;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.CoreImage;
+import pulpcore.math.CoreMath;
+import pulpcore.math.Rect;
+import pulpcore.math.Transform;
+import pulpcore.platform.WorkerPool;
+
+/**
+    A Sprite that simulates and draws many small particles. Unlike creating one ImageSprite
+    per particle, particles are not Sprites: their state is stored in primitive arrays, they
+    are updated in one loop, and they are drawn in one call to
+    {@link CoreGraphics#drawImageBatch(CoreImage[], int[], float[], float[], float[], float[], int[], int) }.
+    The ParticleEmitter has one dirty rectangle - its bounds - and particles are
+    clipped to its bounds.
+    <p>
+    Particle locations are in the ParticleEmitter's local coordinate space. Speeds are in
+    pixels per second, and angles are in radians.
+    <pre>
+    ParticleEmitter emitter = new ParticleEmitter(images, 0, 0, Stage.getWidth(),
+        Stage.getHeight(), 5000);
+    emitter.setLife(500, 1500);
+    emitter.setSpeed(50, 200);
+    emitter.setGravity(0, 300);
+    emitter.setBlendMode(BlendMode.Add());
+    add(emitter);
+    ...
+    emitter.emit(Input.getMouseX(), Input.getMouseY(), 100);
+    </pre>
+*/
+public class ParticleEmitter extends Sprite {
+
+    /**
+        The minimum number of particles per worker thread when the parallel update is enabled.
+    */
+    private static final int PARALLEL_GRAIN = 4096;
+
+    private final CoreImage[] images;
+    private final int maxParticles;
+    private int particleLimit;
+    private int numParticles;
+
+    // Particle state
+    private final float[] px;
+    private final float[] py;
+    private final float[] vx;
+    private final float[] vy;
+    private final float[] angle;
+    private final float[] spin;
+    private final float[] startScale;
+    private final float[] scale;
+    private final int[] life;
+    private final int[] duration;
+    private final int[] imageIndex;
+    private final int[] particleAlpha;
+
+    // Particle settings
+    private int minLife = 1000;
+    private int maxLife = 1000;
+    private float minSpeed = 0;
+    private float maxSpeed = 100;
+    private float minDirection = 0;
+    private float maxDirection = (float)(2 * Math.PI);
+    private float minAngle = 0;
+    private float maxAngle = 0;
+    private float minSpin = 0;
+    private float maxSpin = 0;
+    private float minScale = 1;
+    private float maxScale = 1;
+    private float endScale = 1;
+    private float gravityX = 0;
+    private float gravityY = 0;
+    private int startAlpha = 255;
+    private int endAlpha = 0;
+
+    // Continuous emission
+    private float emissionRate = 0;
+    private float emissionAccumulator = 0;
+    private float emissionX1;
+    private float emissionY1;
+    private float emissionX2;
+    private float emissionY2;
+
+    private boolean parallelUpdate = false;
+    private boolean hadParticles = false;
+    private int currentElapsedTime;
+    private final WorkerPool.Task updateTask = new WorkerPool.Task() {
+        public void run(int start, int end) {
+            updateParticles(start, end, currentElapsedTime);
+        }
+    };
+
+    /**
+        Creates a ParticleEmitter that draws one image for all particles.
+    */
+    public ParticleEmitter(CoreImage image, int x, int y, int w, int h, int maxParticles) {
+        this(new CoreImage[] { image }, x, y, w, h, maxParticles);
+    }
+
+    /**
+        Creates a ParticleEmitter where each particle is drawn with an image chosen at random
+        from the specified array.
+    */
+    public ParticleEmitter(CoreImage[] images, int x, int y, int w, int h, int maxParticles) {
+        super(x, y, w, h);
+        if (images == null || images.length == 0) {
+            throw new IllegalArgumentException("No images");
+        }
+        if (maxParticles < 0) {
+            throw new IllegalArgumentException("maxParticles < 0");
+        }
+        this.images = (CoreImage[])images.clone();
+        this.maxParticles = maxParticles;
+        this.particleLimit = maxParticles;
+        px = new float[maxParticles];
+        py = new float[maxParticles];
+        vx = new float[maxParticles];
+        vy = new float[maxParticles];
+        angle = new float[maxParticles];
+        spin = new float[maxParticles];
+        startScale = new float[maxParticles];
+        scale = new float[maxParticles];
+        life = new int[maxParticles];
+        duration = new int[maxParticles];
+        imageIndex = new int[maxParticles];
+        particleAlpha = new int[maxParticles];
+        emissionX1 = emissionX2 = w / 2f;
+        emissionY1 = emissionY2 = h / 2f;
+    }
+
+    //
+    // Settings
+    //
+
+    /**
+        Sets the life of new particles, in milliseconds. The life of each particle is
+        chosen at random between the min and max values. The default is 1000.
+    */
+    public void setLife(int minLife, int maxLife) {
+        this.minLife = Math.max(1, minLife);
+        this.maxLife = Math.max(this.minLife, maxLife);
+    }
+
+    /**
+        Sets the speed of new particles, in pixels per second. The default is from 0 to 100.
+    */
+    public void setSpeed(double minSpeed, double maxSpeed) {
+        this.minSpeed = (float)minSpeed;
+        this.maxSpeed = (float)maxSpeed;
+    }
+
+    /**
+        Sets the direction of new particles, in radians. The default is from 0 to 2*PI.
+    */
+    public void setDirection(double minDirection, double maxDirection) {
+        this.minDirection = (float)minDirection;
+        this.maxDirection = (float)maxDirection;
+    }
+
+    /**
+        Sets the initial angle of new particles, in radians. The default is 0.
+    */
+    public void setParticleAngle(double minAngle, double maxAngle) {
+        this.minAngle = (float)minAngle;
+        this.maxAngle = (float)maxAngle;
+    }
+
+    /**
+        Sets the rotational speed of new particles, in radians per second. The default is 0.
+    */
+    public void setSpin(double minSpin, double maxSpin) {
+        this.minSpin = (float)minSpin;
+        this.maxSpin = (float)maxSpin;
+    }
+
+    /**
+        Sets the initial scale of new particles, and the scale particles reach at the end
+        of their life, as a multiple of the initial scale. The default is 1 (no scaling).
+    */
+    public void setParticleScale(double minScale, double maxScale, double endScale) {
+        this.minScale = (float)minScale;
+        this.maxScale = (float)maxScale;
+        this.endScale = (float)endScale;
+    }
+
+    /**
+        Sets the acceleration of particles, in pixels per second per second.
+        The default is (0, 0).
+    */
+    public void setGravity(double gravityX, double gravityY) {
+        this.gravityX = (float)gravityX;
+        this.gravityY = (float)gravityY;
+    }
+
+    /**
+        Sets the alpha of particles at the start and at the end of their life.
+        The default is from 255 to 0.
+    */
+    public void setFade(int startAlpha, int endAlpha) {
+        this.startAlpha = CoreMath.clamp(startAlpha, 0, 255);
+        this.endAlpha = CoreMath.clamp(endAlpha, 0, 255);
+    }
+
+    /**
+        Sets the number of particles emitted per second by {@link #update(int) }.
+        The default is 0 (particles are only created by {@link #emit(double, double, int)}).
+    */
+    public void setEmissionRate(double particlesPerSecond) {
+        this.emissionRate = (float)Math.max(0, particlesPerSecond);
+        if (emissionRate == 0) {
+            emissionAccumulator = 0;
+        }
+    }
+
+    /**
+        Sets the area, in local coordinates, where continuously emitted particles are
+        created. The default is the center of this ParticleEmitter.
+    */
+    public void setEmissionArea(double x, double y, double w, double h) {
+        emissionX1 = (float)x;
+        emissionY1 = (float)y;
+        emissionX2 = (float)(x + w);
+        emissionY2 = (float)(y + h);
+    }
+
+    /**
+        Sets whether particles are updated in parallel using the app's
+        {@link pulpcore.platform.AppContext#getWorkerPool() worker pool}. Parallel updates
+        are only used when there are many particles. The default is false.
+    */
+    public void setParallelUpdateEnabled(boolean parallelUpdate) {
+        this.parallelUpdate = parallelUpdate;
+    }
+
+    public boolean isParallelUpdateEnabled() {
+        return parallelUpdate;
+    }
+
+    //
+    // Particles
+    //
+
+    public int getMaxParticles() {
+        return maxParticles;
+    }
+
+    /**
+        Limits the number of live particles to fewer than {@link #getMaxParticles()}, for
+        example, to render faster when the frame rate drops. If there are more live particles
+        than the limit, the newest are removed.
+        @see pulpcore.QualityGovernor#limitParticles(ParticleEmitter, int)
+    */
+    public void setParticleLimit(int limit) {
+        particleLimit = CoreMath.clamp(limit, 0, maxParticles);
+        if (numParticles > particleLimit) {
+            numParticles = particleLimit;
+            setDirty(true);
+        }
+    }
+
+    /**
+        Gets the particle limit. By default, the limit is {@link #getMaxParticles()}.
+    */
+    public int getParticleLimit() {
+        return particleLimit;
+    }
+
+    /**
+        Returns the number of live particles.
+    */
+    public int getNumParticles() {
+        return numParticles;
+    }
+
+    /**
+        Removes all particles.
+    */
+    public void clear() {
+        if (numParticles > 0) {
+            numParticles = 0;
+            setDirty(true);
+        }
+    }
+
+    /**
+        Emits particles at a location, in local coordinates.
+        @return the number of particles emitted, which may be less than {@code count} if
+        the maximum number of particles is reached.
+    */
+    public int emit(double x, double y, int count) {
+        return emit(x, y, x, y, count);
+    }
+
+    /**
+        Emits particles at random locations within an area, in local coordinates.
+        @return the number of particles emitted, which may be less than {@code count} if
+        the maximum number of particles is reached.
+    */
+    public int emit(double x1, double y1, double x2, double y2, int count) {
+        count = Math.min(count, particleLimit - numParticles);
+        for (int n = 0; n < count; n++) {
+            int i = numParticles++;
+            double direction = CoreMath.rand(minDirection, maxDirection);
+            double speed = CoreMath.rand(minSpeed, maxSpeed);
+            px[i] = (float)((x1 == x2) ? x1 : CoreMath.rand(x1, x2));
+            py[i] = (float)((y1 == y2) ? y1 : CoreMath.rand(y1, y2));
+            vx[i] = (float)(speed * Math.cos(direction));
+            vy[i] = (float)(speed * Math.sin(direction));
+            angle[i] = (float)CoreMath.rand(minAngle, maxAngle);
+            spin[i] = (float)CoreMath.rand(minSpin, maxSpin);
+            startScale[i] = (float)CoreMath.rand(minScale, maxScale);
+            scale[i] = startScale[i];
+            life[i] = 0;
+            duration[i] = CoreMath.rand(minLife, maxLife);
+            imageIndex[i] = (images.length == 1) ? 0 : CoreMath.rand(0, images.length - 1);
+            particleAlpha[i] = startAlpha;
+        }
+        if (count > 0) {
+            setDirty(true);
+        }
+        return Math.max(0, count);
+    }
+
+    //
+    // Simulation
+    //
+
+    public void update(int elapsedTime) {
+        super.update(elapsedTime);
+
+        if (elapsedTime > 0 && numParticles > 0) {
+            currentElapsedTime = elapsedTime;
+            if (parallelUpdate && numParticles >= PARALLEL_GRAIN * 2) {
+                CoreSystem.getThisAppContext().getWorkerPool().invoke(numParticles,
+                    PARALLEL_GRAIN, updateTask);
+            }
+            else {
+                updateParticles(0, numParticles, elapsedTime);
+            }
+            removeDeadParticles();
+        }
+
+        if (elapsedTime > 0 && emissionRate > 0) {
+            emissionAccumulator += emissionRate * elapsedTime / 1000;
+            int count = (int)emissionAccumulator;
+            if (count > 0) {
+                emissionAccumulator -= count;
+                emit(emissionX1, emissionY1, emissionX2, emissionY2, count);
+            }
+        }
+
+        // Mark dirty on the frame the last particle dies, too
+        if (numParticles > 0 || hadParticles) {
+            setDirty(true);
+        }
+        hadParticles = numParticles > 0;
+    }
+
+    private void updateParticles(int start, int end, int elapsedTime) {
+        float dt = elapsedTime / 1000f;
+        float ax = gravityX * dt;
+        float ay = gravityY * dt;
+        int alphaRange = endAlpha - startAlpha;
+        float scaleRange = endScale - 1;
+        boolean fade = (alphaRange != 0);
+        boolean grow = (scaleRange != 0);
+        for (int i = start; i < end; i++) {
+            int t = life[i] + elapsedTime;
+            life[i] = t;
+            int d = duration[i];
+            if (t >= d) {
+                continue;
+            }
+            vx[i] += ax;
+            vy[i] += ay;
+            px[i] += vx[i] * dt;
+            py[i] += vy[i] * dt;
+            angle[i] += spin[i] * dt;
+            if (fade) {
+                particleAlpha[i] = startAlpha + (int)((long)alphaRange * t / d);
+            }
+            if (grow) {
+                scale[i] = startScale[i] * (1 + scaleRange * t / d);
+            }
+        }
+    }
+
+    /**
+        Removes dead particles by moving the last live particle into each dead slot.
+        Drawing order is not preserved, which is acceptable for particles.
+    */
+    private void removeDeadParticles() {
+        int n = numParticles;
+        int i = 0;
+        while (i < n) {
+            if (life[i] >= duration[i]) {
+                n--;
+                if (i != n) {
+                    px[i] = px[n];
+                    py[i] = py[n];
+                    vx[i] = vx[n];
+                    vy[i] = vy[n];
+                    angle[i] = angle[n];
+                    spin[i] = spin[n];
+                    startScale[i] = startScale[n];
+                    scale[i] = scale[n];
+                    life[i] = life[n];
+                    duration[i] = duration[n];
+                    imageIndex[i] = imageIndex[n];
+                    particleAlpha[i] = particleAlpha[n];
+                }
+            }
+            else {
+                i++;
+            }
+        }
+        numParticles = n;
+    }
+
+    //
+    // Drawing
+    //
+
+    protected void drawSprite(CoreGraphics g) {
+        if (numParticles == 0) {
+            return;
+        }
+
+        // Clip to the bounds, which is the only dirty rectangle this Sprite reports
+        Transform t = g.getTransform();
+        Rect oldClip = g.getClip();
+        Rect newClip = new Rect();
+        t.getBounds(width.getAsFixed(), height.getAsFixed(), newClip);
+        g.clipRect(newClip);
+
+        g.drawImageBatch(images, (images.length == 1) ? null : imageIndex, px, py,
+            (minScale == 1 && maxScale == 1 && endScale == 1) ? null : scale,
+            (minAngle == 0 && maxAngle == 0 && minSpin == 0 && maxSpin == 0) ? null : angle,
+            particleAlpha, numParticles);
+
+        g.setClip(oldClip);
+    }
+}
@@ -439,14 +439,14 @@ public abstract class Sprite implements PropertyListener {
                 h = CoreMath.toFixed(Stage.getHeight());
             }
             else if (f != null) {
-                int fx = f.getX();
-                int fy = f.getY();
+                int fx = f.getOutputX();
+                int fy = f.getOutputY();
                 if (fx != 0 || fy != 0) {
                     t = new Transform(t);
                     t.translate(CoreMath.toFixed(fx),CoreMath.toFixed(fy));
                 }
-                w = CoreMath.toFixed(f.getWidth());
-                h = CoreMath.toFixed(f.getHeight());
+                w = CoreMath.toFixed(f.getOutputWidth());
+                h = CoreMath.toFixed(f.getOutputHeight());
             }
             
             changed |= t.getBounds(w, h, dirtyRect);
@@ -480,6 +480,9 @@ public abstract class Sprite implements PropertyListener {
         this.dirty = dirty;
         if (dirty) {
             transformDirty = true;
+            if (parent != null) {
+                parent.invalidatePickBounds();
+            }
         }
         if (contentsChanged && filter != null) {
             filter.setDirty();
@@ -493,12 +496,25 @@ public abstract class Sprite implements PropertyListener {
         if (!dirty) {
             Filter f = getWorkingFilter();
             if (f != null && f.isDirty()) {
-                setDirty(true);
+                // The filter output changes, but the filter input (the contents) did not
+                setDirty(true, false);
             }
         }
         return dirty;
     }
 
+    /**
+        Marks this Group as dirty, with only a region of its back buffer changed.
+        If this Group has a filter, only the region of the back buffer is redrawn, and only the
+        output pixels that depend on it are filtered again.
+    */
+    /* package-private */ final void setBackBufferDirty(Rect region) {
+        setDirty(true, false);
+        if (filter != null) {
+            filter.setDirty(region);
+        }
+    }
+
     /* package-private */ final boolean isTransformDirty() {
         if (transformDirty) {
             return true;
@@ -797,7 +813,10 @@ public abstract class Sprite implements PropertyListener {
 
     private Filter copyIfUsed(Filter filter) {
         if (filter != null && usedFilters.containsKey(filter)) {
-            filter = filter.copy();
+            Filter original = filter;
+            filter = original.copy();
+            filter.setAsync(original.isAsync());
+            filter.setMaxStaleness(original.getMaxStaleness());
         }
         if (filter instanceof FilterChain) {
             FilterChain chain = (FilterChain)filter;
@@ -861,6 +880,7 @@ public abstract class Sprite implements PropertyListener {
         private final Filter filter;
         private CoreImage cache = null;
         private boolean cacheDirty = true;
+        private Rect cacheDirtyRect = null;
 
         public SpriteFilter(Sprite sprite, Filter filter) {
             this.sprite = sprite;
@@ -897,6 +917,22 @@ public abstract class Sprite implements PropertyListener {
         public void setDirty() {
             filter.setDirty();
             cacheDirty = true;
+            cacheDirtyRect = null;
+        }
+
+        /**
+            Marks a region of the cache as changed. If the whole cache is already marked as
+            changed, this method does nothing.
+        */
+        public void setDirty(Rect region) {
+            filter.setDirty(region.x, region.y, region.width, region.height);
+            if (!cacheDirty) {
+                cacheDirty = true;
+                cacheDirtyRect = new Rect(region);
+            }
+            else if (cacheDirtyRect != null) {
+                cacheDirtyRect.union(region);
+            }
         }
 
         public CoreImage getCacheImage() {
@@ -907,8 +943,9 @@ public abstract class Sprite implements PropertyListener {
                 // Update the back buffer
                 cache = null;
                 if (cacheDirty) {
-                    sprite.drawSprite(null);
+                    ((Group)sprite).drawBackBuffer(cacheDirtyRect);
                     cacheDirty = false;
+                    cacheDirtyRect = null;
                 }
                 return ((Group)sprite).getBackBuffer();
             }
@@ -1008,12 +1045,16 @@ public abstract class Sprite implements PropertyListener {
             g.setBlendMode(blendMode);
         }
         
-        // Set transform
-        Transform t = drawTransform;
+        // Set transform. The transform may be out of date even if this Sprite isn't dirty,
+        // like when an ancestor inside a back buffer moved.
+        Transform t = getDrawTransform();
         Filter f = getWorkingFilter();
+        CoreImage filterOutput = null;
         if (f != null) {
-            int fx = f.getX();
-            int fy = f.getY();
+            // Get the output first; asynchronous filters may present an older output
+            filterOutput = f.getOutput();
+            int fx = f.getOutputX();
+            int fy = f.getOutputY();
             if (fx != 0 || fy != 0) {
                 t = new Transform(t);
                 t.translate(CoreMath.toFixed(fx), CoreMath.toFixed(fy));
@@ -1033,7 +1074,7 @@ public abstract class Sprite implements PropertyListener {
                 g.setEdgeClamp(antiAlias ? CoreGraphics.EDGE_CLAMP_NONE :
                     CoreGraphics.EDGE_CLAMP_ALL);
             }
-            g.drawImage(f.getOutput());
+            g.drawImage(filterOutput);
         }
         else {
             drawSprite(g);
@@ -1176,6 +1217,10 @@ public abstract class Sprite implements PropertyListener {
         Note, pixel-level checks only work on subclasses of Sprite that
         implement the {@link #isTransparent(int, int) } method ({@link Button},
         {@link ImageSprite}, {@link Label}, {@link StretchableSprite}).
+        <p>
+        Intersections with an ImageSprite use its image's
+        {@link CoreImage#getCollisionMask() collision mask}. If the image's pixels are changed
+        without incrementing its modification count, call {@link CoreImage#setModified()}.
     */
     public void setPixelLevelChecks(boolean pixelLevelChecks) {
         this.pixelLevelChecks = pixelLevelChecks;
@@ -1376,6 +1421,19 @@ public abstract class Sprite implements PropertyListener {
         int x2 = CoreMath.toIntCeil(intersection.x + intersection.width);
         int y2 = CoreMath.toIntCeil(intersection.y + intersection.height);
         
+        if (x2 <= x1 || y2 <= y1) {
+            return false;
+        }
+        
+        // Fast path: test rows of packed collision masks
+        CollisionRows aRows = a.getCollisionRows(x1, y1, x2, y2);
+        if (aRows != null) {
+            CollisionRows bRows = b.getCollisionRows(x1, y1, x2, y2);
+            if (bRows != null) {
+                return aRows.intersects(bRows);
+            }
+        }
+        
         for (int py = y1; py < y2; py++) {
             for (int px = x1; px < x2; px++) {
                 if (a.contains(px, py) && b.contains(px, py)) {
@@ -1385,6 +1443,153 @@ public abstract class Sprite implements PropertyListener {
         }
         return false;
     }
+    
+    /**
+        Gets the image whose collision mask is used for pixel-level collision detection, or
+        null if this Sprite does not have one. The image must have the same dimensions as this
+        Sprite's natural bounds, and {@link #isTransparent(int, int)} must be equivalent to the
+        image's {@link CoreImage#isTransparent(int, int)}.
+    */
+    /* package-private */ CoreImage getCollisionMaskImage() {
+        return null;
+    }
+    
+    /**
+        Creates a row-wise collision test for the specified view-space region, or returns null
+        if collision masks can't be used for this Sprite (it is rotated, or it uses pixel-level
+        checks but has no collision mask image).
+    */
+    private CollisionRows getCollisionRows(int x1, int y1, int x2, int y2) {
+        CoreImage image = null;
+        if (getPixelLevelChecks()) {
+            image = getCollisionMaskImage();
+            if (image == null) {
+                return null;
+            }
+        }
+        Transform t = getViewTransform();
+        if ((t.getType() & Transform.TYPE_ROTATE) != 0) {
+            return null;
+        }
+        
+        // Without rotation, the local x location only depends on the view x location,
+        // and the local y location only depends on the view y location.
+        // Map each column and each row using the same math as contains().
+        int w = x2 - x1;
+        int h = y2 - y1;
+        int naturalWidth = getNaturalWidth();
+        int naturalHeight = getNaturalHeight();
+        int fy1 = CoreMath.toFixed(y1);
+        int fx1 = CoreMath.toFixed(x1);
+        int[] columns = new int[w];
+        int[] rows = new int[h];
+        int firstColumn = 0;
+        boolean consecutive = true;
+        for (int i = 0; i < w; i++) {
+            int localX = t.inverseTransformX(CoreMath.toFixed(x1 + i), fy1);
+            if (localX == Integer.MAX_VALUE) {
+                return CollisionRows.EMPTY;
+            }
+            int column = CoreMath.toIntFloor(localX);
+            if (i == 0) {
+                firstColumn = column;
+            }
+            else if (column != firstColumn + i) {
+                consecutive = false;
+            }
+            columns[i] = (localX >= 0 && localX < naturalWidth) ? column : -1;
+        }
+        for (int i = 0; i < h; i++) {
+            int localY = t.inverseTransformY(fx1, CoreMath.toFixed(y1 + i));
+            if (localY == Integer.MAX_VALUE) {
+                return CollisionRows.EMPTY;
+            }
+            rows[i] = (localY >= 0 && localY < naturalHeight) ? CoreMath.toIntFloor(localY) : -1;
+        }
+        return new CollisionRows(image, columns, rows, consecutive ? firstColumn : CollisionRows.NOT_CONSECUTIVE);
+    }
+    
+    /**
+        Row-wise view of a Sprite's collision mask over a view-space region, used for 
+        pixel-level collision detection of non-rotated Sprites.
+    */
+    private static class CollisionRows {
+        
+        static final int NOT_CONSECUTIVE = Integer.MIN_VALUE;
+        
+        static final CollisionRows EMPTY = new CollisionRows(null, new int[0], new int[0],
+            NOT_CONSECUTIVE);
+        
+        /** The collision mask image, or null if every pixel within the bounds is solid. */
+        private final CoreImage image;
+        /** The image x location of each view column, or -1 if out of bounds. */
+        private final int[] columns;
+        /** The image y location of each view row, or -1 if out of bounds. */
+        private final int[] rows;
+        /** 
+            If the columns map 1:1 to image pixels, the image x location of the first column 
+            (which may be out of bounds), so that rows can be copied word-wide. 
+            Otherwise, NOT_CONSECUTIVE. 
+        */
+        private final int firstColumn;
+        private final long[] bounds;
+        
+        CollisionRows(CoreImage image, int[] columns, int[] rows, int firstColumn) {
+            this.image = image;
+            this.columns = columns;
+            this.rows = rows;
+            this.firstColumn = firstColumn;
+            this.bounds = new long[(columns.length + 63) >> 6];
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] >= 0) {
+                    bounds[i >> 6] |= 1L << (i & 63);
+                }
+            }
+        }
+        
+        boolean intersects(CollisionRows other) {
+            if (columns.length == 0 || other.columns.length == 0) {
+                return false;
+            }
+            long[] aBits = new long[bounds.length];
+            long[] bBits = new long[bounds.length];
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] >= 0 && other.rows[i] >= 0) {
+                    getRow(i, aBits);
+                    other.getRow(i, bBits);
+                    for (int j = 0; j < aBits.length; j++) {
+                        if ((aBits[j] & bBits[j]) != 0) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+        
+        private void getRow(int row, long[] dest) {
+            if (image == null) {
+                System.arraycopy(bounds, 0, dest, 0, bounds.length);
+            }
+            else if (firstColumn != NOT_CONSECUTIVE) {
+                // Out-of-bounds pixels are transparent in the image's mask
+                image.getCollisionMask(firstColumn, rows[row], columns.length, dest);
+            }
+            else {
+                long[] mask = image.getCollisionMask();
+                int offset = rows[row] * ((image.getWidth() + 63) >> 6);
+                for (int i = 0; i < dest.length; i++) {
+                    dest[i] = 0;
+                }
+                for (int i = 0; i < columns.length; i++) {
+                    int x = columns[i];
+                    if (x >= 0 && (mask[offset + (x >> 6)] & (1L << (x & 63))) != 0) {
+                        dest[i >> 6] |= 1L << (i & 63);
+                    }
+                }
+            }
+        }
+    }
             
     /**
         Checks if this Sprite (and its parents) are enabled, and
@@ -0,0 +1,544 @@
+/*
+    Copyright (c) 2007-2010, Interactive Pulp, LLC
+    All rights reserved.
+    
+    Redistribution and use in source and binary forms, with or without 
+    modification, are permitted provided that the following conditions are met:
+
+        * Redistributions of source code must retain the above copyright 
+          notice, this list of conditions and the following disclaimer.
+        * Redistributions in binary form must reproduce the above copyright 
+          notice, this list of conditions and the following disclaimer in the 
+          documentation and/or other materials provided with the distribution.
+        * Neither the name of Interactive Pulp, LLC nor the names of its 
+          contributors may be used to endorse or promote products derived from 
+          this software without specific prior written permission.
+    
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE 
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package pulpcore.sprite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import pulpcore.CoreSystem;
+import pulpcore.animation.Int;
+import pulpcore.animation.Property;
+import pulpcore.image.AnimatedImage;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.CoreImage;
+import pulpcore.math.CoreMath;
+import pulpcore.math.Rect;
+import pulpcore.math.Transform;
+import pulpcore.platform.AppContext;
+
+/**
+    A scrollable map of tiles. Tile ids are stored in a compact array, and static tiles are
+    pre-rendered into chunks (by default, about 256x256 pixels each). Drawing the map draws a
+    few chunk images instead of every visible tile. When the map scrolls, only the chunks
+    that become visible are rendered; chunks that are no longer visible are kept for a while
+    and eventually released to the app's {@link pulpcore.platform.ImageCache}.
+    <p>
+    Tiles whose image is an {@link AnimatedImage} are not pre-rendered. They are drawn every
+    frame, after the static tiles.
+    <p>
+    Tile images may be larger than a tile (for example, for tiles that overlap the tiles
+    below them). Images are drawn at the top-left corner of their tile, in row-major order.
+    <p>
+    The view position is stored as an integer, and only visible chunks are drawn, so maps
+    larger than 32768 pixels are supported.
+*/
+public class TileMapSprite extends Sprite {
+
+    /** Tile id for empty tiles. */
+    public static final int EMPTY = -1;
+
+    private static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /** The x location of the map's top-left corner, relative to this Sprite. */
+    public final Int viewX = new Int(this);
+
+    /** The y location of the map's top-left corner, relative to this Sprite. */
+    public final Int viewY = new Int(this);
+
+    private final CoreImage[] tileImages;
+    private final boolean[] isStaticTile;
+    // ArrayList<AnimatedImage>
+    private final ArrayList animatedImages = new ArrayList();
+    private final short[] tiles;
+    private final int numTilesAcross;
+    private final int numTilesDown;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int overflowTilesAcross;
+    private final int overflowTilesDown;
+    // How far the largest tile image extends past its cell
+    private final int overflowWidth;
+    private final int overflowHeight;
+    private int numAnimatedTiles;
+
+    // Chunks
+    private int chunkTilesAcross;
+    private int chunkTilesDown;
+    private int numChunksAcross;
+    private int numChunksDown;
+    private int maxCachedChunks = 0;
+    // HashMap<Integer, Chunk>
+    private final HashMap chunks = new HashMap();
+    private int frame;
+
+    /**
+        Creates a TileMapSprite with all tiles empty.
+        @param tileImages The image for each tile id.
+    */
+    public TileMapSprite(CoreImage[] tileImages, int numTilesAcross, int numTilesDown,
+        int tileWidth, int tileHeight, int x, int y, int w, int h)
+    {
+        super(x, y, w, h);
+        if (tileImages.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many tile images");
+        }
+        if (numTilesAcross <= 0 || numTilesDown <= 0 || tileWidth <= 0 || tileHeight <= 0) {
+            throw new IllegalArgumentException("Invalid map size");
+        }
+        this.tileImages = (CoreImage[])tileImages.clone();
+        this.numTilesAcross = numTilesAcross;
+        this.numTilesDown = numTilesDown;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tiles = new short[numTilesAcross * numTilesDown];
+        Arrays.fill(tiles, (short)EMPTY);
+
+        isStaticTile = new boolean[tileImages.length];
+        int maxImageWidth = tileWidth;
+        int maxImageHeight = tileHeight;
+        for (int i = 0; i < tileImages.length; i++) {
+            CoreImage image = tileImages[i];
+            isStaticTile[i] = !(image instanceof AnimatedImage);
+            if (image instanceof AnimatedImage && !animatedImages.contains(image)) {
+                animatedImages.add(image);
+            }
+            if (image != null) {
+                maxImageWidth = Math.max(maxImageWidth, image.getWidth());
+                maxImageHeight = Math.max(maxImageHeight, image.getHeight());
+            }
+        }
+        overflowTilesAcross = (maxImageWidth - 1) / tileWidth;
+        overflowTilesDown = (maxImageHeight - 1) / tileHeight;
+        overflowWidth = maxImageWidth - tileWidth;
+        overflowHeight = maxImageHeight - tileHeight;
+
+        setChunkSize(Math.max(1, DEFAULT_CHUNK_SIZE / tileWidth),
+            Math.max(1, DEFAULT_CHUNK_SIZE / tileHeight));
+    }
+
+    public int getNumTilesAcross() {
+        return numTilesAcross;
+    }
+
+    public int getNumTilesDown() {
+        return numTilesDown;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getMapWidth() {
+        return tileWidth * numTilesAcross;
+    }
+
+    public int getMapHeight() {
+        return tileHeight * numTilesDown;
+    }
+
+    //
+    // Tiles
+    //
+
+    /**
+        Gets the tile id at the specified tile location.
+        @return the tile id, or {@link #EMPTY}.
+    */
+    public int getTile(int column, int row) {
+        checkTileLocation(column, row);
+        return tiles[column + row * numTilesAcross];
+    }
+
+    /**
+        Sets the tile id at the specified tile location.
+        @param tile The tile id (an index into the tile images), or {@link #EMPTY}.
+    */
+    public void setTile(int column, int row, int tile) {
+        checkTileLocation(column, row);
+        if (tile < EMPTY || tile >= tileImages.length) {
+            throw new IllegalArgumentException("Invalid tile: " + tile);
+        }
+        int index = column + row * numTilesAcross;
+        int oldTile = tiles[index];
+        if (oldTile != tile) {
+            if (oldTile != EMPTY && !isStaticTile[oldTile]) {
+                numAnimatedTiles--;
+            }
+            if (tile != EMPTY && !isStaticTile[tile]) {
+                numAnimatedTiles++;
+            }
+            tiles[index] = (short)tile;
+            invalidateChunks(column, row, column + overflowTilesAcross,
+                row + overflowTilesDown);
+            setDirty(true);
+        }
+    }
+
+    /**
+        Sets all tiles, in row-major order.
+    */
+    public void setTiles(int[] tiles) {
+        if (tiles.length != this.tiles.length) {
+            throw new IllegalArgumentException("Expected " + this.tiles.length + " tiles");
+        }
+        for (int row = 0; row < numTilesDown; row++) {
+            for (int column = 0; column < numTilesAcross; column++) {
+                setTile(column, row, tiles[column + row * numTilesAcross]);
+            }
+        }
+    }
+
+    /**
+        Gets the tile column at the specified x location, relative to this Sprite.
+        The returned value may be outside of the map.
+    */
+    public int getTileColumn(int x) {
+        return floorDiv(x - viewX.get(), tileWidth);
+    }
+
+    /**
+        Gets the tile row at the specified y location, relative to this Sprite.
+        The returned value may be outside of the map.
+    */
+    public int getTileRow(int y) {
+        return floorDiv(y - viewY.get(), tileHeight);
+    }
+
+    private void checkTileLocation(int column, int row) {
+        if (column < 0 || row < 0 || column >= numTilesAcross || row >= numTilesDown) {
+            throw new IndexOutOfBoundsException("Invalid tile location: " + column + "," + row);
+        }
+    }
+
+    //
+    // Chunks
+    //
+
+    /**
+        Sets the size of the pre-rendered chunks, in tiles. Larger chunks mean fewer
+        images are drawn each frame, but more pixels are rendered when a chunk becomes
+        visible or a tile changes.
+    */
+    public void setChunkSize(int tilesAcross, int tilesDown) {
+        if (tilesAcross <= 0 || tilesDown <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size");
+        }
+        if (tilesAcross != chunkTilesAcross || tilesDown != chunkTilesDown) {
+            clearChunks();
+            chunkTilesAcross = tilesAcross;
+            chunkTilesDown = tilesDown;
+            numChunksAcross = (numTilesAcross + tilesAcross - 1) / tilesAcross;
+            numChunksDown = (numTilesDown + tilesDown - 1) / tilesDown;
+            setDirty(true);
+        }
+    }
+
+    /**
+        Sets the maximum number of pre-rendered chunks to keep. If 0 (the default), the
+        maximum is the number of chunks needed to fill this Sprite, plus a one-chunk border.
+    */
+    public void setMaxCachedChunks(int maxCachedChunks) {
+        this.maxCachedChunks = Math.max(0, maxCachedChunks);
+    }
+
+    /**
+        Returns the number of pre-rendered chunks currently kept.
+    */
+    public int getNumCachedChunks() {
+        return chunks.size();
+    }
+
+    /**
+        Marks all pre-rendered chunks as invalid. Call this method if the contents of a
+        tile image change.
+    */
+    public void invalidate() {
+        invalidateChunks(0, 0, numTilesAcross - 1, numTilesDown - 1);
+        setDirty(true);
+    }
+
+    /**
+        Releases all pre-rendered chunks to the app's image cache.
+    */
+    public void clearChunks() {
+        Iterator i = chunks.values().iterator();
+        while (i.hasNext()) {
+            releaseImage(((Chunk)i.next()).image);
+        }
+        chunks.clear();
+    }
+
+    private void invalidateChunks(int column1, int row1, int column2, int row2) {
+        if (chunks.size() == 0) {
+            return;
+        }
+        int cx1 = column1 / chunkTilesAcross;
+        int cy1 = row1 / chunkTilesDown;
+        int cx2 = Math.min(numChunksAcross - 1, column2 / chunkTilesAcross);
+        int cy2 = Math.min(numChunksDown - 1, row2 / chunkTilesDown);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                Chunk chunk = (Chunk)chunks.get(new Integer(cx + cy * numChunksAcross));
+                if (chunk != null) {
+                    chunk.valid = false;
+                }
+            }
+        }
+    }
+
+    private int getMaxCachedChunks() {
+        if (maxCachedChunks > 0) {
+            return maxCachedChunks;
+        }
+        int chunkWidth = chunkTilesAcross * tileWidth;
+        int chunkHeight = chunkTilesDown * tileHeight;
+        int w = CoreMath.toIntCeil(width.getAsFixed());
+        int h = CoreMath.toIntCeil(height.getAsFixed());
+        return ((w + chunkWidth - 1) / chunkWidth + 2) * ((h + chunkHeight - 1) / chunkHeight + 2);
+    }
+
+    private Chunk getChunk(int cx, int cy) {
+        Integer key = new Integer(cx + cy * numChunksAcross);
+        Chunk chunk = (Chunk)chunks.get(key);
+        if (chunk == null) {
+            chunk = new Chunk();
+            chunks.put(key, chunk);
+        }
+        if (!chunk.valid) {
+            renderChunk(chunk, cx, cy);
+        }
+        chunk.lastUsedFrame = frame;
+        return chunk;
+    }
+
+    private void renderChunk(Chunk chunk, int cx, int cy) {
+        int column1 = cx * chunkTilesAcross;
+        int row1 = cy * chunkTilesDown;
+        int column2 = Math.min(numTilesAcross, column1 + chunkTilesAcross);
+        int row2 = Math.min(numTilesDown, row1 + chunkTilesDown);
+        // Chunks on the last column and row of the map also hold the parts of tile images that
+        // extend past the map
+        int extraWidth = (column2 == numTilesAcross) ? overflowWidth : 0;
+        int extraHeight = (row2 == numTilesDown) ? overflowHeight : 0;
+        int w = (column2 - column1) * tileWidth + extraWidth;
+        int h = (row2 - row1) * tileHeight + extraHeight;
+
+        // The chunk is opaque if every tile is covered by an opaque, static image, and the
+        // chunk has no area past the map
+        boolean opaque = (extraWidth == 0 && extraHeight == 0);
+        for (int row = row1; row < row2 && opaque; row++) {
+            for (int column = column1; column < column2; column++) {
+                int tile = tiles[column + row * numTilesAcross];
+                CoreImage image = (tile == EMPTY) ? null : tileImages[tile];
+                if (image == null || !isStaticTile[tile] || !image.isOpaque() ||
+                    image.getWidth() < tileWidth || image.getHeight() < tileHeight)
+                {
+                    opaque = false;
+                    break;
+                }
+            }
+        }
+
+        CoreImage image = chunk.image;
+        if (image == null || image.getWidth() != w || image.getHeight() != h ||
+            image.isOpaque() != opaque)
+        {
+            releaseImage(image);
+            image = getImage(w, h, opaque);
+        }
+        if (!opaque) {
+            Arrays.fill(image.getData(), 0);
+        }
+
+        // Include tiles to the left and above whose images overlap this chunk
+        CoreGraphics g = image.createGraphics();
+        int startColumn = Math.max(0, column1 - overflowTilesAcross);
+        int startRow = Math.max(0, row1 - overflowTilesDown);
+        for (int row = startRow; row < row2; row++) {
+            int y = (row - row1) * tileHeight;
+            for (int column = startColumn; column < column2; column++) {
+                int tile = tiles[column + row * numTilesAcross];
+                if (tile != EMPTY && isStaticTile[tile]) {
+                    g.drawImage(tileImages[tile], (column - column1) * tileWidth, y);
+                }
+            }
+        }
+
+        chunk.image = image;
+        chunk.valid = true;
+    }
+
+    private void removeUnusedChunks() {
+        int max = getMaxCachedChunks();
+        while (chunks.size() > max) {
+            // Find the least-recently used chunk
+            Object oldestKey = null;
+            Chunk oldest = null;
+            Iterator i = chunks.keySet().iterator();
+            while (i.hasNext()) {
+                Object key = i.next();
+                Chunk chunk = (Chunk)chunks.get(key);
+                if (oldest == null || chunk.lastUsedFrame < oldest.lastUsedFrame) {
+                    oldestKey = key;
+                    oldest = chunk;
+                }
+            }
+            if (oldest.lastUsedFrame == frame) {
+                // All chunks are visible
+                break;
+            }
+            chunks.remove(oldestKey);
+            releaseImage(oldest.image);
+        }
+    }
+
+    private static CoreImage getImage(int width, int height, boolean opaque) {
+        AppContext appContext = CoreSystem.getThisAppContext();
+        if (appContext != null) {
+            return appContext.getImageCache().get(width, height, opaque);
+        }
+        else {
+            return new CoreImage(width, height, opaque);
+        }
+    }
+
+    private static void releaseImage(CoreImage image) {
+        if (image != null) {
+            AppContext appContext = CoreSystem.getThisAppContext();
+            if (appContext != null) {
+                appContext.getImageCache().put(image);
+            }
+        }
+    }
+
+    private static int floorDiv(int n, int d) {
+        return (n >= 0) ? n / d : -((-n + d - 1) / d);
+    }
+
+    //
+    // Sprite
+    //
+
+    public void propertyChange(Property p) {
+        super.propertyChange(p);
+        if (p == viewX || p == viewY) {
+            setDirty(true);
+        }
+    }
+
+    public void update(int elapsedTime) {
+        super.update(elapsedTime);
+        viewX.update(elapsedTime);
+        viewY.update(elapsedTime);
+        frame++;
+
+        boolean animatedTileChanged = false;
+        for (int i = 0; i < animatedImages.size(); i++) {
+            CoreImage image = (CoreImage)animatedImages.get(i);
+            if (image.update(elapsedTime)) {
+                animatedTileChanged = true;
+            }
+        }
+        if (animatedTileChanged && numAnimatedTiles > 0) {
+            setDirty(true);
+        }
+    }
+
+    protected void drawSprite(CoreGraphics g) {
+        int w = CoreMath.toIntCeil(width.getAsFixed());
+        int h = CoreMath.toIntCeil(height.getAsFixed());
+        int vx = viewX.get();
+        int vy = viewY.get();
+        int chunkWidth = chunkTilesAcross * tileWidth;
+        int chunkHeight = chunkTilesDown * tileHeight;
+
+        // Visible chunks
+        int cx1 = Math.max(0, floorDiv(-vx, chunkWidth));
+        int cy1 = Math.max(0, floorDiv(-vy, chunkHeight));
+        // The last chunks extend past the map by the overflow of their tile images
+        if (-vx < getMapWidth() + overflowWidth) {
+            cx1 = Math.min(cx1, numChunksAcross - 1);
+        }
+        if (-vy < getMapHeight() + overflowHeight) {
+            cy1 = Math.min(cy1, numChunksDown - 1);
+        }
+        int cx2 = Math.min(numChunksAcross - 1, floorDiv(w - 1 - vx, chunkWidth));
+        int cy2 = Math.min(numChunksDown - 1, floorDiv(h - 1 - vy, chunkHeight));
+        if (cx1 > cx2 || cy1 > cy2) {
+            return;
+        }
+
+        // Clip to the bounds, since chunks may extend past them
+        Transform t = g.getTransform();
+        Rect oldClip = g.getClip();
+        Rect newClip = new Rect();
+        t.getBounds(width.getAsFixed(), height.getAsFixed(), newClip);
+        g.clipRect(newClip);
+
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                Chunk chunk = getChunk(cx, cy);
+                g.drawImage(chunk.image, vx + cx * chunkWidth, vy + cy * chunkHeight);
+            }
+        }
+
+        if (numAnimatedTiles > 0) {
+            int column1 = Math.max(0, floorDiv(-vx, tileWidth) - overflowTilesAcross);
+            int row1 = Math.max(0, floorDiv(-vy, tileHeight) - overflowTilesDown);
+            int column2 = Math.min(numTilesAcross - 1, floorDiv(w - 1 - vx, tileWidth));
+            int row2 = Math.min(numTilesDown - 1, floorDiv(h - 1 - vy, tileHeight));
+            for (int row = row1; row <= row2; row++) {
+                for (int column = column1; column <= column2; column++) {
+                    int tile = tiles[column + row * numTilesAcross];
+                    if (tile != EMPTY && !isStaticTile[tile]) {
+                        g.drawImage(tileImages[tile], vx + column * tileWidth,
+                            vy + row * tileHeight);
+                    }
+                }
+            }
+        }
+
+        g.setClip(oldClip);
+
+        removeUnusedChunks();
+    }
+
+    private static class Chunk {
+        CoreImage image;
+        boolean valid;
+        int lastUsedFrame;
+    }
+}
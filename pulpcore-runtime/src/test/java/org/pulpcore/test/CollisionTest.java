@@ -0,0 +1,264 @@
+package org.pulpcore.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import pulpcore.image.Colors;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.CoreImage;
+import pulpcore.math.Rect;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.CollisionListener;
+import pulpcore.sprite.CollisionWorld;
+import pulpcore.sprite.Group;
+import pulpcore.sprite.ImageSprite;
+import pulpcore.sprite.Sprite;
+import pulpcore.sprite.StretchableSprite;
+import static org.junit.Assert.*;
+
+/**
+    Tests that pixel-level collisions using collision masks give the same results as
+    testing each pixel with Sprite.contains().
+*/
+public class CollisionTest {
+
+    public static final int NUM_TESTS = 2000;
+
+    private final Random random = new Random(1234);
+
+    public CollisionTest() {
+        // Sprite transforms need a Stage
+        new HeadlessApp(new Scene2D());
+    }
+
+    @Test public void collisionMaskRow() {
+        for (int i = 0; i < NUM_TESTS; i++) {
+            CoreImage image = createRandomImage(1 + random.nextInt(150), 1 + random.nextInt(4));
+            int x = random.nextInt(400) - 200;
+            int y = random.nextInt(image.getHeight());
+            int length = 1 + random.nextInt(200);
+            long[] bits = new long[(length + 63) / 64];
+            image.getCollisionMask(x, y, length, bits);
+            for (int j = 0; j < length; j++) {
+                boolean expected = !image.isTransparent(x + j, y);
+                boolean actual = (bits[j >> 6] & (1L << (j & 63))) != 0;
+                assertEquals("Wrong mask bit at " + (x + j) + "," + y, expected, actual);
+            }
+        }
+    }
+
+    @Test public void unscaledCollisions() {
+        for (int i = 0; i < NUM_TESTS; i++) {
+            ImageSprite a = createRandomSprite(false);
+            ImageSprite b = createRandomSprite(false);
+            a.setPixelLevelChecks(true);
+            assertEquals("Wrong unscaled collision", bruteForceIntersects(a, b), a.intersects(b));
+        }
+    }
+
+    @Test public void scaledCollisions() {
+        for (int i = 0; i < NUM_TESTS; i++) {
+            ImageSprite a = createRandomSprite(true);
+            ImageSprite b = createRandomSprite(random.nextBoolean());
+            a.setPixelLevelChecks(true);
+            assertEquals("Wrong scaled collision", bruteForceIntersects(a, b), a.intersects(b));
+        }
+    }
+
+    @Test public void modifiedImage() {
+        // Destructible terrain: starts empty, then is drawn on
+        CoreImage terrain = new CoreImage(32, 32, false);
+        ImageSprite a = new ImageSprite(terrain, 0, 0);
+        a.setPixelLevelChecks(true);
+        CoreImage solid = new CoreImage(4, 4, true);
+        ImageSprite b = new ImageSprite(solid, 10, 10);
+        assertFalse(a.intersects(b));
+
+        CoreGraphics g = terrain.createGraphics();
+        g.setColor(Colors.WHITE);
+        g.fillRect(8, 8, 8, 8);
+        assertTrue("Stale mask after drawing", a.intersects(b));
+        
+        // Images that share the raster see the new mask too
+        ImageSprite c = new ImageSprite(new CoreImage(terrain), 0, 0);
+        c.setPixelLevelChecks(true);
+        assertTrue(c.intersects(b));
+
+        // Cleared by writing to the raster directly
+        int[] data = terrain.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 0;
+        }
+        terrain.setModified();
+        assertFalse("Stale mask after setModified()", a.intersects(b));
+        assertFalse(c.intersects(b));
+    }
+
+    @Test public void sharedRasterCollisionMasks() {
+        // Images on one raster, with different sizes and opacity
+        CoreImage image = createRandomImage(20, 6);
+        int[] data = image.getData();
+        CoreImage[] images = {
+            image,
+            new CoreImage(10, 12, false, data),
+            new CoreImage(20, 6, true, data),
+            new CoreImage(12, 10, false, data),
+        };
+        for (int n = 0; n < 2; n++) {
+            for (int i = 0; i < images.length; i++) {
+                assertMaskMatchesImage(images[i]);
+            }
+        }
+
+        // Images on one raster that don't share a modification count
+        CoreImage other = new CoreImage(20, 6, false, data);
+        image.setModified();
+        assertMaskMatchesImage(image);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (data[i] == 0) ? 0xff000000 : 0;
+        }
+        other.setModified();
+        assertEquals(image.getModCount(), other.getModCount());
+        assertMaskMatchesImage(other);
+    }
+
+    @Test public void stretchableSprite() {
+        // Drawn stretched, so the image's own mask doesn't apply
+        CoreImage image = new CoreImage(12, 12, true);
+        StretchableSprite a = new StretchableSprite(image, 2, 2, 0, 0, 60, 60);
+        a.setPixelLevelChecks(true);
+        ImageSprite b = new ImageSprite(new CoreImage(4, 4, true), 40, 40);
+        assertTrue(a.contains(42, 42));
+        assertTrue("Collision in the stretched area missed", a.intersects(b));
+    }
+
+    @Test public void collisionWorld() {
+        Group group = new Group();
+        for (int i = 0; i < 200; i++) {
+            ImageSprite sprite = createRandomSprite(random.nextBoolean());
+            sprite.x.set(random.nextInt(600) - 100);
+            sprite.y.set(random.nextInt(400) - 100);
+            group.add(sprite);
+        }
+        CollisionWorld world = new CollisionWorld(32);
+        world.add(group);
+        for (int frame = 0; frame < 3; frame++) {
+            final int[] count = new int[1];
+            world.findCollisions(new CollisionListener() {
+                public void collision(Sprite a, Sprite b) {
+                    assertTrue("Reported pair does not intersect", a != b && a.intersects(b));
+                    count[0]++;
+                }
+            });
+            int expected = 0;
+            for (int i = 0; i < group.size(); i++) {
+                for (int j = i + 1; j < group.size(); j++) {
+                    if (group.get(i).intersects(group.get(j))) {
+                        expected++;
+                    }
+                }
+            }
+            assertEquals("Wrong number of collisions", expected, count[0]);
+
+            // Move some sprites, and remove one
+            for (int i = 0; i < group.size(); i += 3) {
+                group.get(i).translate(random.nextInt(100) - 50, random.nextInt(100) - 50);
+            }
+            group.remove(group.get(0));
+        }
+    }
+
+    @Test public void collisionWorldLayers() {
+        CollisionWorld world = new CollisionWorld(32);
+        final List sprites = new ArrayList(); // List<Sprite>
+        for (int i = 0; i < 60; i++) {
+            ImageSprite sprite = createRandomSprite(false);
+            sprite.x.set(random.nextInt(200));
+            sprite.y.set(random.nextInt(100));
+            sprites.add(sprite);
+            // Layers and masks that are often one-sided
+            world.add(sprite, 1 << random.nextInt(3), random.nextInt(8));
+        }
+
+        // Each pair is counted for both of its Sprites
+        final int[] pairCounts = new int[sprites.size()];
+        world.findCollisions(new CollisionListener() {
+            public void collision(Sprite a, Sprite b) {
+                pairCounts[sprites.indexOf(a)]++;
+                pairCounts[sprites.indexOf(b)]++;
+            }
+        });
+        int total = 0;
+        for (int i = 0; i < sprites.size(); i++) {
+            assertEquals("Wrong number of collisions", pairCounts[i],
+                world.findCollisions((Sprite)sprites.get(i), null));
+            total += pairCounts[i];
+        }
+        assertTrue("Too few collisions", total > 0);
+    }
+
+    private void assertMaskMatchesImage(CoreImage image) {
+        long[] mask = image.getCollisionMask();
+        int stride = (image.getWidth() + 63) / 64;
+        assertEquals(stride * image.getHeight(), mask.length);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                boolean expected = !image.isTransparent(x, y);
+                boolean actual = (mask[y * stride + (x >> 6)] & (1L << (x & 63))) != 0;
+                assertEquals("Wrong mask bit at " + x + "," + y, expected, actual);
+            }
+        }
+    }
+
+    private CoreImage createRandomImage(int width, int height) {
+        CoreImage image = new CoreImage(width, height, false);
+        int[] data = image.getData();
+        // Sparse pixels, so that bounding-box overlaps are not always collisions
+        for (int j = 0; j < data.length; j++) {
+            if (random.nextInt(16) == 0) {
+                data[j] = 0xff000000;
+            }
+        }
+        return image;
+    }
+
+    private ImageSprite createRandomSprite(boolean scaled) {
+        CoreImage image = createRandomImage(1 + random.nextInt(100), 1 + random.nextInt(40));
+        ImageSprite sprite = new ImageSprite(image, random.nextInt(80), random.nextInt(40));
+        if (scaled) {
+            sprite.setSize(image.getWidth() * (0.25 + random.nextDouble() * 2),
+                image.getHeight() * (0.25 + random.nextDouble() * 2));
+            sprite.x.set(sprite.x.get() + random.nextDouble());
+        }
+        sprite.setPixelLevelChecks(random.nextInt(4) != 0);
+        return sprite;
+    }
+
+    private boolean bruteForceIntersects(ImageSprite a, ImageSprite b) {
+        Rect ab = getViewBounds(a);
+        Rect bb = getViewBounds(b);
+        if (!ab.intersects(bb)) {
+            return false;
+        }
+        ab.intersection(bb);
+        for (int y = ab.y; y < ab.y + ab.height; y++) {
+            for (int x = ab.x; x < ab.x + ab.width; x++) {
+                if (a.contains(x, y) && b.contains(x, y)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Rect getViewBounds(ImageSprite sprite) {
+        int w = sprite.getImage().getWidth();
+        int h = sprite.getImage().getHeight();
+        int x1 = (int)Math.floor(sprite.getViewX(0, 0)) - 1;
+        int y1 = (int)Math.floor(sprite.getViewY(0, 0)) - 1;
+        int x2 = (int)Math.ceil(sprite.getViewX(w, h)) + 1;
+        int y2 = (int)Math.ceil(sprite.getViewY(w, h)) + 1;
+        return new Rect(x1, y1, x2 - x1, y2 - y1);
+    }
+}
@@ -0,0 +1,134 @@
+package org.pulpcore.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import org.junit.Test;
+import pulpcore.platform.EventQueue;
+import static org.junit.Assert.*;
+
+public class EventQueueTest {
+
+    private static class Counter implements Runnable {
+        final List order; // List<Integer>
+        final int id;
+
+        Counter(List order, int id) {
+            this.order = order;
+            this.id = id;
+        }
+
+        public void run() {
+            order.add(new Integer(id));
+        }
+    }
+
+    @Test public void countBudget() {
+        EventQueue queue = new EventQueue();
+        List order = new ArrayList(); // List<Integer>
+        for (int i = 0; i < 10; i++) {
+            queue.post(new Counter(order, i));
+        }
+        assertEquals(10, queue.getSize());
+
+        queue.setMaxEventsPerFrame(4);
+        assertEquals(4, queue.run());
+        assertEquals(6, queue.getSize());
+        assertEquals(4, queue.run());
+        assertEquals(2, queue.run());
+        assertEquals(0, queue.run());
+        assertEquals(0, queue.getSize());
+        assertEquals(10, queue.getNumEventsRun());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, ((Integer)order.get(i)).intValue());
+        }
+    }
+
+    @Test public void timeBudget() {
+        EventQueue queue = new EventQueue();
+        for (int i = 0; i < 3; i++) {
+            queue.post(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(2);
+                    }
+                    catch (InterruptedException ex) { }
+                }
+            });
+        }
+        queue.setMaxNanosPerFrame(1000000);
+        assertEquals(1, queue.run());
+        assertEquals(1, queue.run());
+        assertEquals(1, queue.run());
+        assertEquals(0, queue.run());
+        assertTrue(queue.getLastMaxWaitNanos() == 0);
+        assertTrue(queue.getTotalWaitNanos() >= 2000000);
+    }
+
+    @Test public void eventsPostedWhileRunningWait() {
+        final EventQueue queue = new EventQueue();
+        final List order = new ArrayList(); // List<Integer>
+        queue.post(new Runnable() {
+            public void run() {
+                queue.post(new Counter(order, 1));
+            }
+        });
+        assertEquals(1, queue.run());
+        assertEquals(0, order.size());
+        assertEquals(1, queue.run());
+        assertEquals(1, order.size());
+    }
+
+    @Test public void clearCancelsWaiters() {
+        EventQueue queue = new EventQueue();
+        FutureTask future = new FutureTask(new Counter(new ArrayList(), 0), null);
+        queue.post(future);
+        queue.clear();
+        assertTrue(future.isCancelled());
+        assertEquals(0, queue.getSize());
+        assertEquals(0, queue.run());
+    }
+
+    @Test public void multipleProducers() throws InterruptedException {
+        final int numThreads = 4;
+        final int numEvents = 20000;
+        final EventQueue queue = new EventQueue();
+        final int[] lastSeen = new int[numThreads];
+        final int[] outOfOrder = new int[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int producer = i;
+            lastSeen[i] = -1;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < numEvents; j++) {
+                        final int n = j;
+                        queue.post(new Runnable() {
+                            public void run() {
+                                if (lastSeen[producer] != n - 1) {
+                                    outOfOrder[0]++;
+                                }
+                                lastSeen[producer] = n;
+                            }
+                        });
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        queue.setMaxEventsPerFrame(1000);
+        long total = (long)numThreads * numEvents;
+        while (queue.getNumEventsRun() < total) {
+            queue.run();
+            Thread.yield();
+        }
+        for (int i = 0; i < numThreads; i++) {
+            threads[i].join();
+            assertEquals(numEvents - 1, lastSeen[i]);
+        }
+        assertEquals(0, outOfOrder[0]);
+        assertEquals(0, queue.getSize());
+    }
+}
@@ -0,0 +1,586 @@
+package org.pulpcore.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import pulpcore.image.Colors;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.CoreImage;
+import pulpcore.image.filter.Blur;
+import pulpcore.image.filter.ColorOverlay;
+import pulpcore.image.filter.DropShadow;
+import pulpcore.image.filter.Filter;
+import pulpcore.image.filter.FilterChain;
+import pulpcore.image.filter.FilterGraph;
+import pulpcore.image.filter.FilterStats;
+import pulpcore.image.filter.Glow;
+import pulpcore.image.filter.Grayscale;
+import pulpcore.image.filter.HSBAdjust;
+import pulpcore.image.filter.MotionBlur;
+import pulpcore.image.filter.Negative;
+import pulpcore.image.filter.Sepia;
+import pulpcore.image.filter.Stroke;
+import pulpcore.image.filter.Superimpose;
+import pulpcore.image.filter.Thermal;
+import pulpcore.platform.WorkerPool;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.FilledSprite;
+import pulpcore.sprite.Group;
+import static org.junit.Assert.*;
+
+/**
+    Tests that optimized filter paths give the same results as the straightforward ones.
+*/
+public class FilterTest {
+
+    private final Random random = new Random(97531);
+
+    public FilterTest() {
+        // Filters use the AppContext's image cache
+        new HeadlessApp(new Scene2D());
+    }
+
+    @Test public void fusedFilterChain() {
+        for (int n = 0; n < 20; n++) {
+            CoreImage input = createRandomImage(1 + random.nextInt(60), 1 + random.nextInt(60),
+                random.nextBoolean());
+            Filter[] filters = createRandomFilters(1 + random.nextInt(6));
+
+            // Expected: each filter run separately
+            CoreImage expected = input;
+            for (int i = 0; i < filters.length; i++) {
+                expected = filters[i].copy().filter(expected);
+            }
+
+            // Chained with setInput()/getOutput()
+            FilterChain chain = new FilterChain(filters);
+            chain.setInput(input);
+            assertSameImage(expected, chain.getOutput());
+
+            // Chained with filter(CoreImage)
+            assertSameImage(expected, chain.copy().filter(input));
+
+            // Change a filter, and filter again
+            if (filters[0] instanceof HSBAdjust) {
+                ((HSBAdjust)filters[0]).hue.set(random.nextInt(511) - 255);
+                chain.update(0);
+                filters[0] = filters[0].copy();
+                expected = input;
+                for (int i = 0; i < filters.length; i++) {
+                    expected = filters[i].copy().filter(expected);
+                }
+                assertSameImage(expected, chain.getOutput());
+            }
+        }
+    }
+
+    @Test public void parallelFilters() {
+        CoreImage input = createRandomImage(301, 283, false);
+        Filter[] filters = {
+            new Blur(2.5f), new Blur(4, 1), new Blur(3, 2), new Blur(5, 3),
+            new MotionBlur(0.7f, 6), new Glow(0.8, 3), new DropShadow(4, 5),
+            new Stroke(0x80ff0000, 3), new Stroke(0xff00ff00, 20),
+        };
+        for (int i = 0; i < filters.length; i++) {
+            // Expected: single thread
+            new HeadlessApp(new Scene2D());
+            Filter filter = filters[i].copy();
+            filter.update(0);
+            CoreImage expected = filter.filter(input);
+
+            // Split into bands of rows, even if there is only one processor
+            new HeadlessApp(new Scene2D()) {
+                private WorkerPool workerPool;
+
+                public synchronized WorkerPool getWorkerPool() {
+                    if (workerPool == null) {
+                        workerPool = new WorkerPool(this, 4);
+                    }
+                    return workerPool;
+                }
+            };
+            filter = filters[i].copy();
+            filter.update(0);
+            assertSameImage(expected, filter.filter(input));
+        }
+    }
+
+    @Test public void asyncFilter() throws InterruptedException {
+        CoreImage input = createRandomImage(200, 150, false);
+        Blur blur = new Blur(2);
+        blur.setAsync(true);
+        blur.setMaxStaleness(60000);
+        blur.setInput(input);
+
+        // The first output is filtered immediately
+        assertSameImage(new Blur(2).filter(input), blur.getOutput());
+        assertFalse(blur.isDirty());
+
+        // The previous output is presented while the new one is filtered
+        CoreImage oldOutput = blur.getOutput();
+        int[] oldData = (int[])oldOutput.getData().clone();
+        int oldX = blur.getOutputX();
+        blur.radius.set(6);
+        blur.update(1000);
+        assertTrue(blur.isDirty());
+        CoreImage output = blur.getOutput();
+        assertTrue("Wrong presented output", Arrays.equals(oldData, output.getData()));
+        assertEquals(oldOutput.getWidth(), blur.getOutputWidth());
+        assertEquals(oldX, blur.getOutputX());
+
+        // Completion marks the filter as dirty
+        long endTime = System.currentTimeMillis() + 10000;
+        while (!blur.isDirty() && System.currentTimeMillis() < endTime) {
+            Thread.sleep(1);
+        }
+        assertTrue("Async filter did not complete", blur.isDirty());
+        Blur expectedBlur = new Blur(6);
+        expectedBlur.update(0);
+        CoreImage expected = expectedBlur.filter(input);
+        assertSameImage(expected, blur.getOutput());
+        assertEquals(expected.getWidth(), blur.getOutputWidth());
+        assertEquals(expectedBlur.getX(), blur.getOutputX());
+        assertFalse(blur.isDirty());
+
+        // With no staleness allowed, the output is always up to date
+        blur.setMaxStaleness(0);
+        blur.radius.set(3);
+        blur.update(1000);
+        assertSameImage(new Blur(3).filter(input), blur.getOutput());
+    }
+
+    @Test public void sharedFilterOutput() {
+        CoreImage input = createRandomImage(40, 30, false);
+        Glow a = new Glow(0.5, 3);
+        Glow b = (Glow)a.copy();
+        a.setInput(input);
+        b.setInput(input);
+
+        // Same input and parameters: one output
+        CoreImage output = a.getOutput();
+        assertSame(output, b.getOutput());
+        assertSameImage(new Glow(0.5, 3).filter(input), output);
+
+        // Different parameters
+        Glow c = new Glow(0.9, 3);
+        c.setInput(input);
+        assertTrue("Output shared with different parameters", output != c.getOutput());
+        assertSameImage(new Glow(0.9, 3).filter(input), c.getOutput());
+
+        // Modified input
+        int[] data = input.getData();
+        for (int i = 0; i < data.length; i += 3) {
+            data[i] = 0xff336699;
+        }
+        input.setModified();
+        a.setDirty();
+        assertSameImage(new Glow(0.5, 3).filter(input), a.getOutput());
+        assertSameImage(output, b.getOutput());
+
+        // Filters in a chain
+        FilterChain chain1 = new FilterChain(new Sepia(), new Glow(0.5, 3));
+        FilterChain chain2 = (FilterChain)chain1.copy();
+        chain1.setInput(input);
+        chain2.setInput(input);
+        assertSame(chain1.getOutput(), chain2.getOutput());
+        assertSameImage(new Glow(0.5, 3).filter(new Sepia().filter(input)), chain1.getOutput());
+    }
+
+    @Test public void sharedFilterOutputForLoadedImages() {
+        // Each load() returns a new CoreImage that shares the cached raster
+        CoreImage image1 = CoreImage.load("images/stripe.png");
+        CoreImage image2 = CoreImage.load("images/stripe.png");
+        assertTrue(image1 != image2);
+        assertSame(image1.getData(), image2.getData());
+
+        Glow a = new Glow(0.5, 3);
+        Glow b = (Glow)a.copy();
+        a.setInput(image1);
+        b.setInput(image2);
+        CoreImage output = a.getOutput();
+        assertSame(output, b.getOutput());
+
+        // Modifying the shared raster through either image unshares the output
+        image2.setModified();
+        assertEquals(image1.getModCount(), image2.getModCount());
+        b.setDirty();
+        assertTrue("Output shared after the raster was modified", output != b.getOutput());
+    }
+
+    @Test public void sharedFilterOutputAfterSetDirty() {
+        // The input is redrawn with a retained CoreGraphics, which doesn't change its
+        // modification count. setDirty() alone must filter again.
+        Filter[] filters = { new Blur(3), new Grayscale(), new Negative() };
+        for (int i = 0; i < filters.length; i++) {
+            CoreImage input = createRandomImage(40, 30, false);
+            CoreGraphics g = input.createGraphics();
+            Filter filter = filters[i];
+            filter.setInput(input);
+            assertSameImage(filter.copy().filter(input), filter.getOutput());
+
+            g.setColor(0xff336699);
+            g.fillRect(5, 5, 20, 10);
+            filter.setDirty();
+            assertSameImage(filter.copy().filter(input), filter.getOutput());
+        }
+    }
+
+    @Test public void sharedBlur() {
+        CoreImage input = createRandomImage(40, 30, false);
+        Glow glow = new Glow(0.5, 4);
+        DropShadow shadow = new DropShadow(3, -2, 0x80000000, 4);
+        Blur blur = new Blur(4);
+        glow.setInput(input);
+        shadow.setInput(input);
+        blur.setInput(input);
+
+        // Changing the other parameters reuses the blur
+        for (int frame = 0; frame < 8; frame++) {
+            glow.amount.set(0.25 * frame);
+            shadow.color.set(0x10000000 * frame + 0x336699);
+            shadow.shadowOffsetX.set(frame - 4);
+            glow.update(0);
+            shadow.update(0);
+            assertSameImage(glow.copy().filter(input), glow.getOutput());
+            assertSameImage(shadow.copy().filter(input), shadow.getOutput());
+            assertSameImage(blur.copy().filter(input), blur.getOutput());
+
+            if (frame == 5) {
+                // Modified input
+                int[] data = input.getData();
+                for (int i = frame; i < data.length; i += 7) {
+                    data[i] = 0xff336699;
+                }
+                input.setModified();
+                blur.setDirty();
+            }
+        }
+
+        // Clamped edges aren't shared
+        shadow.setClampEdges(true);
+        shadow.update(1000);
+        assertSameImage(shadow.copy().filter(input), shadow.getOutput());
+    }
+
+    @Test public void filterGraph() {
+        // A chain, filtered in two buffers
+        CoreImage input = createRandomImage(50, 40, false);
+        Filter[] filters = { new Blur(2), new Sepia(), new Stroke(0xff00ff00, 2),
+            new Glow(0.5, 2), new Negative(), new DropShadow(-2, 3), new Blur(1) };
+        FilterGraph chain = new FilterGraph();
+        for (int i = 0; i < filters.length; i++) {
+            chain.add(filters[i].copy());
+        }
+        chain.setInput(input);
+        assertSameImage(new FilterChain(filters).filter(input), chain.getOutput());
+        assertEquals(2, chain.getBufferCount());
+        int largest = 0;
+        for (int i = 1; i < chain.size(); i++) {
+            largest = Math.max(largest, chain.get(i).getWidth() * chain.get(i).getHeight());
+        }
+        assertTrue("Oversized buffers", chain.getPeakMemory() <= largest * 4 * 2);
+
+        // Two branches
+        FilterGraph graph = new FilterGraph();
+        int shadow = graph.add(new DropShadow(3, 3), FilterGraph.INPUT);
+        int glow = graph.add(new Glow(0.5, 2), FilterGraph.INPUT);
+        Glow glowFilter = (Glow)graph.get(glow);
+        graph.add(new Superimpose(null, 5, 2), shadow, glow);
+        graph.setInput(input);
+        for (int frame = 0; frame < 3; frame++) {
+            CoreImage shadowOutput = new DropShadow(3, 3).filter(input);
+            CoreImage glowOutput = glowFilter.copy().filter(input);
+            CoreImage expected = new Superimpose(glowOutput, 5, 2).filter(shadowOutput);
+            assertSameImage(expected, graph.getOutput());
+            assertEquals(2, graph.getBufferCount());
+
+            // Change the glow (and its size)
+            glowFilter.amount.set(0.5 + frame);
+            glowFilter.radius.set(4 + frame * 4);
+            graph.update(1000);
+        }
+
+        // Two equal glows on outputs that reuse the same buffer
+        FilterGraph glows = new FilterGraph();
+        int sepia = glows.add(new Sepia(), FilterGraph.INPUT);
+        int sepiaGlow = glows.add(new Glow(0.5, 3), sepia);
+        int negative = glows.add(new Negative(), FilterGraph.INPUT);
+        int negativeGlow = glows.add(new Glow(0.5, 3), negative);
+        glows.add(new Superimpose(null, 0, 0), sepiaGlow, negativeGlow);
+        glows.setInput(input);
+        CoreImage sepiaOutput = new Glow(0.5, 3).filter(new Sepia().filter(input));
+        CoreImage negativeOutput = new Glow(0.5, 3).filter(new Negative().filter(input));
+        CoreImage expected = new Superimpose(negativeOutput, 0, 0).filter(sepiaOutput);
+        assertSameImage(expected, glows.getOutput());
+    }
+
+    @Test public void filterStats() {
+        CoreImage input = createRandomImage(40, 30, false);
+        Sepia sepia = new Sepia();
+        Blur blur = new Blur(2);
+        FilterChain chain = new FilterChain(sepia, new Negative(), blur);
+        chain.setInput(input);
+        FilterStats.nextFrame();
+        chain.getOutput();
+
+        FilterStats stats = blur.getStats();
+        assertEquals(1, stats.getCount());
+        assertEquals(blur.getWidth() * blur.getHeight(), stats.getPixels());
+        assertEquals(blur.getWidth() * blur.getHeight() * 4, stats.getOutputBytes());
+        assertEquals(1, sepia.getStats().getCount());
+        assertEquals(1, chain.getStats().getCount());
+        assertTrue("Chain time doesn't include its filters",
+            chain.getStats().getTotalNanos() >= stats.getTotalNanos());
+
+        // Last frame
+        assertEquals(0, stats.getLastFrameNanos());
+        FilterStats.nextFrame();
+        assertEquals(stats.getTotalNanos(), stats.getLastFrameNanos());
+        FilterStats.nextFrame();
+        assertEquals(0, stats.getLastFrameNanos());
+
+        // Class stats don't include chains
+        FilterStats[] classStats = FilterStats.getClassStats();
+        boolean foundBlur = false;
+        for (int i = 0; i < classStats.length; i++) {
+            assertTrue("Chain in class stats", !classStats[i].getName().equals("FilterChain"));
+            if (classStats[i].getName().equals("Blur")) {
+                foundBlur = true;
+                assertTrue(classStats[i].getCount() >= 1);
+            }
+        }
+        assertTrue("Blur not in class stats", foundBlur);
+    }
+
+    @Test public void colorTables() {
+        for (int a = 1; a < 256; a++) {
+            for (int c = 0; c <= a; c++) {
+                int argb = (a << 24) | (c << 16) | (c << 8) | c;
+                assertEquals("Wrong unpremultiply", 255 * c / a,
+                    Colors.unpremultiply(argb) & 0xff);
+            }
+        }
+
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                int expected = (a == 0) ? 0 : (a << 24) | (((a * c + 127) / 255) * 0x010101);
+                assertEquals("Wrong premultiply", expected,
+                    Colors.premultiply((a << 24) | (c * 0x010101)));
+                assertEquals("Wrong premultiply", expected,
+                    Colors.premultiply(c * 0x010101, a));
+            }
+        }
+
+        // HSBAdjust gives the same results as the HSB math
+        int[] offsets = { 0, 0, 0,  30, 20, -10,  -100, 80, 40,  0, 150, 0 };
+        CoreImage input = new CoreImage(64, 64, false);
+        int[] data = input.getData();
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Colors.premultiply(random.nextInt() | 0xff000000, random.nextInt(256));
+        }
+        for (int i = 0; i < offsets.length; i += 3) {
+            HSBAdjust filter = new HSBAdjust(offsets[i], offsets[i + 1], offsets[i + 2]);
+            filter.update(0);
+            int[] outputData = filter.filter(input).getData();
+            for (int j = 0; j < data.length; j++) {
+                int a = data[j] >>> 24;
+                int hsb = Colors.RGBtoHSB(Colors.unpremultiply(data[j]) | 0xff000000);
+                int h = Math.max(0, Math.min(255, ((hsb >> 16) & 0xff) + offsets[i]));
+                int s = Math.max(0, Math.min(255, ((hsb >> 8) & 0xff) + offsets[i + 1]));
+                int b = Math.max(0, Math.min(255, (hsb & 0xff) + offsets[i + 2]));
+                int expected = (a == 0) ? 0 : Colors.premultiply(Colors.hsba(h, s, b, a));
+                assertEquals("Wrong HSBAdjust color", expected, outputData[j]);
+            }
+        }
+    }
+
+    @Test public void strokeDistanceTransform() {
+        // Large strokes are drawn with a distance transform. Compare with brute force.
+        int size = 9;
+        int outerEdge = size + 1;
+        CoreImage input = new CoreImage(50, 40, false);
+        int[] data = input.getData();
+        for (int i = 0; i < 12; i++) {
+            data[random.nextInt(data.length)] = Colors.premultiply(random.nextInt(),
+                1 + random.nextInt(255));
+        }
+        CoreImage output = new Stroke(0xff00ff00, size).filter(input);
+        int[] outputData = output.getData();
+        for (int y = 0; y < output.getHeight(); y++) {
+            for (int x = 0; x < output.getWidth(); x++) {
+                int srcX = x - size;
+                int srcY = y - size;
+                if (input.getWidth() > srcX && srcX >= 0 && input.getHeight() > srcY &&
+                    srcY >= 0 && data[srcX + srcY * input.getWidth()] != 0)
+                {
+                    // The input is drawn on top
+                    continue;
+                }
+                int minDistance = Integer.MAX_VALUE;
+                for (int i = 0; i < data.length; i++) {
+                    if (data[i] != 0) {
+                        int dx = srcX - i % input.getWidth();
+                        int dy = srcY - i / input.getWidth();
+                        minDistance = Math.min(minDistance, dx * dx + dy * dy);
+                    }
+                }
+                double coverage = Math.min(1, outerEdge - Math.sqrt(minDistance));
+                int expected = (coverage <= 0) ? 0 : (int)Math.round(coverage * 255);
+                assertEquals("Wrong stroke alpha at " + x + "," + y, expected,
+                    outputData[x + y * output.getWidth()] >>> 24);
+            }
+        }
+    }
+
+    @Test public void dirtyRegion() {
+        Filter[] filters = {
+            new Grayscale(),
+            new Blur(2.5f),
+            new Blur(3, 2),
+            new Glow(0.8, 3),
+            new DropShadow(-4, 5),
+            new MotionBlur(0.7f, 6),
+            new Stroke(0x80ff0000, 3),
+            new FilterChain(new Sepia(), new Blur(2), new Negative()),
+        };
+        for (int i = 0; i < filters.length; i++) {
+            Filter filter = filters[i];
+            CoreImage input = createRandomImage(120, 90, false);
+            filter.setInput(input);
+            filter.getOutput();
+            for (int n = 0; n < 5; n++) {
+                // Change a small region, sometimes at the edge
+                int w = 1 + random.nextInt(12);
+                int h = 1 + random.nextInt(12);
+                int x = (n == 0) ? 0 : random.nextInt(input.getWidth() - w + 1);
+                int y = (n == 1) ? input.getHeight() - h : random.nextInt(input.getHeight() - h + 1);
+                int[] data = input.getData();
+                for (int j = y; j < y + h; j++) {
+                    for (int k = x; k < x + w; k++) {
+                        data[j * input.getWidth() + k] = Colors.premultiply(random.nextInt(),
+                            random.nextInt(256));
+                    }
+                }
+                filter.setDirty(x, y, w, h);
+                assertSameImage(filter.copy().filter(input), filter.getOutput());
+            }
+        }
+    }
+
+    @Test public void incrementalGroupFilter() {
+        Scene2D scene = new Scene2D();
+        HeadlessApp app = new HeadlessApp(scene);
+        scene.load();
+        scene.showNotify();
+
+        // Two identical groups. The reference group is redrawn and filtered in full every frame.
+        random.setSeed(1);
+        Group incremental = createFilteredGroup();
+        random.setSeed(1);
+        Group reference = createFilteredGroup();
+        scene.add(incremental);
+        scene.add(reference);
+
+        for (int frame = 0; frame < 12; frame++) {
+            random.setSeed(frame);
+            modify(incremental, frame);
+            random.setSeed(frame);
+            modify(reference, frame);
+            reference.setDirty(true);
+
+            CoreGraphics g = app.getSurface().getGraphics();
+            g.reset();
+            scene.updateScene(0);
+            scene.drawScene(g);
+            assertSameImage(reference.getFilter().getOutput(), incremental.getFilter().getOutput());
+        }
+    }
+
+    private Group createFilteredGroup() {
+        Group group = new Group(0, 0, 160, 120);
+        for (int i = 0; i < 20; i++) {
+            Group parent = group;
+            if (i % 5 == 4) {
+                // A nested group without a back buffer
+                parent = new Group(random.nextInt(40), random.nextInt(40));
+                group.add(parent);
+            }
+            parent.add(new FilledSprite(random.nextInt(150), random.nextInt(110),
+                1 + random.nextInt(30), 1 + random.nextInt(30),
+                Colors.rgba(random.nextInt(), random.nextInt(256))));
+        }
+        group.setFilter(new FilterChain(new Blur(3), new Grayscale()));
+        return group;
+    }
+
+    private void modify(Group group, int frame) {
+        if (frame % 4 == 3) {
+            // Nothing changes
+            return;
+        }
+        group.get(random.nextInt(group.size())).translate(random.nextInt(9) - 4,
+            random.nextInt(9) - 4);
+        Group nested = null;
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i) instanceof Group) {
+                nested = (Group)group.get(i);
+            }
+        }
+        if (frame == 2) {
+            nested.translate(3, -2);
+        }
+        else if (frame == 5) {
+            group.remove(group.get(random.nextInt(group.size())));
+        }
+        else if (frame == 6) {
+            nested.add(new FilledSprite(random.nextInt(40), random.nextInt(40), 10, 10,
+                Colors.RED));
+        }
+        else if (frame == 8) {
+            group.get(random.nextInt(group.size())).visible.set(false);
+        }
+        else if (frame == 9 && group.get(0) instanceof FilledSprite) {
+            ((FilledSprite)group.get(0)).fillColor.set(Colors.BLUE);
+        }
+    }
+
+    private Filter[] createRandomFilters(int count) {
+        Filter[] filters = new Filter[count];
+        for (int i = 0; i < count; i++) {
+            switch (random.nextInt(8)) {
+                case 0: filters[i] = new Grayscale(); break;
+                case 1: filters[i] = new Sepia(); break;
+                case 2: filters[i] = new Negative(); break;
+                case 3: filters[i] = new Thermal(); break;
+                case 4: filters[i] = new Blur(1 + random.nextInt(3)); break;
+                case 5: filters[i] = new ColorOverlay(random.nextInt(),
+                    random.nextBoolean() ? 255 : random.nextInt(256)); break;
+                default: filters[i] = new HSBAdjust(random.nextInt(511) - 255,
+                    random.nextInt(511) - 255, random.nextInt(511) - 255); break;
+            }
+        }
+        return filters;
+    }
+
+    private CoreImage createRandomImage(int width, int height, boolean opaque) {
+        CoreImage image = new CoreImage(width, height, opaque);
+        int[] data = image.getData();
+        int color = 0;
+        for (int i = 0; i < data.length; i++) {
+            // Runs of the same color
+            if (random.nextInt(4) == 0) {
+                int a = opaque ? 0xff : random.nextInt(256);
+                color = Colors.premultiply(random.nextInt(0x1000000), a);
+            }
+            data[i] = color;
+        }
+        return image;
+    }
+
+    private void assertSameImage(CoreImage expected, CoreImage actual) {
+        assertEquals("Wrong width", expected.getWidth(), actual.getWidth());
+        assertEquals("Wrong height", expected.getHeight(), actual.getHeight());
+        assertEquals("Wrong opacity", expected.isOpaque(), actual.isOpaque());
+        assertTrue("Wrong pixels", Arrays.equals(expected.getData(), actual.getData()));
+    }
+}
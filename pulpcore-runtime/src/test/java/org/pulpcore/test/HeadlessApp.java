@@ -5,6 +5,8 @@ import java.awt.MediaTracker;
 import java.awt.Toolkit;
 import java.awt.image.PixelGrabber;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import pulpcore.CoreSystem;
@@ -34,7 +36,7 @@ public class HeadlessApp extends AppContext implements Platform {
         }
 
         public long show(Rect[] dirtyRectangles, int numDirtyRectangles) {
-            // Do nothing
+            contentsLost = false;
             return 0;
         }
     }
@@ -57,6 +59,19 @@ public class HeadlessApp extends AppContext implements Platform {
         return surface.getOutput();
     }
 
+    /**
+        Writes the Stage's frame profile as CSV.
+    */
+    public void writeFrameProfile(File file) throws IOException {
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write(stage.getFrameProfiler().toCSV());
+        }
+        finally {
+            out.close();
+        }
+    }
+
     @Override
     public void print(String statement) {
         // Do nothing
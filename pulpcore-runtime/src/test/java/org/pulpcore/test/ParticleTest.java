@@ -0,0 +1,118 @@
+package org.pulpcore.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.CoreImage;
+import pulpcore.math.CoreMath;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.ParticleEmitter;
+import static org.junit.Assert.*;
+
+/**
+    Tests batched image drawing and the ParticleEmitter simulation.
+*/
+public class ParticleTest {
+
+    private final Random random = new Random(4321);
+
+    public ParticleTest() {
+        // Sprite transforms need a Stage
+        new HeadlessApp(new Scene2D());
+    }
+
+    @Test public void drawImageBatch() {
+        CoreImage[] images = new CoreImage[3];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new CoreImage(2 + random.nextInt(12), 2 + random.nextInt(12), false);
+            int[] data = images[i].getData();
+            for (int j = 0; j < data.length; j++) {
+                data[j] = 0xff000000 | random.nextInt(0x1000000);
+            }
+        }
+        int count = 500;
+        int[] imageIndices = new int[count];
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] scale = new float[count];
+        float[] angle = new float[count];
+        int[] alpha = new int[count];
+        for (int i = 0; i < count; i++) {
+            imageIndices[i] = random.nextInt(images.length);
+            x[i] = random.nextFloat() * 240 - 20;
+            y[i] = random.nextFloat() * 240 - 20;
+            scale[i] = 0.5f + random.nextFloat() * 2;
+            angle[i] = (random.nextInt(4) == 0) ? 0 : random.nextFloat() * 6;
+            alpha[i] = random.nextInt(256);
+        }
+
+        CoreImage expected = new CoreImage(200, 200, true);
+        CoreGraphics g = expected.createGraphics();
+        g.setClip(10, 20, 150, 160);
+        g.setAlpha(200);
+        for (int i = 0; i < count; i++) {
+            CoreImage image = images[imageIndices[i]];
+            float w = image.getWidth() * scale[i];
+            float h = image.getHeight() * scale[i];
+            g.setAlpha((alpha[i] * 200 + 127) / 255);
+            g.pushTransform();
+            g.getTransform().translate(CoreMath.toFixed(x[i]),
+                CoreMath.toFixed(y[i]));
+            if (angle[i] != 0) {
+                g.getTransform().rotate(CoreMath.toFixed(Math.cos(angle[i])),
+                    CoreMath.toFixed(Math.sin(angle[i])));
+            }
+            g.getTransform().scale(CoreMath.toFixed(scale[i]),
+                CoreMath.toFixed(scale[i]));
+            g.getTransform().translate(-CoreMath.toFixed(image.getWidth()) / 2,
+                -CoreMath.toFixed(image.getHeight()) / 2);
+            g.drawImage(image);
+            g.popTransform();
+        }
+
+        CoreImage actual = new CoreImage(200, 200, true);
+        g = actual.createGraphics();
+        g.setClip(10, 20, 150, 160);
+        g.setAlpha(200);
+        g.drawImageBatch(images, imageIndices, x, y, scale, angle, alpha, count);
+        assertEquals("Alpha not restored", 200, g.getAlpha());
+        assertTrue("Batch differs from individual draws",
+            Arrays.equals(expected.getData(), actual.getData()));
+    }
+
+    @Test public void particleLife() {
+        ParticleEmitter sequential = createEmitter(false);
+        ParticleEmitter parallel = createEmitter(true);
+        assertEquals(10000, sequential.getNumParticles());
+        assertEquals(10000, parallel.getNumParticles());
+
+        // All particles live from 100 to 300 ms
+        for (int i = 0; i < 20; i++) {
+            sequential.update(10);
+            parallel.update(10);
+            if (i < 9) {
+                assertEquals(10000, sequential.getNumParticles());
+                assertEquals(10000, parallel.getNumParticles());
+            }
+        }
+        assertTrue(sequential.getNumParticles() > 0);
+        assertTrue(parallel.getNumParticles() > 0);
+        for (int i = 0; i < 10; i++) {
+            sequential.update(10);
+            parallel.update(10);
+        }
+        assertEquals(0, sequential.getNumParticles());
+        assertEquals(0, parallel.getNumParticles());
+    }
+
+    private ParticleEmitter createEmitter(boolean parallel) {
+        ParticleEmitter emitter = new ParticleEmitter(new CoreImage(4, 4, false),
+            0, 0, 100, 100, 10000);
+        emitter.setLife(100, 300);
+        emitter.setGravity(0, 100);
+        emitter.setParallelUpdateEnabled(parallel);
+        emitter.emit(50, 50, 20000);
+        return emitter;
+    }
+}
@@ -0,0 +1,114 @@
+package org.pulpcore.test;
+
+import java.util.Random;
+import org.junit.Test;
+import pulpcore.image.CoreImage;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.FilledSprite;
+import pulpcore.sprite.Group;
+import pulpcore.sprite.ImageSprite;
+import pulpcore.sprite.Sprite;
+import static org.junit.Assert.*;
+
+/**
+    Tests that Groups with a pick cache return the same picks as Groups without one.
+*/
+public class PickTest {
+
+    private final Random random = new Random(5678);
+
+    public PickTest() {
+        // Sprite transforms need a Stage
+        new HeadlessApp(new Scene2D());
+    }
+
+    @Test public void pickCache() {
+        // Create two identical trees
+        random.setSeed(1);
+        Group cached = createRandomTree(0);
+        random.setSeed(1);
+        Group uncached = createRandomTree(0);
+        setPickCacheEnabled(cached);
+
+        for (int frame = 0; frame < 5; frame++) {
+            for (int i = 0; i < 2000; i++) {
+                int x = random.nextInt(800) - 100;
+                int y = random.nextInt(600) - 100;
+                assertSamePick(uncached.pick(x, y), cached.pick(x, y));
+                assertSamePick(uncached.pickEnabledAndVisible(x, y),
+                    cached.pickEnabledAndVisible(x, y));
+            }
+
+            // Move, hide, and remove some sprites in both trees
+            int dx = random.nextInt(200) - 100;
+            int dy = random.nextInt(200) - 100;
+            modify(cached, dx, dy, frame);
+            modify(uncached, dx, dy, frame);
+        }
+    }
+
+    private void assertSamePick(Sprite expected, Sprite actual) {
+        if (expected == null || actual == null) {
+            assertTrue("Wrong pick", expected == actual);
+        }
+        else {
+            assertEquals("Wrong pick", expected.getTag(), actual.getTag());
+        }
+    }
+
+    private Group createRandomTree(int depth) {
+        Group group = new Group(random.nextInt(100), random.nextInt(100));
+        int numChildren = (depth == 0) ? 100 : 10 + random.nextInt(40);
+        for (int i = 0; i < numChildren; i++) {
+            Sprite sprite;
+            if (depth < 2 && random.nextInt(10) == 0) {
+                sprite = createRandomTree(depth + 1);
+            }
+            else if (random.nextBoolean()) {
+                CoreImage image = new CoreImage(1 + random.nextInt(40), 1 + random.nextInt(40),
+                    false);
+                int[] data = image.getData();
+                for (int j = 0; j < data.length; j += 2) {
+                    data[j] = 0xff000000;
+                }
+                sprite = new ImageSprite(image, random.nextInt(600), random.nextInt(400));
+            }
+            else {
+                sprite = new FilledSprite(random.nextInt(600), random.nextInt(400),
+                    1 + random.nextInt(60), 1 + random.nextInt(60), 0xff000000);
+            }
+            if (random.nextInt(4) == 0) {
+                sprite.angle.set(random.nextDouble() * Math.PI);
+            }
+            if (random.nextInt(8) == 0) {
+                sprite.visible.set(false);
+            }
+            sprite.setTag(new Integer(random.nextInt()));
+            group.add(sprite);
+        }
+        return group;
+    }
+
+    private void setPickCacheEnabled(Group group) {
+        group.setPickCacheEnabled(true);
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i) instanceof Group) {
+                setPickCacheEnabled((Group)group.get(i));
+            }
+        }
+    }
+
+    private void modify(Group group, int dx, int dy, int frame) {
+        for (int i = frame % 3; i < group.size(); i += 3) {
+            Sprite sprite = group.get(i);
+            sprite.translate(dx, dy);
+            if (sprite instanceof Group) {
+                modify((Group)sprite, dy, dx, frame);
+            }
+            else if (i % 2 == 0) {
+                sprite.visible.set(!sprite.visible.get());
+            }
+        }
+        group.remove(group.get(frame));
+    }
+}
@@ -0,0 +1,284 @@
+package org.pulpcore.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import pulpcore.FrameProfiler;
+import pulpcore.QualityGovernor;
+import pulpcore.Stage;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.Colors;
+import pulpcore.image.CoreImage;
+import pulpcore.image.filter.Blur;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.FilledSprite;
+import pulpcore.sprite.ParticleEmitter;
+import static org.junit.Assert.*;
+
+/**
+    Tests running a Stage's animation loop on a headless surface.
+*/
+public class StageTest {
+
+    @Test public void frameProfiler() throws IOException, InterruptedException {
+        HeadlessApp app = new HeadlessApp(new Scene2D());
+        Stage stage = app.getStage();
+        FrameProfiler profiler = Stage.getFrameProfiler();
+        profiler.setCapacity(8);
+        stage.start();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (profiler.getFrameCount() < 12 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+        }
+        stage.stop();
+        assertTrue("Too few frames", profiler.getFrameCount() >= 12);
+        assertEquals(8, profiler.getNumFrames());
+
+        for (int phase = 0; phase < FrameProfiler.NUM_PHASES; phase++) {
+            long p50 = profiler.getPercentile(phase, 50);
+            long p95 = profiler.getPercentile(phase, 95);
+            long p99 = profiler.getPercentile(phase, 99);
+            assertTrue(p50 >= 0 && p50 <= p95 && p95 <= p99 && p99 <= profiler.getMax(phase));
+        }
+        // At the default frame rate, most of the frame is spent sleeping
+        assertTrue(profiler.getPercentile(FrameProfiler.TOTAL, 50) >
+            profiler.getPercentile(FrameProfiler.SLEEP, 50));
+        assertTrue(profiler.getPercentile(FrameProfiler.TOTAL, 50) > 1000000);
+
+        File file = File.createTempFile("frames", ".csv");
+        file.deleteOnExit();
+        app.writeFrameProfile(file);
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        assertEquals("frame,input,events,update,draw,sound,show,sleep,total", in.readLine());
+        long lastFrame = -1;
+        int lines = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] values = line.split(",");
+            assertEquals(FrameProfiler.NUM_PHASES + 1, values.length);
+            long frame = Long.parseLong(values[0]);
+            assertTrue("Frames out of order", frame > lastFrame);
+            lastFrame = frame;
+            long sum = 0;
+            for (int i = 1; i < FrameProfiler.NUM_PHASES; i++) {
+                sum += Long.parseLong(values[i]);
+            }
+            long total = Long.parseLong(values[FrameProfiler.NUM_PHASES]);
+            assertTrue("Phases longer than frame", sum <= total);
+            lines++;
+        }
+        in.close();
+        assertEquals(8, lines);
+        assertEquals(profiler.getFrameCount() - 1, lastFrame);
+    }
+
+    @Test public void fixedUpdateRate() throws InterruptedException {
+        final List updates = new ArrayList(); // List<Integer>
+        final List alphas = new ArrayList(); // List<Double>
+        Scene2D scene = new Scene2D() {
+            public void update(int elapsedTime) {
+                updates.add(new Integer(elapsedTime));
+            }
+
+            public void drawScene(CoreGraphics g) {
+                super.drawScene(g);
+                alphas.add(new Double(Stage.getInterpolationAlpha()));
+            }
+        };
+        HeadlessApp app = new HeadlessApp(scene);
+        Stage stage = app.getStage();
+        Stage.setFixedUpdateRate(120, 1000);
+        assertEquals(120, Stage.getFixedUpdateRate());
+        stage.start();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (Stage.getFrameProfiler().getFrameCount() < 20 &&
+            System.currentTimeMillis() < timeout)
+        {
+            Thread.sleep(20);
+        }
+        stage.stop();
+
+        // Steps are 8, 8, and 9 ms, in that order. Frames without a step get 0.
+        int step = 0;
+        for (int i = 0; i < updates.size(); i++) {
+            int elapsedTime = ((Integer)updates.get(i)).intValue();
+            if (elapsedTime != 0) {
+                int expected = (step + 1) * 1000 / 120 - step * 1000 / 120;
+                assertEquals("Wrong step time", expected, elapsedTime);
+                step++;
+            }
+        }
+        assertTrue("Too few steps", step >= 20);
+        for (int i = 0; i < alphas.size(); i++) {
+            double alpha = ((Double)alphas.get(i)).doubleValue();
+            assertTrue("Alpha out of range: " + alpha, alpha >= 0 && alpha < 1);
+        }
+    }
+
+    @Test public void qualityGovernor() {
+        new HeadlessApp(new Scene2D());
+        QualityGovernor governor = Stage.getQualityGovernor();
+        final List changes = new ArrayList(); // List<String>
+        governor.addListener(new QualityGovernor.Listener() {
+            public void qualityChanged(int oldLevel, int newLevel) {
+                changes.add(oldLevel + "->" + newLevel);
+            }
+        });
+        ParticleEmitter emitter = new ParticleEmitter(new CoreImage(1, 1), 0, 0, 10, 10, 100);
+        emitter.emit(0, 0, 80);
+        governor.setDelays(10, 40);
+        governor.addStep(QualityGovernor.blurQuality(1));
+        governor.addStep(QualityGovernor.limitParticles(emitter, 20));
+        long budget = 16000000;
+
+        // No changes while frames fit in the budget, and none between the thresholds
+        for (int i = 0; i < 100; i++) {
+            governor.addFrame(budget / 2, budget);
+        }
+        for (int i = 0; i < 100; i++) {
+            governor.addFrame(budget * 3 / 4, budget);
+        }
+        assertEquals(0, governor.getLevel());
+
+        // Overloaded: one step after 10 frames, the next after 10 more
+        for (int i = 0; i < 25; i++) {
+            governor.addFrame(budget * 2, budget);
+        }
+        assertEquals(2, governor.getLevel());
+        assertEquals(1, Blur.getMaxQuality());
+        assertEquals(20, emitter.getParticleLimit());
+        assertEquals(20, emitter.getNumParticles());
+
+        // Headroom: quality returns, more slowly
+        for (int i = 0; i < 60; i++) {
+            governor.addFrame(budget / 4, budget);
+        }
+        assertEquals(1, governor.getLevel());
+        assertEquals(100, emitter.getParticleLimit());
+        for (int i = 0; i < 40; i++) {
+            governor.addFrame(budget / 4, budget);
+        }
+        assertEquals(0, governor.getLevel());
+        assertEquals(15, Blur.getMaxQuality());
+        assertEquals("[0->1, 1->2, 2->1, 1->0]", changes.toString());
+    }
+
+    @Test public void qualityGovernorWithoutProfiler() throws InterruptedException {
+        final int[] updates = new int[1];
+        Scene2D scene = new Scene2D() {
+            public void update(int elapsedTime) {
+                updates[0]++;
+                try {
+                    // Longer than the frame rate allows
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException ex) { }
+            }
+        };
+        HeadlessApp app = new HeadlessApp(scene);
+        Stage stage = app.getStage();
+        Stage.getFrameProfiler().setEnabled(false);
+        QualityGovernor governor = Stage.getQualityGovernor();
+        final List changes = new ArrayList(); // List<String>
+        governor.setDelays(3, 1000);
+        governor.addStep(new QualityGovernor.Step() {
+            public void apply() {
+                changes.add("apply");
+            }
+
+            public void revert() {
+                changes.add("revert");
+            }
+        });
+        stage.start();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (governor.getLevel() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20);
+        }
+        stage.stop();
+        assertTrue("Too few frames", updates[0] >= 3);
+        assertEquals(0, Stage.getFrameProfiler().getFrameCount());
+        assertEquals(1, governor.getLevel());
+        assertEquals("[apply]", changes.toString());
+    }
+
+    @Test public void renderScale() throws InterruptedException {
+        int blue = Colors.BLUE;
+        int red = Colors.RED;
+        int black = Colors.BLACK;
+        
+        // Stretched to fill the surface
+        CoreImage output = renderAtHalfScale(Stage.AUTO_STRETCH);
+        // Scene coordinates are unchanged
+        assertEquals(320, Stage.getWidth());
+        assertEquals(240, Stage.getHeight());
+        assertEquals(640, output.getWidth());
+        assertEquals(blue, output.getARGB(10, 10));
+        assertEquals(blue, output.getARGB(310, 470));
+        assertEquals(red, output.getARGB(330, 10));
+        assertEquals(red, output.getARGB(630, 470));
+        
+        // Centered at natural size
+        output = renderAtHalfScale(Stage.AUTO_CENTER);
+        assertEquals(black, output.getARGB(10, 10));
+        assertEquals(black, output.getARGB(630, 470));
+        assertEquals(blue, output.getARGB(170, 130));
+        assertEquals(blue, output.getARGB(310, 350));
+        assertEquals(red, output.getARGB(330, 130));
+        assertEquals(red, output.getARGB(470, 350));
+        assertEquals(black, output.getARGB(490, 130));
+        assertEquals(black, output.getARGB(330, 370));
+        
+        // Not scaled; the Scene is the size of the surface
+        output = renderAtHalfScale(Stage.AUTO_OFF);
+        assertEquals(640, Stage.getWidth());
+        assertEquals(blue, output.getARGB(10, 10));
+        assertEquals(red, output.getARGB(170, 10));
+        assertEquals(red, output.getARGB(310, 230));
+        assertEquals(blue, output.getARGB(330, 10));
+        assertEquals(blue, output.getARGB(170, 250));
+        assertEquals(blue, output.getARGB(630, 470));
+    }
+    
+    /**
+        Draws a 320x240 Scene on a 640x480 surface at render scale 0.5. The Scene has a blue
+        background, and a red 160x240 sprite that moves from x=0 to x=160.
+    */
+    private CoreImage renderAtHalfScale(int autoScaleType) throws InterruptedException {
+        final FilledSprite sprite = new FilledSprite(0, 0, 160, 240, Colors.RED);
+        Scene2D scene = new Scene2D() {
+            private int frames = 0;
+
+            public void load() {
+                add(new FilledSprite(Colors.BLUE));
+                add(sprite);
+            }
+
+            public void update(int elapsedTime) {
+                // Move after the first full redraws, so the move is drawn with dirty rectangles
+                if (++frames == 5) {
+                    sprite.x.set(160);
+                }
+            }
+        };
+        HeadlessApp app = new HeadlessApp(scene);
+        Stage stage = app.getStage();
+        Stage.setAutoScale(320, 240, autoScaleType);
+        Stage.setRenderScale(0.5f);
+        assertEquals(0.5f, Stage.getRenderScale(), 0);
+        
+        stage.start();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (Stage.getFrameProfiler().getFrameCount() < 10 &&
+            System.currentTimeMillis() < timeout)
+        {
+            Thread.sleep(20);
+        }
+        stage.stop();
+        return app.getOutput();
+    }
+}
@@ -0,0 +1,130 @@
+package org.pulpcore.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import pulpcore.image.CoreGraphics;
+import pulpcore.image.CoreImage;
+import pulpcore.scene.Scene2D;
+import pulpcore.sprite.TileMapSprite;
+import static org.junit.Assert.*;
+
+/**
+    Tests that a TileMapSprite draws the same pixels as drawing each tile.
+*/
+public class TileMapTest {
+
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+
+    private final Random random = new Random(2468);
+
+    public TileMapTest() {
+        // Sprite transforms need a Stage
+        new HeadlessApp(new Scene2D());
+    }
+
+    @Test public void tileMapChunks() {
+        // Tile images, some larger than a tile and some translucent
+        CoreImage[] tileImages = new CoreImage[4];
+        for (int i = 0; i < tileImages.length; i++) {
+            boolean opaque = (i < 2);
+            tileImages[i] = new CoreImage(16 + (i == 3 ? 10 : 0), 12 + (i >= 2 ? 20 : 0),
+                opaque);
+            int[] data = tileImages[i].getData();
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (opaque ? 0xff000000 : (random.nextInt(256) << 24)) |
+                    random.nextInt(0x1000000);
+            }
+        }
+        int across = 300;
+        int down = 200;
+        TileMapSprite sprite = new TileMapSprite(tileImages, across, down, 16, 12,
+            0, 0, WIDTH, HEIGHT);
+        sprite.setChunkSize(5, 4);
+        int[] tiles = new int[across * down];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = random.nextInt(tileImages.length + 1) - 1;
+        }
+        sprite.setTiles(tiles);
+
+        for (int frame = 0; frame < 20; frame++) {
+            if (frame > 0) {
+                // Scroll, and change a few tiles
+                sprite.viewX.set(sprite.viewX.get() - random.nextInt(40) + 5);
+                sprite.viewY.set(sprite.viewY.get() - random.nextInt(30) + 5);
+                for (int i = 0; i < 10; i++) {
+                    int column = sprite.getTileColumn(random.nextInt(WIDTH));
+                    int row = sprite.getTileRow(random.nextInt(HEIGHT));
+                    if (column >= 0 && row >= 0 && column < across && row < down) {
+                        int tile = random.nextInt(tileImages.length + 1) - 1;
+                        tiles[column + row * across] = tile;
+                        sprite.setTile(column, row, tile);
+                    }
+                }
+            }
+            sprite.update(16);
+
+            CoreImage expected = new CoreImage(WIDTH, HEIGHT, false);
+            CoreGraphics g = expected.createGraphics();
+            int vx = sprite.viewX.get();
+            int vy = sprite.viewY.get();
+            for (int row = 0; row < down; row++) {
+                for (int column = 0; column < across; column++) {
+                    int tile = tiles[column + row * across];
+                    int x = vx + column * 16;
+                    int y = vy + row * 12;
+                    if (tile >= 0 && x > -32 && y > -32 && x < WIDTH && y < HEIGHT) {
+                        g.drawImage(tileImages[tile], x, y);
+                    }
+                }
+            }
+
+            CoreImage actual = new CoreImage(WIDTH, HEIGHT, false);
+            sprite.draw(actual.createGraphics());
+            assertTrue("Wrong pixels at frame " + frame,
+                Arrays.equals(expected.getData(), actual.getData()));
+            assertTrue("Too many chunks", sprite.getNumCachedChunks() <= 30);
+        }
+    }
+
+    @Test public void oversizedTilesOnLastRow() {
+        // Like the TileMap example: tile images taller and wider than their cells
+        CoreImage tileImage = new CoreImage(20, 30, false);
+        int[] data = tileImage.getData();
+        for (int j = 0; j < data.length; j++) {
+            data[j] = (random.nextInt(256) << 24) | random.nextInt(0x1000000);
+        }
+        int across = 7;
+        int down = 5;
+        TileMapSprite sprite = new TileMapSprite(new CoreImage[] { tileImage }, across, down,
+            16, 12, 0, 0, WIDTH, HEIGHT);
+        sprite.setChunkSize(3, 2);
+        int[] tiles = new int[across * down];
+        sprite.setTiles(tiles);
+
+        // The map, the overflow past its last row and column, and only the overflow
+        int mapWidth = sprite.getMapWidth();
+        int mapHeight = sprite.getMapHeight();
+        int[][] views = { { 0, 0 }, { WIDTH - mapWidth - 10, HEIGHT - mapHeight - 25 },
+            { -mapWidth, -mapHeight }, { -mapWidth - 2, 0 }, { 0, -mapHeight - 15 } };
+        for (int i = 0; i < views.length; i++) {
+            sprite.viewX.set(views[i][0]);
+            sprite.viewY.set(views[i][1]);
+            sprite.update(16);
+
+            CoreImage expected = new CoreImage(WIDTH, HEIGHT, false);
+            CoreGraphics g = expected.createGraphics();
+            for (int row = 0; row < down; row++) {
+                for (int column = 0; column < across; column++) {
+                    g.drawImage(tileImage, views[i][0] + column * 16, views[i][1] + row * 12);
+                }
+            }
+
+            CoreImage actual = new CoreImage(WIDTH, HEIGHT, false);
+            sprite.draw(actual.createGraphics());
+            assertTrue("Wrong pixels at view " + i,
+                Arrays.equals(expected.getData(), actual.getData()));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.pulpcore.test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+import pulpcore.platform.WorkerPool;
+import static org.junit.Assert.*;
+
+public class WorkerPoolTest {
+
+    @Test(timeout=20000) public void allSizes() {
+        int[] parallelisms = { 2, 3, 4, 7, 8, 16 };
+        for (int p = 0; p < parallelisms.length; p++) {
+            WorkerPool pool = new WorkerPool(null, parallelisms[p]);
+            try {
+                for (int grain = 1; grain <= 3; grain++) {
+                    for (int size = 1; size <= 64; size++) {
+                        final AtomicIntegerArray counts = new AtomicIntegerArray(size);
+                        pool.invoke(size, grain, new WorkerPool.Task() {
+                            public void run(int start, int end) {
+                                for (int i = start; i < end; i++) {
+                                    counts.incrementAndGet(i);
+                                }
+                            }
+                        });
+                        for (int i = 0; i < size; i++) {
+                            assertEquals("parallelism " + parallelisms[p] + ", size " + size +
+                                ", index " + i, 1, counts.get(i));
+                        }
+                    }
+                }
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
+}